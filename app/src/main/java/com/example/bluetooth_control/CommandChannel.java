@@ -0,0 +1,280 @@
+package com.example.bluetooth_control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipelined sender for {@link CommandProtocol} frames.
+ *
+ * Up to {@code window} commands may be unacknowledged at once. Each one is retransmitted with
+ * the same sequence number when its ack does not arrive in time, and fails after the
+ * configured number of retries. A sequence number is only reused once its previous command
+ * has completed, and closing the channel fails whatever is still pending.
+ */
+public class CommandChannel implements CommandProtocol.FrameListener {
+
+    public interface Callback {
+        void onAck(int seq, long roundTripNanos);
+
+        void onFailure(int seq, Exception e);
+    }
+
+    private static final int SEQ_SPACE = 256;
+
+    private final OutputStream outputStream;
+    private final int window;
+    private final long timeoutNanos;
+    private final int maxRetries;
+
+    private final Semaphore permits;
+    private final Pending[] pending = new Pending[SEQ_SPACE];
+    private final byte[] writeBuffer = new byte[CommandProtocol.MAX_FRAME_LENGTH];
+    private final CommandProtocol.Decoder decoder = new CommandProtocol.Decoder(this);
+    private final ScheduledExecutorService timer;
+    private int nextSeq;
+    private boolean closed;
+    private Thread readerThread;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalRoundTripNanos = new AtomicLong();
+    private final Metrics.Counter bytesOut = Metrics.getInstance().counter(Metrics.BYTES_OUT);
+    private final LatencyHistogram roundTrips = Metrics.getInstance().histogram(Metrics.COMMAND_RTT);
+
+    public CommandChannel(OutputStream outputStream, int window, long timeout, TimeUnit unit, int maxRetries) {
+        if (window < 1 || window > SEQ_SPACE / 2) {
+            throw new IllegalArgumentException("window must be between 1 and " + SEQ_SPACE / 2);
+        }
+        this.outputStream = outputStream;
+        this.window = window;
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.maxRetries = maxRetries;
+        this.permits = new Semaphore(window);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "command-channel-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Reads acks from the stream on a background thread until it closes
+    public synchronized void start(InputStream inputStream) {
+        if (readerThread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        readerThread = new Thread(() -> {
+            byte[] buffer = new byte[256];
+            try {
+                int numBytes;
+                while ((numBytes = inputStream.read(buffer)) >= 0) {
+                    onBytesReceived(buffer, 0, numBytes);
+                }
+            } catch (IOException e) {
+                // Stream closed, pending commands will time out
+            }
+        }, "command-channel-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    // Entry point for callers that already own the input stream
+    public void onBytesReceived(byte[] bytes, int offset, int length) {
+        synchronized (decoder) {
+            decoder.feed(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Sends a command, blocking while the in-flight window is full.
+     * Returns the sequence number assigned to the command.
+     */
+    public int send(int address, int opcode, byte[] payload, Callback callback)
+            throws IOException, InterruptedException {
+        permits.acquire();
+        Pending command;
+        synchronized (this) {
+            if (closed) {
+                permits.release();
+                throw new IOException("Channel closed");
+            }
+            // The window is smaller than the sequence space, so a free slot always exists;
+            // skipping a busy one keeps a slow command's late ack from completing a newer one
+            int seq = nextSeq;
+            while (pending[seq] != null) {
+                seq = (seq + 1) % SEQ_SPACE;
+            }
+            nextSeq = (seq + 1) % SEQ_SPACE;
+            command = new Pending(seq, address, opcode, payload, callback);
+            pending[seq] = command;
+        }
+        try {
+            transmit(command);
+        } catch (IOException e) {
+            complete(command.seq, e);
+            throw e;
+        }
+        return command.seq;
+    }
+
+    private void transmit(Pending command) throws IOException {
+        synchronized (writeBuffer) {
+            int length = CommandProtocol.encode(command.address, command.opcode, command.seq,
+                    command.payload, command.payload.length, writeBuffer, 0);
+            command.sentAtNanos = System.nanoTime();
+            outputStream.write(writeBuffer, 0, length);
+            outputStream.flush();
+            bytesOut.add(length);
+        }
+        sent.incrementAndGet();
+        try {
+            command.timeout = timer.schedule(() -> onTimeout(command), timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Channel closed");
+        }
+    }
+
+    private void onTimeout(Pending command) {
+        synchronized (this) {
+            if (pending[command.seq] != command) {
+                return;
+            }
+        }
+        if (command.attempts >= maxRetries) {
+            complete(command.seq, new TimeoutException("No ack for seq " + command.seq));
+            return;
+        }
+        command.attempts++;
+        retries.incrementAndGet();
+        try {
+            transmit(command);
+        } catch (IOException e) {
+            complete(command.seq, e);
+        }
+    }
+
+    @Override
+    public void onFrame(int address, int opcode, int seq, byte[] payload, int payloadLength) {
+        if (opcode == CommandProtocol.OP_ACK) {
+            complete(seq, null);
+        } else if (opcode == CommandProtocol.OP_NACK) {
+            int code = payloadLength > 0 ? payload[0] & 0xFF : -1;
+            complete(seq, new IOException("Device rejected seq " + seq + " with code " + code));
+        }
+    }
+
+    private void complete(int seq, Exception error) {
+        Pending command;
+        synchronized (this) {
+            command = pending[seq];
+            if (command == null) {
+                // Late or duplicate ack
+                return;
+            }
+            pending[seq] = null;
+        }
+        finish(command, error);
+    }
+
+    private void finish(Pending command, Exception error) {
+        int seq = command.seq;
+        if (command.timeout != null) {
+            command.timeout.cancel(false);
+        }
+        permits.release();
+
+        if (error == null) {
+            long roundTrip = System.nanoTime() - command.sentAtNanos;
+            acked.incrementAndGet();
+            totalRoundTripNanos.addAndGet(roundTrip);
+            roundTrips.record(roundTrip);
+            if (command.callback != null) {
+                command.callback.onAck(seq, roundTrip);
+            }
+        } else {
+            failures.incrementAndGet();
+            if (command.callback != null) {
+                command.callback.onFailure(seq, error);
+            }
+        }
+    }
+
+    public int getInFlightCount() {
+        return window - permits.availablePermits();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getAckedCount() {
+        return acked.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public long getAverageRoundTripNanos() {
+        long count = acked.get();
+        return count == 0 ? 0 : totalRoundTripNanos.get() / count;
+    }
+
+    // Stops the timer and reader and fails every command still waiting for its ack
+    public void close() {
+        timer.shutdownNow();
+        Thread reader;
+        List<Pending> abandoned = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            reader = readerThread;
+            for (int seq = 0; seq < SEQ_SPACE; seq++) {
+                if (pending[seq] != null) {
+                    abandoned.add(pending[seq]);
+                    pending[seq] = null;
+                }
+            }
+        }
+        if (reader != null) {
+            reader.interrupt();
+        }
+        for (Pending command : abandoned) {
+            finish(command, new IOException("Channel closed"));
+        }
+    }
+
+    private static class Pending {
+        final int seq;
+        final int address;
+        final int opcode;
+        final byte[] payload;
+        final Callback callback;
+        volatile long sentAtNanos;
+        volatile ScheduledFuture<?> timeout;
+        int attempts;
+
+        Pending(int seq, int address, int opcode, byte[] payload, Callback callback) {
+            this.seq = seq;
+            this.address = address;
+            this.opcode = opcode;
+            this.payload = payload;
+            this.callback = callback;
+        }
+    }
+}
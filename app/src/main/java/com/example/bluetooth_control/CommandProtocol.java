@@ -0,0 +1,168 @@
+package com.example.bluetooth_control;
+
+/**
+ * Framed binary protocol between the app and the Arduino sketch.
+ *
+ * <pre>
+ * 0xA5 | address | opcode | seq | length | payload[length] | crc16 (big-endian)
+ * </pre>
+ *
+ * The CRC is CRC-16/CCITT-FALSE over address..payload. Every command is answered with an
+ * ACK (or NACK) frame carrying the same sequence number. Address 0 is broadcast.
+ */
+public final class CommandProtocol {
+
+    public static final byte START_OF_FRAME = (byte) 0xA5;
+    public static final int HEADER_LENGTH = 5;
+    public static final int CRC_LENGTH = 2;
+    public static final int MAX_PAYLOAD = 0xFF;
+    public static final int MAX_FRAME_LENGTH = HEADER_LENGTH + MAX_PAYLOAD + CRC_LENGTH;
+
+    public static final int ADDRESS_BROADCAST = 0;
+
+    public static final int OP_PING = 0x01;
+    // payload: output, state (0 = off, 1 = on)
+    public static final int OP_SET_STATE = 0x02;
+    // payload: output, level (0-255)
+    public static final int OP_SET_PWM = 0x03;
+    public static final int OP_ACK = 0x80;
+    // payload: error code
+    public static final int OP_NACK = 0x81;
+
+    private CommandProtocol() {
+    }
+
+    public interface FrameListener {
+        // The payload array is reused, copy it if it has to outlive the call
+        void onFrame(int address, int opcode, int seq, byte[] payload, int payloadLength);
+    }
+
+    // Encodes a frame into dest at offset and returns the number of bytes written
+    public static int encode(int address, int opcode, int seq, byte[] payload, int payloadLength,
+                             byte[] dest, int offset) {
+        if (payloadLength > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Payload too long: " + payloadLength);
+        }
+        dest[offset] = START_OF_FRAME;
+        dest[offset + 1] = (byte) address;
+        dest[offset + 2] = (byte) opcode;
+        dest[offset + 3] = (byte) seq;
+        dest[offset + 4] = (byte) payloadLength;
+        if (payloadLength > 0) {
+            System.arraycopy(payload, 0, dest, offset + HEADER_LENGTH, payloadLength);
+        }
+        int crc = crc16(dest, offset + 1, HEADER_LENGTH - 1 + payloadLength);
+        int crcOffset = offset + HEADER_LENGTH + payloadLength;
+        dest[crcOffset] = (byte) (crc >> 8);
+        dest[crcOffset + 1] = (byte) crc;
+        return HEADER_LENGTH + payloadLength + CRC_LENGTH;
+    }
+
+    public static byte[] encode(int address, int opcode, int seq, byte... payload) {
+        byte[] frame = new byte[HEADER_LENGTH + payload.length + CRC_LENGTH];
+        encode(address, opcode, seq, payload, payload.length, frame, 0);
+        return frame;
+    }
+
+    // CRC-16/CCITT-FALSE: poly 0x1021, init 0xFFFF, no reflection
+    public static int crc16(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+        }
+        return crc & 0xFFFF;
+    }
+
+    /**
+     * Incremental decoder. Bytes before a start-of-frame marker and frames with a bad CRC are
+     * skipped, after which it resyncs on the next marker.
+     */
+    public static class Decoder {
+        private static final int STATE_START = 0;
+        private static final int STATE_HEADER = 1;
+        private static final int STATE_BODY = 2;
+
+        private final FrameListener listener;
+        private final byte[] frame = new byte[MAX_FRAME_LENGTH];
+        private final byte[] payload = new byte[MAX_PAYLOAD];
+        private int state = STATE_START;
+        private int length;
+        private int expected;
+
+        private long frameCount;
+        private long crcErrorCount;
+
+        public Decoder(FrameListener listener) {
+            this.listener = listener;
+        }
+
+        public void feed(byte[] bytes, int offset, int count) {
+            for (int i = offset; i < offset + count; i++) {
+                byte b = bytes[i];
+                switch (state) {
+                    case STATE_START:
+                        if (b == START_OF_FRAME) {
+                            frame[0] = b;
+                            length = 1;
+                            state = STATE_HEADER;
+                        }
+                        break;
+                    case STATE_HEADER:
+                        frame[length++] = b;
+                        if (length == HEADER_LENGTH) {
+                            expected = HEADER_LENGTH + (b & 0xFF) + CRC_LENGTH;
+                            state = STATE_BODY;
+                        }
+                        break;
+                    default:
+                        frame[length++] = b;
+                        if (length == expected) {
+                            // Before complete(), which may resync into the middle of a frame
+                            state = STATE_START;
+                            complete();
+                        }
+                        break;
+                }
+            }
+        }
+
+        private void complete() {
+            int payloadLength = expected - HEADER_LENGTH - CRC_LENGTH;
+            int crc = ((frame[expected - 2] & 0xFF) << 8) | (frame[expected - 1] & 0xFF);
+            if (crc != crc16(frame, 1, HEADER_LENGTH - 1 + payloadLength)) {
+                crcErrorCount++;
+                // The marker may have been noise, look for a real one inside what we buffered
+                resync();
+                return;
+            }
+            frameCount++;
+            System.arraycopy(frame, HEADER_LENGTH, payload, 0, payloadLength);
+            listener.onFrame(frame[1] & 0xFF, frame[2] & 0xFF, frame[3] & 0xFF, payload, payloadLength);
+        }
+
+        private void resync() {
+            int buffered = length;
+            state = STATE_START;
+            length = 0;
+            for (int i = 1; i < buffered; i++) {
+                if (frame[i] == START_OF_FRAME) {
+                    byte[] rest = new byte[buffered - i];
+                    System.arraycopy(frame, i, rest, 0, rest.length);
+                    feed(rest, 0, rest.length);
+                    return;
+                }
+            }
+        }
+
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        public long getCrcErrorCount() {
+            return crcErrorCount;
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays timed command sequences, e.g. blinking a relay every 50 ms or stepping through several
+ * outputs, on its own thread so their timing does not depend on a busy UI.
+ *
+ * Each playing {@link Sequence} waits for its next step in a hashed timer wheel: a ring of
+ * one-tick buckets, where a step more than one turn away counts down its rounds. Starting,
+ * cancelling and re-arming a playback are O(1) however many are pending, and the thread only
+ * wakes for ticks that have something in their bucket, then sleeps on to each step's exact
+ * deadline rather than rounding it to the tick. Steps are due at a fixed offset from
+ * the start of the playback, so lateness never builds up over a long sequence; a step found
+ * late is sent at once, in order, like {@code scheduleAtFixedRate} would. How late each
+ * command reached the {@link Dispatcher} is recorded in {@link #getLateness()}.
+ *
+ * Time is read and waited out through a {@link Clock}, so a test can run the wheel on a
+ * virtual one and check the exact tick each step goes out on.
+ */
+public class CommandSequencer implements Closeable {
+
+    // Called on the sequencer thread, so it must queue the write rather than block
+    public interface Dispatcher {
+        boolean dispatch(String target, byte[] command);
+    }
+
+    public interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void sleepNanos(long nanos) {
+                LockSupport.parkNanos(nanos);
+            }
+        };
+
+        long nanoTime();
+
+        // Called on the sequencer thread; may return early, e.g. when play() unparks it
+        void sleepNanos(long nanos);
+    }
+
+    public static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Half a second a turn at the default tick
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final Dispatcher dispatcher;
+    private final Clock clock;
+    private final long tickNanos;
+    private final int mask;
+    private final Playback[] wheel;
+    // Tick 0 starts here
+    private final long originNanos;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Playback> submitted = new ConcurrentLinkedQueue<>();
+    private final Map<String, Sequence> macros = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+    // When the thread will next wake by itself, Long.MAX_VALUE while it waits for work
+    private volatile long wakeNanos = Long.MAX_VALUE;
+
+    // Only touched on the sequencer thread: the next tick to turn, how many playbacks are in
+    // the wheel, and those whose tick has turned, waiting for their exact deadline
+    private long currentTick;
+    private int pending;
+    private Playback due;
+
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong dispatchFailures = new AtomicLong();
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private final LatencyHistogram latenessMetric = Metrics.getInstance().histogram(Metrics.SEQUENCER_LATENESS);
+
+    public CommandSequencer(Dispatcher dispatcher) {
+        this(dispatcher, DEFAULT_TICK_NANOS, TimeUnit.NANOSECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param tick      how much time each bucket covers; steps still go out at their exact
+     *                  deadline, a shorter tick only means fewer steps to look through per wake
+     * @param wheelSize buckets in the wheel, a power of two
+     */
+    public CommandSequencer(Dispatcher dispatcher, long tick, TimeUnit unit, int wheelSize) {
+        this(dispatcher, tick, unit, wheelSize, Clock.SYSTEM);
+    }
+
+    public CommandSequencer(Dispatcher dispatcher, long tick, TimeUnit unit, int wheelSize, Clock clock) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheelSize must be a power of two");
+        }
+        this.dispatcher = dispatcher;
+        this.clock = clock;
+        this.tickNanos = unit.toNanos(tick);
+        this.mask = wheelSize - 1;
+        this.wheel = new Playback[wheelSize];
+        this.originNanos = clock.nanoTime();
+        this.thread = new Thread(this::run, "command-sequencer");
+        this.thread.setDaemon(true);
+        // Timing is the point of this thread, it should win against the UI's background work
+        this.thread.setPriority(Thread.MAX_PRIORITY);
+        this.thread.start();
+    }
+
+    // Starts sequence now
+    public Playback play(Sequence sequence) {
+        return play(sequence, 0, TimeUnit.NANOSECONDS);
+    }
+
+    public Playback play(Sequence sequence, long delay, TimeUnit unit) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+        Playback playback = new Playback(sequence, clock.nanoTime() + unit.toNanos(delay));
+        submitted.offer(playback);
+        // Only a step due before the thread wakes anyway needs to wake it
+        if (playback.deadline < wakeNanos) {
+            LockSupport.unpark(thread);
+        }
+        if (closed) {
+            playback.finish();
+        }
+        return playback;
+    }
+
+    // Keeps sequence under its name for play(String), replacing any macro of that name
+    public void define(Sequence sequence) {
+        macros.put(sequence.name, sequence);
+    }
+
+    public Playback play(String macro) {
+        Sequence sequence = macros.get(macro);
+        if (sequence == null) {
+            throw new IllegalArgumentException("No macro " + macro);
+        }
+        return play(sequence);
+    }
+
+    public long getDispatchedCount() {
+        return dispatched.get();
+    }
+
+    // Commands the dispatcher refused, e.g. because the link was down or its queue full
+    public long getDispatchFailures() {
+        return dispatchFailures.get();
+    }
+
+    // From when each command was due to when it was handed to the dispatcher
+    public LatencyHistogram getLateness() {
+        return lateness;
+    }
+
+    // Playbacks still pending are abandoned and reported done
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (!closed) {
+            if (pending == 0) {
+                // Nothing was in the wheel, so the ticks that went by had nothing to turn
+                currentTick = Math.max(currentTick, (clock.nanoTime() - originNanos) / tickNanos);
+            }
+            Playback playback;
+            while ((playback = submitted.poll()) != null) {
+                schedule(playback);
+            }
+            long wakeAt = fireDue(clock.nanoTime());
+            // Read again after the dispatcher ran, or a slow write would add to the next wait
+            long now = clock.nanoTime();
+            if (pending > 0) {
+                // Empty buckets are skipped rather than woken for
+                long next = nextOccupiedTick();
+                long turnAt = originNanos + next * tickNanos;
+                if (turnAt <= now) {
+                    currentTick = next;
+                    turn();
+                    continue;
+                }
+                wakeAt = Math.min(wakeAt, turnAt);
+            }
+            // The wake-up time is published before the queue is checked a last time, so a
+            // play() either sees it and unparks or its playback is found here
+            wakeNanos = wakeAt;
+            if (!submitted.isEmpty()) {
+                continue;
+            }
+            if (wakeAt == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else if (wakeAt > now) {
+                clock.sleepNanos(wakeAt - now);
+            }
+        }
+        for (Playback head : wheel) {
+            finishAll(head);
+        }
+        finishAll(due);
+        Playback abandoned;
+        while ((abandoned = submitted.poll()) != null) {
+            abandoned.finish();
+        }
+    }
+
+    private long nextOccupiedTick() {
+        long tick = currentTick;
+        while (wheel[(int) (tick & mask)] == null) {
+            tick++;
+        }
+        return tick;
+    }
+
+    // Moves the playbacks due in currentTick's turn to the due list and goes on to the next tick
+    private void turn() {
+        int bucket = (int) (currentTick & mask);
+        Playback p = wheel[bucket];
+        wheel[bucket] = null;
+        currentTick++;
+        while (p != null) {
+            Playback next = p.next;
+            if (p.cancelled) {
+                pending--;
+                p.finish();
+            } else if (p.rounds > 0) {
+                p.rounds--;
+                p.next = wheel[bucket];
+                wheel[bucket] = p;
+            } else {
+                pending--;
+                p.next = due;
+                due = p;
+            }
+            p = next;
+        }
+    }
+
+    // Sends what is due by now and returns when the next of the rest is, Long.MAX_VALUE if none
+    private long fireDue(long now) {
+        Playback p = due;
+        due = null;
+        while (p != null) {
+            Playback next = p.next;
+            if (p.cancelled) {
+                p.finish();
+            } else if (p.deadline <= now) {
+                fire(p);
+            } else {
+                p.next = due;
+                due = p;
+            }
+            p = next;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (Playback waiting = due; waiting != null; waiting = waiting.next) {
+            earliest = Math.min(earliest, waiting.deadline);
+        }
+        return earliest;
+    }
+
+    // Sends every step of playback that is due and re-arms it for the first one that is not
+    private void fire(Playback playback) {
+        Sequence sequence = playback.sequence;
+        long now;
+        do {
+            now = clock.nanoTime();
+            lateness.record(now - playback.deadline);
+            latenessMetric.record(now - playback.deadline);
+            int step = playback.step;
+            if (dispatcher.dispatch(sequence.targets[step], sequence.commands[step])) {
+                dispatched.incrementAndGet();
+            } else {
+                dispatchFailures.incrementAndGet();
+            }
+            playback.sent++;
+            if (!playback.advance()) {
+                playback.finish();
+                return;
+            }
+        } while (playback.deadline <= now && !playback.cancelled);
+        schedule(playback);
+    }
+
+    // Buckets by the tick the deadline falls in; once that tick has turned, the thread sleeps
+    // to the exact deadline, so the tick only sets how finely the wheel sorts
+    private void schedule(Playback playback) {
+        if (playback.cancelled) {
+            playback.finish();
+            return;
+        }
+        long tick = (playback.deadline - originNanos) / tickNanos;
+        if (tick < currentTick) {
+            playback.next = due;
+            due = playback;
+            return;
+        }
+        playback.rounds = (tick - currentTick) / wheel.length;
+        int bucket = (int) (tick & mask);
+        playback.next = wheel[bucket];
+        wheel[bucket] = playback;
+        pending++;
+    }
+
+    private static void finishAll(Playback list) {
+        for (Playback p = list; p != null; p = p.next) {
+            p.finish();
+        }
+    }
+
+    /** One playing sequence, to follow or cancel it. */
+    public static final class Playback {
+        final Sequence sequence;
+        final long startNanos;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private volatile long sent;
+
+        // Only touched on the sequencer thread
+        int step;
+        int play;
+        long deadline;
+        long rounds;
+        Playback next;
+
+        Playback(Sequence sequence, long startNanos) {
+            this.sequence = sequence;
+            this.startNanos = startNanos;
+            this.deadline = startNanos + sequence.offsets[0];
+        }
+
+        // Moves to the next step, false once the last play is over
+        boolean advance() {
+            if (++step == sequence.offsets.length) {
+                step = 0;
+                if (++play == sequence.plays && sequence.plays != Sequence.FOREVER) {
+                    return false;
+                }
+            }
+            deadline = startNanos + play * sequence.periodNanos + sequence.offsets[step];
+            return true;
+        }
+
+        void finish() {
+            done = true;
+        }
+
+        // No step is sent after this returns; the sequence's last command stays in effect
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isDone() {
+            return done || cancelled;
+        }
+
+        public long getSentCount() {
+            return sent;
+        }
+
+        public Sequence getSequence() {
+            return sequence;
+        }
+    }
+
+    /**
+     * Commands with the pauses between them, e.g. ON, 50 ms, OFF, 50 ms, played 20 times. The
+     * length of one play is the sum of its pauses, so a repeating sequence needs at least one.
+     */
+    public static final class Sequence {
+        public static final int FOREVER = 0;
+
+        final String name;
+        // Per step, when it is due from the start of its play
+        final long[] offsets;
+        final String[] targets;
+        final byte[][] commands;
+        final long periodNanos;
+        final int plays;
+
+        private Sequence(Builder builder) {
+            this.name = builder.name;
+            int steps = builder.commands.size();
+            this.offsets = new long[steps];
+            for (int i = 0; i < steps; i++) {
+                offsets[i] = builder.offsets.get(i);
+            }
+            this.targets = builder.targets.toArray(new String[0]);
+            this.commands = builder.commands.toArray(new byte[0][]);
+            this.periodNanos = builder.offsetNanos;
+            this.plays = builder.plays;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getStepCount() {
+            return commands.length;
+        }
+
+        public static class Builder {
+            private final String name;
+            private final List<Long> offsets = new ArrayList<>();
+            private final List<String> targets = new ArrayList<>();
+            private final List<byte[]> commands = new ArrayList<>();
+            private long offsetNanos;
+            private int plays = 1;
+
+            public Builder(String name) {
+                this.name = name;
+            }
+
+            public Builder send(String target, byte[] command) {
+                offsets.add(offsetNanos);
+                targets.add(target);
+                commands.add(command.clone());
+                return this;
+            }
+
+            public Builder pause(long duration, TimeUnit unit) {
+                if (duration < 0) {
+                    throw new IllegalArgumentException("duration must not be negative");
+                }
+                offsetNanos += unit.toNanos(duration);
+                return this;
+            }
+
+            public Builder repeat(int times) {
+                if (times <= 0) {
+                    throw new IllegalArgumentException("times must be positive");
+                }
+                this.plays = times;
+                return this;
+            }
+
+            // Plays until the playback is cancelled
+            public Builder forever() {
+                this.plays = FOREVER;
+                return this;
+            }
+
+            public Sequence build() {
+                if (commands.isEmpty()) {
+                    throw new IllegalArgumentException("Sequence " + name + " needs a send()");
+                }
+                if (plays != 1 && offsetNanos == 0) {
+                    throw new IllegalArgumentException("Sequence " + name + " repeats without a pause()");
+                }
+                return new Sequence(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes commands to the device on its own thread, so a full RFCOMM buffer never stalls the
+ * caller.
+ *
+ * {@link #submit} only queues. Commands with the same key that are still queued are coalesced,
+ * the last state wins, so hammering a toggle sends one write instead of a backlog. Output is
+ * paced to the module's baud rate to avoid overrunning the HC-05's small UART buffer, and
+ * {@link Priority#URGENT} commands (e.g. an emergency off) are written before anything
+ * queued normally.
+ */
+public class CommandWriter implements Closeable {
+
+    public enum Priority {
+        NORMAL,
+        URGENT
+    }
+
+    // Called on the writer thread
+    public interface Callback {
+        void onWritten(String key, byte[] data, long latencyNanos);
+
+        void onFailure(String key, IOException e);
+    }
+
+    private final OutputStream outputStream;
+    private final long nanosPerByte;
+    private final int capacity;
+    private final Callback callback;
+    private final Thread thread;
+
+    // Guarded by lock
+    private final Object lock = new Object();
+    private final ArrayDeque<Pending> urgent = new ArrayDeque<>();
+    private final ArrayDeque<Pending> normal = new ArrayDeque<>();
+    private final Map<String, Pending> queuedByKey = new HashMap<>();
+    private boolean closed;
+
+    // Only touched on the writer thread
+    private long nextWriteNanos;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Metrics.Counter bytesOut = Metrics.getInstance().counter(Metrics.BYTES_OUT);
+    private final LatencyHistogram latency = Metrics.getInstance().histogram(Metrics.COMMAND_LATENCY);
+
+    private CommandWriter(Builder builder) {
+        this.outputStream = builder.outputStream;
+        // 8N1 framing puts 10 bits on the wire per byte
+        this.nanosPerByte = builder.baudRate > 0 ? TimeUnit.SECONDS.toNanos(10) / builder.baudRate : 0;
+        this.capacity = builder.capacity;
+        this.callback = builder.callback;
+        this.thread = new Thread(this::run, "command-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public boolean submit(String key, byte[] data) {
+        return submit(key, data, Priority.NORMAL);
+    }
+
+    /**
+     * Queues {@code data} for writing and returns immediately. A queued command with the same
+     * non-null key is replaced by this one; an urgent command also moves it ahead of the normal
+     * queue. Returns false if the writer is closed or the queue is full; an urgent command
+     * evicts the oldest normal one instead of being refused.
+     */
+    public boolean submit(String key, byte[] data, Priority priority) {
+        long now = System.nanoTime();
+        synchronized (lock) {
+            if (closed) {
+                return false;
+            }
+            Pending queued = key != null ? queuedByKey.get(key) : null;
+            if (queued != null) {
+                coalesced.incrementAndGet();
+                if (priority == Priority.URGENT && queued.priority == Priority.NORMAL) {
+                    normal.remove(queued);
+                    queued.priority = Priority.URGENT;
+                    urgent.addLast(queued);
+                }
+                // Latency still counts from the first submit it replaced
+                queued.data = data;
+                lock.notifyAll();
+                return true;
+            }
+            if (urgent.size() + normal.size() >= capacity) {
+                Pending evicted = priority == Priority.URGENT ? normal.pollFirst() : null;
+                if (evicted == null) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                if (evicted.key != null) {
+                    queuedByKey.remove(evicted.key);
+                }
+                dropped.incrementAndGet();
+            }
+            Pending pending = new Pending(key, data, priority, now);
+            (priority == Priority.URGENT ? urgent : normal).addLast(pending);
+            if (key != null) {
+                queuedByKey.put(key, pending);
+            }
+            lock.notifyAll();
+        }
+        return true;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Pending next = take();
+                if (next == null) {
+                    return;
+                }
+                write(next);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    // Waits for a command and for the wire to be free, then dequeues whatever is first by then
+    private Pending take() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                if (closed) {
+                    return null;
+                }
+                if (urgent.isEmpty() && normal.isEmpty()) {
+                    lock.wait();
+                    continue;
+                }
+                long waitNanos = nextWriteNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    // Submits may still coalesce into, or jump ahead of, the head meanwhile
+                    TimeUnit.NANOSECONDS.timedWait(lock, waitNanos);
+                    continue;
+                }
+                Pending next = urgent.isEmpty() ? normal.pollFirst() : urgent.pollFirst();
+                if (next.key != null) {
+                    queuedByKey.remove(next.key);
+                }
+                return next;
+            }
+        }
+    }
+
+    private void write(Pending command) {
+        try {
+            outputStream.write(command.data);
+            outputStream.flush();
+        } catch (IOException e) {
+            synchronized (lock) {
+                if (closed) {
+                    // close() interrupted the write, that is not a link failure
+                    return;
+                }
+            }
+            if (callback != null) {
+                callback.onFailure(command.key, e);
+            }
+            return;
+        }
+        long now = System.nanoTime();
+        nextWriteNanos = Math.max(now, nextWriteNanos) + command.data.length * nanosPerByte;
+        long elapsed = now - command.submittedNanos;
+        written.incrementAndGet();
+        bytesOut.add(command.data.length);
+        latency.record(elapsed);
+        if (callback != null) {
+            callback.onWritten(command.key, command.data, elapsed);
+        }
+    }
+
+    public int getQueuedCount() {
+        synchronized (lock) {
+            return urgent.size() + normal.size();
+        }
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    // Submits that replaced a command still in the queue
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // Drops whatever is still queued; a write in progress ends when the stream is closed, and
+    // its failure is not reported
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            urgent.clear();
+            normal.clear();
+            queuedByKey.clear();
+            lock.notifyAll();
+        }
+        thread.interrupt();
+    }
+
+    private static final class Pending {
+        final String key;
+        final long submittedNanos;
+        byte[] data;
+        Priority priority;
+
+        Pending(String key, byte[] data, Priority priority, long submittedNanos) {
+            this.key = key;
+            this.data = data;
+            this.priority = priority;
+            this.submittedNanos = submittedNanos;
+        }
+    }
+
+    public static class Builder {
+        private final OutputStream outputStream;
+        private int baudRate;
+        private int capacity = 32;
+        private Callback callback;
+
+        public Builder(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        // The module's UART rate; 0, the default, writes as fast as the stream accepts
+        public Builder baudRate(int baudRate) {
+            if (baudRate < 0) {
+                throw new IllegalArgumentException("baudRate must not be negative");
+            }
+            this.baudRate = baudRate;
+            return this;
+        }
+
+        public Builder capacity(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be positive");
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        public Builder callback(Callback callback) {
+            this.callback = callback;
+            return this;
+        }
+
+        public CommandWriter build() {
+            return new CommandWriter(this);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the single device link shared by every screen.
+ *
+ * Connecting happens on a background thread. Screens hold a {@link Client} for as long as
+ * they use the link and the transport is closed when the last client is released. When a
+ * client reports an I/O failure the link is re-established with exponential backoff.
+ *
+ * A single {@link ConnectionReader} per transport publishes incoming bytes to the
+ * {@link DataBus}, which survives reconnects, so subscribers never touch the InputStream.
+ */
+public class ConnectionManager {
+
+    public enum State {
+        DISCONNECTED,
+        CONNECTING,
+        CONNECTED,
+        RECONNECTING
+    }
+
+    // Called on a background thread, UI listeners must post to the main thread
+    public interface Listener {
+        void onStateChanged(State state);
+    }
+
+    private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 30_000;
+    private static final int DEFAULT_MAX_ATTEMPTS = 8;
+    private static final int BUS_SLOTS = 256;
+    private static final int BUS_SLOT_SIZE = 1024;
+
+    private static ConnectionManager instance;
+
+    public static synchronized ConnectionManager getInstance() {
+        if (instance == null) {
+            instance = new ConnectionManager(DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS, DEFAULT_MAX_ATTEMPTS);
+        }
+        return instance;
+    }
+
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxAttempts;
+    private final ScheduledExecutorService executor;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final DataBus dataBus = new DataBus(BUS_SLOTS, BUS_SLOT_SIZE);
+
+    private TransportFactory factory;
+    private Transport transport;
+    private ConnectionReader reader;
+    private State state = State.DISCONNECTED;
+    private final ArrayDeque<State> unpublished = new ArrayDeque<>();
+    private boolean publishing;
+    private int clients;
+    private int generation;
+    private int failedAttempts;
+    private long connectStartedNanos;
+    private long linkLostNanos;
+    private IOException lastError;
+
+    private long connectCount;
+    private long reconnectCount;
+    private long lastConnectNanos;
+    private long lastReconnectNanos;
+    private long lastFirstByteNanos;
+    private boolean awaitingFirstByte;
+    private final Metrics.Counter reconnects = Metrics.getInstance().counter(Metrics.RECONNECTS);
+    private final LatencyHistogram firstByte = Metrics.getInstance().histogram(Metrics.LINK_FIRST_BYTE);
+
+    public ConnectionManager(long initialBackoffMillis, long maxBackoffMillis, int maxAttempts) {
+        this(initialBackoffMillis, maxBackoffMillis, maxAttempts, Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-manager");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Runs connect attempts on {@code executor}. Managers that share one pool connect in
+     * parallel, but never more at once than the pool has threads.
+     */
+    public ConnectionManager(long initialBackoffMillis, long maxBackoffMillis, int maxAttempts,
+                             ScheduledExecutorService executor) {
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxAttempts = maxAttempts;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts connecting with the given factory, replacing any existing link, and returns
+     * immediately. The returned client keeps the link alive until it is closed.
+     */
+    public Client connect(TransportFactory factory) {
+        Client client;
+        int attempt;
+        synchronized (this) {
+            this.factory = factory;
+            closeTransportLocked();
+            attempt = ++generation;
+            failedAttempts = 0;
+            linkLostNanos = 0;
+            clients++;
+            client = new Client();
+            connectStartedNanos = System.nanoTime();
+            setStateLocked(State.CONNECTING);
+        }
+        publishStates();
+        executor.execute(() -> attemptConnect(attempt));
+        return client;
+    }
+
+    // Joins the current link without changing it
+    public synchronized Client acquire() {
+        clients++;
+        return new Client();
+    }
+
+    /**
+     * Tells the manager that I/O on {@code failed} broke. Reports about a transport that has
+     * already been replaced are ignored, so every reader and writer may report freely.
+     */
+    public void reportFailure(Transport failed, IOException e) {
+        int attempt;
+        synchronized (this) {
+            if (failed == null || failed != transport) {
+                return;
+            }
+            lastError = e;
+            closeTransportLocked();
+            attempt = generation;
+            linkLostNanos = System.nanoTime();
+            connectStartedNanos = linkLostNanos;
+            setStateLocked(State.RECONNECTING);
+        }
+        publishStates();
+        executor.execute(() -> attemptConnect(attempt));
+    }
+
+    public void disconnect() {
+        synchronized (this) {
+            generation++;
+            factory = null;
+            closeTransportLocked();
+            setStateLocked(State.DISCONNECTED);
+        }
+        publishStates();
+    }
+
+    private void attemptConnect(int attempt) {
+        TransportFactory current;
+        synchronized (this) {
+            if (attempt != generation || factory == null) {
+                return;
+            }
+            current = factory;
+        }
+
+        Transport connected;
+        try {
+            connected = current.connect();
+        } catch (IOException e) {
+            onConnectFailed(attempt, e);
+            return;
+        }
+
+        synchronized (this) {
+            if (attempt != generation) {
+                // Superseded by connect() or disconnect() while we were blocked
+                closeQuietly(connected);
+                return;
+            }
+            transport = connected;
+            failedAttempts = 0;
+            long now = System.nanoTime();
+            lastConnectNanos = now - connectStartedNanos;
+            awaitingFirstByte = true;
+            connectCount++;
+            if (linkLostNanos != 0) {
+                lastReconnectNanos = now - linkLostNanos;
+                reconnectCount++;
+                reconnects.increment();
+                linkLostNanos = 0;
+            }
+            // Recorded before the reader starts, so a stream that fails at once is reported after it
+            setStateLocked(State.CONNECTED);
+            reader = new ConnectionReader(connected, dataBus, this);
+            reader.start();
+        }
+        publishStates();
+    }
+
+    private void onConnectFailed(int attempt, IOException e) {
+        long delay;
+        synchronized (this) {
+            if (attempt != generation) {
+                return;
+            }
+            lastError = e;
+            failedAttempts++;
+            if (failedAttempts >= maxAttempts) {
+                factory = null;
+                delay = -1;
+            } else {
+                delay = backoffMillis(failedAttempts);
+            }
+            setStateLocked(delay < 0 ? State.DISCONNECTED : State.RECONNECTING);
+        }
+        publishStates();
+        if (delay < 0) {
+            return;
+        }
+        executor.schedule(() -> attemptConnect(attempt), delay, TimeUnit.MILLISECONDS);
+    }
+
+    // Called by the reader when a new link delivers its first bytes
+    void onFirstBytes(Transport from) {
+        synchronized (this) {
+            if (from != transport || !awaitingFirstByte) {
+                return;
+            }
+            awaitingFirstByte = false;
+            lastFirstByteNanos = System.nanoTime() - connectStartedNanos;
+        }
+        firstByte.record(lastFirstByteNanos);
+    }
+
+    // initial * 2^(failures - 1), capped
+    long backoffMillis(int failures) {
+        long delay = initialBackoffMillis << Math.min(failures - 1, 30);
+        return delay < 0 || delay > maxBackoffMillis ? maxBackoffMillis : delay;
+    }
+
+    private void release() {
+        synchronized (this) {
+            if (--clients > 0) {
+                return;
+            }
+            generation++;
+            factory = null;
+            closeTransportLocked();
+            setStateLocked(State.DISCONNECTED);
+        }
+        publishStates();
+    }
+
+    private void closeTransportLocked() {
+        if (reader != null) {
+            reader.cancel();
+            reader = null;
+        }
+        if (transport != null) {
+            closeQuietly(transport);
+            transport = null;
+        }
+    }
+
+    private static void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // Nothing useful to do, the link is going away regardless
+        }
+    }
+
+    // Transitions are queued under the lock, in the order they happen
+    private void setStateLocked(State newState) {
+        if (state == newState) {
+            return;
+        }
+        state = newState;
+        unpublished.add(newState);
+    }
+
+    /**
+     * Tells the listeners about queued transitions, outside the lock. One thread publishes at a
+     * time and drains the queue, including transitions queued by others meanwhile, so listeners
+     * never see an older state after a newer one.
+     */
+    private void publishStates() {
+        synchronized (this) {
+            if (publishing) {
+                return;
+            }
+            publishing = true;
+        }
+        while (true) {
+            State next;
+            synchronized (this) {
+                next = unpublished.poll();
+                if (next == null) {
+                    publishing = false;
+                    return;
+                }
+            }
+            for (Listener listener : listeners) {
+                listener.onStateChanged(next);
+            }
+        }
+    }
+
+    // The listener is told the current state right away
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        listener.onStateChanged(getState());
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Transport getTransport() {
+        return transport;
+    }
+
+    // Incoming bytes from whichever transport is current
+    public DataBus getDataBus() {
+        return dataBus;
+    }
+
+    public synchronized long getBytesRead() {
+        return reader != null ? reader.getBytesRead() : 0;
+    }
+
+    public synchronized boolean isConnected() {
+        return state == State.CONNECTED;
+    }
+
+    public synchronized int getClientCount() {
+        return clients;
+    }
+
+    public synchronized IOException getLastError() {
+        return lastError;
+    }
+
+    public synchronized long getConnectCount() {
+        return connectCount;
+    }
+
+    public synchronized long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    // Time from connect()/failure to link up for the most recent successful attempt
+    public synchronized long getLastConnectMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastConnectNanos);
+    }
+
+    // Time from connect()/failure to the first byte read on the most recent link
+    public synchronized long getLastFirstByteMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastFirstByteNanos);
+    }
+
+    // Time the link was down before the most recent reconnect
+    public synchronized long getLastReconnectMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastReconnectNanos);
+    }
+
+    public synchronized String describe() {
+        return "Link: " + state
+                + " | connect " + getLastConnectMillis() + " ms"
+                + " | reconnects " + reconnectCount;
+    }
+
+    /**
+     * One screen's hold on the link. The transport it returns can change after a reconnect,
+     * so fetch it again when the state goes back to CONNECTED.
+     */
+    public final class Client implements Closeable {
+        private boolean released;
+
+        private Client() {
+        }
+
+        public Transport getTransport() {
+            return ConnectionManager.this.getTransport();
+        }
+
+        public DataBus.Subscription subscribe(String name, DataBus.OverflowPolicy policy) {
+            return dataBus.subscribe(name, policy);
+        }
+
+        public void reportFailure(Transport failed, IOException e) {
+            ConnectionManager.this.reportFailure(failed, e);
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            release();
+        }
+    }
+}
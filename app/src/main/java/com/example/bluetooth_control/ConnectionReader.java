@@ -0,0 +1,65 @@
+package com.example.bluetooth_control;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The one thread that reads a transport's InputStream. Everything it reads is published to
+ * the {@link DataBus}; consumers subscribe there instead of touching the stream, so they no
+ * longer race each other for bytes.
+ */
+public class ConnectionReader extends Thread {
+
+    private final Transport transport;
+    private final DataBus bus;
+    private final ConnectionManager manager;
+    private volatile boolean cancelled;
+    private volatile long bytesRead;
+    private final Metrics.Counter bytesIn = Metrics.getInstance().counter(Metrics.BYTES_IN);
+
+    public ConnectionReader(Transport transport, DataBus bus, ConnectionManager manager) {
+        super("connection-reader");
+        setDaemon(true);
+        this.transport = transport;
+        this.bus = bus;
+        this.manager = manager;
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[1024];
+        try {
+            InputStream in = transport.getInputStream();
+            int numBytes;
+            boolean first = true;
+            while (!cancelled && (numBytes = in.read(buffer)) >= 0) {
+                if (numBytes > 0) {
+                    if (first) {
+                        manager.onFirstBytes(transport);
+                        first = false;
+                    }
+                    bytesRead += numBytes;
+                    bytesIn.add(numBytes);
+                    bus.publish(buffer, 0, numBytes);
+                }
+            }
+            if (!cancelled) {
+                manager.reportFailure(transport, new IOException("End of stream"));
+            }
+        } catch (IOException e) {
+            if (!cancelled) {
+                manager.reportFailure(transport, e);
+            }
+        }
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    // Stops publishing; the read in progress ends when the transport is closed
+    public void cancel() {
+        cancelled = true;
+        interrupt();
+    }
+}
@@ -1,9 +1,10 @@
 package com.example.bluetooth_control;
 
-import android.bluetooth.BluetoothSocket;
 import android.os.Bundle;
 import android.view.View;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -11,25 +12,52 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import java.io.IOException;
 import java.io.OutputStream;
-
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class ControlActivity extends AppCompatActivity {
 
     private Button onButton, offButton;
-    private TextView onTextView, offTextView;
+    private TextView onTextView, offTextView, connectionTextView;
+    private Spinner targetSpinner;
+    private ArrayAdapter<String> targetAdapter;
 
-    private BluetoothSocket bluetoothSocket;
+    private Transport transport;
     private OutputStream outputStream;
 
     private static final char ON_COMMAND = 'A';
     private static final char OFF_COMMAND = 'B';
     private static final String TAG = "ControlActivity";
 
+    // The stock sketch only understands the single 'A'/'B' chars, enable this for sketches
+    // that speak CommandProtocol to get acks, retries and addressing
+    private static final boolean USE_COMMAND_PROTOCOL = false;
+    private static final int DEVICE_ADDRESS = 1;
+    private static final int RELAY_OUTPUT = 0;
+
+    // Raw commands go through the service's session, which outlives this screen and alone
+    // holds the link, so the notification's Disconnect closes it
+    private LinkService.Binding linkBinding;
+    private LinkSession session;
+    // The last raw command this screen queued; the session's writer also carries rule, macro
+    // and remote writes, which must not be reported as taps
+    private volatile byte[] lastTap;
+    private volatile CommandChannel commandChannel;
+    private DataBus.Subscription commandSubscription;
+    private ExecutorService commandExecutor;
+    // The macro started by a long press on ON, stopped by the next tap
+    private CommandSequencer.Playback macroPlayback;
+
+    // The first two spinner entries, the fleet's link ids follow
+    private static final int TARGET_PRIMARY = 0;
+    private static final int TARGET_ALL = 1;
+    private final List<String> fleetTargets = new ArrayList<>();
+
+    private MetricsOverlay metricsOverlay;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -40,6 +68,14 @@ public class ControlActivity extends AppCompatActivity {
         offButton = findViewById(R.id.offButton);
         onTextView = findViewById(R.id.onTextView);
         offTextView = findViewById(R.id.offTextView);
+        connectionTextView = findViewById(R.id.connectionTextView);
+        metricsOverlay = new MetricsOverlay(findViewById(R.id.metricsOverlay), connectionTextView);
+        targetSpinner = findViewById(R.id.targetSpinner);
+        targetAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item);
+        targetAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        targetSpinner.setAdapter(targetAdapter);
+        refreshTargets();
+        MultiLinkManager.getInstance().addListener(fleetListener);
 
         // Initialize Bluetooth connection
         initializeBluetoothConnection();
@@ -47,47 +83,232 @@ public class ControlActivity extends AppCompatActivity {
         // Set button listeners
         onButton.setOnClickListener(view -> sendCommand(ON_COMMAND));
         offButton.setOnClickListener(view -> sendCommand(OFF_COMMAND));
+        // Blinks the relay on the service's sequencer, which keeps the timing while this screen is busy
+        onButton.setOnLongClickListener(view -> {
+            playMacro(LinkService.MACRO_BLINK);
+            return true;
+        });
+        // Emergency off: jumps ahead of anything still queued for the primary link
+        offButton.setOnLongClickListener(view -> {
+            sendCommand(OFF_COMMAND, CommandWriter.Priority.URGENT);
+            return true;
+        });
     }
 
     private void initializeBluetoothConnection() {
-        BluetoothSocketWrapper socketWrapper = BluetoothHolder.getBluetoothSocketWrapper();
+        if (USE_COMMAND_PROTOCOL) {
+            // Acks arrive through the shared bus, whichever channel is current gets them
+            commandSubscription = ConnectionManager.getInstance().getDataBus()
+                    .subscribe("commands", DataBus.OverflowPolicy.DROP)
+                    .start((data, offset, length) -> {
+                        CommandChannel channel = commandChannel;
+                        if (channel != null) {
+                            channel.onBytesReceived(data, offset, length);
+                        }
+                    });
+        }
+        ConnectionManager.getInstance().addListener(connectionListener);
+        linkBinding = new LinkService.Binding(this, boundSession -> {
+            session = boundSession;
+            session.setCallback(writerCallback);
+        });
+        linkBinding.bind();
+
+        if (ConnectionManager.getInstance().getTransport() == null) {
+            showToast("Bluetooth socket is not connected");
+        }
+    }
+
+    private final ConnectionManager.Listener connectionListener = state -> runOnUiThread(() -> {
+        showLinkStats();
+        if (state == ConnectionManager.State.CONNECTED) {
+            bindTransport(ConnectionManager.getInstance().getTransport());
+        }
+    });
 
-        if (socketWrapper != null) {
-            bluetoothSocket = socketWrapper.getBluetoothSocket();
+    private final MultiLinkManager.Listener fleetListener = (link, state) -> runOnUiThread(() -> {
+        refreshTargets();
+        showLinkStats();
+    });
 
-            if (bluetoothSocket != null && bluetoothSocket.isConnected()) {
-                try {
-                    outputStream = bluetoothSocket.getOutputStream();
-                } catch (IOException e) {
-                    showToast("Failed to obtain OutputStream");
-                    e.printStackTrace();
+    // Keeps the selection on the same entry while links come and go
+    private void refreshTargets() {
+        int selected = targetSpinner.getSelectedItemPosition();
+        String selectedId = selected >= 2 && selected - 2 < fleetTargets.size() ? fleetTargets.get(selected - 2) : null;
+        fleetTargets.clear();
+        for (MultiLinkManager.Link link : MultiLinkManager.getInstance().getLinks()) {
+            fleetTargets.add(link.getId());
+        }
+        targetAdapter.clear();
+        targetAdapter.add("Primary link");
+        targetAdapter.add("All devices");
+        targetAdapter.addAll(fleetTargets);
+        targetAdapter.notifyDataSetChanged();
+        if (selectedId != null) {
+            int index = fleetTargets.indexOf(selectedId);
+            targetSpinner.setSelection(index < 0 ? TARGET_PRIMARY : index + 2);
+        } else if (selected == TARGET_ALL) {
+            targetSpinner.setSelection(TARGET_ALL);
+        }
+    }
+
+    private void showLinkStats() {
+        String fleet = MultiLinkManager.getInstance().describe();
+        String primary = ConnectionManager.getInstance().describe();
+        connectionTextView.setText(fleet.isEmpty() ? primary : primary + "\n" + fleet);
+    }
+
+    // Picks up the streams of a new transport after the first connect or a reconnect
+    private void bindTransport(Transport newTransport) {
+        if (newTransport == null || newTransport == transport) {
+            return;
+        }
+        if (commandChannel != null) {
+            commandChannel.close();
+            commandChannel = null;
+        }
+        transport = newTransport;
+        try {
+            outputStream = transport.getOutputStream();
+            if (USE_COMMAND_PROTOCOL) {
+                commandChannel = new CommandChannel(outputStream, 4, 250, TimeUnit.MILLISECONDS, 3);
+                if (commandExecutor == null) {
+                    commandExecutor = Executors.newSingleThreadExecutor();
                 }
-            } else {
-                showToast("Bluetooth socket is not connected");
             }
-        } else {
-            showToast("BluetoothSocketWrapper is null");
+        } catch (IOException e) {
+            showToast("Failed to obtain OutputStream");
+            e.printStackTrace();
         }
     }
 
     private void sendCommand(char command) {
+        sendCommand(command, CommandWriter.Priority.NORMAL);
+    }
+
+    private void sendCommand(char command, CommandWriter.Priority priority) {
+        stopMacro();
+        int target = targetSpinner.getSelectedItemPosition();
+        if (target >= 2) {
+            sendToFleet(fleetTargets.get(target - 2), command);
+            return;
+        }
+        if (target == TARGET_ALL) {
+            int queued = MultiLinkManager.getInstance().broadcast(fleetPayload(command));
+            if (outputStream == null) {
+                if (queued == 0) {
+                    showToast("No connected devices");
+                } else {
+                    updateStatus(command);
+                }
+                return;
+            }
+        }
+        sendToPrimary(command, priority);
+    }
+
+    private void playMacro(String name) {
+        CommandSequencer sequencer = linkBinding.getSequencer();
+        if (sequencer == null) {
+            showToast("Link service is not bound yet");
+            return;
+        }
+        stopMacro();
+        macroPlayback = sequencer.play(name);
+    }
+
+    private void stopMacro() {
+        if (macroPlayback != null) {
+            macroPlayback.cancel();
+            macroPlayback = null;
+        }
+    }
+
+    // Fleet writes are queued per link, so the status is shown once the command is accepted
+    private void sendToFleet(String id, char command) {
+        if (MultiLinkManager.getInstance().send(id, fleetPayload(command))) {
+            updateStatus(command);
+        } else {
+            showToast("Device is not connected or busy");
+        }
+    }
+
+    // Acks are only tracked on the primary link, fleet devices get the frame fire-and-forget
+    private static byte[] fleetPayload(char command) {
+        if (!USE_COMMAND_PROTOCOL) {
+            return new byte[]{(byte) command};
+        }
+        return CommandProtocol.encode(DEVICE_ADDRESS, CommandProtocol.OP_SET_STATE, 0,
+                (byte) RELAY_OUTPUT, (byte) (command == ON_COMMAND ? 1 : 0));
+    }
+
+    private void sendToPrimary(char command, CommandWriter.Priority priority) {
         if (outputStream == null) {
             showToast("OutputStream is null. Can't send command.");
             return;
         }
 
-        try {
-            // Write the command to the output stream
-            outputStream.write(command);
-            updateStatus(command);
-        } catch (IOException e) {
-            showToast("Error sending command");
-            e.printStackTrace();
+        if (commandChannel != null) {
+            sendFramedCommand(command);
+            return;
+        }
+
+        if (session == null) {
+            showToast("Link service is not bound yet");
+            return;
+        }
+        // Queued for the session's writer thread, the status follows once it is on the wire
+        byte[] data = {(byte) command};
+        lastTap = data;
+        if (!session.submit(LinkService.RELAY_KEY, data, priority)) {
+            showToast("Too many commands queued");
         }
     }
 
+    // The session reports failures to the link itself, this only updates the screen
+    private final CommandWriter.Callback writerCallback = new CommandWriter.Callback() {
+        @Override
+        public void onWritten(String key, byte[] data, long latencyNanos) {
+            // A tap that a later write replaced in the queue is reported by neither
+            if (data == lastTap) {
+                runOnUiThread(() -> updateStatus((char) data[0]));
+            }
+        }
+
+        @Override
+        public void onFailure(String key, IOException e) {
+            runOnUiThread(() -> showToast("Error sending command"));
+        }
+    };
+
+    private void sendFramedCommand(char command) {
+        byte[] payload = {RELAY_OUTPUT, (byte) (command == ON_COMMAND ? 1 : 0)};
+        // send() blocks while the in-flight window is full, keep it off the UI thread
+        commandExecutor.execute(() -> {
+            try {
+                commandChannel.send(DEVICE_ADDRESS, CommandProtocol.OP_SET_STATE, payload, new CommandChannel.Callback() {
+                    @Override
+                    public void onAck(int seq, long roundTripNanos) {
+                        runOnUiThread(() -> updateStatus(command));
+                    }
+
+                    @Override
+                    public void onFailure(int seq, Exception e) {
+                        runOnUiThread(() -> showToast("Device did not acknowledge command"));
+                    }
+                });
+            } catch (IOException e) {
+                runOnUiThread(() -> showToast("Error sending command"));
+                e.printStackTrace();
+                ConnectionManager.getInstance().reportFailure(transport, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
     private void updateStatus(char command) {
-        String status = "";
+        String status;
         if (command == ON_COMMAND) {
             onTextView.setText("Status: Device is ON");
             offTextView.setText(""); // Clear offTextView
@@ -96,6 +317,8 @@ public class ControlActivity extends AppCompatActivity {
             offTextView.setText("Status: Device is OFF");
             onTextView.setText("");  // Clear onTextView
             status = "OFF";
+        } else {
+            return;
         }
 
         // Send status to the server
@@ -103,36 +326,14 @@ public class ControlActivity extends AppCompatActivity {
     }
 
     private void sendDataToServer(String data) {
-        // Use OkHttpClient to send the status to the backend API
-        OkHttpClient client = new OkHttpClient();
-
-        String jsonInputString = "{\"data\":\"" + data + "\"}";
-
-        RequestBody body = RequestBody.create(
-                jsonInputString,
-                MediaType.get("application/json; charset=utf-8")
-        );
-
-        Request request = new Request.Builder()
-                .url("https://aurdino-control-backend.vercel.app/data") // Replace with the correct API endpoint
-                .post(body)
-                .build();
-
-        new Thread(() -> {
-            try (Response response = client.newCall(request).execute()) {
-                if (response.isSuccessful()) {
-                    // Optionally, log the response from the server
-                    String responseBody = response.body().string();
-                    runOnUiThread(() -> showToast("Status sent to server successfully"));
-                } else {
-                    // Handle the error response
-                    runOnUiThread(() -> showToast("Failed to send status to server"));
-                }
-            } catch (IOException e) {
-                runOnUiThread(() -> showToast("Error sending status to server"));
-                e.printStackTrace();
+        // Stored durably first; the outbox drainer uploads it whenever there is a network
+        try {
+            if (!TelemetryOutbox.getInstance(this).append(data)) {
+                showToast("Could not store status for upload");
             }
-        }).start();
+        } catch (IOException e) {
+            showToast("Could not store status for upload");
+        }
     }
 
     private void showToast(String message) {
@@ -142,17 +343,22 @@ public class ControlActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        closeBluetoothSocket();
-    }
-
-    private void closeBluetoothSocket() {
-        if (bluetoothSocket != null) {
-            try {
-                bluetoothSocket.close();
-            } catch (IOException e) {
-                showToast("Error closing Bluetooth socket");
-                e.printStackTrace();
-            }
+        metricsOverlay.stop();
+        ConnectionManager.getInstance().removeListener(connectionListener);
+        MultiLinkManager.getInstance().removeListener(fleetListener);
+        if (commandSubscription != null) {
+            commandSubscription.close();
+        }
+        if (commandChannel != null) {
+            commandChannel.close();
+        }
+        if (session != null) {
+            session.setCallback(null);
+        }
+        stopMacro();
+        linkBinding.unbind();
+        if (commandExecutor != null) {
+            commandExecutor.shutdownNow();
         }
     }
 }
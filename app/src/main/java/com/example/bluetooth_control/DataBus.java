@@ -0,0 +1,205 @@
+package com.example.bluetooth_control;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer, multi-subscriber ring buffer for incoming device bytes.
+ *
+ * The connection's reader thread publishes chunks into preallocated slots and never blocks.
+ * Every subscriber has its own cursor, so a slow consumer only hurts itself: once the producer
+ * laps it, it either skips what was overwritten ({@link OverflowPolicy#DROP}) or always jumps
+ * to the newest chunk ({@link OverflowPolicy#LATEST_ONLY}).
+ */
+public class DataBus {
+
+    public enum OverflowPolicy {
+        DROP,
+        LATEST_ONLY
+    }
+
+    // The bytes are only valid for the duration of the call
+    public interface Consumer {
+        void onData(byte[] data, int offset, int length);
+    }
+
+    private static final long WRITING = -1;
+
+    private final int slotCount;
+    private final int mask;
+    private final int slotSize;
+    private final byte[][] slots;
+    private final int[] lengths;
+    // Sequence stored in each slot, WRITING while the producer is filling it
+    private final AtomicLongArray slotSequences;
+    private final AtomicLong published = new AtomicLong(-1);
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public DataBus(int slotCount, int slotSize) {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("slotCount must be a power of two");
+        }
+        this.slotCount = slotCount;
+        this.mask = slotCount - 1;
+        this.slotSize = slotSize;
+        this.slots = new byte[slotCount][slotSize];
+        this.lengths = new int[slotCount];
+        this.slotSequences = new AtomicLongArray(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slotSequences.set(i, WRITING);
+        }
+    }
+
+    /**
+     * Publishes bytes to every subscriber. Must only be called from one thread at a time;
+     * chunks larger than a slot are split across several.
+     */
+    public void publish(byte[] data, int offset, int length) {
+        while (length > 0) {
+            int chunk = Math.min(length, slotSize);
+            long seq = published.get() + 1;
+            int index = (int) (seq & mask);
+
+            // Mark the slot first so a reader that raced us sees it change and retries
+            slotSequences.getAndSet(index, WRITING);
+            System.arraycopy(data, offset, slots[index], 0, chunk);
+            lengths[index] = chunk;
+            slotSequences.set(index, seq);
+            published.set(seq);
+
+            offset += chunk;
+            length -= chunk;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.wake();
+        }
+    }
+
+    // New subscribers only see data published after they joined
+    public Subscription subscribe(String name, OverflowPolicy policy) {
+        Subscription subscription = new Subscription(name, policy, published.get() + 1);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public long getPublishedCount() {
+        return published.get() + 1;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    public class Subscription {
+        private final String name;
+        private final OverflowPolicy policy;
+        private final byte[] scratch = new byte[slotSize];
+        private final AtomicLong dropped = new AtomicLong();
+        private long next;
+        // Written after copying a slot so the copy cannot be reordered past the validation read
+        private volatile long copyFence;
+        private volatile Thread waiter;
+        private volatile boolean closed;
+        private Thread dispatcher;
+
+        Subscription(String name, OverflowPolicy policy, long next) {
+            this.name = name;
+            this.policy = policy;
+            this.next = next;
+        }
+
+        /**
+         * Delivers up to {@code max} pending chunks to the consumer on the calling thread and
+         * returns how many were delivered. Only one thread may poll a subscription.
+         */
+        public int poll(Consumer consumer, int max) {
+            int delivered = 0;
+            while (delivered < max && !closed) {
+                long head = published.get();
+                if (next > head) {
+                    break;
+                }
+                if (policy == OverflowPolicy.LATEST_ONLY && next < head) {
+                    dropped.addAndGet(head - next);
+                    next = head;
+                } else if (head - next >= slotCount) {
+                    // Lapped by the producer, skip to the oldest slot that can still be valid
+                    long oldest = head - slotCount + 1;
+                    dropped.addAndGet(oldest - next);
+                    next = oldest;
+                }
+
+                int index = (int) (next & mask);
+                if (slotSequences.get(index) != next) {
+                    // Overwritten while we looked, go around again
+                    continue;
+                }
+                int length = lengths[index];
+                System.arraycopy(slots[index], 0, scratch, 0, length);
+                copyFence = next;
+                if (slotSequences.get(index) != next) {
+                    continue;
+                }
+
+                next++;
+                delivered++;
+                consumer.onData(scratch, 0, length);
+            }
+            return delivered;
+        }
+
+        // Chunks published but not yet delivered to this subscriber
+        public long getBacklog() {
+            return Math.max(0, published.get() + 1 - next);
+        }
+
+        public long getDroppedCount() {
+            return dropped.get();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Runs a dispatcher thread that feeds the consumer until the subscription is closed.
+         * The thread parks while there is nothing to deliver.
+         */
+        public synchronized Subscription start(Consumer consumer) {
+            if (dispatcher != null) {
+                throw new IllegalStateException("Already started");
+            }
+            dispatcher = new Thread(() -> {
+                while (!closed) {
+                    if (poll(consumer, 64) == 0) {
+                        waiter = Thread.currentThread();
+                        // Re-check after announcing ourselves so a publish in between is not missed
+                        if (getBacklog() == 0 && !closed) {
+                            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                        }
+                        waiter = null;
+                    }
+                }
+            }, "bus-" + name);
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            return this;
+        }
+
+        void wake() {
+            Thread thread = waiter;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+            wake();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.example.bluetooth_control;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The devices this phone last connected to, newest first, kept in a small file so a
+ * reconnect after a restart goes straight to the address instead of walking the bonded set
+ * or running a discovery.
+ *
+ * {@link #find} checks the cache first and then makes one pass over the adapter's bonded
+ * devices. {@link #discover} adds a discovery when both miss; its results come back through
+ * {@link #onDiscovered} and only the first match is reported, however often the scan sees it
+ * and however many callers asked. A scan that ends without a match, reported through
+ * {@link #onDiscoveryFinished} or outliving {@link #DISCOVERY_TIMEOUT_MILLIS}, is over, so the
+ * next lookup starts a new one.
+ */
+public class DeviceCache {
+
+    // The parts of BluetoothAdapter the lookup needs, so it can be faked in tests
+    public interface Adapter {
+        // Bonded devices as address to name; names may be null
+        Map<String, String> getBondedDevices();
+
+        void startDiscovery();
+
+        void cancelDiscovery();
+    }
+
+    // Called on whichever thread resolved the device, the discovery receiver's for discovered ones
+    public interface Callback {
+        void onDeviceFound(String address, String name, Source source);
+    }
+
+    public enum Source {
+        CACHE,
+        BONDED,
+        DISCOVERY
+    }
+
+    private static final int VERSION = 1;
+    // Android scans for about 12 s; a lookup that never heard the scan finish stops waiting after this
+    static final long DISCOVERY_TIMEOUT_MILLIS = 30_000;
+
+    private final File file;
+    private final int capacity;
+    private final Adapter adapter;
+    // Insertion order is recency, the newest connect last
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    // Guarded by this; the running lookup, if any
+    private String wantedName;
+    private Callback pending;
+    private long discoveryStartedNanos;
+    private final Set<String> discovered = new HashSet<>();
+    private long bondedScans;
+    private long discoveries;
+    private long duplicatesDropped;
+
+    /**
+     * Loads the cache from {@code file}; a missing or damaged file starts empty.
+     *
+     * @param capacity how many devices are remembered, the least recently connected go first
+     */
+    public DeviceCache(File file, int capacity, Adapter adapter) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        this.file = file;
+        this.capacity = capacity;
+        this.adapter = adapter;
+        try {
+            load();
+        } catch (IOException e) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Resolves the device named {@code name}, or the most recent device of any name when it is
+     * null, without a discovery. Returns true when {@code callback} was called.
+     */
+    public boolean find(String name, Callback callback) {
+        Entry cached = preferred(name);
+        if (cached != null) {
+            callback.onDeviceFound(cached.address, cached.name, Source.CACHE);
+            return true;
+        }
+        Map<String, String> bonded = adapter.getBondedDevices();
+        synchronized (this) {
+            bondedScans++;
+        }
+        for (Map.Entry<String, String> device : bonded.entrySet()) {
+            if (name == null || name.equals(device.getValue())) {
+                callback.onDeviceFound(device.getKey(), device.getValue(), Source.BONDED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Like {@link #find}, but starts a discovery when the device is neither cached nor bonded;
+     * the callback then runs once a matching device turns up. A discovery already running is
+     * joined rather than restarted, and the latest caller gets the result.
+     */
+    public void discover(String name, Callback callback) {
+        if (find(name, callback)) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            boolean running = pending != null
+                    && now - discoveryStartedNanos < TimeUnit.MILLISECONDS.toNanos(DISCOVERY_TIMEOUT_MILLIS);
+            wantedName = name;
+            pending = callback;
+            if (running) {
+                return;
+            }
+            discovered.clear();
+            discoveryStartedNanos = now;
+            discoveries++;
+        }
+        adapter.startDiscovery();
+    }
+
+    /**
+     * Feeds one discovery result, as delivered by ACTION_FOUND. The same device is often
+     * reported several times per scan, the first time often without its name; only the first
+     * matching report reaches the callback, and the discovery is cancelled then.
+     */
+    public void onDiscovered(String address, String name) {
+        Callback callback;
+        synchronized (this) {
+            // Only matches are deduplicated, so a nameless sighting does not hide the named one
+            if (wantedName != null && !wantedName.equals(name)) {
+                return;
+            }
+            if (!discovered.add(address)) {
+                duplicatesDropped++;
+                return;
+            }
+            if (pending == null) {
+                return;
+            }
+            callback = pending;
+            pending = null;
+        }
+        adapter.cancelDiscovery();
+        callback.onDeviceFound(address, name, Source.DISCOVERY);
+    }
+
+    // The scan ended, as delivered by ACTION_DISCOVERY_FINISHED; a lookup still waiting gives up
+    public synchronized void onDiscoveryFinished() {
+        pending = null;
+        discovered.clear();
+    }
+
+    // Drops a running lookup, e.g. when its screen goes away
+    public synchronized void cancel() {
+        if (pending != null) {
+            pending = null;
+            adapter.cancelDiscovery();
+        }
+    }
+
+    // Most recently connected device named name, or of any name when it is null
+    public synchronized Entry preferred(String name) {
+        Entry best = null;
+        for (Entry entry : entries.values()) {
+            if (name == null || name.equals(entry.name)) {
+                best = entry;
+            }
+        }
+        return best;
+    }
+
+    public synchronized Entry get(String address) {
+        return entries.get(address);
+    }
+
+    public synchronized List<Entry> getEntries() {
+        List<Entry> newestFirst = new ArrayList<>(entries.values());
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    /**
+     * Remembers a successful connect and writes the cache out.
+     *
+     * @param connectMillis time from the connect request to the link being up
+     */
+    public void recordConnected(String address, String name, long connectMillis, long nowMillis) throws IOException {
+        synchronized (this) {
+            entries.remove(address);
+            entries.put(address, new Entry(address, name, connectMillis, nowMillis));
+            while (entries.size() > capacity) {
+                entries.remove(entries.keySet().iterator().next());
+            }
+        }
+        save();
+    }
+
+    // For a cached device that no longer connects, so the next lookup falls back to the adapter
+    public void forget(String address) throws IOException {
+        synchronized (this) {
+            if (entries.remove(address) == null) {
+                return;
+            }
+        }
+        save();
+    }
+
+    public synchronized long getBondedScans() {
+        return bondedScans;
+    }
+
+    public synchronized long getDiscoveryCount() {
+        return discoveries;
+    }
+
+    public synchronized long getDuplicatesDropped() {
+        return duplicatesDropped;
+    }
+
+    // [version][count]([address][name][connect ms][last connected ms])*, oldest first, then a crc32
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        if (data.length < 4) {
+            throw new IOException("Truncated device cache");
+        }
+        int length = data.length - 4;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        int stored = (data[length] & 0xff) << 24 | (data[length + 1] & 0xff) << 16
+                | (data[length + 2] & 0xff) << 8 | (data[length + 3] & 0xff);
+        if (stored != (int) crc.getValue()) {
+            throw new IOException("Corrupt device cache");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+        if (in.readInt() != VERSION) {
+            return;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String address = in.readUTF();
+            String name = in.readBoolean() ? in.readUTF() : null;
+            entries.put(address, new Entry(address, name, in.readLong(), in.readLong()));
+        }
+    }
+
+    private void save() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        synchronized (this) {
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.address);
+                out.writeBoolean(entry.name != null);
+                if (entry.name != null) {
+                    out.writeUTF(entry.name);
+                }
+                out.writeLong(entry.connectMillis);
+                out.writeLong(entry.lastConnectedMillis);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        // Written aside and renamed over, a crash leaves either the old cache or the new one
+        File tmp = new File(file.getPath() + ".tmp");
+        synchronized (file) {
+            try (FileOutputStream stream = new FileOutputStream(tmp)) {
+                bytes.writeTo(stream);
+                stream.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+        }
+    }
+
+    public static final class Entry {
+        public final String address;
+        public final String name;
+        public final long connectMillis;
+        public final long lastConnectedMillis;
+
+        Entry(String address, String name, long connectMillis, long lastConnectedMillis) {
+            this.address = address;
+            this.name = name;
+            this.connectMillis = connectMillis;
+            this.lastConnectedMillis = lastConnectedMillis;
+        }
+    }
+}
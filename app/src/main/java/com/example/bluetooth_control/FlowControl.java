@@ -0,0 +1,399 @@
+package com.example.bluetooth_control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps writes within what the Arduino can take. The sketch drains a 64 byte serial buffer
+ * at its own pace; anything the HC-05 hands it while that buffer is full is lost. Wrap the
+ * factory the link is opened with: {@code manager.connect(flowControl.wrap(factory))}.
+ *
+ * In {@link Mode#CREDITS} the app starts with {@code window} bytes of credit and the sketch
+ * sends one {@link #CREDIT} byte for every {@code creditBytes} it has taken out of its
+ * buffer. Going the other way, the app grants the device a CREDIT for every
+ * {@code creditBytes} the reader has taken off the link, so the device may also pace itself
+ * to the app. {@link Mode#XON_XOFF} is the fallback for sketches that can only say stop
+ * ({@link #XOFF}) and go ({@link #XON}); the app then writes at most {@code creditBytes}
+ * between checks, paced to the baud rate. Either way a write blocks until it may go out, so
+ * {@link CommandWriter} keeps queueing and coalescing behind it, and control bytes are taken
+ * out of the stream before anyone reads it.
+ *
+ * Control bytes are DC1-DC3, which never occur in the text protocol; framed binary data
+ * must not be sent over a flow controlled link.
+ */
+public class FlowControl {
+
+    public enum Mode {
+        CREDITS,
+        XON_XOFF
+    }
+
+    public static final byte XON = 0x11;
+    public static final byte CREDIT = 0x12;
+    public static final byte XOFF = 0x13;
+
+    private final Mode mode;
+    private final int window;
+    private final int creditBytes;
+    private final long nanosPerByte;
+    private final long stallTimeoutNanos;
+
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong stalledNanos = new AtomicLong();
+    private final AtomicLong creditsReceived = new AtomicLong();
+    private final AtomicLong creditsGranted = new AtomicLong();
+    private final AtomicLong xoffs = new AtomicLong();
+    private final LatencyHistogram stallTimes = Metrics.getInstance().histogram(Metrics.LINK_FLOW_STALL);
+
+    private FlowControl(Builder builder) {
+        this.mode = builder.mode;
+        this.window = builder.window;
+        this.creditBytes = builder.creditBytes;
+        // 8N1 framing puts 10 bits on the wire per byte
+        this.nanosPerByte = builder.baudRate > 0 ? TimeUnit.SECONDS.toNanos(10) / builder.baudRate : 0;
+        this.stallTimeoutNanos = builder.stallTimeoutNanos;
+    }
+
+    // Opens links through factory and flow controls them; every link starts with a full window
+    public TransportFactory wrap(TransportFactory factory) {
+        return () -> new FlowControlledTransport(factory.connect());
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    // Writes that had to wait for credit or an XON
+    public long getStallCount() {
+        return stalls.get();
+    }
+
+    public long getStalledNanos() {
+        return stalledNanos.get();
+    }
+
+    public long getCreditsReceived() {
+        return creditsReceived.get();
+    }
+
+    public long getCreditsGranted() {
+        return creditsGranted.get();
+    }
+
+    public long getXoffCount() {
+        return xoffs.get();
+    }
+
+    private class FlowControlledTransport implements Transport {
+        private final Transport transport;
+        private final InputStream rawIn;
+        private final OutputStream rawOut;
+        private final InputStream in = new ControlStrippingInputStream();
+        private final OutputStream out = new GatedOutputStream();
+        // Held while bytes go out, so a grant never lands inside a chunk
+        private final Object writeLock = new Object();
+        private final byte[] single = new byte[1];
+
+        // Guarded by this
+        private long credit = window;
+        private boolean paused;
+        private boolean closed;
+        private long nextWriteNanos;
+
+        // Only touched on the reading thread
+        private int readSinceGrant;
+        private byte[] grantBuffer = new byte[0];
+
+        FlowControlledTransport(Transport transport) throws IOException {
+            this.transport = transport;
+            this.rawIn = transport.getInputStream();
+            this.rawOut = transport.getOutputStream();
+        }
+
+        // Takes the control bytes out of what was read, returns how many data bytes are left
+        private int strip(byte[] b, int off, int n) {
+            int kept = off;
+            long granted = 0;
+            boolean xon = false;
+            boolean xoff = false;
+            for (int i = off; i < off + n; i++) {
+                byte value = b[i];
+                if (value == CREDIT) {
+                    granted++;
+                } else if (value == XON) {
+                    xon = true;
+                    xoff = false;
+                } else if (value == XOFF) {
+                    xoff = true;
+                    xon = false;
+                } else {
+                    b[kept++] = value;
+                }
+            }
+            if (granted > 0 || xon || xoff) {
+                synchronized (this) {
+                    credit += granted * creditBytes;
+                    if (xon || xoff) {
+                        paused = xoff;
+                    }
+                    notifyAll();
+                }
+                creditsReceived.addAndGet(granted);
+                if (xoff) {
+                    xoffs.incrementAndGet();
+                }
+            }
+            return kept - off;
+        }
+
+        // Tells the device it may send more, once the reader has taken enough off the link
+        private void grant(int read) throws IOException {
+            if (mode != Mode.CREDITS) {
+                return;
+            }
+            readSinceGrant += read;
+            int grants = readSinceGrant / creditBytes;
+            if (grants == 0) {
+                return;
+            }
+            readSinceGrant -= grants * creditBytes;
+            if (grantBuffer.length < grants) {
+                grantBuffer = new byte[grants];
+                Arrays.fill(grantBuffer, CREDIT);
+            }
+            synchronized (writeLock) {
+                rawOut.write(grantBuffer, 0, grants);
+                rawOut.flush();
+            }
+            creditsGranted.addAndGet(grants);
+        }
+
+        // Waits until some of a write may go out and returns how much, at most length
+        private int acquire(int length) throws IOException {
+            boolean stalled = false;
+            long started = 0;
+            while (true) {
+                long paceWait;
+                synchronized (this) {
+                    if (closed) {
+                        throw new IOException("Link closed");
+                    }
+                    long now = System.nanoTime();
+                    if (paused || (mode == Mode.CREDITS && credit <= 0)) {
+                        if (!stalled) {
+                            stalled = true;
+                            started = now;
+                        }
+                        long remaining = started + stallTimeoutNanos - now;
+                        if (remaining <= 0) {
+                            throw new IOException("No " + (paused ? "XON" : "credit") + " from the device for "
+                                    + TimeUnit.NANOSECONDS.toMillis(stallTimeoutNanos) + "ms");
+                        }
+                        timedWait(remaining);
+                        continue;
+                    }
+                    paceWait = nextWriteNanos - now;
+                    if (paceWait <= 0) {
+                        int allowed;
+                        if (mode == Mode.CREDITS) {
+                            allowed = (int) Math.min(length, credit);
+                            credit -= allowed;
+                        } else {
+                            allowed = Math.min(length, creditBytes);
+                        }
+                        if (nanosPerByte > 0) {
+                            nextWriteNanos = Math.max(now, nextWriteNanos) + allowed * nanosPerByte;
+                        }
+                        if (stalled) {
+                            long waited = now - started;
+                            stalls.incrementAndGet();
+                            stalledNanos.addAndGet(waited);
+                            stallTimes.record(waited);
+                        }
+                        return allowed;
+                    }
+                }
+                // Outside the lock: a monitor wait rounds up to whole milliseconds
+                LockSupport.parkNanos(paceWait);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while pacing");
+                }
+            }
+        }
+
+        private void timedWait(long nanos) throws InterruptedIOException {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for credit");
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return transport.isConnected();
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            transport.close();
+        }
+
+        private class ControlStrippingInputStream extends InputStream {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                int n = read(one, 0, 1);
+                return n < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (true) {
+                    int n = rawIn.read(b, off, len);
+                    if (n <= 0) {
+                        return n;
+                    }
+                    int kept = strip(b, off, n);
+                    if (kept > 0) {
+                        grant(kept);
+                        return kept;
+                    }
+                    // Nothing but control bytes, read on
+                }
+            }
+
+            @Override
+            public int available() throws IOException {
+                return rawIn.available();
+            }
+
+            @Override
+            public void close() throws IOException {
+                rawIn.close();
+            }
+        }
+
+        private class GatedOutputStream extends OutputStream {
+            @Override
+            public void write(int b) throws IOException {
+                synchronized (single) {
+                    single[0] = (byte) b;
+                    write(single, 0, 1);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    int allowed = acquire(len);
+                    synchronized (writeLock) {
+                        rawOut.write(b, off, allowed);
+                        rawOut.flush();
+                    }
+                    off += allowed;
+                    len -= allowed;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                synchronized (writeLock) {
+                    rawOut.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                rawOut.close();
+            }
+        }
+    }
+
+    public static class Builder {
+        private final Mode mode;
+        private int window = 64;
+        private int creditBytes = 16;
+        private int baudRate;
+        private long stallTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+
+        public Builder(Mode mode) {
+            if (mode == null) {
+                throw new IllegalArgumentException("mode must not be null");
+            }
+            this.mode = mode;
+        }
+
+        // Bytes the device can buffer, the credit each link starts with; 64 on an Uno
+        public Builder window(int window) {
+            if (window <= 0) {
+                throw new IllegalArgumentException("window must be positive");
+            }
+            this.window = window;
+            return this;
+        }
+
+        // Bytes one CREDIT stands for, and the most written between XOFF checks
+        public Builder creditBytes(int creditBytes) {
+            if (creditBytes <= 0) {
+                throw new IllegalArgumentException("creditBytes must be positive");
+            }
+            this.creditBytes = creditBytes;
+            return this;
+        }
+
+        /**
+         * Paces writes to the module's UART rate; 0, the default, writes as fast as flow control
+         * allows. XON/XOFF needs it: an XOFF only stops what has not been written yet, so
+         * whatever the app runs ahead of the wire is lost past the sketch's headroom.
+         */
+        public Builder baudRate(int baudRate) {
+            if (baudRate < 0) {
+                throw new IllegalArgumentException("baudRate must not be negative");
+            }
+            this.baudRate = baudRate;
+            return this;
+        }
+
+        // A write waiting longer than this fails, so a silent sketch surfaces as a link error
+        public Builder stallTimeout(long timeout, TimeUnit unit) {
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("timeout must be positive");
+            }
+            this.stallTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        public FlowControl build() {
+            if (creditBytes > window) {
+                throw new IllegalArgumentException("creditBytes must not exceed window");
+            }
+            return new FlowControl(this);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.bluetooth_control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Incremental framing for the RFCOMM byte stream.
+ *
+ * Bytes are accumulated into one reused buffer and complete frames are handed to the listener
+ * as a view into that buffer, so nothing is allocated per byte or per read. The frame buffer
+ * is only valid for the duration of the callback.
+ */
+public class FrameDecoder {
+
+    public interface FrameListener {
+        void onFrame(ByteBuffer frame);
+    }
+
+    public interface LineListener {
+        void onLine(CharBuffer line);
+    }
+
+    /**
+     * Locates the next complete frame in {@code buffer} between its position and limit.
+     * Returns the index just past the frame and stores the payload bounds in {@code bounds},
+     * or returns -1 if the buffer holds no complete frame yet.
+     */
+    public interface Framing {
+        int findFrame(ByteBuffer buffer, int scanFrom, int[] bounds);
+
+        // Largest payload the framing can describe, or -1 if unbounded
+        int maxPayload();
+    }
+
+    // Frames terminated by "\n", with an optional "\r" before it stripped from the payload
+    public static Framing newline() {
+        return new DelimiterFraming((byte) '\n', true);
+    }
+
+    // Frames terminated by a single delimiter byte, kept verbatim
+    public static Framing delimiter(byte delimiter) {
+        return new DelimiterFraming(delimiter, false);
+    }
+
+    // Frames preceded by a big-endian length of 1 or 2 bytes
+    public static Framing lengthPrefixed(int prefixBytes) {
+        return new LengthPrefixedFraming(prefixBytes);
+    }
+
+    public static Framing fixedSize(int recordSize) {
+        return new FixedSizeFraming(recordSize);
+    }
+
+    private final Framing framing;
+    private final FrameListener listener;
+    private final ByteBuffer accumulator;
+    private final ByteBuffer frameView;
+    private final byte[] readBuffer;
+    private final int[] bounds = new int[2];
+    private int scanFrom;
+    // Set after an overflow until the rest of the truncated frame has gone by
+    private boolean discarding;
+
+    private long frameCount;
+    private long overflowCount;
+
+    public FrameDecoder(Framing framing, int maxFrameLength, FrameListener listener) {
+        if (framing.maxPayload() > maxFrameLength) {
+            throw new IllegalArgumentException("maxFrameLength too small for framing");
+        }
+        this.framing = framing;
+        this.listener = listener;
+        // Room for the payload plus prefix or delimiter bytes
+        this.accumulator = ByteBuffer.allocate(maxFrameLength + 2);
+        this.frameView = accumulator.duplicate();
+        this.readBuffer = new byte[1024];
+        accumulator.limit(0);
+    }
+
+    /**
+     * Performs one read() on the stream and decodes what arrived.
+     * Returns the number of bytes read, or -1 once the stream is at EOF.
+     */
+    public int readFrom(InputStream in) throws IOException {
+        int numBytes = in.read(readBuffer);
+        if (numBytes > 0) {
+            feed(readBuffer, 0, numBytes);
+        }
+        return numBytes;
+    }
+
+    public void feed(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            int room = makeRoom();
+            if (room == 0) {
+                // A frame larger than the buffer, hand it over truncated and drop its tail
+                if (!discarding) {
+                    overflowCount++;
+                    emit(accumulator.position(), accumulator.limit());
+                    discarding = true;
+                }
+                accumulator.limit(0);
+                accumulator.position(0);
+                scanFrom = 0;
+                continue;
+            }
+            int chunk = Math.min(room, length);
+            int limit = accumulator.limit();
+            System.arraycopy(bytes, offset, accumulator.array(), limit, chunk);
+            accumulator.limit(limit + chunk);
+            offset += chunk;
+            length -= chunk;
+            drainFrames();
+        }
+    }
+
+    public void feed(ByteBuffer bytes) {
+        if (bytes.hasArray()) {
+            feed(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            bytes.position(bytes.limit());
+        } else {
+            while (bytes.hasRemaining()) {
+                int chunk = Math.min(readBuffer.length, bytes.remaining());
+                bytes.get(readBuffer, 0, chunk);
+                feed(readBuffer, 0, chunk);
+            }
+        }
+    }
+
+    // Emits any buffered partial frame, e.g. a last line without a trailing newline at EOF
+    public void finish() {
+        if (accumulator.hasRemaining() && framing instanceof DelimiterFraming && !discarding) {
+            emit(accumulator.position(), accumulator.limit());
+        }
+        reset();
+    }
+
+    public void reset() {
+        accumulator.limit(0);
+        accumulator.position(0);
+        scanFrom = 0;
+        discarding = false;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+    private void drainFrames() {
+        int end;
+        while ((end = framing.findFrame(accumulator, Math.max(scanFrom, accumulator.position()), bounds)) >= 0) {
+            if (discarding) {
+                discarding = false;
+            } else {
+                emit(bounds[0], bounds[1]);
+            }
+            accumulator.position(end);
+            scanFrom = end;
+        }
+        scanFrom = accumulator.limit();
+    }
+
+    // Compacts consumed bytes away and returns the free space at the end of the buffer
+    private int makeRoom() {
+        int capacity = accumulator.capacity();
+        if (accumulator.limit() == capacity && accumulator.position() > 0) {
+            int pending = accumulator.remaining();
+            int shift = accumulator.position();
+            System.arraycopy(accumulator.array(), shift, accumulator.array(), 0, pending);
+            accumulator.position(0);
+            accumulator.limit(pending);
+            scanFrom = Math.max(0, scanFrom - shift);
+        } else if (!accumulator.hasRemaining()) {
+            accumulator.position(0);
+            accumulator.limit(0);
+            scanFrom = 0;
+        }
+        return capacity - accumulator.limit();
+    }
+
+    private void emit(int start, int end) {
+        frameCount++;
+        frameView.limit(end);
+        frameView.position(start);
+        listener.onFrame(frameView);
+    }
+
+    /**
+     * Decodes each frame into a reused CharBuffer. Malformed input is replaced rather than
+     * reported, serial noise should not stop the terminal.
+     */
+    public static class TextFrameListener implements FrameListener {
+        private final CharsetDecoder decoder;
+        private final CharBuffer chars;
+        private final LineListener listener;
+
+        public TextFrameListener(Charset charset, int maxFrameLength, LineListener listener) {
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.chars = CharBuffer.allocate((int) Math.ceil(maxFrameLength * (double) decoder.maxCharsPerByte()) + 2);
+            this.listener = listener;
+        }
+
+        @Override
+        public void onFrame(ByteBuffer frame) {
+            chars.clear();
+            decoder.reset();
+            decoder.decode(frame, chars, true);
+            decoder.flush(chars);
+            chars.flip();
+            listener.onLine(chars);
+        }
+    }
+
+    static class DelimiterFraming implements Framing {
+        private final byte delimiter;
+        private final boolean stripCarriageReturn;
+
+        DelimiterFraming(byte delimiter, boolean stripCarriageReturn) {
+            this.delimiter = delimiter;
+            this.stripCarriageReturn = stripCarriageReturn;
+        }
+
+        @Override
+        public int findFrame(ByteBuffer buffer, int scanFrom, int[] bounds) {
+            byte[] array = buffer.array();
+            int start = buffer.position();
+            int limit = buffer.limit();
+            for (int i = scanFrom; i < limit; i++) {
+                if (array[i] == delimiter) {
+                    int end = i;
+                    if (stripCarriageReturn && end > start && array[end - 1] == '\r') {
+                        end--;
+                    }
+                    bounds[0] = start;
+                    bounds[1] = end;
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int maxPayload() {
+            return -1;
+        }
+    }
+
+    static class LengthPrefixedFraming implements Framing {
+        private final int prefixBytes;
+
+        LengthPrefixedFraming(int prefixBytes) {
+            if (prefixBytes != 1 && prefixBytes != 2) {
+                throw new IllegalArgumentException("prefixBytes must be 1 or 2");
+            }
+            this.prefixBytes = prefixBytes;
+        }
+
+        @Override
+        public int findFrame(ByteBuffer buffer, int scanFrom, int[] bounds) {
+            byte[] array = buffer.array();
+            int start = buffer.position();
+            if (buffer.limit() - start < prefixBytes) {
+                return -1;
+            }
+            int length = array[start] & 0xFF;
+            if (prefixBytes == 2) {
+                length = (length << 8) | (array[start + 1] & 0xFF);
+            }
+            int end = start + prefixBytes + length;
+            if (end > buffer.limit()) {
+                return -1;
+            }
+            bounds[0] = start + prefixBytes;
+            bounds[1] = end;
+            return end;
+        }
+
+        @Override
+        public int maxPayload() {
+            return prefixBytes == 1 ? 0xFF : 0xFFFF;
+        }
+    }
+
+    static class FixedSizeFraming implements Framing {
+        private final int recordSize;
+
+        FixedSizeFraming(int recordSize) {
+            if (recordSize <= 0) {
+                throw new IllegalArgumentException("recordSize must be positive");
+            }
+            this.recordSize = recordSize;
+        }
+
+        @Override
+        public int findFrame(ByteBuffer buffer, int scanFrom, int[] bounds) {
+            int start = buffer.position();
+            if (buffer.limit() - start < recordSize) {
+                return -1;
+            }
+            bounds[0] = start;
+            bounds[1] = start + recordSize;
+            return start + recordSize;
+        }
+
+        @Override
+        public int maxPayload() {
+            return recordSize;
+        }
+    }
+}
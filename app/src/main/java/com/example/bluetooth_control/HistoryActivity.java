@@ -0,0 +1,146 @@
+package com.example.bluetooth_control;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.Spinner;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last day of one reading, charted from the {@link TimeSeriesStore} that LinkService
+ * records into. The day is read in quarter-hour buckets, which the store serves from its
+ * per-minute rollups.
+ */
+public class HistoryActivity extends AppCompatActivity {
+
+    private static final String TAG = "HistoryActivity";
+    private static final long RANGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private Spinner seriesSpinner;
+    private ArrayAdapter<String> seriesAdapter;
+    private TextView summaryText;
+    private ReadingChartView chart;
+    private ExecutorService queryExecutor;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_history);
+
+        seriesSpinner = findViewById(R.id.seriesSpinner);
+        summaryText = findViewById(R.id.summaryText);
+        chart = findViewById(R.id.readingChart);
+        seriesAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item);
+        seriesAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        seriesSpinner.setAdapter(seriesAdapter);
+        seriesSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                load(seriesAdapter.getItem(position));
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        // Opening the store reads its files, so it stays off the UI thread
+        queryExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-chart");
+            thread.setDaemon(true);
+            return thread;
+        });
+        execute(() -> {
+            List<String> names;
+            try {
+                names = new ArrayList<>(TimeSeriesStore.getInstance(getFilesDir()).getSeriesNames());
+            } catch (IOException e) {
+                Log.w(TAG, "Reading history unavailable", e);
+                runOnUiThread(() -> summaryText.setText("History unavailable"));
+                return;
+            }
+            Collections.sort(names);
+            runOnUiThread(() -> {
+                seriesAdapter.clear();
+                seriesAdapter.addAll(names);
+                seriesAdapter.notifyDataSetChanged();
+                if (names.isEmpty()) {
+                    summaryText.setText("No readings recorded yet");
+                }
+            });
+        });
+    }
+
+    private void load(String name) {
+        long to = System.currentTimeMillis();
+        // Whole minutes, so every bucket but the newest comes from rollups
+        to -= to % TimeUnit.MINUTES.toMillis(1);
+        long from = to - RANGE_MILLIS;
+        long end = to;
+        execute(() -> {
+            TimeSeriesStore.Downsampled day;
+            try {
+                day = TimeSeriesStore.getInstance(getFilesDir()).downsample(name, from, end, BUCKET_MILLIS);
+            } catch (IOException e) {
+                return;
+            }
+            String summary = summarize(name, day);
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                summaryText.setText(summary);
+                chart.setData(day);
+            });
+        });
+    }
+
+    private static String summarize(String name, TimeSeriesStore.Downsampled day) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        long count = 0;
+        for (int i = 0; i < day.size(); i++) {
+            if (day.count(i) > 0) {
+                min = Math.min(min, day.min(i));
+                max = Math.max(max, day.max(i));
+                sum += day.average(i) * day.count(i);
+                count += day.count(i);
+            }
+        }
+        if (count == 0) {
+            return name + ": nothing in the last 24 h";
+        }
+        return String.format(Locale.US, "%s, last 24 h: min %.2f, avg %.2f, max %.2f (%d readings)",
+                name, min, sum / count, max, count);
+    }
+
+    private void execute(Runnable task) {
+        try {
+            queryExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Destroyed
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        queryExecutor.shutdown();
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.bluetooth_control;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Matches of a {@link TerminalHistory} search, newest first. Pages are read on the given
+ * executor once the list scrolls near its end, so the first matches show straight away
+ * however large the history, and only what has been scrolled through is held.
+ */
+public class HistoryAdapter extends RecyclerView.Adapter<TerminalAdapter.LineHolder> {
+
+    private static final String TAG = "HistoryAdapter";
+    private static final int PAGE = 100;
+    // Rows from the end at which the next page is asked for
+    private static final int PREFETCH = 30;
+
+    private final TerminalHistory.Search search;
+    private final Executor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Only touched on the UI thread
+    private final List<TerminalHistory.Match> matches = new ArrayList<>();
+    private boolean loading;
+    private boolean exhausted;
+    private boolean closed;
+
+    public HistoryAdapter(TerminalHistory.Search search, Executor executor) {
+        this.search = search;
+        this.executor = executor;
+        loadMore();
+    }
+
+    @NonNull
+    @Override
+    public TerminalAdapter.LineHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_terminal_line, parent, false);
+        return new TerminalAdapter.LineHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull TerminalAdapter.LineHolder holder, int position) {
+        holder.text.setText(matches.get(position).text);
+        if (position >= matches.size() - PREFETCH) {
+            loadMore();
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return matches.size();
+    }
+
+    // Stops paging; a page being read is dropped when it arrives
+    public void close() {
+        closed = true;
+        try {
+            executor.execute(this::closeSearch);
+        } catch (RejectedExecutionException e) {
+            // The screen's executor is shut down, so nothing else reads the search
+            closeSearch();
+        }
+    }
+
+    private void closeSearch() {
+        try {
+            search.close();
+        } catch (IOException e) {
+            // Nothing left to read
+        }
+    }
+
+    private void loadMore() {
+        if (loading || exhausted || closed) {
+            return;
+        }
+        loading = true;
+        try {
+            executor.execute(this::readPage);
+        } catch (RejectedExecutionException e) {
+            // The screen is gone
+            loading = false;
+        }
+    }
+
+    // Runs on the executor
+    private void readPage() {
+        List<TerminalHistory.Match> page;
+        try {
+            page = search.next(PAGE);
+        } catch (IOException e) {
+            Log.w(TAG, "History search failed", e);
+            page = Collections.emptyList();
+        }
+        List<TerminalHistory.Match> result = page;
+        mainHandler.post(() -> onPage(result));
+    }
+
+    private void onPage(List<TerminalHistory.Match> page) {
+        loading = false;
+        if (closed) {
+            return;
+        }
+        if (page.size() < PAGE) {
+            exhausted = true;
+        }
+        int start = matches.size();
+        matches.addAll(page);
+        notifyItemRangeInserted(start, page.size());
+    }
+}
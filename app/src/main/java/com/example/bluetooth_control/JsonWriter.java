@@ -0,0 +1,393 @@
+package com.example.bluetooth_control;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import okio.BufferedSink;
+
+/**
+ * Streaming JSON encoder that writes UTF-8 straight into a reusable byte buffer, so upload
+ * bodies are built without intermediate strings.
+ *
+ * Strings are escaped as RFC 8259 requires, plus U+2028/U+2029 so the output is also safe to
+ * embed in JavaScript. Raw serial bytes can be written as a string value without decoding
+ * them first; malformed UTF-8 in them becomes U+FFFD rather than invalid JSON. Not thread
+ * safe, and {@link #reset()} makes it ready for the next document.
+ */
+public final class JsonWriter {
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final byte[] REPLACEMENT = {(byte) 0xEF, (byte) 0xBF, (byte) 0xBD};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+    // Non-zero for ASCII bytes that need escaping: the char to put after '\', or 'u'
+    private static final byte[] ESCAPES = new byte[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = 'u';
+        }
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\f'] = 'f';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\r'] = 'r';
+        ESCAPES['\t'] = 't';
+    }
+
+    private byte[] buffer;
+    private int size;
+    private int[] stack = new int[8];
+    private int depth;
+
+    public JsonWriter() {
+        this(256);
+    }
+
+    public JsonWriter(int initialCapacity) {
+        buffer = new byte[Math.max(16, initialCapacity)];
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        writeByte('{');
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        int scope = peek();
+        if (scope != EMPTY_OBJECT && scope != NONEMPTY_OBJECT) {
+            throw new IllegalStateException("Not in an object");
+        }
+        depth--;
+        writeByte('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        writeByte('[');
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        int scope = peek();
+        if (scope != EMPTY_ARRAY && scope != NONEMPTY_ARRAY) {
+            throw new IllegalStateException("Not in an array");
+        }
+        depth--;
+        writeByte(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        int scope = peek();
+        if (scope == NONEMPTY_OBJECT) {
+            writeByte(',');
+        } else if (scope != EMPTY_OBJECT) {
+            throw new IllegalStateException("Names are only allowed inside an object");
+        }
+        stack[depth - 1] = DANGLING_NAME;
+        writeString(name);
+        writeByte(':');
+        return this;
+    }
+
+    public JsonWriter value(CharSequence value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    /** Writes UTF-8 bytes, e.g. a line straight off the serial link, as a string value. */
+    public JsonWriter value(byte[] utf8, int offset, int length) {
+        beforeValue();
+        writeByte('"');
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int b = utf8[i];
+            if (b >= 0) {
+                // ASCII: copy the run that needs no escaping in one go
+                int start = i;
+                while (i < end && utf8[i] >= 0 && ESCAPES[utf8[i]] == 0) {
+                    i++;
+                }
+                writeBytes(utf8, start, i - start);
+                if (i < end && utf8[i] >= 0) {
+                    writeEscaped(utf8[i]);
+                    i++;
+                }
+                continue;
+            }
+            int sequence = validSequenceLength(utf8, i, end);
+            if (sequence == 0) {
+                writeBytes(REPLACEMENT, 0, REPLACEMENT.length);
+                i++;
+            } else if (sequence == 3 && (utf8[i] & 0xFF) == 0xE2 && (utf8[i + 1] & 0xFF) == 0x80
+                    && ((utf8[i + 2] & 0xFF) == 0xA8 || (utf8[i + 2] & 0xFF) == 0xA9)) {
+                // U+2028/U+2029, escaped like the String path does
+                writeUnicodeEscape(0x2000 | (utf8[i + 2] & 0xFF) - 0x80);
+                i += 3;
+            } else {
+                writeBytes(utf8, i, sequence);
+                i += sequence;
+            }
+        }
+        writeByte('"');
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    // NaN and the infinities have no JSON form and are written as null
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        if (value == (long) value && Math.abs(value) < 1e15) {
+            return value((long) value);
+        }
+        beforeValue();
+        String text = Double.toString(value);
+        for (int i = 0; i < text.length(); i++) {
+            writeByte(text.charAt(i));
+        }
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        byte[] literal = value ? TRUE : FALSE;
+        writeBytes(literal, 0, literal.length);
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        beforeValue();
+        writeBytes(NULL, 0, NULL.length);
+        return this;
+    }
+
+    /** Inserts an already encoded JSON value, e.g. a record stored by an earlier writer. */
+    public JsonWriter rawValue(byte[] json, int offset, int length) {
+        beforeValue();
+        writeBytes(json, offset, length);
+        return this;
+    }
+
+    // The encoded bytes are buffer()[0, size())
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(buffer, 0, size);
+    }
+
+    // Keeps the buffer for the next document
+    public void reset() {
+        size = 0;
+        depth = 0;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    private void beforeValue() {
+        switch (peek()) {
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                writeByte(',');
+                break;
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                throw new IllegalStateException("A JSON document has a single top-level value");
+            default:
+                throw new IllegalStateException("Expected a name");
+        }
+    }
+
+    private int peek() {
+        return stack[depth - 1];
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = scope;
+    }
+
+    private void writeString(CharSequence value) {
+        int length = value.length();
+        // One byte per char and the quotes; a char that expands reserves room for itself and the rest
+        ensureCapacity(length + 2);
+        buffer[size++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80 && ESCAPES[c] == 0) {
+                buffer[size++] = (byte) c;
+                continue;
+            }
+            ensureCapacity(6 + length - i);
+            if (c < 0x80) {
+                writeEscaped(c);
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | c >> 6);
+                buffer[size++] = (byte) (0x80 | c & 0x3F);
+            } else if (c == '\u2028' || c == '\u2029') {
+                writeUnicodeEscape(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[size++] = (byte) (0xF0 | codePoint >> 18);
+                buffer[size++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buffer[size++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buffer[size++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, not encodable as UTF-8
+                writeBytes(REPLACEMENT, 0, REPLACEMENT.length);
+            } else {
+                buffer[size++] = (byte) (0xE0 | c >> 12);
+                buffer[size++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[size++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        buffer[size++] = '"';
+    }
+
+    private void writeEscaped(int c) {
+        byte escape = ESCAPES[c];
+        if (escape == 'u') {
+            writeUnicodeEscape(c);
+        } else {
+            ensureCapacity(2);
+            buffer[size++] = '\\';
+            buffer[size++] = escape;
+        }
+    }
+
+    private void writeUnicodeEscape(int c) {
+        ensureCapacity(6);
+        buffer[size++] = '\\';
+        buffer[size++] = 'u';
+        buffer[size++] = HEX[c >> 12 & 0xF];
+        buffer[size++] = HEX[c >> 8 & 0xF];
+        buffer[size++] = HEX[c >> 4 & 0xF];
+        buffer[size++] = HEX[c & 0xF];
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeBytes(MIN_LONG, 0, MIN_LONG.length);
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int position = size + digits;
+        do {
+            buffer[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        size += digits;
+    }
+
+    // Length of the well-formed UTF-8 sequence starting at a non-ASCII byte, or 0
+    private static int validSequenceLength(byte[] bytes, int i, int end) {
+        int lead = bytes[i] & 0xFF;
+        int length;
+        int min = 0x80;
+        int max = 0xBF;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            length = 2;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            length = 3;
+            if (lead == 0xE0) {
+                min = 0xA0; // Overlong
+            } else if (lead == 0xED) {
+                max = 0x9F; // Surrogates
+            }
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            length = 4;
+            if (lead == 0xF0) {
+                min = 0x90; // Overlong
+            } else if (lead == 0xF4) {
+                max = 0x8F; // Past U+10FFFF
+            }
+        } else {
+            return 0;
+        }
+        if (i + length > end) {
+            return 0;
+        }
+        int second = bytes[i + 1] & 0xFF;
+        if (second < min || second > max) {
+            return 0;
+        }
+        for (int k = 2; k < length; k++) {
+            if ((bytes[i + k] & 0xC0) != 0x80) {
+                return 0;
+            }
+        }
+        return length;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,701 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small HTTP/1.1 server for machines on the same network, so a laptop in the lab can watch
+ * and drive the device without going through the backend.
+ *
+ * <ul>
+ * <li>{@code GET /state}: the link's state as JSON; {@code GET /metrics}: a {@link Metrics}
+ * snapshot</li>
+ * <li>{@code POST /commands/<name>}: queues one of the commands registered on the builder,
+ * e.g. {@code /commands/A}; 202 once queued, 503 if the sink refused it</li>
+ * <li>{@code GET /stream}: every line read from the device as server-sent events</li>
+ * <li>{@code GET /captures} lists the capture files, {@code GET /captures/<file>} sends one
+ * straight from the page cache with {@link FileChannel#transferTo}</li>
+ * </ul>
+ *
+ * Everything runs on one selector thread with non-blocking sockets and keep-alive, so idle
+ * clients cost a key and a buffer each. Lines are framed and encoded once on a bus
+ * subscription and the same bytes are queued to every stream client; a client that falls
+ * more than {@link #STREAM_BACKLOG} events behind misses the newer ones, counted in
+ * {@link #getDroppedEvents()}. With a token set, every request needs
+ * {@code Authorization: Bearer <token>}. The server listens on every interface, so commands
+ * are only accepted by a builder that has a token.
+ */
+public class LanGateway implements Closeable {
+
+    public static final int DEFAULT_PORT = 8080;
+    static final int STREAM_BACKLOG = 256;
+    private static final int MAX_LINE_LENGTH = 1024;
+    private static final int MAX_REQUEST_BYTES = 8 * 1024;
+    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final byte[] STREAM_HEADERS = ("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/event-stream\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EVENT_PREFIX = "data: ".getBytes(StandardCharsets.US_ASCII);
+
+    // Called on the gateway thread, so it must queue the write rather than block
+    public interface CommandSink {
+        boolean submit(byte[] command);
+    }
+
+    private final ConnectionManager manager;
+    private final InetSocketAddress address;
+    private final Map<String, byte[]> commands;
+    private final CommandSink sink;
+    private final File capturesDir;
+    private final byte[] authorization;
+    private final int maxConnections;
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+    private DataBus.Subscription lines;
+    private volatile boolean closed;
+
+    // Encoded events from the bus thread, picked up by the selector thread
+    private final ConcurrentLinkedQueue<ByteBuffer> events = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    // Only touched on the gateway thread
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<Connection> streams = new ArrayList<>();
+    private volatile int streamCount;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private LanGateway(Builder builder) {
+        this.manager = builder.manager;
+        this.address = new InetSocketAddress(builder.port);
+        this.commands = new LinkedHashMap<>(builder.commands);
+        this.sink = builder.sink;
+        this.capturesDir = builder.capturesDir;
+        this.authorization = builder.token != null
+                ? ("Bearer " + builder.token).getBytes(StandardCharsets.UTF_8) : null;
+        this.maxConnections = builder.maxConnections;
+    }
+
+    // Binds the port and starts serving
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.socket().setReuseAddress(true);
+            server.socket().bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.newline(), MAX_LINE_LENGTH, this::onLine);
+        lines = manager.getDataBus().subscribe("gateway", DataBus.OverflowPolicy.DROP).start(decoder::feed);
+        thread = new Thread(this::run, "lan-gateway");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // The bound port, e.g. when built with port 0
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public int getStreamClientCount() {
+        return streamCount;
+    }
+
+    // Events a slow stream client did not get
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (lines != null) {
+            lines.close();
+        }
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    // Runs on the bus subscription's thread; nothing is encoded while no one is listening
+    private void onLine(ByteBuffer line) {
+        if (streamCount == 0) {
+            return;
+        }
+        // "data: <line>\n\n"
+        byte[] event = new byte[EVENT_PREFIX.length + line.remaining() + 2];
+        System.arraycopy(EVENT_PREFIX, 0, event, 0, EVENT_PREFIX.length);
+        line.get(event, EVENT_PREFIX.length, line.remaining());
+        event[event.length - 2] = '\n';
+        event[event.length - 1] = '\n';
+        events.offer(ByteBuffer.wrap(event));
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    private void run() {
+        long lastSweep = System.currentTimeMillis();
+        try {
+            while (!closed) {
+                selector.select(1000);
+                wakeupPending.set(false);
+                Iterator<SelectionKey> ready = selector.selectedKeys().iterator();
+                while (ready.hasNext()) {
+                    SelectionKey key = ready.next();
+                    ready.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+                broadcast();
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= 1000) {
+                    lastSweep = now;
+                    closeIdle(now);
+                }
+            }
+        } catch (IOException e) {
+            // Selector failed, nothing left to serve with
+        } finally {
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.close();
+            }
+            closeQuietly(server);
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            if (connections.size() >= maxConnections) {
+                closeQuietly(channel);
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        }
+    }
+
+    private void broadcast() {
+        ByteBuffer event;
+        while ((event = events.poll()) != null) {
+            for (int i = 0; i < streams.size(); i++) {
+                Connection stream = streams.get(i);
+                if (stream.pending.size() >= STREAM_BACKLOG) {
+                    droppedEvents.incrementAndGet();
+                    continue;
+                }
+                // Shares the bytes, each client only gets its own position
+                stream.pending.add(new Part(event.duplicate()));
+            }
+        }
+        for (int i = streams.size() - 1; i >= 0; i--) {
+            Connection stream = streams.get(i);
+            try {
+                stream.flush();
+            } catch (IOException e) {
+                stream.close();
+            }
+        }
+    }
+
+    private void closeIdle(long now) {
+        for (int i = connections.size() - 1; i >= 0; i--) {
+            Connection connection = connections.get(i);
+            if (!connection.streaming && connection.pending.isEmpty()
+                    && now - connection.lastActiveMillis > IDLE_TIMEOUT_MILLIS) {
+                connection.close();
+            }
+        }
+    }
+
+    // Compared in constant time, so how fast a wrong token is refused does not give it away
+    private boolean isAuthorized(Request request) {
+        if (authorization == null) {
+            return true;
+        }
+        String header = request.headers.get("authorization");
+        return header != null && MessageDigest.isEqual(authorization, header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Handles one request and queues its response on connection
+    private void handle(Connection connection, Request request) throws IOException {
+        requests.incrementAndGet();
+        if (!isAuthorized(request)) {
+            connection.respond(401, "application/json", json("error", "unauthorized"), request.keepAlive);
+            return;
+        }
+        String path = request.path;
+        if ("/state".equals(path) || "/metrics".equals(path) || "/stream".equals(path) || path.startsWith("/captures")) {
+            if (!"GET".equals(request.method)) {
+                connection.respond(405, "application/json", json("error", "use GET"), request.keepAlive);
+            } else if ("/state".equals(path)) {
+                connection.respond(200, "application/json", state(), request.keepAlive);
+            } else if ("/metrics".equals(path)) {
+                connection.respond(200, "application/json", Metrics.getInstance().snapshot().toJson(), request.keepAlive);
+            } else if ("/stream".equals(path)) {
+                connection.startStream();
+            } else {
+                serveCapture(connection, request);
+            }
+            return;
+        }
+        if (path.startsWith("/commands/")) {
+            byte[] command = commands.get(path.substring("/commands/".length()));
+            if (!"POST".equals(request.method)) {
+                connection.respond(405, "application/json", json("error", "use POST"), request.keepAlive);
+            } else if (command == null) {
+                connection.respond(404, "application/json", json("error", "no such command"), request.keepAlive);
+            } else if (sink.submit(command)) {
+                connection.respond(202, "application/json", json("status", "queued"), request.keepAlive);
+            } else {
+                connection.respond(503, "application/json", json("error", "link busy or down"), request.keepAlive);
+            }
+            return;
+        }
+        connection.respond(404, "application/json", json("error", "not found"), request.keepAlive);
+    }
+
+    private byte[] state() {
+        JsonWriter json = new JsonWriter(256);
+        json.beginObject();
+        json.name("state").value(manager.getState().name());
+        json.name("connected").value(manager.isConnected());
+        json.name("description").value(manager.describe());
+        json.name("bytesRead").value(manager.getBytesRead());
+        json.name("connects").value(manager.getConnectCount());
+        json.name("reconnects").value(manager.getReconnectCount());
+        IOException error = manager.getLastError();
+        json.name("lastError");
+        if (error != null) {
+            json.value(String.valueOf(error.getMessage()));
+        } else {
+            json.nullValue();
+        }
+        json.name("commands").beginArray();
+        for (String name : commands.keySet()) {
+            json.value(name);
+        }
+        json.endArray();
+        json.endObject();
+        return json.toByteArray();
+    }
+
+    private void serveCapture(Connection connection, Request request) throws IOException {
+        File[] files = capturesDir != null ? capturesDir.listFiles(File::isFile) : null;
+        if (files == null) {
+            files = new File[0];
+        }
+        String name = request.path.length() > "/captures/".length() ? request.path.substring("/captures/".length()) : null;
+        if (name == null) {
+            Arrays.sort(files);
+            JsonWriter json = new JsonWriter(256);
+            json.beginArray();
+            for (File file : files) {
+                json.beginObject().name("name").value(file.getName()).name("bytes").value(file.length()).endObject();
+            }
+            json.endArray();
+            connection.respond(200, "application/json", json.toByteArray(), request.keepAlive);
+            return;
+        }
+        // Only names from the listing, never a path out of the directory
+        for (File file : files) {
+            if (file.getName().equals(name)) {
+                FileChannel channel = new FileInputStream(file).getChannel();
+                long size = channel.size();
+                connection.queue(ByteBuffer.wrap(headers(200, "application/octet-stream", size, request.keepAlive)));
+                connection.pending.add(new Part(channel, size));
+                connection.finish(request.keepAlive);
+                return;
+            }
+        }
+        connection.respond(404, "application/json", json("error", "no such capture"), request.keepAlive);
+    }
+
+    private static byte[] json(String name, String value) {
+        return new JsonWriter(64).beginObject().name(name).value(value).endObject().toByteArray();
+    }
+
+    private static byte[] headers(int status, String contentType, long length, boolean keepAlive) {
+        return ("HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + length + "\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 202:
+                return "Accepted";
+            case 400:
+                return "Bad Request";
+            case 401:
+                return "Unauthorized";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 413:
+                return "Payload Too Large";
+            case 431:
+                return "Request Header Fields Too Large";
+            default:
+                return "Service Unavailable";
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    /** The parts of a request line and headers the gateway looks at. */
+    private static final class Request {
+        String method;
+        String path;
+        Map<String, String> headers = new LinkedHashMap<>();
+        long contentLength;
+        boolean keepAlive;
+
+        // Null if the head is malformed
+        static Request parse(String head) {
+            String[] lines = head.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                return null;
+            }
+            Request request = new Request();
+            request.method = requestLine[0];
+            int query = requestLine[1].indexOf('?');
+            request.path = query < 0 ? requestLine[1] : requestLine[1].substring(0, query);
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    request.headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            lines[i].substring(colon + 1).trim());
+                }
+            }
+            String connection = request.headers.get("connection");
+            request.keepAlive = "HTTP/1.1".equals(requestLine[2])
+                    ? !"close".equalsIgnoreCase(connection)
+                    : "keep-alive".equalsIgnoreCase(connection);
+            String length = request.headers.get("content-length");
+            try {
+                request.contentLength = length != null ? Long.parseLong(length) : 0;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return request.contentLength >= 0 ? request : null;
+        }
+    }
+
+    /** Bytes or a file region still to go out on a connection. */
+    private static final class Part {
+        final ByteBuffer buffer;
+        final FileChannel file;
+        long position;
+        final long end;
+
+        Part(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.file = null;
+            this.end = 0;
+        }
+
+        Part(FileChannel file, long end) {
+            this.buffer = null;
+            this.file = file;
+            this.end = end;
+        }
+    }
+
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        final ArrayDeque<Part> pending = new ArrayDeque<>();
+        // Body bytes of the current request still to be skipped
+        long discarding;
+        boolean closeWhenFlushed;
+        boolean streaming;
+        boolean closed;
+        long lastActiveMillis = System.currentTimeMillis();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            int n = channel.read(in);
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastActiveMillis = System.currentTimeMillis();
+            if (streaming) {
+                // Nothing is expected from a stream client but the end of it
+                in.clear();
+                return;
+            }
+            in.flip();
+            while (!closeWhenFlushed && !streaming) {
+                if (discarding > 0) {
+                    int skip = (int) Math.min(discarding, in.remaining());
+                    in.position(in.position() + skip);
+                    discarding -= skip;
+                    if (discarding > 0) {
+                        break;
+                    }
+                }
+                int end = headEnd();
+                if (end < 0) {
+                    if (in.position() == 0 && in.limit() == in.capacity()) {
+                        respond(431, "application/json", json("error", "request too large"), false);
+                    }
+                    break;
+                }
+                String head = new String(in.array(), in.position(), end - in.position(), StandardCharsets.ISO_8859_1);
+                in.position(end + 4);
+                Request request = Request.parse(head);
+                if (request == null) {
+                    respond(400, "application/json", json("error", "bad request"), false);
+                    break;
+                }
+                if (request.contentLength > MAX_REQUEST_BYTES) {
+                    respond(413, "application/json", json("error", "body too large"), false);
+                    break;
+                }
+                // No endpoint takes a body
+                discarding = request.contentLength;
+                handle(this, request);
+            }
+            in.compact();
+            flush();
+        }
+
+        // Index of the "\r\n\r\n" ending the head, or -1
+        private int headEnd() {
+            byte[] array = in.array();
+            for (int i = in.position(), last = in.limit() - 4; i <= last; i++) {
+                if (array[i] == '\r' && array[i + 1] == '\n' && array[i + 2] == '\r' && array[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void respond(int status, String contentType, byte[] body, boolean keepAlive) {
+            byte[] head = headers(status, contentType, body.length, keepAlive);
+            ByteBuffer response = ByteBuffer.allocate(head.length + body.length);
+            response.put(head).put(body).flip();
+            queue(response);
+            finish(keepAlive);
+        }
+
+        void queue(ByteBuffer buffer) {
+            pending.add(new Part(buffer));
+        }
+
+        void finish(boolean keepAlive) {
+            if (!keepAlive) {
+                closeWhenFlushed = true;
+            }
+        }
+
+        void startStream() {
+            queue(ByteBuffer.wrap(STREAM_HEADERS));
+            streaming = true;
+            streams.add(this);
+            streamCount = streams.size();
+        }
+
+        // Writes what the socket takes and waits for OP_WRITE for the rest
+        void flush() throws IOException {
+            if (closed) {
+                return;
+            }
+            while (!pending.isEmpty()) {
+                Part part = pending.peek();
+                if (part.buffer != null) {
+                    bytesSent.addAndGet(channel.write(part.buffer));
+                    if (part.buffer.hasRemaining()) {
+                        break;
+                    }
+                } else {
+                    long sent = part.file.transferTo(part.position, part.end - part.position, channel);
+                    part.position += sent;
+                    bytesSent.addAndGet(sent);
+                    if (part.position < part.end) {
+                        break;
+                    }
+                    part.file.close();
+                }
+                pending.poll();
+            }
+            if (pending.isEmpty() && closeWhenFlushed) {
+                close();
+                return;
+            }
+            int ops = pending.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Part part : pending) {
+                if (part.file != null) {
+                    closeQuietly(part.file);
+                }
+            }
+            pending.clear();
+            connections.remove(this);
+            if (streams.remove(this)) {
+                streamCount = streams.size();
+            }
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+
+    public static class Builder {
+        private final ConnectionManager manager;
+        private int port = DEFAULT_PORT;
+        private final Map<String, byte[]> commands = new LinkedHashMap<>();
+        private CommandSink sink;
+        private File capturesDir;
+        private String token;
+        private int maxConnections = 64;
+
+        public Builder(ConnectionManager manager) {
+            this.manager = manager;
+        }
+
+        // 0 picks a free port, see getPort()
+        public Builder port(int port) {
+            if (port < 0 || port > 65535) {
+                throw new IllegalArgumentException("port out of range");
+            }
+            this.port = port;
+            return this;
+        }
+
+        // Exposed as POST /commands/<name>
+        public Builder command(String name, byte[] command) {
+            commands.put(name, command.clone());
+            return this;
+        }
+
+        public Builder commandSink(CommandSink sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        public Builder captures(File dir) {
+            this.capturesDir = dir;
+            return this;
+        }
+
+        // Required from every client as a bearer token; null serves anyone on the network,
+        // which is only allowed without commands
+        public Builder token(String token) {
+            if (token != null && token.isEmpty()) {
+                throw new IllegalArgumentException("token must not be empty");
+            }
+            this.token = token;
+            return this;
+        }
+
+        public Builder maxConnections(int maxConnections) {
+            if (maxConnections <= 0) {
+                throw new IllegalArgumentException("maxConnections must be positive");
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public LanGateway build() {
+            if (!commands.isEmpty() && sink == null) {
+                throw new IllegalArgumentException("Commands need a commandSink()");
+            }
+            if (!commands.isEmpty() && token == null) {
+                throw new IllegalArgumentException("Commands need a token(), anyone on the network could send them");
+            }
+            return new LanGateway(this);
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package com.example.bluetooth_control;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Foreground service that keeps the device link, the command writer, the uploads and the
+ * local automation running with the screen off or no activity open. The work itself lives in
+ * a {@link LinkSession}; this class only ties it to the Android lifecycle and the ongoing
+ * notification. Activities bind through {@link Binding}.
+ */
+public class LinkService extends Service {
+
+    private static final String TAG = "LinkService";
+    static final String ACTION_CONNECT = "com.example.bluetooth_control.action.CONNECT";
+    static final String ACTION_STOP = "com.example.bluetooth_control.action.STOP";
+    static final String EXTRA_DEVICE = "device";
+    // System.nanoTime() when the start was requested, for Metrics.SERVICE_START
+    static final String EXTRA_REQUESTED_NANOS = "requestedNanos";
+
+    private static final String CHANNEL_ID = "link";
+    private static final int NOTIFICATION_ID = 1;
+    // HC-05 default UART rate; raw commands are paced to it
+    static final int BAUD_RATE = 9600;
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    // Local automation: the sketch's reading format and the rules to run on it, e.g.
+    // new RuleEngine.Rule.Builder("cool").when("temp").above(30).forAtLeast(5, TimeUnit.SECONDS)
+    //         .then(RULE_TARGET_PRIMARY, new byte[]{'A'}).otherwise(RULE_TARGET_PRIMARY, new byte[]{'B'}).build()
+    // Any other target is a fleet link id
+    private static final ReadingParser.Format RULE_FORMAT = null;
+    private static final List<RuleEngine.Rule> RULES = Collections.emptyList();
+    static final String RULE_TARGET_PRIMARY = "primary";
+    // Raw ON/OFF commands replace each other while still queued, taps and rules alike
+    static final String RELAY_KEY = "relay";
+
+    // Timed sequences the control screen plays by name, see CommandSequencer; targets are
+    // RULE_TARGET_PRIMARY or fleet link ids, as for rules
+    static final String MACRO_BLINK = "blink";
+    private static final List<CommandSequencer.Sequence> MACROS = Collections.singletonList(
+            new CommandSequencer.Sequence.Builder(MACRO_BLINK)
+                    .send(RULE_TARGET_PRIMARY, new byte[]{'A'}).pause(50, TimeUnit.MILLISECONDS)
+                    .send(RULE_TARGET_PRIMARY, new byte[]{'B'}).pause(50, TimeUnit.MILLISECONDS)
+                    .repeat(20)
+                    .build());
+
+    // Captures every byte of each link to files/captures for SessionReplay, e.g. when a field
+    // unit misbehaves; off by default. Files roll over at the size limit and only the newest
+    // are kept, across service runs too
+    private static final boolean RECORD_SESSIONS = false;
+    private static final int RECORDER_BUFFER_BYTES = 64 * 1024;
+    private static final long CAPTURE_FILE_BYTES = 4 * 1024 * 1024;
+    private static final int CAPTURE_FILES = 8;
+
+    // For sketches that grant credits or send XON/XOFF, see FlowControl; writes then wait for
+    // the device. Null, the default, only paces commands to BAUD_RATE
+    private static final FlowControl.Mode FLOW_CONTROL = null;
+
+    // Serves state, the live lines and the captures to machines on the same network, see
+    // LanGateway; 0, the default, keeps it off. Relay commands are only served once a token is
+    // set, and then every client needs it
+    private static final int LAN_GATEWAY_PORT = 0;
+    private static final String LAN_GATEWAY_TOKEN = null;
+
+    // The wake lock is held while the link is up or being brought back, with a timeout that is
+    // renewed halfway through, so a missed release cannot keep the CPU awake for good
+    private static final long WAKE_LOCK_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final LocalBinder binder = new LocalBinder();
+    private LinkSession session;
+    private DataBus.Subscription ruleSubscription;
+    private DataBus.Subscription historySubscription;
+    private CommandSequencer sequencer;
+    private LanGateway gateway;
+    private TerminalHistory history;
+    private ReadingRecorder readings;
+    private PowerManager.WakeLock wakeLock;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable wakeLockRenewal = this::updateWakeLock;
+    private DeviceCache deviceCache;
+    private SessionRecorder recorder;
+    private FlowControl flowControl;
+    private WebSocketSync syncStream;
+    // Name of the device being connected to, for the cache; guarded by this
+    private String deviceName;
+    private final LatencyHistogram startLatency = Metrics.getInstance().histogram(Metrics.SERVICE_START);
+
+    private final ConnectionManager.Listener notificationUpdater = state -> {
+        NotificationManager notifications = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        notifications.notify(NOTIFICATION_ID, buildNotification(state));
+        rememberDevice(state);
+        mainHandler.post(wakeLockRenewal);
+    };
+
+    // Starts the service in the foreground and connects it to device
+    public static void connect(Context context, BluetoothDevice device) {
+        Intent intent = new Intent(context, LinkService.class)
+                .setAction(ACTION_CONNECT)
+                .putExtra(EXTRA_DEVICE, device)
+                .putExtra(EXTRA_REQUESTED_NANOS, System.nanoTime());
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        LinkSession.LineSink uploads = null;
+        try {
+            TelemetryOutbox outbox = TelemetryOutbox.getInstance(this);
+            uploads = outbox::append;
+            syncStream = outbox.getStream();
+        } catch (IOException e) {
+            Log.e(TAG, "Outbox unavailable, lines will not be uploaded", e);
+        }
+        session = new LinkSession(ConnectionManager.getInstance(), FLOW_CONTROL != null ? 0 : BAUD_RATE, uploads);
+        if (FLOW_CONTROL != null) {
+            // Credits need no pacing, XON/XOFF does
+            flowControl = new FlowControl.Builder(FLOW_CONTROL)
+                    .baudRate(FLOW_CONTROL == FlowControl.Mode.XON_XOFF ? BAUD_RATE : 0)
+                    .build();
+        }
+        deviceCache = PairedDevices.getCache(this);
+        // Local history of the readings, kept on disk for the history screen
+        try {
+            readings = ReadingRecorder.getInstance(getFilesDir());
+        } catch (IOException e) {
+            Log.e(TAG, "Reading history unavailable", e);
+        }
+        // Every line goes to disk for the terminal's search, whether or not it is open
+        try {
+            history = TerminalHistory.getInstance(getFilesDir());
+            FrameDecoder lines = new FrameDecoder(FrameDecoder.newline(), MAX_LINE_LENGTH, this::appendHistory);
+            historySubscription = ConnectionManager.getInstance().getDataBus()
+                    .subscribe("terminal-history", DataBus.OverflowPolicy.DROP)
+                    .start(lines::feed);
+        } catch (IOException e) {
+            Log.e(TAG, "Terminal history unavailable", e);
+        }
+        if (RULE_FORMAT != null && !RULES.isEmpty()) {
+            RuleEngine rules = new RuleEngine(RULE_FORMAT, RULES, this::dispatchRuleCommand);
+            ruleSubscription = ConnectionManager.getInstance().getDataBus()
+                    .subscribe("rules", DataBus.OverflowPolicy.DROP)
+                    .start(rules.newConsumer(MAX_LINE_LENGTH));
+        }
+
+        sequencer = new CommandSequencer(this::dispatchSequenced);
+        for (CommandSequencer.Sequence macro : MACROS) {
+            sequencer.define(macro);
+        }
+        if (LAN_GATEWAY_PORT > 0) {
+            startGateway();
+        }
+        if (syncStream != null) {
+            syncStream.addListener(remoteCommandListener);
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Device link", NotificationManager.IMPORTANCE_LOW);
+            ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).createNotificationChannel(channel);
+        }
+
+        // RFCOMM reads and uploads keep going with the screen off
+        PowerManager power = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        wakeLock = power.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "bluetooth_control:link");
+        wakeLock.setReferenceCounted(false);
+        ConnectionManager.getInstance().addListener(notificationUpdater);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            // Bound screens keep the service alive, so the link is released here rather than
+            // in onDestroy
+            session.disconnect();
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        Notification notification = buildNotification(ConnectionManager.getInstance().getState());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+
+        BluetoothDevice device = intent != null ? intent.getParcelableExtra(EXTRA_DEVICE) : null;
+        if (device != null) {
+            synchronized (this) {
+                deviceName = deviceName(device);
+            }
+            // Dropped when this device is already connected or connecting
+            TransportFactory factory = record(new RfcommTransport.Factory(device, MainActivity.HC_05_UUID));
+            // The recorder sees the control bytes too
+            session.connect(device.getAddress(), flowControl != null ? flowControl.wrap(factory) : factory);
+        } else {
+            session.join();
+        }
+        long requested = intent != null ? intent.getLongExtra(EXTRA_REQUESTED_NANOS, 0) : 0;
+        if (requested > 0) {
+            startLatency.recordSince(requested);
+        }
+        // Redelivered after the process is killed, so the same device is reconnected
+        return START_REDELIVER_INTENT;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        ConnectionManager.getInstance().removeListener(notificationUpdater);
+        if (syncStream != null) {
+            syncStream.removeListener(remoteCommandListener);
+        }
+        if (ruleSubscription != null) {
+            ruleSubscription.close();
+        }
+        if (historySubscription != null) {
+            historySubscription.close();
+            try {
+                history.flush();
+            } catch (IOException e) {
+                Log.w(TAG, "Terminal history may be incomplete", e);
+            }
+        }
+        if (readings != null) {
+            readings.flush();
+        }
+        sequencer.close();
+        if (gateway != null) {
+            gateway.close();
+        }
+        session.close();
+        closeRecorder();
+        mainHandler.removeCallbacks(wakeLockRenewal);
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+
+    // Runs on the main thread after every state change and then every half timeout while the
+    // link is not idle. Acquiring again restarts the timeout, the lock is not reference counted
+    private void updateWakeLock() {
+        mainHandler.removeCallbacks(wakeLockRenewal);
+        if (ConnectionManager.getInstance().getState() == ConnectionManager.State.DISCONNECTED) {
+            if (wakeLock.isHeld()) {
+                wakeLock.release();
+            }
+            return;
+        }
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MILLIS);
+        mainHandler.postDelayed(wakeLockRenewal, WAKE_LOCK_TIMEOUT_MILLIS / 2);
+    }
+
+    // A working device goes to the front of the cache; one that ran out of retries is dropped
+    // from it, so the next lookup asks the adapter again
+    private void rememberDevice(ConnectionManager.State state) {
+        String address = session.getAddress();
+        if (address == null) {
+            return;
+        }
+        String name;
+        synchronized (this) {
+            name = deviceName;
+        }
+        try {
+            if (state == ConnectionManager.State.CONNECTED) {
+                deviceCache.recordConnected(address, name,
+                        ConnectionManager.getInstance().getLastConnectMillis(), System.currentTimeMillis());
+            } else if (state == ConnectionManager.State.DISCONNECTED && session.isHoldingLink()) {
+                deviceCache.forget(address);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not update the device cache", e);
+        }
+    }
+
+    // Runs on the history subscription's thread
+    private void appendHistory(ByteBuffer line) {
+        try {
+            history.append(line.array(), line.arrayOffset() + line.position(), line.remaining());
+        } catch (IOException e) {
+            Log.w(TAG, "Line not kept in the terminal history", e);
+        }
+    }
+
+    // One recorder per service run, shared by every link it opens; each is its own link id
+    private TransportFactory record(TransportFactory factory) {
+        if (!RECORD_SESSIONS) {
+            return factory;
+        }
+        if (recorder == null) {
+            File dir = new File(getFilesDir(), "captures");
+            try {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Cannot create " + dir);
+                }
+                recorder = new SessionRecorder(new File(dir, "session.hcap"), RECORDER_BUFFER_BYTES,
+                        CAPTURE_FILE_BYTES, CAPTURE_FILES);
+            } catch (IOException e) {
+                Log.e(TAG, "Session recording unavailable", e);
+                return factory;
+            }
+        }
+        return recorder.wrap(factory);
+    }
+
+    private void closeRecorder() {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Capture may be incomplete", e);
+        }
+        recorder = null;
+    }
+
+    private static String deviceName(BluetoothDevice device) {
+        try {
+            return device.getName();
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    // Runs on the rule subscription's thread; both paths only queue the write
+    private boolean dispatchRuleCommand(String target, byte[] command) {
+        if (!RULE_TARGET_PRIMARY.equals(target)) {
+            return MultiLinkManager.getInstance().send(target, command);
+        }
+        return session.submit(RELAY_KEY, command, CommandWriter.Priority.NORMAL);
+    }
+
+    // Relay commands pushed by the backend over the sync stream, when it is enabled. They go to
+    // the primary link whatever screen is open, and replace queued taps like the gateway's do
+    private final WebSocketSync.Listener remoteCommandListener = new WebSocketSync.Listener() {
+        @Override
+        public void onStateChanged(WebSocketSync.State state) {
+        }
+
+        @Override
+        public void onCommand(String target, String data) {
+            if (data == null || data.length() != 1 || (target != null && !RELAY_KEY.equals(target))) {
+                return;
+            }
+            char command = data.charAt(0);
+            if ((command == 'A' || command == 'B')
+                    && !session.submit(RELAY_KEY, new byte[]{(byte) command}, CommandWriter.Priority.NORMAL)) {
+                Log.w(TAG, "Remote command " + command + " dropped, no link or queue full");
+            }
+        }
+    };
+
+    // Remote taps replace queued ones like local taps do
+    private void startGateway() {
+        LanGateway.Builder builder = new LanGateway.Builder(ConnectionManager.getInstance())
+                .port(LAN_GATEWAY_PORT)
+                .captures(new File(getFilesDir(), "captures"))
+                .token(LAN_GATEWAY_TOKEN);
+        if (LAN_GATEWAY_TOKEN != null) {
+            builder.command("A", new byte[]{'A'})
+                    .command("B", new byte[]{'B'})
+                    .commandSink(command -> session.submit(RELAY_KEY, command, CommandWriter.Priority.NORMAL));
+        }
+        gateway = builder.build();
+        try {
+            gateway.start();
+        } catch (IOException e) {
+            Log.e(TAG, "LAN gateway unavailable", e);
+            gateway = null;
+        }
+    }
+
+    // Runs on the sequencer thread. Timed writes are not keyed: each step has to reach the
+    // wire, not just the last one queued
+    private boolean dispatchSequenced(String target, byte[] command) {
+        if (!RULE_TARGET_PRIMARY.equals(target)) {
+            return MultiLinkManager.getInstance().send(target, command);
+        }
+        return session.submit(null, command, CommandWriter.Priority.NORMAL);
+    }
+
+    private Notification buildNotification(ConnectionManager.State state) {
+        Intent open = new Intent(this, ControlActivity.class);
+        Intent stop = new Intent(this, LinkService.class).setAction(ACTION_STOP);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle("HC-05 link")
+                .setContentText(ConnectionManager.getInstance().describe())
+                .setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setContentIntent(PendingIntent.getActivity(this, 0, open, PendingIntent.FLAG_IMMUTABLE))
+                .addAction(0, "Disconnect", PendingIntent.getService(this, 1, stop, PendingIntent.FLAG_IMMUTABLE))
+                .build();
+    }
+
+    public class LocalBinder extends Binder {
+        public LinkSession getSession() {
+            return session;
+        }
+
+        public CommandSequencer getSequencer() {
+            return sequencer;
+        }
+    }
+
+    /**
+     * An activity's connection to the service. Binding creates the service if it is not
+     * running, without starting the link; unbind in onDestroy. The time from bind to the
+     * session being handed over is recorded as Metrics.SERVICE_BIND.
+     */
+    public static class Binding implements android.content.ServiceConnection {
+
+        // Called on the main thread
+        public interface Callback {
+            void onBound(LinkSession session);
+        }
+
+        private final Context context;
+        private final Callback callback;
+        private final LatencyHistogram bindLatency = Metrics.getInstance().histogram(Metrics.SERVICE_BIND);
+        private long bindStartedNanos;
+        private LinkSession session;
+        private CommandSequencer sequencer;
+        private boolean bound;
+
+        public Binding(Context context, Callback callback) {
+            this.context = context;
+            this.callback = callback;
+        }
+
+        public void bind() {
+            bindStartedNanos = System.nanoTime();
+            bound = context.bindService(new Intent(context, LinkService.class), this, Context.BIND_AUTO_CREATE);
+        }
+
+        // Null until bound
+        public LinkSession getSession() {
+            return session;
+        }
+
+        // Null until bound
+        public CommandSequencer getSequencer() {
+            return sequencer;
+        }
+
+        public void unbind() {
+            if (bound) {
+                context.unbindService(this);
+                bound = false;
+            }
+            session = null;
+            sequencer = null;
+        }
+
+        @Override
+        public void onServiceConnected(android.content.ComponentName name, IBinder service) {
+            bindLatency.recordSince(bindStartedNanos);
+            session = ((LocalBinder) service).getSession();
+            sequencer = ((LocalBinder) service).getSequencer();
+            callback.onBound(session);
+        }
+
+        @Override
+        public void onServiceDisconnected(android.content.ComponentName name) {
+            session = null;
+            sequencer = null;
+        }
+    }
+}
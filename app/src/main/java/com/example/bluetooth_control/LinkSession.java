@@ -0,0 +1,251 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Everything that has to outlive the screens: the hold on the {@link ConnectionManager}'s
+ * link, the {@link CommandWriter} for its current transport and the upload of every serial
+ * line. {@link LinkService} owns one for as long as it runs; activities borrow it through the
+ * binder instead of holding the link themselves, so recreating one costs no I/O and
+ * {@link #disconnect()} really closes the link.
+ *
+ * The writer is rebuilt whenever the link reconnects, commands submitted in between are
+ * refused. Screens that want to hear about writes set a callback while they are bound.
+ */
+public class LinkSession implements Closeable {
+
+    // Where each serial line goes for upload, e.g. TelemetryOutbox#append
+    public interface LineSink {
+        boolean append(String channel, String line);
+    }
+
+    static final String CHANNEL_SERIAL = "serial";
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    private final ConnectionManager manager;
+    private final int baudRate;
+    private final ConnectionManager.Listener stateListener = this::onStateChanged;
+    private final DataBus.Subscription uploads;
+
+    // Guarded by this
+    private ConnectionManager.Client hold;
+    private Transport transport;
+    private String address;
+    private CommandWriter writer;
+    private boolean closed;
+
+    private volatile CommandWriter.Callback callback;
+    private long connectCount;
+
+    /**
+     * @param baudRate the module's UART rate the writer paces to, 0 for unpaced
+     * @param sink     receives every line while the session is open, or null to upload nothing
+     */
+    public LinkSession(ConnectionManager manager, int baudRate, LineSink sink) {
+        this.manager = manager;
+        this.baudRate = baudRate;
+        manager.addListener(stateListener);
+        if (sink != null) {
+            FrameDecoder decoder = new FrameDecoder(FrameDecoder.newline(), MAX_LINE_LENGTH,
+                    new FrameDecoder.TextFrameListener(StandardCharsets.UTF_8, MAX_LINE_LENGTH,
+                            line -> sink.append(CHANNEL_SERIAL, line.toString())));
+            uploads = manager.getDataBus().subscribe("uploader", DataBus.OverflowPolicy.DROP).start(decoder::feed);
+        } else {
+            uploads = null;
+        }
+        // The link may already be up, e.g. when the service restarts inside a running process
+        onStateChanged(manager.getState());
+    }
+
+    // Connects to a new device, replacing the current link
+    public void connect(TransportFactory factory) {
+        connect(null, factory);
+    }
+
+    /**
+     * Connects to the device at {@code address}, replacing the current link. A request for the
+     * device already connected or being connected to is dropped, so repeated taps and discovery
+     * reports never start a second connect. Returns whether a connect was started.
+     */
+    public boolean connect(String address, TransportFactory factory) {
+        ConnectionManager.Client previous;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (address != null && address.equals(this.address) && hold != null
+                    && manager.getState() != ConnectionManager.State.DISCONNECTED) {
+                return false;
+            }
+            previous = hold;
+            hold = manager.connect(factory);
+            this.address = address;
+            connectCount++;
+        }
+        if (previous != null) {
+            previous.close();
+        }
+        return true;
+    }
+
+    /**
+     * Releases the link but keeps the session usable, e.g. for the notification's Disconnect
+     * while screens are still bound. The link closes unless something else holds it; a later
+     * connect or join takes one up again.
+     */
+    public void disconnect() {
+        ConnectionManager.Client released;
+        CommandWriter stale;
+        synchronized (this) {
+            released = hold;
+            hold = null;
+            address = null;
+            stale = writer;
+            writer = null;
+            transport = null;
+        }
+        if (stale != null) {
+            stale.close();
+        }
+        if (released != null) {
+            released.close();
+        }
+    }
+
+    // Keeps whatever link is current alive without reconnecting
+    public void join() {
+        synchronized (this) {
+            if (closed || hold != null) {
+                return;
+            }
+            hold = manager.acquire();
+        }
+    }
+
+    private void onStateChanged(ConnectionManager.State state) {
+        if (state == ConnectionManager.State.CONNECTED) {
+            bind(manager.getTransport());
+        }
+    }
+
+    // Picks up the streams of a new transport after the first connect or a reconnect
+    private void bind(Transport newTransport) {
+        CommandWriter stale;
+        synchronized (this) {
+            if (closed || newTransport == null || newTransport == transport) {
+                return;
+            }
+            stale = writer;
+            writer = null;
+            transport = newTransport;
+            try {
+                writer = new CommandWriter.Builder(newTransport.getOutputStream())
+                        .baudRate(baudRate)
+                        .callback(new WriterCallback(newTransport))
+                        .build();
+            } catch (IOException e) {
+                manager.reportFailure(newTransport, e);
+            }
+        }
+        if (stale != null) {
+            stale.close();
+        }
+    }
+
+    /**
+     * Queues a command on the current link. Returns false if there is none yet or its writer
+     * refused the command.
+     */
+    public boolean submit(String key, byte[] data, CommandWriter.Priority priority) {
+        CommandWriter current;
+        synchronized (this) {
+            current = writer;
+        }
+        return current != null && current.submit(key, data, priority);
+    }
+
+    // A bound screen's view of writes; set to null when it unbinds
+    public void setCallback(CommandWriter.Callback callback) {
+        this.callback = callback;
+    }
+
+    public ConnectionManager getManager() {
+        return manager;
+    }
+
+    public synchronized boolean isHoldingLink() {
+        return hold != null;
+    }
+
+    public synchronized Transport getTransport() {
+        return transport;
+    }
+
+    // Address given to the last connect, null if it had none
+    public synchronized String getAddress() {
+        return address;
+    }
+
+    // Connects requested through this session, as opposed to reconnects
+    public synchronized long getConnectCount() {
+        return connectCount;
+    }
+
+    public synchronized CommandWriter getWriter() {
+        return writer;
+    }
+
+    // Releases the link, which closes once no screen holds it either
+    @Override
+    public void close() {
+        ConnectionManager.Client released;
+        CommandWriter stale;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            released = hold;
+            hold = null;
+            stale = writer;
+            writer = null;
+        }
+        manager.removeListener(stateListener);
+        if (uploads != null) {
+            uploads.close();
+        }
+        if (stale != null) {
+            stale.close();
+        }
+        if (released != null) {
+            released.close();
+        }
+    }
+
+    private class WriterCallback implements CommandWriter.Callback {
+        private final Transport writerTransport;
+
+        WriterCallback(Transport writerTransport) {
+            this.writerTransport = writerTransport;
+        }
+
+        @Override
+        public void onWritten(String key, byte[] data, long latencyNanos) {
+            CommandWriter.Callback current = callback;
+            if (current != null) {
+                current.onWritten(key, data, latencyNanos);
+            }
+        }
+
+        @Override
+        public void onFailure(String key, IOException e) {
+            manager.reportFailure(writerTransport, e);
+            CommandWriter.Callback current = callback;
+            if (current != null) {
+                current.onFailure(key, e);
+            }
+        }
+    }
+}
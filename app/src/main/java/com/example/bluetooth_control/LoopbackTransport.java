@@ -0,0 +1,203 @@
+package com.example.bluetooth_control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * In-memory {@link Transport}: two ends joined by a pair of bounded byte pipes, so whatever one
+ * end writes the other reads. Lets the whole link pipeline run on a desktop JVM against an
+ * emulated device, without a phone or an HC-05.
+ *
+ * Each direction is a single ring buffer that bulk-copies in and out, unlike
+ * {@link java.io.PipedInputStream} which wakes the reader at most once a second per buffer
+ * and ties itself to the writing thread.
+ */
+public class LoopbackTransport implements Transport {
+
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final Pipe in;
+    private final Pipe out;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private final LoopbackTransport peer;
+
+    public LoopbackTransport() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // capacity is per direction; a writer blocks once that many bytes are unread
+    public LoopbackTransport(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.in = new Pipe(capacity);
+        this.out = new Pipe(capacity);
+        this.inputStream = new PipeInputStream(in);
+        this.outputStream = new PipeOutputStream(out);
+        this.peer = new LoopbackTransport(this);
+    }
+
+    private LoopbackTransport(LoopbackTransport peer) {
+        this.in = peer.out;
+        this.out = peer.in;
+        this.inputStream = new PipeInputStream(in);
+        this.outputStream = new PipeOutputStream(out);
+        this.peer = peer;
+    }
+
+    // The other end, i.e. what the emulated device reads from and writes to
+    public LoopbackTransport getPeer() {
+        return peer;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !in.isClosed() && !out.isClosed();
+    }
+
+    // Closing either end closes both directions, like dropping a socket
+    @Override
+    public void close() {
+        in.close();
+        out.close();
+    }
+
+    private static final class Pipe {
+        private final byte[] buffer;
+        private int head;
+        private int size;
+        private boolean closed;
+
+        Pipe(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        synchronized void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                while (size == buffer.length && !closed) {
+                    await();
+                }
+                if (closed) {
+                    throw new IOException("Pipe closed");
+                }
+                int tail = (head + size) % buffer.length;
+                int count = Math.min(length, Math.min(buffer.length - size, buffer.length - tail));
+                System.arraycopy(data, offset, buffer, tail, count);
+                size += count;
+                offset += count;
+                length -= count;
+                notifyAll();
+            }
+        }
+
+        // Blocks for at least one byte, returns -1 once closed and drained
+        synchronized int read(byte[] dest, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (size == 0 && !closed) {
+                await();
+            }
+            if (size == 0) {
+                return -1;
+            }
+            int read = 0;
+            while (read < length && size > 0) {
+                int count = Math.min(length - read, Math.min(size, buffer.length - head));
+                System.arraycopy(buffer, head, dest, offset + read, count);
+                head = (head + count) % buffer.length;
+                size -= count;
+                read += count;
+            }
+            notifyAll();
+            return read;
+        }
+
+        synchronized int available() {
+            return size;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        private void await() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private static final class PipeInputStream extends InputStream {
+        private final Pipe pipe;
+
+        PipeInputStream(Pipe pipe) {
+            this.pipe = pipe;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return pipe.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return pipe.available();
+        }
+
+        @Override
+        public void close() {
+            pipe.close();
+        }
+    }
+
+    private static final class PipeOutputStream extends OutputStream {
+        private final Pipe pipe;
+
+        PipeOutputStream(Pipe pipe) {
+            this.pipe = pipe;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            pipe.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            pipe.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            pipe.close();
+        }
+    }
+}
@@ -5,7 +5,6 @@ import android.Manifest;
 import android.app.AlertDialog;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -21,7 +20,6 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import java.io.IOException;
 import java.util.Set;
 import java.util.UUID;
 
@@ -29,12 +27,17 @@ public class MainActivity extends AppCompatActivity {
 
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothDevice connectedDevice;
-    private BluetoothSocket bluetoothSocket;
+    // Set once this screen asked LinkService to connect, so failures are only reported for ours
+    private boolean connectRequested;
+    // Last-known-good devices, so a reconnect skips the bonded walk and discovery
+    private DeviceCache deviceCache;
 
     private static final int REQUEST_ENABLE_BT = 1;
     private static final int REQUEST_BLUETOOTH_PERMISSIONS = 2;
     private static final String HC_05_DEVICE_NAME = "HC-05";
-    private static final UUID HC_05_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    // Every bonded module named like this joins the fleet on "Connect All"
+    private static final String HC_DEVICE_PREFIX = "HC-";
+    static final UUID HC_05_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -47,36 +50,54 @@ public class MainActivity extends AppCompatActivity {
             Toast.makeText(this, "Device doesn't support Bluetooth", Toast.LENGTH_SHORT).show();
             finish(); // Close the app
         }
+        deviceCache = PairedDevices.getCache(this);
         IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
         registerReceiver(discoveryReceiver, filter);
+
+        // The link itself lives in LinkService, rotating or leaving this screen does not touch it
+        ConnectionManager.getInstance().addListener(connectionListener);
+    }
+
+    private final ConnectionManager.Listener connectionListener = state -> runOnUiThread(() -> {
+        if (state == ConnectionManager.State.CONNECTED) {
+            Toast.makeText(this, "Connected to HC-05 in "
+                    + ConnectionManager.getInstance().getLastConnectMillis() + " ms", Toast.LENGTH_SHORT).show();
+        } else if (state == ConnectionManager.State.DISCONNECTED && connectRequested) {
+            Toast.makeText(this, "Failed to connect to HC-05", Toast.LENGTH_SHORT).show();
+        }
+    });
+
+    // Runs at most once per lookup, however many times a scan reports the device
+    private final DeviceCache.Callback deviceFound = (address, name, source) -> runOnUiThread(() ->
+            connectToDevice(bluetoothAdapter.getRemoteDevice(address)));
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(discoveryReceiver);
+        deviceCache.cancel();
+        ConnectionManager.getInstance().removeListener(connectionListener);
     }
 
     private void connectToDevice(BluetoothDevice device) {
         try {
             // Check if Bluetooth permissions are granted
             if (checkBluetoothPermissions()) {
-                // Create a BluetoothSocket using the HC-05 UUID
-                BluetoothSocket socket = device.createRfcommSocketToServiceRecord(HC_05_UUID);
-
                 // Cancel discovery before connecting
                 bluetoothAdapter.cancelDiscovery();
 
-                // Connect to the device
-                socket.connect();
+                // The foreground service connects off the UI thread and keeps the link while the
+                // app is in the background; the manager reports back through the listener
+                connectedDevice = device;
+                connectRequested = true;
+                LinkService.connect(this, device);
 
-                // Set the connected device and socket
-                setConnectedDevice(device, socket);
-                BluetoothHolder.setBluetoothSocketWrapper(new BluetoothSocketWrapper(socket));
-
-                Toast.makeText(this, "Connected to HC-05", Toast.LENGTH_SHORT).show();
+                Toast.makeText(this, "Connecting to HC-05", Toast.LENGTH_SHORT).show();
             } else {
                 // Bluetooth permissions not granted, handle accordingly (e.g., show a message to the user)
                 Toast.makeText(this, "Bluetooth permissions not granted, cannot connect to HC-05", Toast.LENGTH_SHORT).show();
             }
-        } catch (IOException e) {
-            // Handle the IOException
-            Toast.makeText(this, "Failed to connect to HC-05", Toast.LENGTH_SHORT).show();
-            e.printStackTrace();
         } catch (SecurityException se) {
             // Handle the SecurityException
             Toast.makeText(this, "SecurityException: Permission not granted", Toast.LENGTH_SHORT).show();
@@ -84,6 +105,30 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    public void connectAllDevices(View view) {
+        if (!checkBluetoothPermissions()) {
+            Toast.makeText(this, "Bluetooth permissions not granted, cannot proceed", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        try {
+            bluetoothAdapter.cancelDiscovery();
+            int started = 0;
+            for (BluetoothDevice device : bluetoothAdapter.getBondedDevices()) {
+                String name = device.getName();
+                if (name != null && name.startsWith(HC_DEVICE_PREFIX)) {
+                    // Keyed by address, two modules may well share the default name
+                    MultiLinkManager.getInstance().connect(device.getAddress(), new RfcommTransport.Factory(device, HC_05_UUID));
+                    started++;
+                }
+            }
+            Toast.makeText(this, started == 0 ? "No paired HC devices found"
+                    : "Connecting to " + started + " devices", Toast.LENGTH_SHORT).show();
+        } catch (SecurityException se) {
+            Toast.makeText(this, "SecurityException: Unable to get paired devices", Toast.LENGTH_SHORT).show();
+            se.printStackTrace();
+        }
+    }
+
     public void openBluetoothActivity(View view) {
         try {
             if (bluetoothAdapter != null && ContextCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH) == PackageManager.PERMISSION_GRANTED) {
@@ -105,59 +150,12 @@ public class MainActivity extends AppCompatActivity {
             Toast.makeText(this, "Error opening Bluetooth activity", Toast.LENGTH_SHORT).show();
         }
     }
-    private BluetoothDevice getHC05Device() {
-        // Check if Bluetooth permissions are granted
-        if (checkBluetoothPermissions()) {
-            Set<BluetoothDevice> pairedDevices = null;
-            try {
-                // Try to get paired devices
-                pairedDevices = bluetoothAdapter.getBondedDevices();
-            } catch (SecurityException e) {
-                // Handle SecurityException
-                Toast.makeText(this, "SecurityException: Unable to get paired devices", Toast.LENGTH_SHORT).show();
-                e.printStackTrace();
-                return null;
-            }
-
-            if (pairedDevices != null) {
-                for (BluetoothDevice device : pairedDevices) {
-                    // Check if device name is not null and equals HC-05 device name
-                    if (device != null) {
-                        // Check BLUETOOTH_CONNECT permission before accessing device name
-                        if (ContextCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                            if (HC_05_DEVICE_NAME.equals(device.getName())) {
-                                return device;
-                            }
-                        } else {
-                            // Handle case where permission is not granted
-                            Toast.makeText(this, "Bluetooth permission not granted, device name not accessible", Toast.LENGTH_SHORT).show();
-                            return null;
-                        }
-                    }
-                }
-            }
-        } else {
-            // Bluetooth permissions not granted, handle accordingly (e.g., show a message to the user)
-            Toast.makeText(this, "Bluetooth permissions not granted, cannot proceed", Toast.LENGTH_SHORT).show();
-        }
-        return null;
-    }
-
-
-    // Helper method to check if Bluetooth permission is granted
-
-
 
     private void openPairedDevicesActivity() {
         // Check if Bluetooth permissions are granted
         if (checkBluetoothPermissions()) {
-            // Get the HC-05 device
-            BluetoothDevice hc05Device = getHC05Device();
-
-            // If HC-05 device is found, connect automatically
-            if (hc05Device != null) {
-                connectToDevice(hc05Device);
-            } else {
+            // Connect straight away to the last HC-05 that worked, or a bonded one
+            if (!deviceCache.find(HC_05_DEVICE_NAME, deviceFound)) {
                 // Get the list of paired devices
                 Set<BluetoothDevice> pairedDevices;
                 try {
@@ -246,21 +244,10 @@ public class MainActivity extends AppCompatActivity {
                 return;
             }
 
-            // Check if Bluetooth discovery is already in progress
-            if (bluetoothAdapter.isDiscovering()) {
-                try {
-                    bluetoothAdapter.cancelDiscovery();
-                } catch (SecurityException se) {
-                    // Handle SecurityException
-                    Toast.makeText(this, "SecurityException: Unable to cancel discovery", Toast.LENGTH_SHORT).show();
-                    se.printStackTrace();
-                }
-            }
-
             // Check for BLUETOOTH_SCAN permission explicitly before starting Bluetooth discovery
             if (hasBluetoothPermission(Manifest.permission.BLUETOOTH_SCAN)) {
-                // Start discovery
-                bluetoothAdapter.startDiscovery();
+                // Only scans when the HC-05 is neither cached nor bonded; a scan in progress is joined
+                deviceCache.discover(HC_05_DEVICE_NAME, deviceFound);
             } else {
                 Toast.makeText(this, "BLUETOOTH_SCAN permission not granted, cannot proceed with discovery", Toast.LENGTH_SHORT).show();
             }
@@ -285,15 +272,16 @@ public class MainActivity extends AppCompatActivity {
                         BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
 
                         if (device != null) {
-                            // Check if the discovered device is the HC-05 device
-                            if (HC_05_DEVICE_NAME.equals(device.getName())) {
-                                connectToDevice(device);
-                            }
+                            // The cache drops repeat sightings and connects to the first HC-05 once
+                            deviceCache.onDiscovered(device.getAddress(), device.getName());
                         }
                     } else {
                         // Bluetooth permissions not granted, handle accordingly (e.g., show a message to the user)
                         Toast.makeText(context, "Bluetooth permissions not granted, cannot proceed", Toast.LENGTH_SHORT).show();
                     }
+                } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+                    // No HC-05 this time; the next tap scans again
+                    deviceCache.onDiscoveryFinished();
                 }
             } catch (SecurityException se) {
                 // Handle the SecurityException
@@ -341,12 +329,6 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void setConnectedDevice(BluetoothDevice device, BluetoothSocket socket) {
-        connectedDevice = device;
-        bluetoothSocket = socket;
-        BluetoothHolder.setBluetoothSocketWrapper(new BluetoothSocketWrapper(socket));
-    }
-
     public void openControlActivity(View view) {
         // Check if Bluetooth is enabled
         if (!bluetoothAdapter.isEnabled()) {
@@ -355,14 +337,13 @@ public class MainActivity extends AppCompatActivity {
         }
 
         // Check if a device is connected
-        if (bluetoothSocket == null) {
+        if (!ConnectionManager.getInstance().isConnected() && MultiLinkManager.getInstance().getConnectedCount() == 0) {
             Toast.makeText(this, "No connected device", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        // Start ControlActivity with BluetoothSocket
+        // ControlActivity joins the link held by the ConnectionManager
         Intent intent = new Intent(this, ControlActivity.class);
-        intent.putExtra("bluetoothSocketWrapper", new BluetoothSocketWrapper(bluetoothSocket));
         startActivity(intent);
     }
 
@@ -376,4 +357,8 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-}
\ No newline at end of file
+    // The recorded readings are on disk, so this works without a connected device
+    public void openHistoryActivity(View view) {
+        startActivity(new Intent(this, HistoryActivity.class));
+    }
+}
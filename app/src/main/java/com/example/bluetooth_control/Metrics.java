@@ -0,0 +1,223 @@
+package com.example.bluetooth_control;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * App-wide registry of the hot-path counters, gauges and latency histograms, so a laggy link
+ * can be pinned on the read, the UI or the upload side.
+ *
+ * Components look their metrics up once and keep the reference; recording is then a single
+ * atomic operation. Reading happens through {@link #snapshot()}, for the debug overlay or for
+ * a snapshot file, and never blocks the writers.
+ */
+public final class Metrics {
+
+    public static final String BYTES_IN = "link.bytes_in";
+    public static final String BYTES_OUT = "link.bytes_out";
+    public static final String FRAMES_IN = "link.frames_in";
+    public static final String RECONNECTS = "link.reconnects";
+    public static final String LINK_FIRST_BYTE = "link.first_byte";
+    public static final String LINK_FLOW_STALL = "link.flow_stall";
+    public static final String COMMAND_RTT = "command.rtt";
+    public static final String COMMAND_LATENCY = "command.latency";
+    public static final String UI_FRAME = "ui.frame";
+    public static final String UPLOAD_LATENCY = "upload.latency";
+    public static final String UPLOAD_QUEUE = "upload.queue";
+    public static final String OUTBOX_PENDING = "outbox.pending";
+    public static final String SYNC_ACK = "sync.ack";
+    public static final String SYNC_PENDING = "sync.pending";
+    public static final String RULES_FIRED = "rules.fired";
+    public static final String SEQUENCER_LATENESS = "sequencer.lateness";
+    public static final String SERVICE_START = "service.start";
+    public static final String SERVICE_BIND = "service.bind";
+
+    private static Metrics instance;
+
+    public static synchronized Metrics getInstance() {
+        if (instance == null) {
+            instance = new Metrics();
+        }
+        return instance;
+    }
+
+    /** A monotonically increasing count. */
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /** A value read on demand when a snapshot is taken, e.g. a queue depth. */
+    public interface Gauge {
+        long get();
+    }
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final long createdNanos = System.nanoTime();
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    // Replaces any gauge already registered under the name
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    public Snapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().get());
+        }
+        Map<String, Long> gaugeValues = new TreeMap<>();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            gaugeValues.put(entry.getKey(), entry.getValue().get());
+        }
+        Map<String, LatencyHistogram.Snapshot> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(System.nanoTime() - createdNanos, System.currentTimeMillis(),
+                counterValues, gaugeValues, histogramValues);
+    }
+
+    // Writes a JSON snapshot to the file, replacing it
+    public void export(File file) throws IOException {
+        byte[] json = snapshot().toJson();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(json);
+        }
+    }
+
+    public static final class Snapshot {
+        private final long uptimeNanos;
+        private final long takenAtMillis;
+        private final Map<String, Long> counters;
+        private final Map<String, Long> gauges;
+        private final Map<String, LatencyHistogram.Snapshot> histograms;
+
+        Snapshot(long uptimeNanos, long takenAtMillis, Map<String, Long> counters, Map<String, Long> gauges,
+                 Map<String, LatencyHistogram.Snapshot> histograms) {
+            this.uptimeNanos = uptimeNanos;
+            this.takenAtMillis = takenAtMillis;
+            this.counters = Collections.unmodifiableMap(counters);
+            this.gauges = Collections.unmodifiableMap(gauges);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        public long getCounter(String name) {
+            Long value = counters.get(name);
+            return value != null ? value : 0;
+        }
+
+        public long getGauge(String name) {
+            Long value = gauges.get(name);
+            return value != null ? value : 0;
+        }
+
+        public LatencyHistogram.Snapshot getHistogram(String name) {
+            return histograms.get(name);
+        }
+
+        // Per second between an earlier snapshot and this one, or since startup without one
+        public double getRate(String name, Snapshot earlier) {
+            long elapsed = earlier != null ? uptimeNanos - earlier.uptimeNanos : uptimeNanos;
+            long delta = getCounter(name) - (earlier != null ? earlier.getCounter(name) : 0);
+            return elapsed <= 0 ? 0 : delta * 1e9 / elapsed;
+        }
+
+        /** One line per metric for the debug overlay; rates are relative to {@code earlier}. */
+        public String format(Snapshot earlier) {
+            StringBuilder text = new StringBuilder();
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                text.append(String.format(Locale.ROOT, "%-16s %d (%.1f/s)%n",
+                        entry.getKey(), entry.getValue(), getRate(entry.getKey(), earlier)));
+            }
+            for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+                text.append(String.format(Locale.ROOT, "%-16s %d%n", entry.getKey(), entry.getValue()));
+            }
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : histograms.entrySet()) {
+                LatencyHistogram.Snapshot histogram = entry.getValue();
+                text.append(String.format(Locale.ROOT, "%-16s p50 %s p99 %s max %s (n=%d)%n", entry.getKey(),
+                        formatNanos(histogram.getValueAtPercentile(50)),
+                        formatNanos(histogram.getValueAtPercentile(99)),
+                        formatNanos(histogram.getMax()), histogram.getCount()));
+            }
+            return text.toString();
+        }
+
+        public byte[] toJson() {
+            JsonWriter json = new JsonWriter(1024);
+            json.beginObject();
+            json.name("takenAt").value(takenAtMillis);
+            json.name("uptimeMillis").value(uptimeNanos / 1_000_000);
+            json.name("counters").beginObject();
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                json.name(entry.getKey()).value(entry.getValue());
+            }
+            json.endObject();
+            json.name("gauges").beginObject();
+            for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+                json.name(entry.getKey()).value(entry.getValue());
+            }
+            json.endObject();
+            json.name("histograms").beginObject();
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : histograms.entrySet()) {
+                LatencyHistogram.Snapshot histogram = entry.getValue();
+                json.name(entry.getKey()).beginObject()
+                        .name("count").value(histogram.getCount())
+                        .name("meanNanos").value(Math.round(histogram.getMean()))
+                        .name("p50Nanos").value(histogram.getValueAtPercentile(50))
+                        .name("p99Nanos").value(histogram.getValueAtPercentile(99))
+                        .name("p999Nanos").value(histogram.getValueAtPercentile(99.9))
+                        .name("maxNanos").value(histogram.getMax())
+                        .endObject();
+            }
+            json.endObject();
+            json.endObject();
+            return json.toByteArray();
+        }
+
+        static String formatNanos(long nanos) {
+            if (nanos < 1_000) {
+                return nanos + "ns";
+            }
+            if (nanos < 1_000_000) {
+                return String.format(Locale.ROOT, "%.1fus", nanos / 1e3);
+            }
+            if (nanos < 1_000_000_000) {
+                return String.format(Locale.ROOT, "%.1fms", nanos / 1e6);
+            }
+            return String.format(Locale.ROOT, "%.2fs", nanos / 1e9);
+        }
+    }
+}
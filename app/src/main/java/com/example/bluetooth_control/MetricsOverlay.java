@@ -0,0 +1,68 @@
+package com.example.bluetooth_control;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Debug overlay showing the {@link Metrics} snapshot, refreshed twice a second while visible.
+ * Long-pressing the toggle view shows or hides it; tapping the overlay saves a snapshot file
+ * to the app's files dir.
+ */
+public class MetricsOverlay {
+
+    private static final long REFRESH_MILLIS = 500;
+
+    private final TextView view;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable refresh = this::refresh;
+    // Rates on screen are over the last refresh interval
+    private Metrics.Snapshot previous;
+
+    public MetricsOverlay(TextView view, View toggle) {
+        this.view = view;
+        toggle.setOnLongClickListener(v -> {
+            toggle();
+            return true;
+        });
+        view.setOnClickListener(v -> export());
+    }
+
+    public void toggle() {
+        if (view.getVisibility() == View.VISIBLE) {
+            handler.removeCallbacks(refresh);
+            view.setVisibility(View.GONE);
+        } else {
+            previous = null;
+            view.setVisibility(View.VISIBLE);
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        Metrics.Snapshot snapshot = Metrics.getInstance().snapshot();
+        view.setText(snapshot.format(previous));
+        previous = snapshot;
+        handler.postDelayed(refresh, REFRESH_MILLIS);
+    }
+
+    private void export() {
+        File file = new File(view.getContext().getFilesDir(), "metrics-" + System.currentTimeMillis() + ".json");
+        try {
+            Metrics.getInstance().export(file);
+            Toast.makeText(view.getContext(), "Metrics saved to " + file.getPath(), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Toast.makeText(view.getContext(), "Could not save metrics", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    // Call from onDestroy so the refresh loop does not outlive the screen
+    public void stop() {
+        handler.removeCallbacks(refresh);
+    }
+}
@@ -0,0 +1,414 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps several device links open at once, e.g. a bench of Arduino nodes.
+ *
+ * Every {@link Link} has its own {@link ConnectionManager}, and therefore its own reader thread,
+ * bus and reconnect logic, plus its own {@link CommandWriter} so one stalled device cannot hold
+ * up writes to the others and a burst is paced to that device's UART like the primary link.
+ * Connect attempts for all links share one small pool, so they run in parallel but never more
+ * at once than the pool allows.
+ */
+public class MultiLinkManager implements Closeable {
+
+    // Called on a connect or reader thread, UI listeners must post to the main thread
+    public interface Listener {
+        void onLinkStateChanged(Link link, ConnectionManager.State state);
+    }
+
+    private static final int DEFAULT_MAX_PARALLEL_CONNECTS = 4;
+    private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 30_000;
+    private static final int DEFAULT_MAX_ATTEMPTS = 8;
+    // The HC-05's factory setting
+    private static final int DEFAULT_BAUD_RATE = 9600;
+    private static final int WRITE_QUEUE = 64;
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static MultiLinkManager instance;
+
+    public static synchronized MultiLinkManager getInstance() {
+        if (instance == null) {
+            instance = new MultiLinkManager(DEFAULT_MAX_PARALLEL_CONNECTS,
+                    DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS, DEFAULT_MAX_ATTEMPTS, DEFAULT_BAUD_RATE);
+        }
+        return instance;
+    }
+
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxAttempts;
+    private final int baudRate;
+    private final ScheduledThreadPoolExecutor connectExecutor;
+    private final Map<String, Link> links = new LinkedHashMap<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Writes as fast as each stream accepts, e.g. for emulated devices
+    public MultiLinkManager(int maxParallelConnects, long initialBackoffMillis, long maxBackoffMillis, int maxAttempts) {
+        this(maxParallelConnects, initialBackoffMillis, maxBackoffMillis, maxAttempts, 0);
+    }
+
+    /**
+     * @param baudRate the devices' UART rate every link's writer paces to, 0 for unpaced
+     */
+    public MultiLinkManager(int maxParallelConnects, long initialBackoffMillis, long maxBackoffMillis,
+                            int maxAttempts, int baudRate) {
+        if (maxParallelConnects <= 0) {
+            throw new IllegalArgumentException("maxParallelConnects must be positive");
+        }
+        if (baudRate < 0) {
+            throw new IllegalArgumentException("baudRate must not be negative");
+        }
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxAttempts = maxAttempts;
+        this.baudRate = baudRate;
+        AtomicInteger threads = new AtomicInteger();
+        this.connectExecutor = new ScheduledThreadPoolExecutor(maxParallelConnects, r -> {
+            Thread thread = new Thread(r, "link-connect-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts connecting {@code id} in the background and returns its link right away. An id that
+     * is already known reconnects with the new factory.
+     */
+    public Link connect(String id, TransportFactory factory) {
+        Link link;
+        synchronized (this) {
+            link = links.get(id);
+            if (link == null) {
+                link = new Link(id);
+                links.put(id, link);
+            }
+        }
+        link.connect(factory);
+        return link;
+    }
+
+    public void disconnect(String id) {
+        Link link;
+        synchronized (this) {
+            link = links.remove(id);
+        }
+        if (link != null) {
+            link.close();
+        }
+    }
+
+    public synchronized Link getLink(String id) {
+        return links.get(id);
+    }
+
+    public synchronized List<Link> getLinks() {
+        return new ArrayList<>(links.values());
+    }
+
+    public synchronized int getLinkCount() {
+        return links.size();
+    }
+
+    public int getConnectedCount() {
+        int connected = 0;
+        for (Link link : getLinks()) {
+            if (link.isConnected()) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    // Returns false if the link is unknown, not connected or its write queue is full
+    public boolean send(String id, byte[] data) {
+        return send(id, null, data);
+    }
+
+    // As above, replacing a queued command with the same non-null key
+    public boolean send(String id, String key, byte[] data) {
+        Link link = getLink(id);
+        return link != null && link.send(key, data);
+    }
+
+    // Queues data on every connected link, returns how many accepted it
+    public int broadcast(byte[] data) {
+        int queued = 0;
+        for (Link link : getLinks()) {
+            if (link.isConnected() && link.send(data)) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        for (Link link : getLinks()) {
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            text.append(link.describe());
+        }
+        return text.toString();
+    }
+
+    @Override
+    public void close() {
+        List<Link> closing;
+        synchronized (this) {
+            closing = new ArrayList<>(links.values());
+            links.clear();
+        }
+        for (Link link : closing) {
+            link.close();
+        }
+        connectExecutor.shutdownNow();
+    }
+
+    /** One device: its connection, reader bus, command writer and counters. */
+    public final class Link implements Closeable {
+        private final String id;
+        private final ConnectionManager manager;
+        private ConnectionManager.Client client;
+
+        // Guarded by this
+        private Transport transport;
+        private CommandWriter writer;
+        private boolean closed;
+        private long rateStartNanos;
+        private long rateStartBytes;
+        private long previousRateStartNanos;
+        private long previousRateStartBytes;
+
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private final AtomicLong writeCount = new AtomicLong();
+        private final AtomicLong writeNanos = new AtomicLong();
+        private final AtomicLong maxWriteNanos = new AtomicLong();
+        private final AtomicLong droppedWrites = new AtomicLong();
+
+        private Link(String id) {
+            this.id = id;
+            this.manager = new ConnectionManager(initialBackoffMillis, maxBackoffMillis, maxAttempts, connectExecutor);
+            manager.addListener(state -> {
+                if (state == ConnectionManager.State.CONNECTED) {
+                    bind(manager.getTransport());
+                }
+                for (Listener listener : listeners) {
+                    listener.onLinkStateChanged(this, state);
+                }
+            });
+        }
+
+        private synchronized void connect(TransportFactory factory) {
+            ConnectionManager.Client previous = client;
+            client = manager.connect(factory);
+            if (previous != null) {
+                previous.close();
+            }
+        }
+
+        // Picks up the streams of a new transport after the first connect or a reconnect
+        private void bind(Transport newTransport) {
+            CommandWriter stale;
+            synchronized (this) {
+                if (closed || newTransport == null || newTransport == transport) {
+                    return;
+                }
+                stale = writer;
+                writer = null;
+                transport = newTransport;
+                // The new transport has its own reader, so the rate starts over with it
+                rateStartNanos = System.nanoTime();
+                rateStartBytes = manager.getBytesRead();
+                previousRateStartNanos = 0;
+                try {
+                    writer = new CommandWriter.Builder(newTransport.getOutputStream())
+                            .baudRate(baudRate)
+                            .capacity(WRITE_QUEUE)
+                            .callback(new WriterCallback(newTransport))
+                            .build();
+                } catch (IOException e) {
+                    manager.reportFailure(newTransport, e);
+                }
+            }
+            if (stale != null) {
+                stale.close();
+            }
+        }
+
+        public boolean send(byte[] data) {
+            return send(null, data);
+        }
+
+        /**
+         * Queues {@code data} on this device's writer. The array is written as is, so it must
+         * not be modified afterwards. A queued command with the same non-null key is replaced.
+         * Returns false if the link is not connected or the write queue is full.
+         */
+        public boolean send(String key, byte[] data) {
+            CommandWriter current;
+            synchronized (this) {
+                current = writer;
+            }
+            if (current == null) {
+                // Connected, but the state listener that binds the writer may not have run yet
+                bind(manager.getTransport());
+                synchronized (this) {
+                    current = writer;
+                }
+            }
+            if (current == null || !current.submit(key, data)) {
+                droppedWrites.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public ConnectionManager getManager() {
+            return manager;
+        }
+
+        public ConnectionManager.State getState() {
+            return manager.getState();
+        }
+
+        public boolean isConnected() {
+            return manager.isConnected();
+        }
+
+        // Incoming bytes from this device only
+        public DataBus getDataBus() {
+            return manager.getDataBus();
+        }
+
+        // Read on the current transport
+        public long getBytesRead() {
+            return manager.getBytesRead();
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten.get();
+        }
+
+        public long getWriteCount() {
+            return writeCount.get();
+        }
+
+        public long getDroppedWrites() {
+            return droppedWrites.get();
+        }
+
+        // From submit to the end of the write, so time spent queued and paced counts
+        public long getAverageWriteMicros() {
+            long writes = writeCount.get();
+            return writes == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(writeNanos.get() / writes);
+        }
+
+        public long getMaxWriteMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxWriteNanos.get());
+        }
+
+        /**
+         * Inbound rate on the current transport over the last one to two windows. Each call
+         * that finds the window full starts a new one, keeping the one before as the base.
+         */
+        public synchronized long getReadBytesPerSecond() {
+            if (!isConnected() || rateStartNanos == 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            long bytes = getBytesRead();
+            if (bytes < rateStartBytes) {
+                // The transport changed under us and the state listener has not run yet
+                return 0;
+            }
+            if (now - rateStartNanos >= RATE_WINDOW_NANOS) {
+                previousRateStartNanos = rateStartNanos;
+                previousRateStartBytes = rateStartBytes;
+                rateStartNanos = now;
+                rateStartBytes = bytes;
+            }
+            long since = previousRateStartNanos != 0 ? previousRateStartNanos : rateStartNanos;
+            long base = previousRateStartNanos != 0 ? previousRateStartBytes : rateStartBytes;
+            long elapsed = now - since;
+            return elapsed <= 0 ? 0 : (bytes - base) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+
+        public String describe() {
+            return id + ": " + getState()
+                    + " | connect " + manager.getLastConnectMillis() + " ms"
+                    + " | in " + getReadBytesPerSecond() + " B/s"
+                    + " | write avg " + getAverageWriteMicros() + " us, max " + getMaxWriteMicros() + " us";
+        }
+
+        @Override
+        public void close() {
+            ConnectionManager.Client released;
+            CommandWriter stale;
+            synchronized (this) {
+                closed = true;
+                released = client;
+                client = null;
+                stale = writer;
+                writer = null;
+            }
+            if (stale != null) {
+                stale.close();
+            }
+            if (released != null) {
+                released.close();
+            }
+        }
+
+        // Counts this link's writes and reports a failed one against the transport it went to
+        private final class WriterCallback implements CommandWriter.Callback {
+            private final Transport target;
+
+            WriterCallback(Transport target) {
+                this.target = target;
+            }
+
+            @Override
+            public void onWritten(String key, byte[] data, long latencyNanos) {
+                bytesWritten.addAndGet(data.length);
+                writeCount.incrementAndGet();
+                writeNanos.addAndGet(latencyNanos);
+                long max;
+                while (latencyNanos > (max = maxWriteNanos.get()) && !maxWriteNanos.compareAndSet(max, latencyNanos)) {
+                    // Retry until we either raise the max or someone else raised it past us
+                }
+            }
+
+            @Override
+            public void onFailure(String key, IOException e) {
+                droppedWrites.incrementAndGet();
+                manager.reportFailure(target, e);
+            }
+        }
+    }
+}
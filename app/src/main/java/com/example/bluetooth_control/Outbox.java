@@ -0,0 +1,435 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only queue of upload records backed by memory-mapped segment files.
+ *
+ * Each record is {@code [length][crc32][payload]}. The length is written last, so a record only
+ * becomes visible once it is complete, and the CRC catches anything torn by a power loss.
+ * Appends are a memory copy into the current segment; the kernel writes the pages back, so a
+ * process crash loses nothing and {@link #sync()} covers power loss as well.
+ *
+ * Records are read in order with {@link #peek} and removed with {@link #acknowledge}. The
+ * position of the first unacknowledged record is kept in a small cursor file, and segments
+ * entirely before it are deleted. Delivery is at-least-once: a crash between upload and
+ * acknowledge re-sends that batch.
+ */
+public class Outbox implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_FILE = "cursor";
+    private static final int HEADER_BYTES = 8;
+
+    private final File dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private Segment tail;
+    private long cursorSegment;
+    private int cursorPosition;
+    private long pendingCount;
+    private long appendedCount;
+    private long droppedCount;
+    private boolean closed;
+
+    /**
+     * Opens the outbox in {@code dir}, recovering whatever a previous process left there. Once
+     * {@code maxSegments} are in use the oldest segment is discarded, unsent or not, so the
+     * outbox never takes more than {@code segmentBytes * maxSegments} of storage.
+     */
+    public Outbox(File dir, int segmentBytes, int maxSegments) throws IOException {
+        if (segmentBytes <= HEADER_BYTES) {
+            throw new IllegalArgumentException("segmentBytes must be > " + HEADER_BYTES);
+        }
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("maxSegments must be at least 2");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        recover();
+    }
+
+    public void append(String record) throws IOException {
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        append(bytes, 0, bytes.length);
+    }
+
+    public synchronized void append(byte[] data, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Outbox is closed");
+        }
+        if (length <= 0 || HEADER_BYTES + length > segmentBytes) {
+            throw new IllegalArgumentException("record of " + length + " bytes does not fit a segment");
+        }
+        if (tail.writePosition + HEADER_BYTES + length > segmentBytes) {
+            roll();
+        }
+
+        MappedByteBuffer buffer = tail.buffer;
+        int position = tail.writePosition;
+        crc.reset();
+        crc.update(data, offset, length);
+        buffer.position(position + HEADER_BYTES);
+        buffer.put(data, offset, length);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        // Publish last: a reader or a recovery scan never sees a length without its payload
+        buffer.putInt(position, length);
+
+        tail.writePosition = position + HEADER_BYTES + length;
+        pendingCount++;
+        appendedCount++;
+    }
+
+    /**
+     * Returns up to {@code maxRecords} unacknowledged records, oldest first, without removing
+     * them. The batch stops before {@code maxBytes} of payload, but always holds at least one
+     * record if any are pending.
+     */
+    public synchronized Batch peek(int maxRecords, int maxBytes) {
+        List<byte[]> records = new ArrayList<>();
+        Segment segment = find(cursorSegment);
+        int position = cursorPosition;
+        int bytes = 0;
+        while (segment != null && records.size() < maxRecords) {
+            if (position >= segment.writePosition) {
+                segment = next(segment);
+                if (segment != null) {
+                    position = 0;
+                }
+                continue;
+            }
+            int length = segment.buffer.getInt(position);
+            if (!records.isEmpty() && bytes + length > maxBytes) {
+                break;
+            }
+            byte[] record = new byte[length];
+            ByteBuffer view = segment.buffer.duplicate();
+            view.position(position + HEADER_BYTES);
+            view.get(record);
+            records.add(record);
+            bytes += length;
+            position += HEADER_BYTES + length;
+        }
+        long endSegment = segment != null ? segment.id : tail.id;
+        int endPosition = segment != null ? position : tail.writePosition;
+        return new Batch(records, cursorSegment, cursorPosition, endSegment, endPosition);
+    }
+
+    // Removes a batch returned by peek(); batches must be acknowledged in order
+    public synchronized void acknowledge(Batch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.startSegment != cursorSegment || batch.startPosition != cursorPosition) {
+            // Already acknowledged, or overtaken by the oldest segment being discarded
+            return;
+        }
+        cursorSegment = batch.endSegment;
+        cursorPosition = batch.endPosition;
+        pendingCount -= batch.size();
+        // Cursor first: a crash in between only leaves an extra segment to delete next time
+        writeCursor();
+        deleteSegmentsBefore(cursorSegment);
+    }
+
+    // Forces written records to storage, for callers that must survive power loss
+    public synchronized void sync() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    public synchronized long getPendingCount() {
+        return pendingCount;
+    }
+
+    public synchronized long getAppendedCount() {
+        return appendedCount;
+    }
+
+    // Records discarded unsent because the outbox hit its size limit
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        sync();
+        for (Segment segment : segments) {
+            segment.channel.close();
+        }
+        segments.clear();
+    }
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        long[] ids = new long[files != null ? files.length : 0];
+        for (int i = 0; i < ids.length; i++) {
+            String name = files[i].getName();
+            try {
+                ids[i] = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                ids[i] = -1;
+            }
+        }
+        Arrays.sort(ids);
+        for (long id : ids) {
+            if (id >= 0) {
+                segments.addLast(openSegment(id));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.addLast(openSegment(0));
+        }
+        tail = segments.peekLast();
+        // Anything past the last valid record is a torn write, clear it so new records start clean
+        for (int i = tail.writePosition; i < segmentBytes; i++) {
+            tail.buffer.put(i, (byte) 0);
+        }
+
+        readCursor();
+        pendingCount = countFrom(find(cursorSegment), cursorPosition);
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        File file = new File(dir, String.format(Locale.US, "%020d%s", id, SEGMENT_SUFFIX));
+        RandomAccessFile raf;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+        } catch (FileNotFoundException e) {
+            throw new IOException("Cannot open " + file, e);
+        }
+        FileChannel channel = raf.getChannel();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        Segment segment = new Segment(id, file, channel, buffer);
+        scan(segment);
+        return segment;
+    }
+
+    // Finds the end of the last complete record
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        byte[] scratch = new byte[0];
+        int position = 0;
+        while (position + HEADER_BYTES <= segmentBytes) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > segmentBytes) {
+                break;
+            }
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + HEADER_BYTES);
+            view.get(scratch, 0, length);
+            crc.reset();
+            crc.update(scratch, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            position += HEADER_BYTES + length;
+        }
+        segment.writePosition = position;
+    }
+
+    private void roll() throws IOException {
+        if (segments.size() >= maxSegments) {
+            Segment oldest = segments.peekFirst();
+            if (oldest.id >= cursorSegment) {
+                int lost = countIn(oldest, oldest.id == cursorSegment ? cursorPosition : 0);
+                droppedCount += lost;
+                pendingCount -= lost;
+                cursorSegment = next(oldest).id;
+                cursorPosition = 0;
+            }
+            writeCursor();
+            deleteSegmentsBefore(oldest.id + 1);
+        }
+        tail.buffer.force();
+        tail = openSegment(tail.id + 1);
+        segments.addLast(tail);
+    }
+
+    private void deleteSegmentsBefore(long id) throws IOException {
+        Iterator<Segment> it = segments.iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (segment.id >= id || segment == tail) {
+                break;
+            }
+            it.remove();
+            segment.channel.close();
+            if (!segment.file.delete()) {
+                throw new IOException("Cannot delete " + segment.file);
+            }
+        }
+    }
+
+    // Records from position to the end of the log
+    private long countFrom(Segment segment, int position) {
+        long count = 0;
+        while (segment != null) {
+            count += countIn(segment, position);
+            segment = next(segment);
+            position = 0;
+        }
+        return count;
+    }
+
+    private static int countIn(Segment segment, int position) {
+        int count = 0;
+        while (position < segment.writePosition) {
+            position += HEADER_BYTES + segment.buffer.getInt(position);
+            count++;
+        }
+        return count;
+    }
+
+    private Segment find(long id) {
+        for (Segment segment : segments) {
+            if (segment.id == id) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private Segment next(Segment segment) {
+        boolean found = false;
+        for (Segment candidate : segments) {
+            if (found) {
+                return candidate;
+            }
+            found = candidate == segment;
+        }
+        return null;
+    }
+
+    // [segment id][position][crc32 of both]
+    private void readCursor() throws IOException {
+        Segment first = segments.peekFirst();
+        cursorSegment = first.id;
+        cursorPosition = 0;
+
+        File file = new File(dir, CURSOR_FILE);
+        if (file.length() != 16) {
+            return;
+        }
+        long segment;
+        int position;
+        int checksum;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            segment = raf.readLong();
+            position = raf.readInt();
+            checksum = raf.readInt();
+        }
+        if (checksum != cursorChecksum(segment, position)) {
+            // Corrupt cursor: start over from the oldest record, duplicates beat data loss
+            return;
+        }
+        Segment current = find(segment);
+        if (current != null) {
+            cursorSegment = segment;
+            cursorPosition = Math.min(position, current.writePosition);
+        } else if (segment > tail.id) {
+            cursorSegment = tail.id;
+            cursorPosition = tail.writePosition;
+        }
+    }
+
+    private void writeCursor() throws IOException {
+        File tmp = new File(dir, CURSOR_FILE + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.writeLong(cursorSegment);
+            raf.writeInt(cursorPosition);
+            raf.writeInt(cursorChecksum(cursorSegment, cursorPosition));
+            raf.getFD().sync();
+        }
+        if (!tmp.renameTo(new File(dir, CURSOR_FILE))) {
+            throw new IOException("Cannot replace cursor in " + dir);
+        }
+    }
+
+    private static int cursorChecksum(long segment, int position) {
+        CRC32 checksum = new CRC32();
+        ByteBuffer bytes = ByteBuffer.allocate(12);
+        bytes.putLong(segment).putInt(position);
+        checksum.update(bytes.array(), 0, 12);
+        return (int) checksum.getValue();
+    }
+
+    private static final class Segment {
+        final long id;
+        final File file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePosition;
+
+        Segment(long id, File file, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /** Records returned by {@link #peek}, plus where the outbox resumes once they are acknowledged. */
+    public static final class Batch {
+        private final List<byte[]> records;
+        private final long startSegment;
+        private final int startPosition;
+        private final long endSegment;
+        private final int endPosition;
+
+        Batch(List<byte[]> records, long startSegment, int startPosition, long endSegment, int endPosition) {
+            this.records = records;
+            this.startSegment = startSegment;
+            this.startPosition = startPosition;
+            this.endSegment = endSegment;
+            this.endPosition = endPosition;
+        }
+
+        public int size() {
+            return records.size();
+        }
+
+        public boolean isEmpty() {
+            return records.isEmpty();
+        }
+
+        public byte[] get(int index) {
+            return records.get(index);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Uploads the {@link Outbox} to the backend in order, one batch in flight at a time. Records
+ * must already be encoded JSON values (see {@link TelemetryOutbox#append}), so a batch is
+ * streamed into the request as a JSON array without being decoded.
+ *
+ * A batch is only acknowledged once the backend accepts it. Network errors and 5xx responses
+ * are retried with exponential backoff, and nothing is attempted while offline; going back
+ * online retries immediately. A 4xx means the backend will never take the batch, so it is
+ * dropped rather than blocking everything behind it.
+ *
+ * With gzip on, each batch is compressed once and sent with {@code Content-Encoding: gzip};
+ * the backend has to accept that, so it is off by default.
+ *
+ * All scheduling state lives on the single "outbox-drainer" thread.
+ */
+public class OutboxDrainer implements Closeable {
+
+    private final Outbox outbox;
+    private final TelemetryUploader uploader;
+    private final int maxBatchCount;
+    private final int maxBatchBytes;
+    private final long lingerMillis;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final boolean gzip;
+    private final ScheduledExecutorService executor;
+
+    // Only touched on the drainer thread
+    private ScheduledFuture<?> pendingDrain;
+    private boolean inFlight;
+    private boolean online = true;
+    private int failures;
+
+    private final AtomicBoolean wakeRequested = new AtomicBoolean();
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong batchesRetried = new AtomicLong();
+    private final AtomicLong batchesRejected = new AtomicLong();
+
+    public OutboxDrainer(Outbox outbox, TelemetryUploader uploader, int maxBatchCount, int maxBatchBytes,
+                         long lingerMillis, long initialBackoffMillis, long maxBackoffMillis) {
+        this(outbox, uploader, maxBatchCount, maxBatchBytes, lingerMillis, initialBackoffMillis, maxBackoffMillis, false);
+    }
+
+    public OutboxDrainer(Outbox outbox, TelemetryUploader uploader, int maxBatchCount, int maxBatchBytes,
+                         long lingerMillis, long initialBackoffMillis, long maxBackoffMillis, boolean gzip) {
+        this.outbox = outbox;
+        this.uploader = uploader;
+        this.maxBatchCount = maxBatchCount;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerMillis = lingerMillis;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.gzip = gzip;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbox-drainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Records were appended; upload them after the linger delay so they go out together
+    public void wake() {
+        // Called per record, so collapse bursts into a single hop to the drainer thread
+        if (wakeRequested.compareAndSet(false, true)) {
+            post(() -> {
+                wakeRequested.set(false);
+                schedule(lingerMillis);
+            });
+        }
+    }
+
+    public void setOnline(boolean online) {
+        post(() -> {
+            boolean cameBack = online && !this.online;
+            this.online = online;
+            if (cameBack) {
+                // Don't sit out a long backoff that was only caused by being offline
+                failures = 0;
+                cancelPending();
+                schedule(0);
+            }
+        });
+    }
+
+    private void post(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Closed; whatever is left stays in the outbox for next time
+        }
+    }
+
+    private void schedule(long delayMillis) {
+        if (!online || inFlight || pendingDrain != null || executor.isShutdown()) {
+            return;
+        }
+        pendingDrain = executor.schedule(this::drain, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPending() {
+        if (pendingDrain != null) {
+            pendingDrain.cancel(false);
+            pendingDrain = null;
+        }
+    }
+
+    private void drain() {
+        pendingDrain = null;
+        if (!online || inFlight) {
+            return;
+        }
+        Outbox.Batch batch = outbox.peek(maxBatchCount, maxBatchBytes);
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        inFlight = true;
+        Request.Builder request = new Request.Builder()
+                .url(uploader.getEndpoint())
+                .post(toBody(batch, gzip));
+        if (gzip) {
+            request.header("Content-Encoding", "gzip");
+        }
+        boolean queued = uploader.submit(request.build(), new TelemetryUploader.Callback() {
+            @Override
+            public void onResponse(int code, String body) {
+                post(() -> onResult(batch, code));
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                post(() -> onResult(batch, -1));
+            }
+        });
+        if (!queued) {
+            onResult(batch, -1);
+        }
+    }
+
+    // code is -1 when the request never got a response
+    private void onResult(Outbox.Batch batch, int code) {
+        inFlight = false;
+        boolean accepted = code >= 200 && code < 300;
+        boolean rejected = code >= 400 && code < 500 && code != 408 && code != 429;
+        if (accepted || rejected) {
+            (accepted ? batchesSent : batchesRejected).incrementAndGet();
+            try {
+                outbox.acknowledge(batch);
+            } catch (IOException e) {
+                // The cursor moved in memory but not on disk, so only a restart sends the batch
+                // again; back off so a broken disk is not hit in a loop
+                failures++;
+                schedule(backoffMillis(failures));
+                return;
+            }
+            failures = 0;
+            schedule(0);
+        } else {
+            batchesRetried.incrementAndGet();
+            failures++;
+            schedule(backoffMillis(failures));
+        }
+    }
+
+    // initial * 2^(failures - 1), capped
+    long backoffMillis(int failures) {
+        long delay = initialBackoffMillis << Math.min(failures - 1, 30);
+        return delay < 0 || delay > maxBackoffMillis ? maxBackoffMillis : delay;
+    }
+
+    // The same array gzipped up front, so retries and the Content-Length reuse it
+    static RequestBody toBody(Outbox.Batch batch, boolean gzip) {
+        RequestBody plain = toBody(batch);
+        if (!gzip) {
+            return plain;
+        }
+        Buffer compressed = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(compressed))) {
+            plain.writeTo(sink);
+        } catch (IOException e) {
+            // Only written to memory
+            throw new IllegalStateException(e);
+        }
+        return RequestBody.create(compressed.readByteString(), TelemetryUploader.JSON);
+    }
+
+    // [record,record,...] streamed straight from the batch; records are stored already encoded
+    static RequestBody toBody(Outbox.Batch batch) {
+        // The brackets and the commas between records
+        long length = 2 + Math.max(batch.size() - 1, 0);
+        for (int i = 0; i < batch.size(); i++) {
+            length += batch.get(i).length;
+        }
+        long contentLength = length;
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return TelemetryUploader.JSON;
+            }
+
+            @Override
+            public long contentLength() {
+                return contentLength;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                sink.writeByte('[');
+                for (int i = 0; i < batch.size(); i++) {
+                    if (i > 0) {
+                        sink.writeByte(',');
+                    }
+                    sink.write(batch.get(i));
+                }
+                sink.writeByte(']');
+            }
+        };
+    }
+
+    public long getBatchesSent() {
+        return batchesSent.get();
+    }
+
+    public long getBatchesRetried() {
+        return batchesRetried.get();
+    }
+
+    public long getBatchesRejected() {
+        return batchesRejected.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.bluetooth_control;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The phone's BluetoothAdapter as a {@link DeviceCache.Adapter}, and the one cache shared by
+ * the screens and {@link LinkService}. Calls the system refuses for lack of permission behave
+ * as if there were no devices.
+ */
+public final class PairedDevices implements DeviceCache.Adapter {
+
+    private static final String CACHE_FILE = "devices";
+    private static final int CACHE_CAPACITY = 8;
+
+    private static DeviceCache cache;
+
+    public static synchronized DeviceCache getCache(Context context) {
+        if (cache == null) {
+            cache = new DeviceCache(new File(context.getApplicationContext().getFilesDir(), CACHE_FILE),
+                    CACHE_CAPACITY, new PairedDevices(BluetoothAdapter.getDefaultAdapter()));
+        }
+        return cache;
+    }
+
+    private final BluetoothAdapter adapter;
+
+    public PairedDevices(BluetoothAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    @Override
+    public Map<String, String> getBondedDevices() {
+        if (adapter == null) {
+            return Collections.emptyMap();
+        }
+        try {
+            Map<String, String> bonded = new LinkedHashMap<>();
+            for (BluetoothDevice device : adapter.getBondedDevices()) {
+                bonded.put(device.getAddress(), device.getName());
+            }
+            return bonded;
+        } catch (SecurityException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    @Override
+    public void startDiscovery() {
+        try {
+            if (adapter != null) {
+                adapter.startDiscovery();
+            }
+        } catch (SecurityException e) {
+            // No BLUETOOTH_SCAN, the lookup simply never completes
+        }
+    }
+
+    @Override
+    public void cancelDiscovery() {
+        try {
+            if (adapter != null) {
+                adapter.cancelDiscovery();
+            }
+        } catch (SecurityException e) {
+            // Nothing was started then
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.bluetooth_control;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Draws one {@link TimeSeriesStore.Downsampled} series: a bar from min to max for each bucket
+ * and the averages joined as a line. Empty buckets leave a gap.
+ */
+public class ReadingChartView extends View {
+
+    private final Paint rangePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint averagePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path averagePath = new Path();
+    private TimeSeriesStore.Downsampled data;
+
+    public ReadingChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        rangePaint.setColor(Color.argb(80, 33, 150, 243));
+        rangePaint.setStrokeWidth(4);
+        averagePaint.setColor(Color.rgb(33, 150, 243));
+        averagePaint.setStyle(Paint.Style.STROKE);
+        averagePaint.setStrokeWidth(3);
+    }
+
+    // Called on the UI thread
+    public void setData(TimeSeriesStore.Downsampled data) {
+        this.data = data;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (data == null) {
+            return;
+        }
+        double low = Double.POSITIVE_INFINITY;
+        double high = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < data.size(); i++) {
+            if (data.count(i) > 0) {
+                low = Math.min(low, data.min(i));
+                high = Math.max(high, data.max(i));
+            }
+        }
+        if (low > high) {
+            return;
+        }
+        if (low == high) {
+            low -= 1;
+            high += 1;
+        }
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        float step = width / data.size();
+        averagePath.reset();
+        boolean drawing = false;
+        for (int i = 0; i < data.size(); i++) {
+            if (data.count(i) == 0) {
+                drawing = false;
+                continue;
+            }
+            float x = getPaddingLeft() + (i + 0.5f) * step;
+            canvas.drawLine(x, y(data.max(i), low, high, height), x, y(data.min(i), low, high, height), rangePaint);
+            float average = y(data.average(i), low, high, height);
+            if (drawing) {
+                averagePath.lineTo(x, average);
+            } else {
+                averagePath.moveTo(x, average);
+                drawing = true;
+            }
+        }
+        canvas.drawPath(averagePath, averagePaint);
+    }
+
+    private float y(double value, double low, double high, float height) {
+        return getPaddingTop() + (float) ((high - value) / (high - low)) * height;
+    }
+}
@@ -0,0 +1,726 @@
+package com.example.bluetooth_control;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the sketch's output into typed readings.
+ *
+ * A {@link Format} is declared once, naming the fields the sketch prints (CSV columns,
+ * key=value pairs, a flat JSON object or a fixed binary struct), and compiled into a parser
+ * that works on the raw frame bytes from {@link FrameDecoder}. Numbers are parsed in place
+ * and written into the reused {@link Readings} buffer, so a line costs no allocation. The
+ * readings are only valid for the duration of the callback.
+ *
+ * Not thread-safe, like FrameDecoder: one parser per consumer thread. Formats are immutable
+ * and can be shared.
+ */
+public class ReadingParser implements FrameDecoder.FrameListener {
+
+    // Called on the thread feeding the parser
+    public interface Listener {
+        void onReadings(Readings readings);
+    }
+
+    // Readings has one presence bit per field
+    static final int MAX_FIELDS = 64;
+
+    private final Format format;
+    private final Listener listener;
+    private final Readings readings;
+
+    private long parsedCount;
+    private long rejectedCount;
+
+    public ReadingParser(Format format, Listener listener) {
+        this.format = format;
+        this.listener = listener;
+        this.readings = new Readings(format.fields);
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame) {
+        if (frame.hasArray()) {
+            parse(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        } else {
+            byte[] copy = new byte[frame.remaining()];
+            frame.duplicate().get(copy);
+            parse(copy, 0, copy.length);
+        }
+    }
+
+    /**
+     * Parses one line (or struct) and hands the readings to the listener. Returns false, and
+     * counts the frame as rejected, if it was malformed or held none of the format's fields.
+     */
+    public boolean parse(byte[] bytes, int offset, int length) {
+        readings.present = 0;
+        if (!format.parse(bytes, offset, offset + length, readings) || readings.present == 0) {
+            readings.present = 0;
+            rejectedCount++;
+            return false;
+        }
+        parsedCount++;
+        listener.onReadings(readings);
+        return true;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public long getParsedCount() {
+        return parsedCount;
+    }
+
+    // Frames that were malformed or carried no known field
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /** The values of one frame, indexed like the format's fields. */
+    public static final class Readings {
+        private final String[] names;
+        final double[] values;
+        long present;
+
+        Readings(String[] names) {
+            this.names = names;
+            this.values = new double[names.length];
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        public String name(int field) {
+            return names[field];
+        }
+
+        // Fields missing from the frame, or not a number there, are absent
+        public boolean has(int field) {
+            return (present & (1L << field)) != 0;
+        }
+
+        public double value(int field) {
+            return values[field];
+        }
+
+        public int presentCount() {
+            return Long.bitCount(present);
+        }
+
+        // -1 if the format has no such field
+        public int indexOf(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (name.equals(names[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** A compiled description of what the sketch prints. */
+    public abstract static class Format {
+        final String[] fields;
+
+        Format(String[] fields) {
+            if (fields.length == 0 || fields.length > MAX_FIELDS) {
+                throw new IllegalArgumentException("A format needs 1 to " + MAX_FIELDS + " fields");
+            }
+            this.fields = fields;
+        }
+
+        public String[] getFields() {
+            return fields.clone();
+        }
+
+        // How frames of this format are cut from the stream
+        public abstract FrameDecoder.Framing framing();
+
+        // Stores whatever fields it finds in out; false if the frame is malformed
+        abstract boolean parse(byte[] bytes, int from, int to, Readings out);
+    }
+
+    /**
+     * Delimited columns, e.g. {@code 21.5,40.1,812}. Column i is field i; a null name skips a
+     * column and extra columns are ignored.
+     */
+    public static Format csv(char separator, String... columns) {
+        return new CsvFormat((byte) separator, columns);
+    }
+
+    /**
+     * Pairs such as {@code temp=21.5,hum=40.1} or {@code temp:21.5 hum:40.1}, in any order and
+     * separated by commas, semicolons or whitespace, as TimeSeriesStore#recordLine accepts.
+     * Keys not listed are ignored.
+     */
+    public static Format keyValue(String... keys) {
+        return new KeyValueFormat(keys);
+    }
+
+    /**
+     * A single-line JSON object such as {@code {"temp":21.5,"hum":40.1}}. Only numeric values
+     * of listed keys are read; other values, nested ones included, are skipped.
+     */
+    public static Format json(String... keys) {
+        return new JsonFormat(keys);
+    }
+
+    // --- Numbers ---
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Parses a decimal number such as {@code -12}, {@code 21.50} or {@code 1.2e-3}, without
+     * surrounding whitespace. Returns NaN if the bytes are not a number, which is also how the
+     * sketch's own "nan" and "inf" prints come out. Up to 18 significant digits with a small
+     * exponent are converted exactly in place; anything longer falls back to
+     * Double.parseDouble.
+     */
+    static double parseNumber(byte[] bytes, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int significant = 0;
+        boolean digits = false;
+        boolean truncated = false;
+        while (i < to) {
+            int d = bytes[i] - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            digits = true;
+            if (significant < 18) {
+                mantissa = mantissa * 10 + d;
+                if (mantissa != 0) {
+                    significant++;
+                }
+            } else {
+                exponent++;
+                truncated |= d != 0;
+            }
+            i++;
+        }
+        if (i < to && bytes[i] == '.') {
+            i++;
+            while (i < to) {
+                int d = bytes[i] - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                digits = true;
+                if (significant < 18) {
+                    mantissa = mantissa * 10 + d;
+                    exponent--;
+                    if (mantissa != 0) {
+                        significant++;
+                    }
+                } else {
+                    truncated |= d != 0;
+                }
+                i++;
+            }
+        }
+        if (!digits) {
+            return Double.NaN;
+        }
+        if (i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int start = i;
+            int explicit = 0;
+            while (i < to && bytes[i] >= '0' && bytes[i] <= '9') {
+                // Saturates well past any double's range
+                if (explicit < 100_000) {
+                    explicit = explicit * 10 + (bytes[i] - '0');
+                }
+                i++;
+            }
+            if (i == start) {
+                return Double.NaN;
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+        if (i != to) {
+            return Double.NaN;
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (!truncated && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            // Both operands are exact doubles, so one IEEE operation rounds correctly
+            value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+        } else {
+            return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    // Stores the number in [from, to), trimmed, if it is one
+    private static void store(Readings out, int field, byte[] bytes, int from, int to) {
+        while (from < to && isWhitespace(bytes[from])) {
+            from++;
+        }
+        while (to > from && isWhitespace(bytes[to - 1])) {
+            to--;
+        }
+        double value = parseNumber(bytes, from, to);
+        if (value == value && !Double.isInfinite(value)) {
+            out.values[field] = value;
+            out.present |= 1L << field;
+        }
+    }
+
+    // --- Text formats ---
+
+    abstract static class TextFormat extends Format {
+        TextFormat(String[] fields) {
+            super(fields);
+        }
+
+        @Override
+        public FrameDecoder.Framing framing() {
+            return FrameDecoder.newline();
+        }
+    }
+
+    static final class CsvFormat extends TextFormat {
+        private final byte separator;
+        // Field index per column, -1 for skipped columns
+        private final int[] columnFields;
+
+        CsvFormat(byte separator, String[] columns) {
+            super(named(columns));
+            if (separator == '"' || separator == '.' || separator == '-' || (separator >= '0' && separator <= '9')) {
+                throw new IllegalArgumentException("Separator would split numbers: " + (char) separator);
+            }
+            this.separator = separator;
+            this.columnFields = new int[columns.length];
+            int field = 0;
+            for (int i = 0; i < columns.length; i++) {
+                columnFields[i] = columns[i] != null ? field++ : -1;
+            }
+        }
+
+        private static String[] named(String[] columns) {
+            List<String> names = new ArrayList<>();
+            for (String column : columns) {
+                if (column != null) {
+                    names.add(column);
+                }
+            }
+            return unique(names.toArray(new String[0]));
+        }
+
+        @Override
+        boolean parse(byte[] bytes, int from, int to, Readings out) {
+            int column = 0;
+            int start = from;
+            for (int i = from; i <= to && column < columnFields.length; i++) {
+                if (i == to || bytes[i] == separator) {
+                    int field = columnFields[column++];
+                    if (field >= 0) {
+                        store(out, field, bytes, start, i);
+                    }
+                    start = i + 1;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class KeyValueFormat extends TextFormat {
+        private final KeyTable keys;
+
+        KeyValueFormat(String[] keys) {
+            super(unique(keys));
+            this.keys = new KeyTable(fields);
+        }
+
+        private static boolean isSeparator(byte b) {
+            return b == ',' || b == ';' || b == ' ' || b == '\t' || b == '\r';
+        }
+
+        @Override
+        boolean parse(byte[] bytes, int from, int to, Readings out) {
+            int i = from;
+            while (i < to) {
+                while (i < to && isSeparator(bytes[i])) {
+                    i++;
+                }
+                int start = i;
+                int split = -1;
+                while (i < to && !isSeparator(bytes[i])) {
+                    if (split < 0 && (bytes[i] == '=' || bytes[i] == ':')) {
+                        split = i;
+                    }
+                    i++;
+                }
+                if (split > start) {
+                    int field = keys.find(bytes, start, split);
+                    if (field >= 0) {
+                        store(out, field, bytes, split + 1, i);
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class JsonFormat extends TextFormat {
+        private final KeyTable keys;
+
+        JsonFormat(String[] keys) {
+            super(unique(keys));
+            this.keys = new KeyTable(fields);
+        }
+
+        @Override
+        boolean parse(byte[] bytes, int from, int to, Readings out) {
+            int i = skipWhitespace(bytes, from, to);
+            if (i >= to || bytes[i] != '{') {
+                return false;
+            }
+            i = skipWhitespace(bytes, i + 1, to);
+            if (i < to && bytes[i] == '}') {
+                return skipWhitespace(bytes, i + 1, to) == to;
+            }
+            while (true) {
+                if (i >= to || bytes[i] != '"') {
+                    return false;
+                }
+                int keyStart = i + 1;
+                int keyEnd = skipString(bytes, i, to);
+                if (keyEnd < 0) {
+                    return false;
+                }
+                // An escaped key never matches, the sketch's field names need no escaping
+                int field = keys.find(bytes, keyStart, keyEnd - 1);
+                i = skipWhitespace(bytes, keyEnd, to);
+                if (i >= to || bytes[i] != ':') {
+                    return false;
+                }
+                i = skipWhitespace(bytes, i + 1, to);
+                if (i >= to) {
+                    return false;
+                }
+                int valueStart = i;
+                byte first = bytes[i];
+                if (first == '"') {
+                    i = skipString(bytes, i, to);
+                } else if (first == '{' || first == '[') {
+                    i = skipNested(bytes, i, to);
+                } else {
+                    while (i < to && bytes[i] != ',' && bytes[i] != '}' && !isWhitespace(bytes[i])) {
+                        i++;
+                    }
+                    if (i == valueStart) {
+                        return false;
+                    }
+                    if (field >= 0) {
+                        store(out, field, bytes, valueStart, i);
+                    }
+                }
+                if (i < 0) {
+                    return false;
+                }
+                i = skipWhitespace(bytes, i, to);
+                if (i >= to) {
+                    return false;
+                }
+                if (bytes[i] == '}') {
+                    return skipWhitespace(bytes, i + 1, to) == to;
+                }
+                if (bytes[i] != ',') {
+                    return false;
+                }
+                i = skipWhitespace(bytes, i + 1, to);
+            }
+        }
+
+        private static int skipWhitespace(byte[] bytes, int i, int to) {
+            while (i < to && (isWhitespace(bytes[i]) || bytes[i] == '\n')) {
+                i++;
+            }
+            return i;
+        }
+
+        // i is at the opening quote; returns the index past the closing one, or -1
+        private static int skipString(byte[] bytes, int i, int to) {
+            for (i++; i < to; i++) {
+                if (bytes[i] == '\\') {
+                    i++;
+                } else if (bytes[i] == '"') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        // i is at '{' or '['; returns the index past the matching close, or -1
+        private static int skipNested(byte[] bytes, int i, int to) {
+            int depth = 0;
+            while (i < to) {
+                byte b = bytes[i];
+                if (b == '"') {
+                    i = skipString(bytes, i, to);
+                    if (i < 0) {
+                        return -1;
+                    }
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if ((b == '}' || b == ']') && --depth == 0) {
+                    return i + 1;
+                }
+                i++;
+            }
+            return -1;
+        }
+    }
+
+    private static String[] unique(String[] names) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null || names[i].isEmpty()) {
+                throw new IllegalArgumentException("Field names must not be empty");
+            }
+            for (int j = 0; j < i; j++) {
+                if (names[i].equals(names[j])) {
+                    throw new IllegalArgumentException("Duplicate field " + names[i]);
+                }
+            }
+        }
+        return names.clone();
+    }
+
+    /** Open-addressing lookup from key bytes to field index, built once per format. */
+    static final class KeyTable {
+        private final byte[][] keys;
+        // Field index + 1 per slot, 0 for empty
+        private final int[] slots;
+        private final int mask;
+
+        KeyTable(String[] names) {
+            keys = new byte[names.length][];
+            int size = Integer.highestOneBit(names.length * 4 - 1) << 1;
+            slots = new int[size];
+            mask = size - 1;
+            for (int i = 0; i < names.length; i++) {
+                keys[i] = names[i].getBytes(StandardCharsets.UTF_8);
+                int slot = hash(keys[i], 0, keys[i].length) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = i + 1;
+            }
+        }
+
+        int find(byte[] bytes, int from, int to) {
+            int length = to - from;
+            for (int slot = hash(bytes, from, to) & mask; ; slot = (slot + 1) & mask) {
+                int entry = slots[slot];
+                if (entry == 0) {
+                    return -1;
+                }
+                byte[] key = keys[entry - 1];
+                if (key.length == length && regionMatches(key, bytes, from)) {
+                    return entry - 1;
+                }
+            }
+        }
+
+        private static boolean regionMatches(byte[] key, byte[] bytes, int from) {
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != bytes[from + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int hash(byte[] bytes, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + bytes[i];
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+
+    // --- Binary structs ---
+
+    public enum Type {
+        INT8(1),
+        UINT8(1),
+        INT16(2),
+        UINT16(2),
+        INT32(4),
+        UINT32(4),
+        FLOAT32(4);
+
+        final int size;
+
+        Type(int size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * A packed struct as the sketch would {@code Serial.write} it. The AVR boards are
+     * little-endian, which is the default. Each field may be scaled, e.g. an int16 in
+     * hundredths of a degree with scale 0.01.
+     */
+    public static class StructBuilder {
+        private final List<String> names = new ArrayList<>();
+        private final List<Type> types = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+        private final List<Double> scales = new ArrayList<>();
+        private ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+        private FrameDecoder.Framing framing;
+        private int size;
+
+        public StructBuilder order(ByteOrder order) {
+            this.order = order;
+            return this;
+        }
+
+        public StructBuilder field(String name, Type type) {
+            return field(name, type, 1);
+        }
+
+        public StructBuilder field(String name, Type type, double scale) {
+            names.add(name);
+            types.add(type);
+            offsets.add(size);
+            scales.add(scale);
+            size += type.size;
+            return this;
+        }
+
+        // Padding or bytes that carry no reading
+        public StructBuilder skip(int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("bytes must be positive");
+            }
+            size += bytes;
+            return this;
+        }
+
+        /**
+         * How structs are cut from the stream, fixed-size by default. A length prefix or a
+         * delimiter lets the decoder resynchronise after a lost byte.
+         */
+        public StructBuilder framing(FrameDecoder.Framing framing) {
+            this.framing = framing;
+            return this;
+        }
+
+        public Format build() {
+            String[] fields = unique(names.toArray(new String[0]));
+            int[] offsetArray = new int[offsets.size()];
+            double[] scaleArray = new double[scales.size()];
+            for (int i = 0; i < offsetArray.length; i++) {
+                offsetArray[i] = offsets.get(i);
+                scaleArray[i] = scales.get(i);
+            }
+            return new StructFormat(fields, types.toArray(new Type[0]), offsetArray, scaleArray, order, size,
+                    framing != null ? framing : FrameDecoder.fixedSize(size));
+        }
+    }
+
+    static final class StructFormat extends Format {
+        private final Type[] types;
+        private final int[] offsets;
+        private final double[] scales;
+        private final boolean bigEndian;
+        private final int size;
+        private final FrameDecoder.Framing framing;
+
+        StructFormat(String[] fields, Type[] types, int[] offsets, double[] scales, ByteOrder order, int size,
+                     FrameDecoder.Framing framing) {
+            super(fields);
+            this.types = types;
+            this.offsets = offsets;
+            this.scales = scales;
+            this.bigEndian = order == ByteOrder.BIG_ENDIAN;
+            this.size = size;
+            this.framing = framing;
+        }
+
+        @Override
+        public FrameDecoder.Framing framing() {
+            return framing;
+        }
+
+        // Any other length means the stream lost sync, so nothing in the frame can be trusted
+        @Override
+        boolean parse(byte[] bytes, int from, int to, Readings out) {
+            if (to - from != size) {
+                return false;
+            }
+            for (int field = 0; field < types.length; field++) {
+                int at = from + offsets[field];
+                double value;
+                switch (types[field]) {
+                    case INT8:
+                        value = bytes[at];
+                        break;
+                    case UINT8:
+                        value = bytes[at] & 0xFF;
+                        break;
+                    case INT16:
+                        value = (short) read(bytes, at, 2);
+                        break;
+                    case UINT16:
+                        value = read(bytes, at, 2);
+                        break;
+                    case INT32:
+                        value = (int) read(bytes, at, 4);
+                        break;
+                    case UINT32:
+                        value = read(bytes, at, 4);
+                        break;
+                    default:
+                        value = Float.intBitsToFloat((int) read(bytes, at, 4));
+                        if (value != value || Double.isInfinite(value)) {
+                            continue;
+                        }
+                }
+                out.values[field] = value * scales[field];
+                out.present |= 1L << field;
+            }
+            return true;
+        }
+
+        private long read(byte[] bytes, int at, int length) {
+            long value = 0;
+            for (int i = 0; i < length; i++) {
+                int b = bytes[bigEndian ? at + i : at + length - 1 - i] & 0xFF;
+                value = (value << 8) | b;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a local history of everything the device reports: subscribes to the link's
+ * {@link DataBus}, splits it into lines and records their readings in a {@link TimeSeriesStore},
+ * independent of which screens are open. The store's open partitions are flushed to disk at
+ * most once per {@link #FLUSH_INTERVAL_MILLIS} as lines arrive, and on close.
+ *
+ * Without a {@link ReadingParser.Format} any {@code name=value} pairs are picked up, which
+ * allocates per line; with one, only the declared fields are read, allocation-free.
+ */
+public class ReadingRecorder implements Closeable {
+
+    private static final int MAX_LINE_LENGTH = 1024;
+    static final long FLUSH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // Set to the sketch's format, e.g. ReadingParser.keyValue("temp", "hum"), to parse it typed
+    private static final ReadingParser.Format FORMAT = null;
+
+    private static ReadingRecorder instance;
+
+    public static synchronized ReadingRecorder getInstance(File filesDir) throws IOException {
+        if (instance == null) {
+            instance = new ReadingRecorder(ConnectionManager.getInstance().getDataBus(),
+                    TimeSeriesStore.getInstance(filesDir), FORMAT);
+        }
+        return instance;
+    }
+
+    private final TimeSeriesStore store;
+    private final DataBus.Subscription subscription;
+    private final AtomicLong linesSeen = new AtomicLong();
+    private final AtomicLong readingsStored = new AtomicLong();
+    private final AtomicLong flushErrors = new AtomicLong();
+    // Only touched on the subscription's thread
+    private long lastFlushMillis = System.currentTimeMillis();
+
+    public ReadingRecorder(DataBus bus, TimeSeriesStore store) {
+        this(bus, store, null);
+    }
+
+    public ReadingRecorder(DataBus bus, TimeSeriesStore store, ReadingParser.Format format) {
+        this.store = store;
+        FrameDecoder decoder;
+        if (format != null) {
+            ReadingParser parser = new ReadingParser(format, readings -> {
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < readings.size(); i++) {
+                    if (readings.has(i)) {
+                        store.append(readings.name(i), now, readings.value(i));
+                    }
+                }
+                readingsStored.addAndGet(readings.presentCount());
+                maybeFlush(now);
+            });
+            decoder = new FrameDecoder(format.framing(), MAX_LINE_LENGTH, frame -> {
+                linesSeen.incrementAndGet();
+                parser.onFrame(frame);
+            });
+        } else {
+            decoder = new FrameDecoder(FrameDecoder.newline(), MAX_LINE_LENGTH,
+                    new FrameDecoder.TextFrameListener(StandardCharsets.UTF_8, MAX_LINE_LENGTH, line -> {
+                        linesSeen.incrementAndGet();
+                        long now = System.currentTimeMillis();
+                        readingsStored.addAndGet(store.recordLine(now, line));
+                        maybeFlush(now);
+                    }));
+        }
+        this.subscription = bus.subscribe("history", DataBus.OverflowPolicy.DROP).start(decoder::feed);
+    }
+
+    private void maybeFlush(long now) {
+        if (now - lastFlushMillis < FLUSH_INTERVAL_MILLIS) {
+            return;
+        }
+        lastFlushMillis = now;
+        flush();
+    }
+
+    // Safe from any thread, e.g. when the service stops
+    public void flush() {
+        try {
+            store.flush();
+        } catch (IOException e) {
+            flushErrors.incrementAndGet();
+        }
+    }
+
+    public TimeSeriesStore getStore() {
+        return store;
+    }
+
+    public long getLinesSeen() {
+        return linesSeen.get();
+    }
+
+    public long getReadingsStored() {
+        return readingsStored.get();
+    }
+
+    public long getFlushErrorCount() {
+        return flushErrors.get();
+    }
+
+    @Override
+    public void close() {
+        subscription.close();
+        flush();
+    }
+}
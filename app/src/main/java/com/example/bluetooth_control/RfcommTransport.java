@@ -0,0 +1,65 @@
+package com.example.bluetooth_control;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+public class RfcommTransport implements Transport {
+
+    private final BluetoothSocket socket;
+
+    public RfcommTransport(BluetoothSocket socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    // Opens an RFCOMM socket to the device's serial port service
+    public static class Factory implements TransportFactory {
+        private final BluetoothDevice device;
+        private final UUID uuid;
+
+        public Factory(BluetoothDevice device, UUID uuid) {
+            this.device = device;
+            this.uuid = uuid;
+        }
+
+        @Override
+        public Transport connect() throws IOException {
+            try {
+                BluetoothSocket socket = device.createRfcommSocketToServiceRecord(uuid);
+                try {
+                    socket.connect();
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+                return new RfcommTransport(socket);
+            } catch (SecurityException se) {
+                throw new IOException("Bluetooth permission not granted", se);
+            }
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package com.example.bluetooth_control;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reacts to readings on the device instead of round-tripping through the backend, e.g. "if
+ * temp averages above 30 for 5s, send ON to device 2".
+ *
+ * The rules are compiled against the parser's {@link ReadingParser.Format} into a small
+ * graph: each field feeds the windowed aggregates that watch it (rules watching the same
+ * aggregate share one), and each aggregate feeds its rules. A reading only touches the
+ * aggregates and rules of the fields it carries, all in primitive arrays, so evaluation
+ * allocates nothing and a firing rule's command is handed to the {@link Dispatcher} on the
+ * same thread, microseconds after the line arrived.
+ *
+ * Rules are edge-triggered: a rule fires once when its condition has held for its duration
+ * and re-arms when the value moves back past the threshold (less any hysteresis), sending its
+ * optional clear command then. Conditions are evaluated when a reading of their field
+ * arrives. Not thread-safe; feed it from one thread, like the parser.
+ */
+public class RuleEngine implements ReadingParser.Listener {
+
+    // Called on the evaluating thread, so it must queue the write rather than block
+    public interface Dispatcher {
+        boolean dispatch(String target, byte[] command);
+    }
+
+    public enum Aggregate {
+        LATEST,
+        AVERAGE,
+        MIN,
+        MAX
+    }
+
+    private static final long NOT_PENDING = Long.MIN_VALUE;
+
+    private final Rule[] rules;
+    private final Dispatcher dispatcher;
+    private final ReadingParser.Format format;
+    private final Node[] nodes;
+    // Per field, the nodes it feeds; per node, the rules watching it
+    private final int[][] fieldNodes;
+    private final int[][] nodeRules;
+
+    // Per rule state
+    private final boolean[] active;
+    private final long[] pendingSince;
+
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong dispatchFailures = new AtomicLong();
+    private final Metrics.Counter firedMetric = Metrics.getInstance().counter(Metrics.RULES_FIRED);
+
+    public RuleEngine(ReadingParser.Format format, List<Rule> rules, Dispatcher dispatcher) {
+        this.format = format;
+        this.rules = rules.toArray(new Rule[0]);
+        this.dispatcher = dispatcher;
+        this.active = new boolean[this.rules.length];
+        this.pendingSince = new long[this.rules.length];
+
+        String[] fields = format.getFields();
+        Map<String, Integer> nodeIds = new HashMap<>();
+        List<Node> nodeList = new ArrayList<>();
+        List<List<Integer>> fieldNodeLists = new ArrayList<>();
+        List<List<Integer>> nodeRuleLists = new ArrayList<>();
+        for (int i = 0; i < fields.length; i++) {
+            fieldNodeLists.add(new ArrayList<>());
+        }
+        for (int r = 0; r < this.rules.length; r++) {
+            Rule rule = this.rules[r];
+            int field = indexOf(fields, rule.field);
+            if (field < 0) {
+                throw new IllegalArgumentException("Rule " + rule.name + " watches unknown field " + rule.field);
+            }
+            // The sample cap sizes the window's ring, so it is part of what makes two aggregates
+            // the same; the latest value keeps no samples
+            String key = field + "/" + rule.aggregate + "/" + rule.windowNanos
+                    + (rule.aggregate == Aggregate.LATEST ? "" : "/" + rule.maxSamples);
+            Integer node = nodeIds.get(key);
+            if (node == null) {
+                node = nodeList.size();
+                nodeIds.put(key, node);
+                nodeList.add(Node.create(rule.aggregate, rule.windowNanos, rule.maxSamples));
+                nodeRuleLists.add(new ArrayList<>());
+                fieldNodeLists.get(field).add(node);
+            }
+            nodeRuleLists.get(node).add(r);
+            pendingSince[r] = NOT_PENDING;
+        }
+        this.nodes = nodeList.toArray(new Node[0]);
+        this.fieldNodes = toArrays(fieldNodeLists);
+        this.nodeRules = toArrays(nodeRuleLists);
+    }
+
+    /**
+     * A consumer for a {@link DataBus} subscription that frames and parses the stream with
+     * this engine's format and evaluates every reading.
+     */
+    public DataBus.Consumer newConsumer(int maxFrameLength) {
+        FrameDecoder decoder = new FrameDecoder(format.framing(), maxFrameLength, new ReadingParser(format, this));
+        return decoder::feed;
+    }
+
+    @Override
+    public void onReadings(ReadingParser.Readings readings) {
+        evaluate(readings, System.nanoTime());
+    }
+
+    // Readings must come from a parser of this engine's format
+    public void evaluate(ReadingParser.Readings readings, long nowNanos) {
+        for (int field = 0; field < fieldNodes.length; field++) {
+            if (!readings.has(field)) {
+                continue;
+            }
+            double value = readings.value(field);
+            for (int node : fieldNodes[field]) {
+                nodes[node].add(nowNanos, value);
+                double aggregate = nodes[node].value();
+                for (int rule : nodeRules[node]) {
+                    evaluate(rule, aggregate, nowNanos);
+                }
+            }
+        }
+    }
+
+    private void evaluate(int index, double value, long nowNanos) {
+        evaluations.incrementAndGet();
+        Rule rule = rules[index];
+        if (!active[index]) {
+            boolean holds = rule.above ? value > rule.threshold : value < rule.threshold;
+            if (!holds) {
+                pendingSince[index] = NOT_PENDING;
+                return;
+            }
+            if (pendingSince[index] == NOT_PENDING) {
+                pendingSince[index] = nowNanos;
+            }
+            if (nowNanos - pendingSince[index] >= rule.durationNanos) {
+                active[index] = true;
+                pendingSince[index] = NOT_PENDING;
+                fire(rule.target, rule.command);
+            }
+        } else {
+            boolean cleared = rule.above ? value <= rule.threshold - rule.hysteresis
+                    : value >= rule.threshold + rule.hysteresis;
+            if (cleared) {
+                active[index] = false;
+                if (rule.clearCommand != null) {
+                    fire(rule.clearTarget, rule.clearCommand);
+                }
+            }
+        }
+    }
+
+    private void fire(String target, byte[] command) {
+        fired.incrementAndGet();
+        firedMetric.increment();
+        if (!dispatcher.dispatch(target, command)) {
+            dispatchFailures.incrementAndGet();
+        }
+    }
+
+    public boolean isActive(String ruleName) {
+        for (int i = 0; i < rules.length; i++) {
+            if (rules[i].name.equals(ruleName)) {
+                return active[i];
+            }
+        }
+        throw new IllegalArgumentException("No rule " + ruleName);
+    }
+
+    public int getRuleCount() {
+        return rules.length;
+    }
+
+    // Aggregates actually maintained, after rules watching the same one were merged
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    public long getEvaluationCount() {
+        return evaluations.get();
+    }
+
+    public long getFiredCount() {
+        return fired.get();
+    }
+
+    // Commands the dispatcher refused, e.g. because the link was down or its queue full
+    public long getDispatchFailures() {
+        return dispatchFailures.get();
+    }
+
+    private static int indexOf(String[] fields, String field) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[][] toArrays(List<List<Integer>> lists) {
+        int[][] arrays = new int[lists.size()][];
+        for (int i = 0; i < arrays.length; i++) {
+            List<Integer> list = lists.get(i);
+            arrays[i] = new int[list.size()];
+            for (int j = 0; j < arrays[i].length; j++) {
+                arrays[i][j] = list.get(j);
+            }
+        }
+        return arrays;
+    }
+
+    /** One "when field's aggregate is above/below threshold for duration, send command" rule. */
+    public static final class Rule {
+        final String name;
+        final String field;
+        final Aggregate aggregate;
+        final long windowNanos;
+        final int maxSamples;
+        final boolean above;
+        final double threshold;
+        final double hysteresis;
+        final long durationNanos;
+        final String target;
+        final byte[] command;
+        final String clearTarget;
+        final byte[] clearCommand;
+
+        private Rule(Builder builder) {
+            this.name = builder.name;
+            this.field = builder.field;
+            this.aggregate = builder.aggregate;
+            this.windowNanos = builder.windowNanos;
+            this.maxSamples = builder.maxSamples;
+            this.above = builder.above;
+            this.threshold = builder.threshold;
+            this.hysteresis = builder.hysteresis;
+            this.durationNanos = builder.durationNanos;
+            this.target = builder.target;
+            this.command = builder.command;
+            this.clearTarget = builder.clearTarget;
+            this.clearCommand = builder.clearCommand;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static class Builder {
+            private final String name;
+            private String field;
+            private Aggregate aggregate = Aggregate.LATEST;
+            private long windowNanos;
+            private int maxSamples = 1024;
+            private Boolean above;
+            private double threshold;
+            private double hysteresis;
+            private long durationNanos;
+            private String target;
+            private byte[] command;
+            private String clearTarget;
+            private byte[] clearCommand;
+
+            public Builder(String name) {
+                this.name = name;
+            }
+
+            // Watches the latest value of field
+            public Builder when(String field) {
+                this.field = field;
+                return this;
+            }
+
+            // Watches an aggregate of field over a sliding window instead
+            public Builder when(String field, Aggregate aggregate, long window, TimeUnit unit) {
+                if (aggregate != Aggregate.LATEST && window <= 0) {
+                    throw new IllegalArgumentException("window must be positive");
+                }
+                this.field = field;
+                this.aggregate = aggregate;
+                this.windowNanos = aggregate == Aggregate.LATEST ? 0 : unit.toNanos(window);
+                return this;
+            }
+
+            // Bounds a window's memory; at a higher reading rate it covers less time
+            public Builder maxSamples(int maxSamples) {
+                if (maxSamples <= 0) {
+                    throw new IllegalArgumentException("maxSamples must be positive");
+                }
+                this.maxSamples = maxSamples;
+                return this;
+            }
+
+            public Builder above(double threshold) {
+                this.above = true;
+                this.threshold = threshold;
+                return this;
+            }
+
+            public Builder below(double threshold) {
+                this.above = false;
+                this.threshold = threshold;
+                return this;
+            }
+
+            // How far back past the threshold the value must go to re-arm, against flapping
+            public Builder hysteresis(double hysteresis) {
+                if (hysteresis < 0) {
+                    throw new IllegalArgumentException("hysteresis must not be negative");
+                }
+                this.hysteresis = hysteresis;
+                return this;
+            }
+
+            public Builder forAtLeast(long duration, TimeUnit unit) {
+                if (duration < 0) {
+                    throw new IllegalArgumentException("duration must not be negative");
+                }
+                this.durationNanos = unit.toNanos(duration);
+                return this;
+            }
+
+            public Builder then(String target, byte[] command) {
+                this.target = target;
+                this.command = command.clone();
+                return this;
+            }
+
+            // Sent when a fired rule re-arms, e.g. OFF after ON
+            public Builder otherwise(String target, byte[] command) {
+                this.clearTarget = target;
+                this.clearCommand = command.clone();
+                return this;
+            }
+
+            public Rule build() {
+                if (field == null || above == null || command == null) {
+                    throw new IllegalArgumentException("Rule " + name + " needs when(), above() or below() and then()");
+                }
+                return new Rule(this);
+            }
+        }
+    }
+
+    /** An incrementally maintained aggregate of one field. */
+    abstract static class Node {
+        static Node create(Aggregate aggregate, long windowNanos, int maxSamples) {
+            switch (aggregate) {
+                case AVERAGE:
+                    return new Average(windowNanos, maxSamples);
+                case MIN:
+                    return new Extreme(windowNanos, maxSamples, false);
+                case MAX:
+                    return new Extreme(windowNanos, maxSamples, true);
+                default:
+                    return new Latest();
+            }
+        }
+
+        abstract void add(long nowNanos, double value);
+
+        // Only called after at least one add
+        abstract double value();
+    }
+
+    static final class Latest extends Node {
+        private double value;
+
+        @Override
+        void add(long nowNanos, double value) {
+            this.value = value;
+        }
+
+        @Override
+        double value() {
+            return value;
+        }
+    }
+
+    // Base for windows kept in a ring of timestamps and values
+    abstract static class Ring extends Node {
+        final long windowNanos;
+        final long[] times;
+        final double[] values;
+        final int mask;
+        int head;
+        int size;
+
+        Ring(long windowNanos, int maxSamples) {
+            this.windowNanos = windowNanos;
+            int capacity = Integer.highestOneBit(Math.max(maxSamples, 2) - 1) << 1;
+            this.times = new long[capacity];
+            this.values = new double[capacity];
+            this.mask = capacity - 1;
+        }
+
+        final int slot(int i) {
+            return (head + i) & mask;
+        }
+    }
+
+    static final class Average extends Ring {
+        private double sum;
+
+        Average(long windowNanos, int maxSamples) {
+            super(windowNanos, maxSamples);
+        }
+
+        @Override
+        void add(long nowNanos, double value) {
+            while (size > 0 && (size == times.length || nowNanos - times[head] > windowNanos)) {
+                sum -= values[head];
+                head = (head + 1) & mask;
+                size--;
+            }
+            if (size == 0) {
+                // Drops the rounding error the running sum picked up
+                sum = 0;
+            }
+            int tail = slot(size);
+            times[tail] = nowNanos;
+            values[tail] = value;
+            sum += value;
+            size++;
+        }
+
+        @Override
+        double value() {
+            return sum / size;
+        }
+    }
+
+    // Monotonic deque: the extreme of the window is always at the head
+    static final class Extreme extends Ring {
+        private final boolean max;
+
+        Extreme(long windowNanos, int maxSamples, boolean max) {
+            super(windowNanos, maxSamples);
+            this.max = max;
+        }
+
+        @Override
+        void add(long nowNanos, double value) {
+            while (size > 0 && (size == times.length || nowNanos - times[head] > windowNanos)) {
+                head = (head + 1) & mask;
+                size--;
+            }
+            // Older samples that can no longer be the extreme are dropped from the tail
+            while (size > 0) {
+                double last = values[slot(size - 1)];
+                if (max ? last > value : last < value) {
+                    break;
+                }
+                size--;
+            }
+            int tail = slot(size);
+            times[tail] = nowNanos;
+            values[tail] = value;
+            size++;
+        }
+
+        @Override
+        double value() {
+            return values[head];
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Captures every byte a link reads and writes, with its time, to a compact binary file that
+ * {@link SessionReplay} plays back. Wrap the factory the link is opened with:
+ * {@code manager.connect(recorder.wrap(factory))}. Each wrapped factory is one link in the
+ * capture, so several links can share a recorder and still be told apart.
+ *
+ * Records go into one of two preallocated buffers under a short lock; a background thread
+ * writes the full one out while the other fills, at the latest every
+ * {@link #FLUSH_INTERVAL_MILLIS}. Recording never blocks the link: if both buffers are full,
+ * or a single read or write is larger than a buffer, the record is dropped whole and counted.
+ *
+ * Once the file would grow past its size limit it is rolled over to {@code <file>.1}, the
+ * previous one to {@code <file>.2} and so on; the oldest beyond the file limit is deleted, as
+ * is the file a new recorder would otherwise replace when it keeps a single file.
+ *
+ * File layout: a 16 byte header {@code [magic "HCAP"][version u16][reserved u16][start wall
+ * clock ms i64]}, then records {@code [direction u8][varint link][varint nanos since previous
+ * record][varint length][bytes]}. The first record's time is relative to the header's, which
+ * for a rolled over file is the time of the last record in the one before it.
+ */
+public class SessionRecorder implements Closeable {
+
+    static final int MAGIC = 0x48434150;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 16;
+    public static final byte INBOUND = 1;
+    public static final byte OUTBOUND = 2;
+
+    static final long FLUSH_INTERVAL_MILLIS = 1000;
+    // direction + three varints
+    private static final int RECORD_OVERHEAD = 1 + 5 + 10 + 5;
+
+    private final File file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final long startWallMillis;
+    private final long startNanos;
+    private final AtomicInteger nextLink = new AtomicInteger();
+    private final Thread flusher;
+    // Only touched by the flusher, then by close once it has stopped
+    private FileChannel channel;
+    private long fileBytes;
+
+    // Guarded by this
+    private ByteBuffer active;
+    private ByteBuffer spare;
+    private ByteBuffer flushing;
+    // Time of the record before each buffer's first one, for the header of a rolled over file
+    private long activeBaseNanos;
+    private long flushingBaseNanos;
+    private long lastNanos;
+    private boolean closed;
+    private IOException writeError;
+    private long recordCount;
+    private long recordedBytes;
+    private long droppedCount;
+    private int fileCount;
+
+    /**
+     * Starts a capture in {@code file}, replacing it, that grows without limit.
+     *
+     * @param bufferBytes size of each of the two buffers
+     */
+    public SessionRecorder(File file, int bufferBytes) throws IOException {
+        this(file, bufferBytes, Long.MAX_VALUE, 1);
+    }
+
+    /**
+     * Starts a capture in {@code file}, rolling an existing one over first.
+     *
+     * @param bufferBytes size of each of the two buffers
+     * @param maxFileBytes size a file is rolled over at, at least a header and a buffer
+     * @param maxFiles files kept, the one being written included
+     */
+    public SessionRecorder(File file, int bufferBytes, long maxFileBytes, int maxFiles) throws IOException {
+        if (bufferBytes < RECORD_OVERHEAD + 64) {
+            throw new IllegalArgumentException("bufferBytes must be >= " + (RECORD_OVERHEAD + 64));
+        }
+        if (maxFileBytes < HEADER_BYTES + bufferBytes) {
+            throw new IllegalArgumentException("maxFileBytes must be >= " + (HEADER_BYTES + bufferBytes));
+        }
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("maxFiles must be >= 1");
+        }
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.active = ByteBuffer.allocate(bufferBytes);
+        this.spare = ByteBuffer.allocate(bufferBytes);
+        this.startWallMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        lastNanos = startNanos;
+        activeBaseNanos = startNanos;
+        channel = openFile(startNanos);
+
+        flusher = new Thread(this::flushLoop, "session-recorder");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Records bytes read from the device on link
+    public void inbound(int link, byte[] data, int offset, int length) {
+        record(INBOUND, link, data, offset, length);
+    }
+
+    // Records bytes written to the device on link
+    public void outbound(int link, byte[] data, int offset, int length) {
+        record(OUTBOUND, link, data, offset, length);
+    }
+
+    private void record(byte direction, int link, byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            int needed = RECORD_OVERHEAD + length;
+            if (active.remaining() < needed && (!swapLocked() || active.remaining() < needed)) {
+                droppedCount++;
+                return;
+            }
+            // Timestamped under the lock, so times never run backwards in the file
+            long now = System.nanoTime();
+            if (active.position() == 0) {
+                activeBaseNanos = lastNanos;
+            }
+            active.put(direction);
+            putVarint(active, link);
+            putVarint(active, now - lastNanos);
+            putVarint(active, length);
+            active.put(data, offset, length);
+            lastNanos = now;
+            recordCount++;
+            recordedBytes += length;
+        }
+    }
+
+    // Hands the active buffer to the flusher; false while it is still writing the other one
+    private boolean swapLocked() {
+        if (flushing != null) {
+            return false;
+        }
+        if (active.position() == 0) {
+            return true;
+        }
+        flushing = active;
+        flushingBaseNanos = activeBaseNanos;
+        active = spare;
+        spare = null;
+        notifyAll();
+        return true;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer buffer;
+            long baseNanos;
+            synchronized (this) {
+                if (flushing == null && !closed) {
+                    try {
+                        wait(FLUSH_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (flushing == null) {
+                        swapLocked();
+                    }
+                }
+                buffer = flushing;
+                baseNanos = flushingBaseNanos;
+                if (buffer == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            buffer.flip();
+            try {
+                writeOut(buffer, baseNanos);
+            } catch (IOException e) {
+                synchronized (this) {
+                    writeError = e;
+                }
+            }
+            buffer.clear();
+            synchronized (this) {
+                spare = buffer;
+                flushing = null;
+                notifyAll();
+            }
+        }
+    }
+
+    // Starts the next file when this buffer would take the current one past its limit
+    private void writeOut(ByteBuffer buffer, long baseNanos) throws IOException {
+        if (!buffer.hasRemaining()) {
+            return;
+        }
+        if (fileBytes > HEADER_BYTES && fileBytes + buffer.remaining() > maxFileBytes) {
+            channel.close();
+            channel = openFile(baseNanos);
+        }
+        while (buffer.hasRemaining()) {
+            fileBytes += channel.write(buffer);
+        }
+    }
+
+    private FileChannel openFile(long baseNanos) throws IOException {
+        rollOver();
+        FileChannel opened = new FileOutputStream(file).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0)
+                .putLong(startWallMillis + TimeUnit.NANOSECONDS.toMillis(baseNanos - startNanos));
+        header.flip();
+        try {
+            while (header.hasRemaining()) {
+                opened.write(header);
+            }
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        fileBytes = HEADER_BYTES;
+        synchronized (this) {
+            fileCount++;
+        }
+        return opened;
+    }
+
+    // file -> file.1 -> file.2 ..., dropping the oldest beyond maxFiles
+    private void rollOver() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        File oldest = maxFiles == 1 ? file : rolled(maxFiles - 1);
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException("Cannot delete " + oldest);
+        }
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            File from = i == 0 ? file : rolled(i);
+            if (from.exists() && !from.renameTo(rolled(i + 1))) {
+                throw new IOException("Cannot roll over " + from);
+            }
+        }
+    }
+
+    private File rolled(int index) {
+        return new File(file.getPath() + "." + index);
+    }
+
+    /**
+     * Blocks until everything recorded so far is written out. Throws the first write error
+     * the recording ran into, if any.
+     */
+    public void flush() throws IOException {
+        synchronized (this) {
+            try {
+                while (flushing != null) {
+                    wait();
+                }
+                if (!closed && swapLocked()) {
+                    while (flushing != null) {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Flush interrupted");
+            }
+            if (writeError != null) {
+                throw writeError;
+            }
+        }
+    }
+
+    /**
+     * Writes out everything recorded so far and closes the file. Throws the first write error
+     * the recording ran into, if any.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            // Let the flusher finish, then drain the last buffer here
+            while (flushing != null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ByteBuffer last;
+        long baseNanos;
+        IOException error;
+        synchronized (this) {
+            last = active;
+            baseNanos = activeBaseNanos;
+            error = writeError;
+        }
+        try {
+            last.flip();
+            writeOut(last, baseNanos);
+        } finally {
+            channel.close();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    public synchronized long getRecordedBytes() {
+        return recordedBytes;
+    }
+
+    // Records lost because both buffers were full or they were larger than one
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    // Files started so far, rolled over or deleted ones included
+    public synchronized int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Opens links through factory and records everything they carry under a new link id, the
+     * same for every reconnect through it. Ids count up from 0 in the order of these calls.
+     */
+    public TransportFactory wrap(TransportFactory factory) {
+        int link = nextLink.getAndIncrement();
+        return () -> new RecordingTransport(link, factory.connect());
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private class RecordingTransport implements Transport {
+        private final Transport transport;
+        private final InputStream in;
+        private final OutputStream out;
+
+        RecordingTransport(int link, Transport transport) throws IOException {
+            this.transport = transport;
+            InputStream rawIn = transport.getInputStream();
+            OutputStream rawOut = transport.getOutputStream();
+            this.in = new InputStream() {
+                private final byte[] single = new byte[1];
+
+                @Override
+                public int read() throws IOException {
+                    int n = read(single, 0, 1);
+                    return n < 0 ? -1 : single[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = rawIn.read(b, off, len);
+                    if (n > 0) {
+                        inbound(link, b, off, n);
+                    }
+                    return n;
+                }
+
+                @Override
+                public int available() throws IOException {
+                    return rawIn.available();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    rawIn.close();
+                }
+            };
+            this.out = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    rawOut.write(b, off, len);
+                    outbound(link, b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    rawOut.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    rawOut.close();
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return transport.isConnected();
+        }
+
+        @Override
+        public void close() throws IOException {
+            transport.close();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.bluetooth_control;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays back a {@link SessionRecorder} capture. The inbound bytes can go straight into a
+ * consumer such as {@code bus::publish}, or come out of a {@link Transport} so the whole
+ * link pipeline, ConnectionManager included, runs on them as if the device were attached.
+ *
+ * Playback keeps the recorded timing scaled by a speed factor: 1 is real time, 10 is ten
+ * times faster and {@link #AS_FAST_AS_POSSIBLE} drops the pauses entirely. It plays one of
+ * the recorded links, or {@link #ALL_LINKS} interleaved as they were captured. A capture cut
+ * short by a crash is played up to its last complete record.
+ */
+public class SessionReplay {
+
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+    public static final int ALL_LINKS = -1;
+
+    // Where playback reads the time and waits; tests pass a virtual one
+    public interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void sleepNanos(long nanos) {
+                LockSupport.parkNanos(nanos);
+            }
+        };
+
+        long nanoTime();
+
+        // May return early, callers re-check the time
+        void sleepNanos(long nanos);
+    }
+
+    private final byte[] data;
+    private final int version;
+    private final long startWallMillis;
+    private final Clock clock;
+
+    public SessionReplay(File file) throws IOException {
+        this(readFully(file), Clock.SYSTEM);
+    }
+
+    public SessionReplay(File file, Clock clock) throws IOException {
+        this(readFully(file), clock);
+    }
+
+    public SessionReplay(byte[] capture) throws IOException {
+        this(capture, Clock.SYSTEM);
+    }
+
+    // Also reads version 1 captures, which predate link ids; their records are all link 0
+    public SessionReplay(byte[] capture, Clock clock) throws IOException {
+        if (capture.length < SessionRecorder.HEADER_BYTES) {
+            throw new IOException("Not a session capture");
+        }
+        int magic = (capture[0] & 0xff) << 24 | (capture[1] & 0xff) << 16 | (capture[2] & 0xff) << 8 | (capture[3] & 0xff);
+        int version = (capture[4] & 0xff) << 8 | (capture[5] & 0xff);
+        if (magic != SessionRecorder.MAGIC) {
+            throw new IOException("Not a session capture");
+        }
+        if (version < 1 || version > SessionRecorder.VERSION) {
+            throw new IOException("Unsupported capture version " + version);
+        }
+        long wall = 0;
+        for (int i = 8; i < 16; i++) {
+            wall = wall << 8 | (capture[i] & 0xff);
+        }
+        this.data = capture;
+        this.version = version;
+        this.startWallMillis = wall;
+        this.clock = clock;
+    }
+
+    // System.currentTimeMillis() when the recording started
+    public long getStartWallMillis() {
+        return startWallMillis;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    // Every link's inbound records, as replay(ALL_LINKS, sink, speed)
+    public long replay(DataBus.Consumer sink, double speed) throws InterruptedException {
+        return replay(ALL_LINKS, sink, speed);
+    }
+
+    /**
+     * Delivers every inbound record of {@code link} to {@code sink} on the calling thread,
+     * paced by {@code speed}. Returns the number of bytes delivered.
+     */
+    public long replay(int link, DataBus.Consumer sink, double speed) throws InterruptedException {
+        Cursor cursor = new Cursor();
+        Pacer pacer = new Pacer(speed);
+        long delivered = 0;
+        while (cursor.next()) {
+            if (!cursor.isInbound(link)) {
+                continue;
+            }
+            pacer.await(cursor.getTimeNanos());
+            sink.onData(data, cursor.getOffset(), cursor.getLength());
+            delivered += cursor.getLength();
+        }
+        return delivered;
+    }
+
+    /**
+     * A factory whose links read the capture's inbound bytes at {@code speed} and swallow
+     * whatever is written to them. Once the capture is played out the link stays open and
+     * silent, like a device that stopped talking, so the manager does not reconnect and
+     * replay it again; each connect does start from the beginning.
+     */
+    public TransportFactory transport(int link, double speed) {
+        checkSpeed(speed);
+        return () -> new ReplayTransport(link, speed);
+    }
+
+    // Every link's inbound bytes, as transport(ALL_LINKS, speed)
+    public TransportFactory transport(double speed) {
+        return transport(ALL_LINKS, speed);
+    }
+
+    private static double checkSpeed(double speed) {
+        if (speed < 0 || Double.isNaN(speed) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("speed must be > 0, or AS_FAST_AS_POSSIBLE");
+        }
+        return speed;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(bytes);
+        }
+        return bytes;
+    }
+
+    /** Walks the records in order without copying them. */
+    public final class Cursor {
+        private int position = SessionRecorder.HEADER_BYTES;
+        // Parse position within the record being read
+        private int p;
+        private byte direction;
+        private int link;
+        private long timeNanos;
+        private int offset;
+        private int length;
+
+        private Cursor() {
+        }
+
+        // False at the end of the capture, or at a record torn by a crash
+        public boolean next() {
+            if (position >= data.length) {
+                return false;
+            }
+            p = position;
+            byte type = data[p++];
+            long id = version >= 2 ? varint(35) : 0;
+            long delta = varint(63);
+            long size = varint(35);
+            if (id < 0 || id > Integer.MAX_VALUE || delta < 0 || size < 0
+                    || (type != SessionRecorder.INBOUND && type != SessionRecorder.OUTBOUND) || size > data.length - p) {
+                return false;
+            }
+            direction = type;
+            link = (int) id;
+            timeNanos += delta;
+            offset = p;
+            length = (int) size;
+            position = p + length;
+            return true;
+        }
+
+        // -1 when the varint runs past the end of the capture
+        private long varint(int maxShift) {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                if (p >= data.length || shift > maxShift) {
+                    return -1;
+                }
+                byte b = data[p++];
+                value |= (long) (b & 0x7f) << shift;
+                shift += 7;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        boolean isInbound(int wanted) {
+            return direction == SessionRecorder.INBOUND && (wanted == ALL_LINKS || link == wanted);
+        }
+
+        public byte getDirection() {
+            return direction;
+        }
+
+        // The link the record was captured on, see SessionRecorder#wrap
+        public int getLink() {
+            return link;
+        }
+
+        // Since the recording started
+        public long getTimeNanos() {
+            return timeNanos;
+        }
+
+        // The record's bytes are getData()[getOffset(), getOffset() + getLength())
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    // Maps capture time to wall time at the given speed
+    private final class Pacer {
+        private final double speed;
+        private boolean started;
+        private long originNanos;
+        private long firstRecordNanos;
+
+        Pacer(double speed) {
+            this.speed = checkSpeed(speed);
+        }
+
+        void await(long recordNanos) throws InterruptedException {
+            if (speed == AS_FAST_AS_POSSIBLE) {
+                return;
+            }
+            if (!started) {
+                started = true;
+                originNanos = clock.nanoTime();
+                firstRecordNanos = recordNanos;
+                return;
+            }
+            long due = originNanos + (long) ((recordNanos - firstRecordNanos) / speed);
+            long wait;
+            while ((wait = due - clock.nanoTime()) > 0) {
+                clock.sleepNanos(wait);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+
+    private class ReplayTransport implements Transport {
+        private final Cursor cursor = new Cursor();
+        private final int link;
+        private final Pacer pacer;
+        private volatile boolean closed;
+        // Unread rest of the current record
+        private int pending;
+        private int pendingOffset;
+
+        private final InputStream in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                int n = read(single, 0, 1);
+                return n < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (pending == 0) {
+                    if (closed) {
+                        return -1;
+                    }
+                    if (!cursor.next()) {
+                        // Played out: stay silent until closed
+                        while (!closed) {
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                            if (Thread.interrupted()) {
+                                throw new InterruptedIOException("Replay interrupted");
+                            }
+                        }
+                        return -1;
+                    }
+                    if (!cursor.isInbound(link)) {
+                        continue;
+                    }
+                    try {
+                        pacer.await(cursor.getTimeNanos());
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Replay interrupted");
+                    }
+                    pending = cursor.getLength();
+                    pendingOffset = cursor.getOffset();
+                }
+                int n = Math.min(len, pending);
+                System.arraycopy(data, pendingOffset, b, off, n);
+                pendingOffset += n;
+                pending -= n;
+                return n;
+            }
+        };
+
+        private final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                if (closed) {
+                    throw new IOException("Replay link closed");
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (closed) {
+                    throw new IOException("Replay link closed");
+                }
+            }
+        };
+
+        ReplayTransport(int link, double speed) {
+            this.link = link;
+            this.pacer = new Pacer(speed);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return !closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.bluetooth_control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * {@link Transport} over a TCP socket, e.g. to an emulated Arduino on a desktop or a
+ * serial-to-TCP bridge. Nagle is off so single command bytes go out immediately, the way
+ * they would over RFCOMM.
+ */
+public class TcpTransport implements Transport {
+
+    private final Socket socket;
+
+    public TcpTransport(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected() && !socket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    public static class Factory implements TransportFactory {
+        private final String host;
+        private final int port;
+        private final int connectTimeoutMillis;
+
+        public Factory(String host, int port, int connectTimeoutMillis) {
+            this.host = host;
+            this.port = port;
+            this.connectTimeoutMillis = connectTimeoutMillis;
+        }
+
+        @Override
+        public Transport connect() throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+                return new TcpTransport(socket);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+    }
+}
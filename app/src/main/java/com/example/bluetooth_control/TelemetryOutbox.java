@@ -0,0 +1,135 @@
+package com.example.bluetooth_control;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * App-wide offline-first path to the backend: records are appended to an {@link Outbox} under
+ * the app's files dir and an {@link OutboxDrainer} uploads them whenever there is a network.
+ * Each record is stored as its upload JSON, stamped with this device's id, its channel and the
+ * time it was appended, so draining never re-encodes it.
+ *
+ * With {@link #STREAM_SYNC} on, records go out over a {@link WebSocketSync} stream while it is
+ * connected and only fall back to the outbox when it is not, or its unacked window is full.
+ * Whatever the stream has not had acked when its socket drops is moved into the outbox too.
+ */
+public class TelemetryOutbox {
+
+    private static final String TAG = "TelemetryOutbox";
+    private static final int SEGMENT_BYTES = 1024 * 1024;
+    private static final int MAX_SEGMENTS = 32;
+    private static final int MAX_BATCH_COUNT = 50;
+    private static final int MAX_BATCH_BYTES = 8 * 1024;
+    private static final long LINGER_MILLIS = 2000;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+    // Serial lines compress several times over, but the backend has to accept gzip bodies
+    private static final boolean GZIP_UPLOADS = false;
+
+    // Needs the backend's /stream endpoint; off until it is deployed
+    static final boolean STREAM_SYNC = false;
+    public static final String STREAM_ENDPOINT = "wss://aurdino-control-backend.vercel.app/stream";
+
+    // Lets the backend tell relay status apart from raw serial lines on the stream
+    public static final String CHANNEL_STATUS = "status";
+    public static final String CHANNEL_SERIAL = "serial";
+
+    private static TelemetryOutbox instance;
+
+    public static synchronized TelemetryOutbox getInstance(Context context) throws IOException {
+        if (instance == null) {
+            instance = new TelemetryOutbox(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final Outbox outbox;
+    private final OutboxDrainer drainer;
+    private final String deviceId;
+    private final WebSocketSync stream;
+    // Reused for every record, guarded by itself
+    private final JsonWriter json = new JsonWriter();
+
+    private TelemetryOutbox(Context context) throws IOException {
+        deviceId = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+        outbox = new Outbox(new File(context.getFilesDir(), "outbox"), SEGMENT_BYTES, MAX_SEGMENTS);
+        drainer = new OutboxDrainer(outbox, TelemetryUploader.getInstance(), MAX_BATCH_COUNT, MAX_BATCH_BYTES,
+                LINGER_MILLIS, INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, GZIP_UPLOADS);
+
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        drainer.setOnline(connectivity.getActiveNetwork() != null);
+        connectivity.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                drainer.setOnline(true);
+            }
+
+            @Override
+            public void onLost(Network network) {
+                drainer.setOnline(false);
+            }
+        });
+        Metrics.getInstance().gauge(Metrics.OUTBOX_PENDING, outbox::getPendingCount);
+        if (STREAM_SYNC) {
+            stream = new WebSocketSync.Builder(STREAM_ENDPOINT)
+                    .client(TelemetryUploader.getInstance().getClient())
+                    .deviceId(deviceId)
+                    .backoff(INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, TimeUnit.MILLISECONDS)
+                    .spill(this::store)
+                    .build();
+            Metrics.getInstance().gauge(Metrics.SYNC_PENDING, stream::getPendingCount);
+            stream.start();
+        } else {
+            stream = null;
+        }
+        // Whatever a previous run left behind goes out as soon as possible
+        drainer.wake();
+    }
+
+    public boolean append(String data) {
+        return append(CHANNEL_STATUS, data);
+    }
+
+    // Safe to call from any thread; returns false if the record could not be stored
+    public boolean append(String channel, String data) {
+        if (stream != null && stream.isConnected() && stream.send(channel, data)) {
+            return true;
+        }
+        return store(channel, System.currentTimeMillis(), data);
+    }
+
+    private boolean store(String channel, long timestampMillis, String data) {
+        try {
+            synchronized (json) {
+                json.reset();
+                TelemetryUploader.writeRecord(json, deviceId, timestampMillis, channel, data);
+                outbox.append(json.buffer(), 0, json.size());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not store record", e);
+            return false;
+        }
+        drainer.wake();
+        return true;
+    }
+
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    public OutboxDrainer getDrainer() {
+        return drainer;
+    }
+
+    // Null unless STREAM_SYNC is on
+    public WebSocketSync getStream() {
+        return stream;
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.bluetooth_control;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * App-wide uploader for the backend telemetry endpoint.
+ *
+ * One OkHttpClient (and therefore one connection pool) is shared by every caller, and requests
+ * run on a small bounded executor. When the queue is full new uploads are dropped instead of
+ * piling up threads and sockets, and the drop is counted so it can be observed.
+ */
+public class TelemetryUploader {
+
+    public static final String DEFAULT_ENDPOINT = "https://aurdino-control-backend.vercel.app/data";
+    public static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private static final int DEFAULT_MAX_CONCURRENT = 2;
+    private static final int DEFAULT_MAX_QUEUED = 64;
+
+    private static TelemetryUploader instance;
+
+    public static synchronized TelemetryUploader getInstance() {
+        if (instance == null) {
+            instance = new TelemetryUploader(DEFAULT_ENDPOINT, DEFAULT_MAX_CONCURRENT, DEFAULT_MAX_QUEUED);
+            TelemetryUploader uploader = instance;
+            Metrics.getInstance().gauge(Metrics.UPLOAD_QUEUE, () -> uploader.getQueuedCount() + uploader.getInFlightCount());
+        }
+        return instance;
+    }
+
+    // Results are delivered on the upload thread, callers must hop to the UI thread themselves
+    public interface Callback {
+        void onResponse(int code, String body);
+
+        void onFailure(IOException e);
+    }
+
+    private final String endpoint;
+    private final OkHttpClient client;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final LatencyHistogram latency = Metrics.getInstance().histogram(Metrics.UPLOAD_LATENCY);
+
+    public TelemetryUploader(String endpoint, int maxConcurrent, int maxQueued) {
+        this.endpoint = endpoint;
+        this.client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxConcurrent, 5, TimeUnit.MINUTES))
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .build();
+        this.executor = new ThreadPoolExecutor(
+                maxConcurrent, maxConcurrent,
+                30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxQueued),
+                new UploadThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    // Posts {"data": ...} to the endpoint, returns false if the upload was dropped
+    public boolean sendData(String data, Callback callback) {
+        return submit(RequestBody.create(toJson(data), JSON), callback);
+    }
+
+    static byte[] toJson(String data) {
+        JsonWriter json = new JsonWriter(data.length() + 16);
+        writeRecord(json, null, 0, data);
+        return json.toByteArray();
+    }
+
+    static void writeRecord(JsonWriter json, String deviceId, long timestampMillis, CharSequence data) {
+        writeRecord(json, deviceId, timestampMillis, null, data);
+    }
+
+    // One upload record, {"device":...,"ts":...,"channel":...,"data":...}; the first three are
+    // left out when unknown
+    static void writeRecord(JsonWriter json, String deviceId, long timestampMillis, String channel, CharSequence data) {
+        json.beginObject();
+        if (deviceId != null) {
+            json.name("device").value(deviceId);
+        }
+        if (timestampMillis > 0) {
+            json.name("ts").value(timestampMillis);
+        }
+        if (channel != null) {
+            json.name("channel").value(channel);
+        }
+        json.name("data").value(data);
+        json.endObject();
+    }
+
+    public boolean submit(RequestBody body, Callback callback) {
+        Request request = new Request.Builder()
+                .url(endpoint)
+                .post(body)
+                .build();
+        return submit(request, callback);
+    }
+
+    public boolean submit(Request request, Callback callback) {
+        try {
+            long submittedNanos = System.nanoTime();
+            executor.execute(() -> execute(request, callback, submittedNanos));
+            return true;
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+            return false;
+        }
+    }
+
+    // Latency is measured from submit, so time spent queued behind other uploads counts too
+    private void execute(Request request, Callback callback, long submittedNanos) {
+        inFlight.incrementAndGet();
+        try (Response response = client.newCall(request).execute()) {
+            ResponseBody responseBody = response.body();
+            String body = responseBody != null ? responseBody.string() : "";
+            latency.recordSince(submittedNanos);
+            if (response.isSuccessful()) {
+                succeeded.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            if (callback != null) {
+                callback.onResponse(response.code(), body);
+            }
+        } catch (IOException e) {
+            latency.recordSince(submittedNanos);
+            failed.incrementAndGet();
+            if (callback != null) {
+                callback.onFailure(e);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getSucceededCount() {
+        return succeeded.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    private static class UploadThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "telemetry-upload-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -2,33 +2,37 @@ package com.example.bluetooth_control;
 
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothSocket;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
-import android.view.View;
-import android.widget.ScrollView;
+import android.view.Choreographer;
+import android.view.KeyEvent;
+import android.view.inputmethod.EditorInfo;
+import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
-
-import okhttp3.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 public class TerminalActivity extends AppCompatActivity {
 
@@ -36,24 +40,65 @@ public class TerminalActivity extends AppCompatActivity {
     private static final int REQUEST_BLUETOOTH_PERMISSIONS = 2;
 
     private BluetoothAdapter bluetoothAdapter;
-    private ConnectThread connectThread;
-    private ConnectedThread connectedThread;
-
-    private TextView terminalText;
-    private ScrollView scrollView;
-
-    public class Constants {
-        public static final int MESSAGE_READ = 1;
-        // Add any other constants your application might need
-    }
+    private static final int MAX_LINE_LENGTH = 1024;
+    // Lines kept on screen; older ones are evicted so memory stays flat on long sessions
+    private static final int TERMINAL_LINES = 2000;
+    private LinkService.Binding linkBinding;
+    private DataBus.Subscription terminalSubscription;
+
+    private RecyclerView terminalList;
+    private TextView connectionText;
+    private TerminalAdapter terminalAdapter;
+    private TerminalRenderer terminalRenderer;
+    private LinearLayoutManager layoutManager;
+
+    private EditText searchText;
+    private HistoryAdapter results;
+    private ExecutorService searchExecutor;
+
+    private MetricsOverlay metricsOverlay;
+    private final Metrics.Counter framesIn = Metrics.getInstance().counter(Metrics.FRAMES_IN);
+    private final LatencyHistogram uiFrames = Metrics.getInstance().histogram(Metrics.UI_FRAME);
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_terminal);
 
-        scrollView = findViewById(R.id.scrollView);
-        terminalText = findViewById(R.id.terminalText);
+        terminalList = findViewById(R.id.terminalList);
+        connectionText = findViewById(R.id.connectionText);
+        searchText = findViewById(R.id.searchText);
+        metricsOverlay = new MetricsOverlay(findViewById(R.id.metricsOverlay), connectionText);
+
+        // Lines from the bus are queued and applied at most once per display frame
+        Choreographer choreographer = Choreographer.getInstance();
+        terminalRenderer = new TerminalRenderer(TERMINAL_LINES,
+                frame -> choreographer.postFrameCallback(frameTimeNanos -> {
+                    long start = System.nanoTime();
+                    frame.run();
+                    uiFrames.recordSince(start);
+                }),
+                this::onTerminalLinesChanged);
+        terminalAdapter = new TerminalAdapter(terminalRenderer.getBuffer());
+        layoutManager = new LinearLayoutManager(this);
+        layoutManager.setStackFromEnd(true);
+        terminalList.setLayoutManager(layoutManager);
+        terminalList.setItemAnimator(null);
+        terminalList.setAdapter(terminalAdapter);
+
+        searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+        searchText.setOnEditorActionListener((view, actionId, event) -> {
+            if (actionId != EditorInfo.IME_ACTION_SEARCH
+                    && (event == null || event.getKeyCode() != KeyEvent.KEYCODE_ENTER)) {
+                return false;
+            }
+            search(searchText.getText().toString().trim());
+            return true;
+        });
 
         bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         if (bluetoothAdapter == null) {
@@ -64,209 +109,133 @@ public class TerminalActivity extends AppCompatActivity {
         // Check Bluetooth permissions
         checkBluetoothPermissions();
 
-        // Retrieve the connected BluetoothSocket from the BluetoothHolder
-        BluetoothSocketWrapper socketWrapper = BluetoothHolder.getBluetoothSocketWrapper();
-
-        if (socketWrapper != null) {
-            BluetoothSocket bluetoothSocket = socketWrapper.getBluetoothSocket();
-            connectToDevice(bluetoothSocket);
-        } else {
-            Log.e(TAG, "BluetoothSocketWrapper is null");
-            finish();
-        }
+        // The link is LinkService's; this screen only binds to keep the service around. The
+        // reader thread publishes to the bus and the screen consumes from its own cursor
+        linkBinding = new LinkService.Binding(this, session -> { });
+        linkBinding.bind();
+        ConnectionManager.getInstance().addListener(connectionListener);
+        terminalSubscription = ConnectionManager.getInstance().getDataBus()
+                .subscribe("terminal", DataBus.OverflowPolicy.DROP)
+                .start(lineConsumer(line -> {
+                    framesIn.increment();
+                    terminalRenderer.append(line);
+                }));
     }
 
-    // Method to send data to server
-    private static void sendDataToServer(String data) {
-        // Create an OkHttpClient instance
-        OkHttpClient client = new OkHttpClient();
+    private final ConnectionManager.Listener connectionListener = state -> runOnUiThread(() ->
+            connectionText.setText(ConnectionManager.getInstance().describe()));
 
-        // Create JSON data to send
-        String jsonInputString = "{\"data\":\"" + data + "\"}";
-
-        // Create a RequestBody with JSON data
-        RequestBody body = RequestBody.create(
-                jsonInputString,
-                MediaType.get("application/json; charset=utf-8")
-        );
-
-        // Build the request
-        Request request = new Request.Builder()
-                .url("https://aurdino-control-backend.vercel.app/data") // Replace with the correct endpoint
-                .post(body)
-                .build();
-
-        // Execute the request in a new thread
-        new Thread(() -> {
-            try (Response response = client.newCall(request).execute()) {
-                if (response.isSuccessful()) {
-                    Log.d(TAG, "Data sent to server successfully");
-
-                    // Optionally, read the response body
-                    String responseBody = response.body().string();
-                    Log.d(TAG, "Server response: " + responseBody);
-                } else {
-                    Log.e(TAG, "Failed to send data. Response Code: " + response.code());
+    // Splits a subscriber's bytes into Arduino lines instead of whatever chunk read() returned
+    private static DataBus.Consumer lineConsumer(Consumer<String> lines) {
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.newline(), MAX_LINE_LENGTH,
+                new FrameDecoder.TextFrameListener(StandardCharsets.UTF_8, MAX_LINE_LENGTH,
+                        line -> lines.accept(line.toString())));
+        return decoder::feed;
+    }
 
-                    // Optionally, read the error body
-                    String errorBody = response.body().string();
-                    Log.e(TAG, "Server error response: " + errorBody);
-                }
+    // Shows the history's matches for query in place of the live output, which an empty query
+    // brings back
+    private void search(String query) {
+        if (results != null) {
+            results.close();
+            results = null;
+        }
+        if (query.isEmpty()) {
+            layoutManager.setStackFromEnd(true);
+            terminalList.setAdapter(terminalAdapter);
+            terminalList.scrollToPosition(Math.max(0, terminalAdapter.getItemCount() - 1));
+            return;
+        }
+        File filesDir = getFilesDir();
+        execute(() -> {
+            TerminalHistory.Search search;
+            try {
+                search = TerminalHistory.getInstance(filesDir).search(query);
             } catch (IOException e) {
-                Log.e(TAG, "Exception while sending data to server", e);
+                Log.w(TAG, "History search failed", e);
+                runOnUiThread(() -> Toast.makeText(this, "History unavailable", Toast.LENGTH_SHORT).show());
+                return;
             }
-        }).start();
+            runOnUiThread(() -> showResults(search));
+        });
     }
 
-
-
-    private void checkBluetoothPermissions() {
-        String[] permissions = {
-                android.Manifest.permission.BLUETOOTH,
-                android.Manifest.permission.BLUETOOTH_ADMIN,
-                android.Manifest.permission.BLUETOOTH_CONNECT,
-                android.Manifest.permission.BLUETOOTH_SCAN
-        };
-
-        // Request Bluetooth permissions if not granted
-        for (String permission : permissions) {
-            if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
-                requestPermissions(new String[]{permission}, REQUEST_BLUETOOTH_PERMISSIONS);
+    private void showResults(TerminalHistory.Search search) {
+        if (isFinishing() || isDestroyed()) {
+            if (!execute(() -> closeQuietly(search))) {
+                closeQuietly(search);
             }
+            return;
         }
+        if (results != null) {
+            results.close();
+        }
+        // Newest match at the top
+        results = new HistoryAdapter(search, searchExecutor);
+        layoutManager.setStackFromEnd(false);
+        terminalList.setAdapter(results);
     }
 
-    private void connectToDevice(BluetoothSocket bluetoothSocket) {
-        connectThread = new ConnectThread(bluetoothSocket);
-        connectThread.start();
-    }
-
-    // Handler to update the UI with received data
-    private final Handler handler = new Handler(new Handler.Callback() {
-        @Override
-        public boolean handleMessage(@NonNull Message msg) {
-            switch (msg.what) {
-                case Constants.MESSAGE_READ:
-                    String data = (String) msg.obj;
-                    updateTerminal(data);
-                    return true;
-            }
+    // False once the screen is destroyed and the executor shut down
+    private boolean execute(Runnable task) {
+        try {
+            searchExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
             return false;
         }
-    });
-
-    // Method to update the TextView in the UI thread
-    private void updateTerminal(String data) {
-        runOnUiThread(() -> {
-            terminalText.append(data + "\n");
-
-            // Scroll to the bottom of the ScrollView
-            scrollView.post(() -> scrollView.fullScroll(View.FOCUS_DOWN));
-        });
     }
 
-    // Thread to manage Bluetooth connection
-
-    // Inside TerminalActivity class
-    private class ConnectThread extends Thread {
-        private final BluetoothSocket mmSocket;
-
-        public ConnectThread(BluetoothSocket socket) {
-            mmSocket = socket;
-        }
-
-        public void run() {
-            // Check for BLUETOOTH_ADMIN permission before canceling discovery
-            if (hasBluetoothPermission(android.Manifest.permission.BLUETOOTH_ADMIN)) {
-                try {
-                    if (!mmSocket.isConnected()) {
-                        mmSocket.connect(); // Connect to the device
-                    }
-
-                    // Connected successfully, start the ConnectedThread
-                    connectedThread = new ConnectedThread(mmSocket, handler);
-                    connectedThread.start();
-                } catch (IOException connectException) {
-                    Log.e(TAG, "Error occurred during socket connection", connectException);
-                    cancel();
-                } catch (SecurityException se) {
-                    Log.e(TAG, "SecurityException: Permission not granted for socket connection", se);
-                    cancel();
-                } catch (IllegalArgumentException e) {
-                    Log.e(TAG, "IllegalArgumentException: Invalid UUID or socket parameter", e);
-                    cancel();
-                } catch (Exception e) {
-                    Log.e(TAG, "Exception during socket connection", e);
-                    cancel();
-                }
-            } else {
-                Log.e(TAG, "BLUETOOTH_ADMIN permission not granted");
-                // Handle accordingly, e.g., show a message to the user
-                cancel();
-            }
+    private static void closeQuietly(TerminalHistory.Search search) {
+        try {
+            search.close();
+        } catch (IOException e) {
+            // Nothing left to read
         }
+    }
 
-        public void cancel() {
-            try {
-                if (mmSocket != null && mmSocket.isConnected()) {
-                    mmSocket.close();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Could not close the client socket", e);
-            }
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        metricsOverlay.stop();
+        if (results != null) {
+            results.close();
         }
-
-        // Helper method to check if Bluetooth permission is granted
-        private boolean hasBluetoothPermission(String permission) {
-            return ContextCompat.checkSelfPermission(TerminalActivity.this, permission) == PackageManager.PERMISSION_GRANTED;
+        searchExecutor.shutdown();
+        if (linkBinding != null) {
+            ConnectionManager.getInstance().removeListener(connectionListener);
+            terminalSubscription.close();
+            linkBinding.unbind();
         }
     }
 
-    // Thread to manage Bluetooth connection
-    private static class ConnectedThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final InputStream mmInStream;
-        private final Handler handler;
-
-        public ConnectedThread(BluetoothSocket socket, Handler handler) {
-            mmSocket = socket;
-            this.handler = handler;
-            InputStream tmpIn = null;
+    private void checkBluetoothPermissions() {
+        String[] permissions = {
+                android.Manifest.permission.BLUETOOTH,
+                android.Manifest.permission.BLUETOOTH_ADMIN,
+                android.Manifest.permission.BLUETOOTH_CONNECT,
+                android.Manifest.permission.BLUETOOTH_SCAN
+        };
 
-            try {
-                tmpIn = socket.getInputStream();
-            } catch (IOException e) {
-                Log.e(TAG, "Error occurred when creating input stream", e);
+        // Request Bluetooth permissions if not granted
+        for (String permission : permissions) {
+            if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
+                requestPermissions(new String[]{permission}, REQUEST_BLUETOOTH_PERMISSIONS);
             }
-
-            mmInStream = tmpIn;
         }
+    }
 
-        public void run() {
-            byte[] buffer = new byte[1024];
-            int numBytes;
-
-            while (true) {
-                try {
-                    numBytes = mmInStream.read(buffer);
-                    String data = new String(buffer, 0, numBytes);
-                    handler.obtainMessage(Constants.MESSAGE_READ, numBytes, -1, data).sendToTarget();
-                    sendDataToServer(data);
-                } catch (IOException e) {
-                    Log.d(TAG, "Input stream was disconnected", e);
-                    break;
-                }
-            }
+    // Runs on the UI thread once per frame with every line that arrived since the last one
+    private void onTerminalLinesChanged(int removedFromStart, int insertedAtEnd) {
+        // Only follow the output if the user has not scrolled up to read something
+        boolean atBottom = results == null && !terminalList.canScrollVertically(1);
+        if (removedFromStart > 0) {
+            terminalAdapter.notifyItemRangeRemoved(0, removedFromStart);
         }
-
-        public void cancel() {
-            try {
-                mmSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Could not close the connect socket", e);
-            }
+        int size = terminalAdapter.getItemCount();
+        terminalAdapter.notifyItemRangeInserted(size - insertedAtEnd, insertedAtEnd);
+        if (atBottom) {
+            terminalList.scrollToPosition(size - 1);
         }
     }
 }
-
-
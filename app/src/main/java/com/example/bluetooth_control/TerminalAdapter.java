@@ -0,0 +1,48 @@
+package com.example.bluetooth_control;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Virtualized view over a {@link TerminalBuffer}: only the rows on screen have views, so
+ * layout cost does not grow with the history.
+ */
+public class TerminalAdapter extends RecyclerView.Adapter<TerminalAdapter.LineHolder> {
+
+    private final TerminalBuffer buffer;
+
+    public TerminalAdapter(TerminalBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @NonNull
+    @Override
+    public LineHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_terminal_line, parent, false);
+        return new LineHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull LineHolder holder, int position) {
+        holder.text.setText(buffer.get(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return buffer.size();
+    }
+
+    static class LineHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        LineHolder(View itemView) {
+            super(itemView);
+            text = (TextView) itemView;
+        }
+    }
+}
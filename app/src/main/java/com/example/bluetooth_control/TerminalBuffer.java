@@ -0,0 +1,71 @@
+package com.example.bluetooth_control;
+
+/**
+ * Fixed-capacity ring of terminal lines, oldest first. Once full, each new line evicts the
+ * oldest one, so memory stays flat however long the session runs.
+ *
+ * Not thread-safe; {@link TerminalRenderer} only touches it from the UI thread.
+ */
+public class TerminalBuffer {
+
+    private final String[] lines;
+    private int head;
+    private int size;
+    private long totalLines;
+
+    public TerminalBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        this.lines = new String[capacity];
+    }
+
+    // Returns true if the oldest line was evicted to make room
+    public boolean add(String line) {
+        int tail = head + size;
+        if (tail >= lines.length) {
+            tail -= lines.length;
+        }
+        lines[tail] = line;
+        totalLines++;
+        if (size < lines.length) {
+            size++;
+            return false;
+        }
+        head = head + 1 == lines.length ? 0 : head + 1;
+        return true;
+    }
+
+    // 0 is the oldest line still held
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        int slot = head + index;
+        if (slot >= lines.length) {
+            slot -= lines.length;
+        }
+        return lines[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return lines.length;
+    }
+
+    // Every line ever added, including the ones since evicted
+    public long getTotalLines() {
+        return totalLines;
+    }
+
+    public void clear() {
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+}
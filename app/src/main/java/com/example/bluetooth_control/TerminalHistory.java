@@ -0,0 +1,798 @@
+package com.example.bluetooth_control;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Every terminal line, kept on disk and searchable long after the screen that showed it is
+ * gone.
+ *
+ * Lines are appended to plain text segment files of {@code linesPerBlock * blocksPerSegment}
+ * lines. As each line arrives, its trigrams (three byte substrings, ASCII letters folded to
+ * lower case) are marked in a per-segment bitmap of the blocks they occur in. A full segment is
+ * sealed: its bitmaps are written to an index file next to it and kept in memory. A search
+ * ANDs the bitmaps of the query's trigrams to find the few blocks that can match and only
+ * reads and checks those, newest first, one page at a time. The oldest segments are deleted
+ * past {@code maxSegments}.
+ *
+ * A query is matched case-insensitively anywhere in a line; {@code *} stands for any run of
+ * characters, so {@code temp=4*} finds "temp=41.5" and {@code ERR*timeout} needs both in that
+ * order. Parts shorter than three characters cannot use the index and are only checked in the
+ * blocks the other parts leave.
+ */
+public class TerminalHistory implements Closeable {
+
+    public static final class Match {
+        // Counts every line ever captured, including those since deleted
+        public final long line;
+        public final String text;
+
+        Match(long line, String text) {
+            this.line = line;
+            this.text = text;
+        }
+    }
+
+    static final int DEFAULT_LINES_PER_BLOCK = 256;
+    static final int DEFAULT_BLOCKS_PER_SEGMENT = 256;
+    // About 2M lines
+    static final int DEFAULT_MAX_SEGMENTS = 32;
+
+    private static final int INDEX_MAGIC = 0x48494458;
+    private static final int INDEX_VERSION = 1;
+    private static final String PREFIX = "seg-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+
+    private static TerminalHistory instance;
+
+    // Every line LinkService has captured, kept under filesDir/terminal-history; opened once
+    // per process
+    public static synchronized TerminalHistory getInstance(File filesDir) throws IOException {
+        if (instance == null) {
+            instance = new TerminalHistory(new File(filesDir, "terminal-history"));
+        }
+        return instance;
+    }
+
+    private final File dir;
+    private final int linesPerBlock;
+    private final int blocksPerSegment;
+    private final int linesPerSegment;
+    private final int words;
+    private final int maxSegments;
+
+    // Guarded by this; oldest first
+    private final ArrayList<Segment> sealed = new ArrayList<>();
+    private Active active;
+    private byte[] lineBuffer = new byte[256];
+    private boolean closed;
+
+    public TerminalHistory(File dir) throws IOException {
+        this(dir, DEFAULT_LINES_PER_BLOCK, DEFAULT_BLOCKS_PER_SEGMENT, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Opens the history in {@code dir}, picking up where the last run stopped. A segment whose
+     * index is missing or damaged, such as the one being written when the app died, is
+     * re-indexed from its text.
+     */
+    public TerminalHistory(File dir, int linesPerBlock, int blocksPerSegment, int maxSegments) throws IOException {
+        if (linesPerBlock <= 0 || blocksPerSegment <= 0) {
+            throw new IllegalArgumentException("linesPerBlock and blocksPerSegment must be positive");
+        }
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("maxSegments must be >= 2");
+        }
+        this.dir = dir;
+        this.linesPerBlock = linesPerBlock;
+        this.blocksPerSegment = blocksPerSegment;
+        this.linesPerSegment = linesPerBlock * blocksPerSegment;
+        this.words = (blocksPerSegment + 63) / 64;
+        this.maxSegments = maxSegments;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        open();
+    }
+
+    public void append(String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        append(bytes, 0, bytes.length);
+    }
+
+    // Appends one line of UTF-8; a newline inside it is stored as a space
+    public synchronized void append(byte[] data, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("History closed");
+        }
+        if (active.lineCount == linesPerSegment) {
+            long next = active.firstLine + active.lineCount;
+            sealed.add(active.seal());
+            active = new Active(next, false);
+            trim();
+        }
+        if (lineBuffer.length < length + 1) {
+            lineBuffer = new byte[Math.max(length + 1, lineBuffer.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = data[offset + i];
+            lineBuffer[i] = b == '\n' ? (byte) ' ' : b;
+        }
+        lineBuffer[length] = '\n';
+        active.index(lineBuffer, 0, length);
+        active.out.write(lineBuffer, 0, length + 1);
+        active.bytes += length + 1;
+    }
+
+    /**
+     * Starts a search over everything captured so far; lines appended later are not part of
+     * it. Matches come back newest first through {@link Search#next}.
+     */
+    public synchronized Search search(String query) throws IOException {
+        if (closed) {
+            throw new IOException("History closed");
+        }
+        Query parsed = new Query(query);
+        ArrayList<Segment> segments = new ArrayList<>(sealed.size() + 1);
+        if (active.lineCount > 0) {
+            active.out.flush();
+            segments.add(active.snapshot(parsed.trigrams));
+        }
+        for (int i = sealed.size() - 1; i >= 0; i--) {
+            segments.add(sealed.get(i));
+        }
+        return new Search(parsed, segments);
+    }
+
+    public synchronized long getLineCount() {
+        long count = active.lineCount;
+        for (Segment segment : sealed) {
+            count += segment.lineCount;
+        }
+        return count;
+    }
+
+    // Number of the next line to be appended
+    public synchronized long getNextLine() {
+        return active.firstLine + active.lineCount;
+    }
+
+    public synchronized int getSegmentCount() {
+        return sealed.size() + 1;
+    }
+
+    // Hands buffered lines to the file system
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            active.out.flush();
+        }
+    }
+
+    // Flushes and closes the open segment; it is re-indexed from its text on the next open
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        active.out.close();
+    }
+
+    private void open() throws IOException {
+        File[] logs = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(LOG_SUFFIX));
+        List<Long> starts = new ArrayList<>();
+        if (logs != null) {
+            for (File log : logs) {
+                String name = log.getName();
+                try {
+                    starts.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - LOG_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not ours
+                }
+            }
+        }
+        Collections.sort(starts);
+        long next = 0;
+        for (int i = 0; i < starts.size(); i++) {
+            Segment segment = loadIndex(starts.get(i));
+            if (segment != null) {
+                sealed.add(segment);
+                next = segment.firstLine + segment.lineCount;
+                continue;
+            }
+            Active rebuilt = new Active(starts.get(i), true);
+            if (i == starts.size() - 1 && rebuilt.lineCount < linesPerSegment) {
+                active = rebuilt;
+            } else if (rebuilt.lineCount > 0) {
+                sealed.add(rebuilt.seal());
+            } else {
+                rebuilt.out.close();
+                deleteFiles(starts.get(i));
+                continue;
+            }
+            next = rebuilt.firstLine + rebuilt.lineCount;
+        }
+        if (active == null) {
+            active = new Active(next, false);
+        }
+        trim();
+    }
+
+    // Drops the oldest sealed segments past maxSegments
+    private void trim() {
+        while (sealed.size() + 1 > maxSegments) {
+            deleteFiles(sealed.remove(0).firstLine);
+        }
+    }
+
+    private void deleteFiles(long firstLine) {
+        logFile(firstLine).delete();
+        indexFile(firstLine).delete();
+    }
+
+    private File logFile(long firstLine) {
+        return new File(dir, PREFIX + firstLine + LOG_SUFFIX);
+    }
+
+    private File indexFile(long firstLine) {
+        return new File(dir, PREFIX + firstLine + INDEX_SUFFIX);
+    }
+
+    // Null when the index is missing, damaged or was written with other segment sizes
+    private Segment loadIndex(long firstLine) {
+        File index = indexFile(firstLine);
+        if (!index.exists()) {
+            return null;
+        }
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(index)), new CRC32())) {
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+                    || in.readInt() != linesPerBlock || in.readInt() != blocksPerSegment) {
+                return null;
+            }
+            int lineCount = in.readInt();
+            int blockCount = in.readInt();
+            if (lineCount <= 0 || lineCount > linesPerSegment || blockCount != (lineCount + linesPerBlock - 1) / linesPerBlock) {
+                return null;
+            }
+            int[] offsets = new int[blockCount + 1];
+            for (int i = 0; i <= blockCount; i++) {
+                offsets[i] = in.readInt();
+            }
+            int keyCount = in.readInt();
+            if (keyCount < 0 || keyCount > 1 << 24) {
+                return null;
+            }
+            int[] keys = new int[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = in.readInt();
+            }
+            long[] bitmaps = new long[keyCount * words];
+            for (int i = 0; i < bitmaps.length; i++) {
+                bitmaps[i] = in.readLong();
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected || logFile(firstLine).length() != offsets[blockCount]) {
+                return null;
+            }
+            return new Segment(firstLine, logFile(firstLine), lineCount, offsets, keys, bitmaps, null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Walks the matches of one query, newest first. Not thread-safe; meant for one background
+     * thread paging results into a list.
+     */
+    public final class Search implements Closeable {
+        private final Query query;
+        private final List<Segment> segments;
+        private final ArrayDeque<Match> ready = new ArrayDeque<>();
+        private final ArrayList<Match> blockMatches = new ArrayList<>();
+        private byte[] blockBuffer = new byte[0];
+        private int segmentIndex = -1;
+        private Segment segment;
+        private long[] candidates;
+        private int block;
+        private RandomAccessFile reader;
+        private long blocksRead;
+        private long linesChecked;
+
+        private Search(Query query, List<Segment> segments) {
+            this.query = query;
+            this.segments = segments;
+        }
+
+        // Up to max further matches, fewer only at the end of the history
+        public List<Match> next(int max) throws IOException {
+            List<Match> page = new ArrayList<>(Math.min(max, 64));
+            while (page.size() < max) {
+                Match match = ready.pollFirst();
+                if (match != null) {
+                    page.add(match);
+                } else if (!readNextBlock()) {
+                    break;
+                }
+            }
+            return page;
+        }
+
+        public boolean hasMore() throws IOException {
+            while (ready.isEmpty()) {
+                if (!readNextBlock()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Blocks the index could not rule out and that had to be read
+        public long getBlocksRead() {
+            return blocksRead;
+        }
+
+        public long getLinesChecked() {
+            return linesChecked;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+            segmentIndex = segments.size();
+        }
+
+        private boolean readNextBlock() throws IOException {
+            while (true) {
+                if (segment != null) {
+                    block = previousCandidate(block - 1);
+                    if (block >= 0) {
+                        readBlock();
+                        return true;
+                    }
+                    segment = null;
+                    if (reader != null) {
+                        reader.close();
+                        reader = null;
+                    }
+                }
+                if (++segmentIndex >= segments.size()) {
+                    segmentIndex = segments.size();
+                    return false;
+                }
+                Segment next = segments.get(segmentIndex);
+                candidates = next.candidates(query.trigrams, words);
+                if (candidates == null) {
+                    continue;
+                }
+                try {
+                    reader = new RandomAccessFile(next.log, "r");
+                } catch (IOException e) {
+                    // Deleted by retention since the search started
+                    continue;
+                }
+                segment = next;
+                block = segment.blockCount();
+            }
+        }
+
+        // Highest candidate block at or below from, -1 if none
+        private int previousCandidate(int from) {
+            for (int b = from; b >= 0; b--) {
+                long word = candidates[b >>> 6];
+                if (word == 0) {
+                    b &= ~63;
+                    continue;
+                }
+                if ((word & (1L << b)) != 0) {
+                    return b;
+                }
+            }
+            return -1;
+        }
+
+        private void readBlock() throws IOException {
+            int start = segment.offsets[block];
+            int length = segment.offsets[block + 1] - start;
+            if (blockBuffer.length < length) {
+                blockBuffer = new byte[length];
+            }
+            reader.seek(start);
+            reader.readFully(blockBuffer, 0, length);
+            blocksRead++;
+
+            long line = segment.firstLine + (long) block * linesPerBlock;
+            int lineStart = 0;
+            for (int i = 0; i < length; i++) {
+                if (blockBuffer[i] != '\n') {
+                    continue;
+                }
+                linesChecked++;
+                if (query.matches(blockBuffer, lineStart, i)) {
+                    blockMatches.add(new Match(line, new String(blockBuffer, lineStart, i - lineStart, StandardCharsets.UTF_8)));
+                }
+                line++;
+                lineStart = i + 1;
+            }
+            for (int i = blockMatches.size() - 1; i >= 0; i--) {
+                ready.addLast(blockMatches.get(i));
+            }
+            blockMatches.clear();
+        }
+    }
+
+    // A sealed segment, or a snapshot of the open one with its candidates worked out
+    private static final class Segment {
+        final long firstLine;
+        final File log;
+        final int lineCount;
+        // Start of each block in the log, plus its end
+        final int[] offsets;
+        // Sorted trigrams and, for each, words longs of block bits
+        final int[] keys;
+        final long[] bitmaps;
+        // Only for a snapshot, which has no keys; null when nothing in it can match
+        final long[] snapshotCandidates;
+
+        Segment(long firstLine, File log, int lineCount, int[] offsets, int[] keys, long[] bitmaps,
+                long[] snapshotCandidates) {
+            this.firstLine = firstLine;
+            this.log = log;
+            this.lineCount = lineCount;
+            this.offsets = offsets;
+            this.keys = keys;
+            this.bitmaps = bitmaps;
+            this.snapshotCandidates = snapshotCandidates;
+        }
+
+        int blockCount() {
+            return offsets.length - 1;
+        }
+
+        // Blocks holding every trigram, null when one of them occurs nowhere
+        long[] candidates(int[] trigrams, int words) {
+            if (keys == null) {
+                return snapshotCandidates;
+            }
+            long[] result = allBlocks(blockCount(), words);
+            for (int trigram : trigrams) {
+                int at = Arrays.binarySearch(keys, trigram);
+                if (at < 0) {
+                    return null;
+                }
+                for (int w = 0; w < words; w++) {
+                    result[w] &= bitmaps[at * words + w];
+                }
+            }
+            return result;
+        }
+    }
+
+    private static long[] allBlocks(int blockCount, int words) {
+        long[] all = new long[words];
+        for (int b = 0; b < blockCount; b++) {
+            all[b >>> 6] |= 1L << b;
+        }
+        return all;
+    }
+
+    // The segment being written: its log, block offsets and trigram bitmaps so far
+    private final class Active {
+        final long firstLine;
+        final File log;
+        final OutputStream out;
+        final int[] offsets = new int[blocksPerSegment + 1];
+        final TrigramTable table = new TrigramTable(words);
+        long bytes;
+        int lineCount;
+
+        // Re-indexes an existing log when recovering, dropping a torn last line
+        Active(long firstLine, boolean recover) throws IOException {
+            this.firstLine = firstLine;
+            this.log = logFile(firstLine);
+            if (recover) {
+                recover();
+            }
+            this.out = new BufferedOutputStream(new FileOutputStream(log, recover), WRITE_BUFFER_BYTES);
+        }
+
+        private void recover() throws IOException {
+            byte[] chunk = new byte[WRITE_BUFFER_BYTES];
+            byte[] line = new byte[256];
+            int lineLength = 0;
+            long position = 0;
+            long complete = 0;
+            try (InputStream in = new FileInputStream(log)) {
+                int n;
+                read:
+                while ((n = in.read(chunk)) > 0) {
+                    for (int i = 0; i < n; i++) {
+                        position++;
+                        byte b = chunk[i];
+                        if (b != '\n') {
+                            if (lineLength == line.length) {
+                                line = Arrays.copyOf(line, line.length * 2);
+                            }
+                            line[lineLength++] = b;
+                            continue;
+                        }
+                        index(line, 0, lineLength);
+                        bytes = position;
+                        complete = position;
+                        lineLength = 0;
+                        if (lineCount == linesPerSegment) {
+                            // Only when the segment sizes changed since it was written
+                            break read;
+                        }
+                    }
+                }
+            }
+            if (complete != log.length()) {
+                try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+                    file.setLength(complete);
+                }
+            }
+        }
+
+        // Records a line that starts at bytes in the log
+        void index(byte[] data, int offset, int length) {
+            int block = lineCount / linesPerBlock;
+            if (lineCount % linesPerBlock == 0) {
+                offsets[block] = (int) bytes;
+            }
+            if (length >= 3) {
+                int key = (fold(data[offset]) << 8) | fold(data[offset + 1]);
+                for (int i = offset + 2; i < offset + length; i++) {
+                    key = ((key << 8) | fold(data[i])) & 0xffffff;
+                    table.set(key, block);
+                }
+            }
+            lineCount++;
+        }
+
+        int blockCount() {
+            return (lineCount + linesPerBlock - 1) / linesPerBlock;
+        }
+
+        Segment snapshot(int[] trigrams) {
+            int blockCount = blockCount();
+            int[] snapshotOffsets = Arrays.copyOf(offsets, blockCount + 1);
+            snapshotOffsets[blockCount] = (int) bytes;
+            long[] candidates = allBlocks(blockCount, words);
+            for (int trigram : trigrams) {
+                if (!table.and(trigram, candidates)) {
+                    candidates = null;
+                    break;
+                }
+            }
+            return new Segment(firstLine, log, lineCount, snapshotOffsets, null, null, candidates);
+        }
+
+        // Closes the log and writes the index beside it
+        Segment seal() throws IOException {
+            out.close();
+            int blockCount = blockCount();
+            int[] sealedOffsets = Arrays.copyOf(offsets, blockCount + 1);
+            sealedOffsets[blockCount] = (int) bytes;
+            int[] keys = table.sortedKeys();
+            long[] bitmaps = new long[keys.length * words];
+            for (int i = 0; i < keys.length; i++) {
+                table.copyBits(keys[i], bitmaps, i * words);
+            }
+
+            // Written aside and renamed over, so an index on disk is always whole
+            File index = indexFile(firstLine);
+            File tmp = new File(index.getPath() + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(tmp)) {
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), new CRC32());
+                DataOutputStream data = new DataOutputStream(checked);
+                data.writeInt(INDEX_MAGIC);
+                data.writeInt(INDEX_VERSION);
+                data.writeInt(linesPerBlock);
+                data.writeInt(blocksPerSegment);
+                data.writeInt(lineCount);
+                data.writeInt(blockCount);
+                for (int offset : sealedOffsets) {
+                    data.writeInt(offset);
+                }
+                data.writeInt(keys.length);
+                for (int key : keys) {
+                    data.writeInt(key);
+                }
+                for (long bits : bitmaps) {
+                    data.writeLong(bits);
+                }
+                data.writeInt((int) checked.getChecksum().getValue());
+                data.flush();
+            }
+            if (!tmp.renameTo(index)) {
+                throw new IOException("Cannot replace " + index);
+            }
+            return new Segment(firstLine, log, lineCount, sealedOffsets, keys, bitmaps, null);
+        }
+    }
+
+    private static int fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+    }
+
+    // Open addressing map from trigram to its block bitmap
+    private static final class TrigramTable {
+        private static final int EMPTY = -1;
+
+        private final int words;
+        private int[] keys;
+        private long[] bits;
+        private int size;
+
+        TrigramTable(int words) {
+            this.words = words;
+            this.keys = new int[1024];
+            Arrays.fill(keys, EMPTY);
+            this.bits = new long[keys.length * words];
+        }
+
+        void set(int key, int block) {
+            int slot = slot(key);
+            if (keys[slot] == EMPTY) {
+                if ((size + 1) * 4 > keys.length * 3) {
+                    grow();
+                    slot = slot(key);
+                }
+                keys[slot] = key;
+                size++;
+            }
+            bits[slot * words + (block >>> 6)] |= 1L << block;
+        }
+
+        // ANDs key's bits into target; false when the key is absent
+        boolean and(int key, long[] target) {
+            int slot = slot(key);
+            if (keys[slot] == EMPTY) {
+                return false;
+            }
+            for (int w = 0; w < words; w++) {
+                target[w] &= bits[slot * words + w];
+            }
+            return true;
+        }
+
+        void copyBits(int key, long[] target, int offset) {
+            System.arraycopy(bits, slot(key) * words, target, offset, words);
+        }
+
+        int[] sortedKeys() {
+            int[] sorted = new int[size];
+            int n = 0;
+            for (int key : keys) {
+                if (key != EMPTY) {
+                    sorted[n++] = key;
+                }
+            }
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        private int slot(int key) {
+            int mask = keys.length - 1;
+            int slot = (key * 0x9E3779B9 >>> 8) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            long[] oldBits = bits;
+            keys = new int[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            bits = new long[keys.length * words];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = slot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    System.arraycopy(oldBits, i * words, bits, slot * words, words);
+                }
+            }
+        }
+    }
+
+    // A parsed query: its literal parts, lower-cased, and the trigrams they need
+    private static final class Query {
+        final byte[][] parts;
+        final int[] trigrams;
+
+        Query(String query) {
+            List<byte[]> literal = new ArrayList<>();
+            for (String part : query.split("\\*")) {
+                if (part.isEmpty()) {
+                    continue;
+                }
+                byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = (byte) fold(bytes[i]);
+                }
+                literal.add(bytes);
+            }
+            parts = literal.toArray(new byte[0][]);
+
+            int[] keys = new int[0];
+            int count = 0;
+            for (byte[] part : parts) {
+                for (int i = 2; i < part.length; i++) {
+                    int key = (part[i - 2] & 0xff) << 16 | (part[i - 1] & 0xff) << 8 | (part[i] & 0xff);
+                    if (count == keys.length) {
+                        keys = Arrays.copyOf(keys, Math.max(8, count * 2));
+                    }
+                    keys[count++] = key;
+                }
+            }
+            keys = Arrays.copyOf(keys, count);
+            Arrays.sort(keys);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || keys[i] != keys[i - 1]) {
+                    keys[unique++] = keys[i];
+                }
+            }
+            trigrams = Arrays.copyOf(keys, unique);
+        }
+
+        // Whether the parts occur in data[start, end) in order
+        boolean matches(byte[] data, int start, int end) {
+            int from = start;
+            for (byte[] part : parts) {
+                int at = indexOf(data, from, end, part);
+                if (at < 0) {
+                    return false;
+                }
+                from = at + part.length;
+            }
+            return true;
+        }
+
+        private static int indexOf(byte[] data, int from, int end, byte[] part) {
+            int last = end - part.length;
+            byte first = part[0];
+            for (int i = from; i <= last; i++) {
+                if (fold(data[i]) != (first & 0xff)) {
+                    continue;
+                }
+                int j = 1;
+                while (j < part.length && fold(data[i + j]) == (part[j] & 0xff)) {
+                    j++;
+                }
+                if (j == part.length) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
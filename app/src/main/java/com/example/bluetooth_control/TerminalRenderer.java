@@ -0,0 +1,110 @@
+package com.example.bluetooth_control;
+
+import java.util.ArrayDeque;
+
+/**
+ * Coalesces incoming terminal lines into at most one view update per display frame.
+ *
+ * {@link #append} may be called from any thread; it only queues the line and asks the
+ * scheduler for a frame if one is not already pending. On the frame the queued lines are moved
+ * into the {@link TerminalBuffer} and the listener is told once how the visible list changed,
+ * which maps directly onto RecyclerView's range notifications.
+ */
+public class TerminalRenderer {
+
+    // On Android this posts to the Choreographer; tests run frames by hand
+    public interface FrameScheduler {
+        void scheduleFrame(Runnable frame);
+    }
+
+    // Called on the frame thread after the buffer has been updated
+    public interface Listener {
+        void onLinesChanged(int removedFromStart, int insertedAtEnd);
+    }
+
+    private final TerminalBuffer buffer;
+    private final FrameScheduler scheduler;
+    private final Listener listener;
+    private final Runnable frame = this::onFrame;
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private ArrayDeque<String> pending;
+    private boolean frameScheduled;
+    private long droppedCount;
+
+    // Only touched on the frame thread
+    private ArrayDeque<String> spare;
+    private long frameCount;
+
+    public TerminalRenderer(int capacity, FrameScheduler scheduler, Listener listener) {
+        this.buffer = new TerminalBuffer(capacity);
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.pending = new ArrayDeque<>();
+        this.spare = new ArrayDeque<>();
+    }
+
+    public void append(String line) {
+        boolean schedule;
+        synchronized (lock) {
+            // More than a full buffer within one frame: the oldest would be evicted on arrival anyway
+            if (pending.size() == buffer.capacity()) {
+                pending.pollFirst();
+                droppedCount++;
+            }
+            pending.addLast(line);
+            schedule = !frameScheduled;
+            frameScheduled = true;
+        }
+        if (schedule) {
+            scheduler.scheduleFrame(frame);
+        }
+    }
+
+    void onFrame() {
+        ArrayDeque<String> batch;
+        synchronized (lock) {
+            batch = pending;
+            pending = spare;
+            frameScheduled = false;
+        }
+
+        int before = buffer.size();
+        int added = 0;
+        int evicted = 0;
+        String line;
+        while ((line = batch.pollFirst()) != null) {
+            added++;
+            if (buffer.add(line)) {
+                evicted++;
+            }
+        }
+        spare = batch;
+        if (added == 0) {
+            return;
+        }
+
+        // Lines added and evicted within the same frame were never shown
+        int removed = Math.min(evicted, before);
+        int inserted = buffer.size() - (before - removed);
+        frameCount++;
+        listener.onLinesChanged(removed, inserted);
+    }
+
+    // Only read from the frame thread, e.g. by the adapter
+    public TerminalBuffer getBuffer() {
+        return buffer;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    // Lines that never reached the buffer because more than a full buffer arrived within one frame
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+}
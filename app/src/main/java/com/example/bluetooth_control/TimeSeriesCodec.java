@@ -0,0 +1,207 @@
+package com.example.bluetooth_control;
+
+/**
+ * Gorilla-style compression for a chunk of (timestamp, value) points.
+ *
+ * Timestamps are stored as delta-of-delta, which is a single bit for a steady sample rate.
+ * Values are XORed with the previous one and only the meaningful bits are kept, so a slowly
+ * changing sensor costs a few bits per point instead of sixteen bytes.
+ */
+public final class TimeSeriesCodec {
+
+    private TimeSeriesCodec() {
+    }
+
+    public static byte[] encode(long[] timestamps, double[] values, int count) {
+        if (count == 0) {
+            return new byte[0];
+        }
+        BitWriter out = new BitWriter(count * 2 + 16);
+        long previousTimestamp = timestamps[0];
+        long previousBits = Double.doubleToRawLongBits(values[0]);
+        out.write(previousTimestamp, 64);
+        out.write(previousBits, 64);
+
+        long previousDelta = 0;
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = timestamps[i] - previousTimestamp;
+            long deltaOfDelta = delta - previousDelta;
+            if (deltaOfDelta == 0) {
+                out.write(0, 1);
+            } else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+                out.write(0b10, 2);
+                out.write(deltaOfDelta, 7);
+            } else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+                out.write(0b110, 3);
+                out.write(deltaOfDelta, 9);
+            } else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+                out.write(0b1110, 4);
+                out.write(deltaOfDelta, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(deltaOfDelta, 64);
+            }
+            previousTimestamp = timestamps[i];
+            previousDelta = delta;
+
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previousBits;
+            previousBits = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            out.write(1, 1);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                // Fits the previous window, reuse it
+                out.write(0, 1);
+                out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int significant = 64 - leading - trailing;
+                out.write(1, 1);
+                out.write(leading, 5);
+                out.write(significant - 1, 6);
+                out.write(xor >>> trailing, significant);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // Decodes count points into the given arrays, which must hold at least count entries
+    public static void decode(byte[] data, int count, long[] timestamps, double[] values) {
+        if (count == 0) {
+            return;
+        }
+        BitReader in = new BitReader(data);
+        long timestamp = in.read(64);
+        long bits = in.read(64);
+        timestamps[0] = timestamp;
+        values[0] = Double.longBitsToDouble(bits);
+
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            long deltaOfDelta;
+            if (in.read(1) == 0) {
+                deltaOfDelta = 0;
+            } else if (in.read(1) == 0) {
+                deltaOfDelta = signExtend(in.read(7), 7);
+            } else if (in.read(1) == 0) {
+                deltaOfDelta = signExtend(in.read(9), 9);
+            } else if (in.read(1) == 0) {
+                deltaOfDelta = signExtend(in.read(12), 12);
+            } else {
+                deltaOfDelta = in.read(64);
+            }
+            delta += deltaOfDelta;
+            timestamp += delta;
+            timestamps[i] = timestamp;
+
+            if (in.read(1) != 0) {
+                if (in.read(1) != 0) {
+                    leading = (int) in.read(5);
+                    int significant = (int) in.read(6) + 1;
+                    trailing = 64 - leading - significant;
+                }
+                bits ^= in.read(64 - leading - trailing) << trailing;
+            }
+            values[i] = Double.longBitsToDouble(bits);
+        }
+    }
+
+    private static long signExtend(long value, int bits) {
+        int shift = 64 - bits;
+        return (value << shift) >> shift;
+    }
+
+    // MSB-first bit packing through a 64 bit accumulator
+    static final class BitWriter {
+        private byte[] bytes;
+        private int size;
+        private long accumulator;
+        private int accumulated;
+
+        BitWriter(int initialBytes) {
+            bytes = new byte[Math.max(initialBytes, 16)];
+        }
+
+        void write(long value, int bits) {
+            if (bits == 0) {
+                return;
+            }
+            if (bits < 64) {
+                value &= (1L << bits) - 1;
+            }
+            int space = 64 - accumulated;
+            if (bits <= space) {
+                accumulator = bits == 64 ? value : (accumulator << bits) | value;
+                accumulated += bits;
+                if (accumulated == 64) {
+                    flush();
+                }
+                return;
+            }
+            int rest = bits - space;
+            write(value >>> rest, space);
+            write(value, rest);
+        }
+
+        private void flush() {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (accumulator >>> shift);
+            }
+            accumulator = 0;
+            accumulated = 0;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, size + extra)];
+                System.arraycopy(bytes, 0, grown, 0, size);
+                bytes = grown;
+            }
+        }
+
+        byte[] toByteArray() {
+            int tailBytes = (accumulated + 7) / 8;
+            byte[] result = new byte[size + tailBytes];
+            System.arraycopy(bytes, 0, result, 0, size);
+            long aligned = accumulated == 0 ? 0 : accumulator << (64 - accumulated);
+            for (int i = 0; i < tailBytes; i++) {
+                result[size + i] = (byte) (aligned >>> (56 - 8 * i));
+            }
+            return result;
+        }
+    }
+
+    static final class BitReader {
+        private final byte[] bytes;
+        private int position;
+
+        BitReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            while (bits > 0) {
+                int offset = position & 7;
+                int available = 8 - offset;
+                int take = Math.min(available, bits);
+                int chunk = ((bytes[position >>> 3] & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+                value = (value << take) | chunk;
+                bits -= take;
+                position += take;
+            }
+            return value;
+        }
+    }
+}
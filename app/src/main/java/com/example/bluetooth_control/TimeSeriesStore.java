@@ -0,0 +1,657 @@
+package com.example.bluetooth_control;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Store of parsed device readings, one series per reading name.
+ *
+ * Each series is split into fixed time partitions. The current partition is kept as plain
+ * long/double arrays; once a reading lands in a later partition the old one is compressed with
+ * {@link TimeSeriesCodec} and gets min/max/sum/count rollups per rollup interval. Downsampled
+ * queries read the rollups and only decompress partitions they cut through, so charting a day
+ * touches a few thousand rollup slots rather than every point.
+ *
+ * Opened on a directory, every partition is also kept as a file, {@code <series>/<start>.tsc}
+ * holding its compressed points. A partition is written when it is sealed, and the open ones
+ * on {@link #flush()}, so a restart loses at most what arrived since the last flush. Rollups
+ * are rebuilt from the points on open, and files past the retention are deleted with their
+ * partitions.
+ */
+public class TimeSeriesStore {
+
+    // Called in timestamp order
+    public interface PointConsumer {
+        void onPoint(long timestamp, double value);
+    }
+
+    private static final long DEFAULT_CHUNK_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DEFAULT_ROLLUP_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    // A week of hourly partitions per series
+    private static final int DEFAULT_MAX_CHUNKS = 24 * 7;
+
+    private static final int FILE_MAGIC = 0x54534331;
+    private static final String FILE_SUFFIX = ".tsc";
+
+    private static TimeSeriesStore instance;
+
+    // The app's store, kept under filesDir/readings
+    public static synchronized TimeSeriesStore getInstance(File filesDir) throws IOException {
+        if (instance == null) {
+            instance = new TimeSeriesStore(new File(filesDir, "readings"),
+                    DEFAULT_CHUNK_MILLIS, DEFAULT_ROLLUP_MILLIS, DEFAULT_MAX_CHUNKS);
+        }
+        return instance;
+    }
+
+    private final File dir;
+    private final long chunkMillis;
+    private final long rollupMillis;
+    private final int maxChunks;
+    private final ConcurrentHashMap<String, Series> series = new ConcurrentHashMap<>();
+    private final AtomicLong writeErrors = new AtomicLong();
+
+    // Memory only
+    public TimeSeriesStore(long chunkMillis, long rollupMillis, int maxChunks) {
+        this.dir = null;
+        this.chunkMillis = chunkMillis;
+        this.rollupMillis = rollupMillis;
+        this.maxChunks = maxChunks;
+        checkArguments();
+    }
+
+    /**
+     * Opens the store kept in {@code dir}, loading what a previous run left there. The newest
+     * partition of each series is reopened, so readings later in the same partition join it.
+     */
+    public TimeSeriesStore(File dir, long chunkMillis, long rollupMillis, int maxChunks) throws IOException {
+        this.dir = dir;
+        this.chunkMillis = chunkMillis;
+        this.rollupMillis = rollupMillis;
+        this.maxChunks = maxChunks;
+        checkArguments();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        load();
+    }
+
+    private void checkArguments() {
+        if (rollupMillis <= 0 || chunkMillis % rollupMillis != 0) {
+            throw new IllegalArgumentException("chunkMillis must be a positive multiple of rollupMillis");
+        }
+        if (maxChunks <= 0) {
+            throw new IllegalArgumentException("maxChunks must be positive");
+        }
+    }
+
+    public void append(String name, long timestamp, double value) {
+        Series target = series.get(name);
+        if (target == null) {
+            target = series.computeIfAbsent(name, Series::new);
+        }
+        target.append(timestamp, value);
+    }
+
+    // Writes each open partition that changed since the last flush; a no-op in memory
+    public void flush() throws IOException {
+        for (Series s : series.values()) {
+            s.flush();
+        }
+    }
+
+    /**
+     * Parses a line such as {@code temp=21.5,hum=40.1} or {@code temp:21.5 hum:40.1} into one
+     * reading per pair. A line that is just a number goes to the series "value". Anything that
+     * does not parse is skipped. Returns the number of readings stored.
+     */
+    public int recordLine(long timestamp, CharSequence line) {
+        int stored = 0;
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && isSeparator(line.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            int split = -1;
+            while (i < length && !isSeparator(line.charAt(i))) {
+                char c = line.charAt(i);
+                if (split < 0 && (c == '=' || c == ':')) {
+                    split = i;
+                }
+                i++;
+            }
+            if (start == i) {
+                break;
+            }
+            String name;
+            int valueStart;
+            if (split > start) {
+                name = line.subSequence(start, split).toString();
+                valueStart = split + 1;
+            } else if (split < 0 && start == 0 && i == length) {
+                name = "value";
+                valueStart = start;
+            } else {
+                continue;
+            }
+            try {
+                append(name, timestamp, Double.parseDouble(line.subSequence(valueStart, i).toString()));
+                stored++;
+            } catch (NumberFormatException e) {
+                // Not a reading
+            }
+        }
+        return stored;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == ';' || c == ' ' || c == '\t';
+    }
+
+    // Visits raw points in [from, to), returns how many were visited
+    public int query(String name, long from, long to, PointConsumer consumer) {
+        Series target = series.get(name);
+        return target != null ? target.query(from, to, consumer) : 0;
+    }
+
+    /**
+     * Aggregates [from, to) into buckets of {@code bucketMillis}. Rollups are used whenever the
+     * buckets line up with the rollup interval, which any whole number of minutes does.
+     */
+    public Downsampled downsample(String name, long from, long to, long bucketMillis) {
+        if (bucketMillis <= 0 || to <= from) {
+            throw new IllegalArgumentException("need bucketMillis > 0 and to > from");
+        }
+        Downsampled result = new Downsampled(from, bucketMillis, (int) ((to - from + bucketMillis - 1) / bucketMillis));
+        Series target = series.get(name);
+        if (target != null) {
+            target.downsample(from, to, result);
+        }
+        return result;
+    }
+
+    // Readings older than their series' open partition, which are not stored
+    public long getLateCount() {
+        long count = 0;
+        for (Series s : series.values()) {
+            count += s.lateCount();
+        }
+        return count;
+    }
+
+    public Set<String> getSeriesNames() {
+        return series.keySet();
+    }
+
+    public long getPointCount() {
+        long count = 0;
+        for (Series s : series.values()) {
+            count += s.pointCount();
+        }
+        return count;
+    }
+
+    // Bytes held by compressed partitions, excluding the open ones
+    public long getCompressedBytes() {
+        long bytes = 0;
+        for (Series s : series.values()) {
+            bytes += s.compressedBytes();
+        }
+        return bytes;
+    }
+
+    // Sealed partitions that could not be written and are only kept in memory
+    public long getWriteErrorCount() {
+        return writeErrors.get();
+    }
+
+    private void load() throws IOException {
+        File[] seriesDirs = dir.listFiles(File::isDirectory);
+        if (seriesDirs == null) {
+            throw new IOException("Cannot list " + dir);
+        }
+        for (File seriesDir : seriesDirs) {
+            String name = decodeName(seriesDir.getName());
+            if (name == null) {
+                continue;
+            }
+            Series loaded = new Series(name);
+            loaded.load(seriesDir);
+            series.put(name, loaded);
+        }
+    }
+
+    private final class Series {
+        private final String name;
+        private final ArrayDeque<Chunk> sealed = new ArrayDeque<>();
+        private long activeStart = Long.MIN_VALUE;
+        private long[] timestamps = new long[64];
+        private double[] values = new double[64];
+        private int count;
+        private long pointCount;
+        private long droppedLate;
+        // The open partition has points its file does not
+        private boolean dirty;
+
+        // Reused when a query has to decompress a partition
+        private long[] scratchTimestamps = new long[0];
+        private double[] scratchValues = new double[0];
+
+        Series(String name) {
+            this.name = name;
+        }
+
+        // Every readable partition file, oldest first; the newest becomes the open partition
+        void load(File seriesDir) {
+            File[] files = seriesDir.listFiles((d, file) -> file.endsWith(FILE_SUFFIX));
+            List<Long> starts = new ArrayList<>();
+            for (File file : files != null ? files : new File[0]) {
+                try {
+                    starts.add(Long.parseLong(file.getName().substring(0, file.getName().length() - FILE_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not ours
+                }
+            }
+            starts.sort(null);
+            for (long start : starts) {
+                File file = fileFor(start);
+                Chunk chunk;
+                try {
+                    chunk = read(file, start);
+                } catch (IOException e) {
+                    // Torn by a crash mid-write or otherwise damaged
+                    file.delete();
+                    continue;
+                }
+                sealed.addLast(chunk);
+                pointCount += chunk.count;
+            }
+            Chunk newest = sealed.pollLast();
+            if (newest != null) {
+                decode(newest);
+                timestamps = Arrays.copyOf(scratchTimestamps, Math.max(64, newest.count));
+                values = Arrays.copyOf(scratchValues, timestamps.length);
+                count = newest.count;
+                activeStart = newest.start;
+            }
+            trim();
+        }
+
+        synchronized void append(long timestamp, double value) {
+            long start = Math.floorDiv(timestamp, chunkMillis) * chunkMillis;
+            if (start != activeStart) {
+                if (start < activeStart) {
+                    // Older partitions are already compressed
+                    droppedLate++;
+                    return;
+                }
+                seal();
+                activeStart = start;
+            }
+            if (count == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            int at = count;
+            // Keep the partition sorted; readings arrive in order almost always
+            while (at > 0 && timestamps[at - 1] > timestamp) {
+                at--;
+            }
+            if (at < count) {
+                System.arraycopy(timestamps, at, timestamps, at + 1, count - at);
+                System.arraycopy(values, at, values, at + 1, count - at);
+            }
+            timestamps[at] = timestamp;
+            values[at] = value;
+            count++;
+            pointCount++;
+            dirty = true;
+        }
+
+        private void seal() {
+            if (count == 0) {
+                return;
+            }
+            Chunk chunk = new Chunk(activeStart, TimeSeriesCodec.encode(timestamps, values, count), timestamps, values, count);
+            if (dir != null && dirty) {
+                try {
+                    write(chunk.start, chunk.data, chunk.count);
+                } catch (IOException e) {
+                    writeErrors.incrementAndGet();
+                }
+            }
+            sealed.addLast(chunk);
+            count = 0;
+            dirty = false;
+            trim();
+        }
+
+        private void trim() {
+            while (sealed.size() > maxChunks) {
+                Chunk dropped = sealed.pollFirst();
+                pointCount -= dropped.count;
+                if (dir != null) {
+                    fileFor(dropped.start).delete();
+                }
+            }
+        }
+
+        synchronized void flush() throws IOException {
+            if (dir == null || !dirty || count == 0) {
+                return;
+            }
+            write(activeStart, TimeSeriesCodec.encode(timestamps, values, count), count);
+            dirty = false;
+        }
+
+        private File fileFor(long start) {
+            return new File(new File(dir, encodeName(name)), start + FILE_SUFFIX);
+        }
+
+        // [magic][start][count][length][points][crc32], written aside and renamed over
+        private void write(long start, byte[] data, int points) throws IOException {
+            File file = fileFor(start);
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create " + parent);
+            }
+            File tmp = new File(parent, file.getName() + ".tmp");
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)), crc))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeLong(start);
+                out.writeInt(points);
+                out.writeInt(data.length);
+                out.write(data);
+                out.flush();
+                out.writeInt((int) crc.getValue());
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Cannot replace " + file);
+            }
+        }
+
+        private Chunk read(File file, long start) throws IOException {
+            CRC32 crc = new CRC32();
+            try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                    new BufferedInputStream(new FileInputStream(file)), crc))) {
+                if (in.readInt() != FILE_MAGIC || in.readLong() != start) {
+                    throw new IOException("Not a partition of " + name + ": " + file);
+                }
+                int pointCount = in.readInt();
+                int length = in.readInt();
+                if (pointCount <= 0 || length <= 0 || length > file.length()) {
+                    throw new IOException("Bad header in " + file);
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                int expected = (int) crc.getValue();
+                if (in.readInt() != expected) {
+                    throw new IOException("Checksum mismatch in " + file);
+                }
+                long[] ts = new long[pointCount];
+                double[] vs = new double[pointCount];
+                try {
+                    TimeSeriesCodec.decode(data, pointCount, ts, vs);
+                } catch (RuntimeException e) {
+                    throw new IOException("Cannot decode " + file, e);
+                }
+                return new Chunk(start, data, ts, vs, pointCount);
+            }
+        }
+
+        synchronized int query(long from, long to, PointConsumer consumer) {
+            int visited = 0;
+            for (Chunk chunk : sealed) {
+                if (chunk.start >= to || chunk.start + chunkMillis <= from) {
+                    continue;
+                }
+                decode(chunk);
+                visited += visit(scratchTimestamps, scratchValues, chunk.count, from, to, consumer);
+            }
+            if (activeStart + chunkMillis > from && activeStart < to) {
+                visited += visit(timestamps, values, count, from, to, consumer);
+            }
+            return visited;
+        }
+
+        private int visit(long[] ts, double[] vs, int n, long from, long to, PointConsumer consumer) {
+            int visited = 0;
+            for (int i = 0; i < n && ts[i] < to; i++) {
+                if (ts[i] >= from) {
+                    consumer.onPoint(ts[i], vs[i]);
+                    visited++;
+                }
+            }
+            return visited;
+        }
+
+        synchronized void downsample(long from, long to, Downsampled result) {
+            boolean aligned = result.bucketMillis % rollupMillis == 0 && Math.floorMod(from, rollupMillis) == 0;
+            for (Chunk chunk : sealed) {
+                if (chunk.start >= to || chunk.start + chunkMillis <= from) {
+                    continue;
+                }
+                if (!aligned) {
+                    decode(chunk);
+                    for (int i = 0; i < chunk.count && scratchTimestamps[i] < to; i++) {
+                        if (scratchTimestamps[i] >= from) {
+                            result.add((int) ((scratchTimestamps[i] - from) / result.bucketMillis), scratchValues[i]);
+                        }
+                    }
+                    continue;
+                }
+                boolean decoded = false;
+                for (int slot = 0; slot < chunk.rollupCount.length; slot++) {
+                    if (chunk.rollupCount[slot] == 0) {
+                        continue;
+                    }
+                    long slotStart = chunk.start + slot * rollupMillis;
+                    long slotEnd = slotStart + rollupMillis;
+                    if (slotEnd <= from || slotStart >= to) {
+                        continue;
+                    }
+                    if (slotStart >= from && slotEnd <= to) {
+                        result.merge((int) ((slotStart - from) / result.bucketMillis), chunk.rollupMin[slot],
+                                chunk.rollupMax[slot], chunk.rollupSum[slot], chunk.rollupCount[slot]);
+                        continue;
+                    }
+                    // Only the slots at either end of the range get here
+                    if (!decoded) {
+                        decode(chunk);
+                        decoded = true;
+                    }
+                    long lower = Math.max(slotStart, from);
+                    long upper = Math.min(slotEnd, to);
+                    for (int i = 0; i < chunk.count; i++) {
+                        long t = scratchTimestamps[i];
+                        if (t >= lower && t < upper) {
+                            result.add((int) ((t - from) / result.bucketMillis), scratchValues[i]);
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < count && timestamps[i] < to; i++) {
+                if (timestamps[i] >= from) {
+                    result.add((int) ((timestamps[i] - from) / result.bucketMillis), values[i]);
+                }
+            }
+        }
+
+        private void decode(Chunk chunk) {
+            if (scratchTimestamps.length < chunk.count) {
+                scratchTimestamps = new long[chunk.count];
+                scratchValues = new double[chunk.count];
+            }
+            TimeSeriesCodec.decode(chunk.data, chunk.count, scratchTimestamps, scratchValues);
+        }
+
+        synchronized long lateCount() {
+            return droppedLate;
+        }
+
+        synchronized long pointCount() {
+            return pointCount;
+        }
+
+        synchronized long compressedBytes() {
+            long bytes = 0;
+            for (Chunk chunk : sealed) {
+                bytes += chunk.data.length;
+            }
+            return bytes;
+        }
+    }
+
+    // A sealed partition: compressed points plus per-slot rollups
+    private final class Chunk {
+        final long start;
+        final int count;
+        final byte[] data;
+        final double[] rollupMin;
+        final double[] rollupMax;
+        final double[] rollupSum;
+        final int[] rollupCount;
+
+        Chunk(long start, byte[] data, long[] timestamps, double[] values, int count) {
+            this.start = start;
+            this.count = count;
+            this.data = data;
+            int slots = (int) (chunkMillis / rollupMillis);
+            rollupMin = new double[slots];
+            rollupMax = new double[slots];
+            rollupSum = new double[slots];
+            rollupCount = new int[slots];
+            for (int i = 0; i < count; i++) {
+                int slot = (int) ((timestamps[i] - start) / rollupMillis);
+                double value = values[i];
+                if (rollupCount[slot] == 0 || value < rollupMin[slot]) {
+                    rollupMin[slot] = value;
+                }
+                if (rollupCount[slot] == 0 || value > rollupMax[slot]) {
+                    rollupMax[slot] = value;
+                }
+                rollupSum[slot] += value;
+                rollupCount[slot]++;
+            }
+        }
+    }
+
+    // Series names come from the device, so anything but [A-Za-z0-9_-] is escaped as %XX
+    static String encodeName(String name) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-') {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            }
+        }
+        return encoded.toString();
+    }
+
+    // Null if the name was not written by encodeName
+    static String decodeName(String encoded) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < encoded.length(); i++) {
+            char c = encoded.charAt(i);
+            if (c != '%') {
+                bytes.write(c);
+                continue;
+            }
+            if (i + 2 >= encoded.length()) {
+                return null;
+            }
+            int hi = Character.digit(encoded.charAt(i + 1), 16);
+            int lo = Character.digit(encoded.charAt(i + 2), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            bytes.write(hi << 4 | lo);
+            i += 2;
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Per-bucket min/max/avg; buckets with no readings have a count of 0. */
+    public static final class Downsampled {
+        public final long from;
+        public final long bucketMillis;
+        private final double[] min;
+        private final double[] max;
+        private final double[] sum;
+        private final int[] count;
+
+        Downsampled(long from, long bucketMillis, int buckets) {
+            this.from = from;
+            this.bucketMillis = bucketMillis;
+            this.min = new double[buckets];
+            this.max = new double[buckets];
+            this.sum = new double[buckets];
+            this.count = new int[buckets];
+        }
+
+        void add(int bucket, double value) {
+            merge(bucket, value, value, value, 1);
+        }
+
+        void merge(int bucket, double bucketMin, double bucketMax, double bucketSum, int bucketCount) {
+            if (count[bucket] == 0 || bucketMin < min[bucket]) {
+                min[bucket] = bucketMin;
+            }
+            if (count[bucket] == 0 || bucketMax > max[bucket]) {
+                max[bucket] = bucketMax;
+            }
+            sum[bucket] += bucketSum;
+            count[bucket] += bucketCount;
+        }
+
+        public int size() {
+            return count.length;
+        }
+
+        public long bucketStart(int bucket) {
+            return from + bucket * bucketMillis;
+        }
+
+        public int count(int bucket) {
+            return count[bucket];
+        }
+
+        public double min(int bucket) {
+            return count[bucket] > 0 ? min[bucket] : Double.NaN;
+        }
+
+        public double max(int bucket) {
+            return count[bucket] > 0 ? max[bucket] : Double.NaN;
+        }
+
+        public double average(int bucket) {
+            return count[bucket] > 0 ? sum[bucket] / count[bucket] : Double.NaN;
+        }
+    }
+}
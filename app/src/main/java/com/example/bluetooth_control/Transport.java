@@ -0,0 +1,22 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connected byte-stream link to a device. The Android implementation is
+ * {@link RfcommTransport}, tests substitute their own.
+ */
+public interface Transport extends Closeable {
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    boolean isConnected();
+
+    @Override
+    void close() throws IOException;
+}
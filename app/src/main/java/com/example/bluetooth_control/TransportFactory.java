@@ -0,0 +1,12 @@
+package com.example.bluetooth_control;
+
+import java.io.IOException;
+
+/**
+ * Opens a new {@link Transport}. Implementations block until the link is up, so they are
+ * only ever called off the main thread.
+ */
+public interface TransportFactory {
+
+    Transport connect() throws IOException;
+}
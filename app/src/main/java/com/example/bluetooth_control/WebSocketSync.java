@@ -0,0 +1,613 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Streams records to the backend over one long-lived WebSocket instead of a POST per event,
+ * and receives device commands pushed by the server on the same socket.
+ *
+ * Every record gets a sequence number and stays in a bounded in-memory window until the
+ * server acks it (acks are cumulative). After a drop the socket is reopened with exponential
+ * backoff, a hello carrying this session's id and the first unacked sequence is sent, and the
+ * window is replayed, so the server can drop duplicates by (session, seq). Heartbeats are
+ * WebSocket pings; a missed pong fails the socket and starts the reconnect.
+ *
+ * The window lives in memory only. With a {@link Spill} set, it is handed over instead of
+ * being replayed whenever the socket drops and when the sync closes, so the caller can keep
+ * those records somewhere durable. Delivery is then at-least-once: a record whose ack was lost
+ * with the socket is sent twice.
+ *
+ * Messages are JSON text frames:
+ * <pre>
+ * client: {"type":"hello","device":...,"session":...,"resumeFrom":seq}
+ * client: {"type":"data","seq":n,"channel":"serial","record":{"device":...,"ts":...,"data":...}}
+ * server: {"type":"ack","seq":n}
+ * server: {"type":"command","id":...,"target":...,"data":"A"}
+ * client: {"type":"commandAck","id":...}
+ * </pre>
+ */
+public class WebSocketSync implements Closeable {
+
+    public enum State {
+        DISCONNECTED,
+        CONNECTING,
+        CONNECTED,
+        RECONNECTING
+    }
+
+    // Called on OkHttp's socket thread, UI listeners must post to the main thread
+    public interface Listener {
+        void onStateChanged(State state);
+
+        void onCommand(String target, String data);
+    }
+
+    // Takes records that were queued but never acked; called once per record, outside any lock
+    public interface Spill {
+        void onUnacked(String channel, long timestampMillis, String data);
+    }
+
+    private static final int NORMAL_CLOSURE = 1000;
+
+    private final OkHttpClient client;
+    private final Request request;
+    private final String deviceId;
+    private final String session;
+    private final int maxUnacked;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final ScheduledExecutorService executor;
+    private final Spill spill;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private final ArrayDeque<Frame> unacked = new ArrayDeque<>();
+    private final JsonWriter json = new JsonWriter();
+    private long nextSeq = 1;
+    private WebSocket socket;
+    private State state = State.DISCONNECTED;
+    private int generation;
+    private int failures;
+    private boolean started;
+    private boolean closed;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong resent = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong commandsReceived = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final LatencyHistogram ackLatency = Metrics.getInstance().histogram(Metrics.SYNC_ACK);
+
+    private WebSocketSync(Builder builder) {
+        this.client = builder.client.newBuilder()
+                .pingInterval(builder.heartbeatMillis, TimeUnit.MILLISECONDS)
+                // A stream never finishes, only the heartbeat decides the socket is dead
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        this.request = new Request.Builder().url(builder.url).build();
+        this.deviceId = builder.deviceId;
+        this.session = Long.toHexString(new Random().nextLong());
+        this.maxUnacked = builder.maxUnacked;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.spill = builder.spill;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "websocket-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Opens the socket; records sent before it is open wait in the window
+    public synchronized void start() {
+        if (started || closed) {
+            return;
+        }
+        started = true;
+        openLocked();
+    }
+
+    /**
+     * Queues a record on {@code channel} and sends it right away if the socket is open.
+     * Returns false, without queueing, if the unacked window is full or the sync is closed;
+     * the caller should fall back to the durable outbox then.
+     */
+    public boolean send(String channel, String data) {
+        synchronized (this) {
+            if (closed || unacked.size() >= maxUnacked) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            long seq = nextSeq++;
+            long timestamp = System.currentTimeMillis();
+            json.reset();
+            json.beginObject()
+                    .name("type").value("data")
+                    .name("seq").value(seq)
+                    .name("channel").value(channel)
+                    .name("record");
+            TelemetryUploader.writeRecord(json, deviceId, timestamp, data);
+            json.endObject();
+            Frame frame = new Frame(seq, new String(json.buffer(), 0, json.size(), StandardCharsets.UTF_8),
+                    channel, timestamp, data);
+            unacked.addLast(frame);
+            if (state == State.CONNECTED) {
+                frame.sentAtNanos = System.nanoTime();
+                socket.send(frame.text);
+                sent.incrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    private void openLocked() {
+        int attempt = ++generation;
+        setStateLocked(failures == 0 ? State.CONNECTING : State.RECONNECTING);
+        socket = client.newWebSocket(request, new SocketListener(attempt));
+    }
+
+    private void onOpen(int attempt, WebSocket webSocket) {
+        synchronized (this) {
+            if (attempt != generation || closed) {
+                return;
+            }
+            if (failures > 0) {
+                reconnects.incrementAndGet();
+            }
+            failures = 0;
+            json.reset();
+            json.beginObject()
+                    .name("type").value("hello")
+                    .name("device").value(deviceId)
+                    .name("session").value(session)
+                    .name("resumeFrom").value(unacked.isEmpty() ? nextSeq : unacked.peekFirst().seq)
+                    .endObject();
+            webSocket.send(new String(json.buffer(), 0, json.size(), StandardCharsets.UTF_8));
+            // Replay the window: anything unacked may not have reached the server
+            long now = System.nanoTime();
+            for (Frame frame : unacked) {
+                (frame.sentAtNanos != 0 ? resent : sent).incrementAndGet();
+                frame.sentAtNanos = now;
+                webSocket.send(frame.text);
+            }
+            setStateLocked(State.CONNECTED);
+        }
+    }
+
+    private void onMessage(int attempt, WebSocket webSocket, String text) {
+        Map<String, String> message;
+        try {
+            message = parseFlatObject(text);
+        } catch (IllegalArgumentException e) {
+            // Not something this client understands
+            return;
+        }
+        String type = message.get("type");
+        if ("ack".equals(type)) {
+            onAck(attempt, message.get("seq"));
+        } else if ("command".equals(type)) {
+            commandsReceived.incrementAndGet();
+            for (Listener listener : listeners) {
+                listener.onCommand(message.get("target"), message.get("data"));
+            }
+            String id = message.get("id");
+            if (id != null) {
+                JsonWriter reply = new JsonWriter(64);
+                reply.beginObject().name("type").value("commandAck").name("id").value(id).endObject();
+                webSocket.send(new String(reply.buffer(), 0, reply.size(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private synchronized void onAck(int attempt, String seqText) {
+        if (attempt != generation || seqText == null) {
+            return;
+        }
+        long seq;
+        try {
+            seq = Long.parseLong(seqText);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        long now = System.nanoTime();
+        while (!unacked.isEmpty() && unacked.peekFirst().seq <= seq) {
+            Frame frame = unacked.pollFirst();
+            acked.incrementAndGet();
+            ackLatency.record(now - frame.sentAtNanos);
+        }
+    }
+
+    private void onDropped(int attempt) {
+        List<Frame> unsent;
+        synchronized (this) {
+            if (attempt != generation) {
+                return;
+            }
+            socket = null;
+            if (closed) {
+                setStateLocked(State.DISCONNECTED);
+                return;
+            }
+            failures++;
+            setStateLocked(State.RECONNECTING);
+            try {
+                executor.schedule(this::reconnect, backoffMillis(failures), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closed meanwhile
+            }
+            unsent = takeWindowLocked();
+        }
+        spill(unsent);
+    }
+
+    // Empties the window if a spill will take it, otherwise leaves it to be replayed
+    private List<Frame> takeWindowLocked() {
+        if (spill == null || unacked.isEmpty()) {
+            return null;
+        }
+        List<Frame> frames = new ArrayList<>(unacked);
+        unacked.clear();
+        return frames;
+    }
+
+    private void spill(List<Frame> frames) {
+        if (frames == null) {
+            return;
+        }
+        for (Frame frame : frames) {
+            spill.onUnacked(frame.channel, frame.timestampMillis, frame.data);
+        }
+        spilled.addAndGet(frames.size());
+    }
+
+    private synchronized void reconnect() {
+        if (!closed && socket == null) {
+            openLocked();
+        }
+    }
+
+    // initial * 2^(failures - 1), capped
+    long backoffMillis(int failures) {
+        long delay = initialBackoffMillis << Math.min(failures - 1, 30);
+        return delay < 0 || delay > maxBackoffMillis ? maxBackoffMillis : delay;
+    }
+
+    private void setStateLocked(State newState) {
+        if (state == newState) {
+            return;
+        }
+        state = newState;
+        for (Listener listener : listeners) {
+            listener.onStateChanged(newState);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean isConnected() {
+        return state == State.CONNECTED;
+    }
+
+    public synchronized int getPendingCount() {
+        return unacked.size();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    // Frames sent again after a reconnect because their ack never arrived
+    public long getResentCount() {
+        return resent.get();
+    }
+
+    public long getAckedCount() {
+        return acked.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getCommandsReceived() {
+        return commandsReceived.get();
+    }
+
+    public long getReconnectCount() {
+        return reconnects.get();
+    }
+
+    // Records handed to the spill
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    // Hands the unacked window to the spill, or drops it if there is none
+    @Override
+    public void close() {
+        WebSocket current;
+        List<Frame> unsent;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            current = socket;
+            socket = null;
+            unsent = takeWindowLocked();
+            unacked.clear();
+            generation++;
+            setStateLocked(State.DISCONNECTED);
+        }
+        if (current != null) {
+            current.close(NORMAL_CLOSURE, null);
+        }
+        executor.shutdownNow();
+        spill(unsent);
+    }
+
+    /**
+     * Parses a JSON object whose values are all strings, numbers, booleans or null, which is
+     * every message the server sends. Values come back as their text; nested values are
+     * rejected with IllegalArgumentException.
+     */
+    static Map<String, String> parseFlatObject(String text) {
+        Map<String, String> values = new HashMap<>();
+        int[] position = {skipWhitespace(text, 0)};
+        expect(text, position, '{');
+        if (peek(text, position) == '}') {
+            return values;
+        }
+        while (true) {
+            String key = parseString(text, position);
+            expect(text, position, ':');
+            char c = peek(text, position);
+            String value;
+            if (c == '"') {
+                value = parseString(text, position);
+            } else if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("Nested value for " + key);
+            } else {
+                int start = position[0];
+                while (position[0] < text.length() && ",} \t\r\n".indexOf(text.charAt(position[0])) < 0) {
+                    position[0]++;
+                }
+                value = text.substring(start, position[0]);
+                if (value.isEmpty()) {
+                    throw new IllegalArgumentException("Missing value for " + key);
+                }
+                if ("null".equals(value)) {
+                    value = null;
+                }
+            }
+            values.put(key, value);
+            if (peek(text, position) == ',') {
+                position[0]++;
+                continue;
+            }
+            expect(text, position, '}');
+            return values;
+        }
+    }
+
+    private static String parseString(String text, int[] position) {
+        expect(text, position, '"');
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            if (position[0] >= text.length()) {
+                throw new IllegalArgumentException("Unterminated string");
+            }
+            char c = text.charAt(position[0]++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position[0] >= text.length()) {
+                throw new IllegalArgumentException("Unterminated escape");
+            }
+            char escaped = text.charAt(position[0]++);
+            switch (escaped) {
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (position[0] + 4 > text.length()) {
+                        throw new IllegalArgumentException("Truncated \\u escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(position[0], position[0] + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Bad \\u escape");
+                    }
+                    position[0] += 4;
+                    break;
+                default:
+                    value.append(escaped);
+            }
+        }
+    }
+
+    private static char peek(String text, int[] position) {
+        position[0] = skipWhitespace(text, position[0]);
+        if (position[0] >= text.length()) {
+            throw new IllegalArgumentException("Unexpected end of message");
+        }
+        return text.charAt(position[0]);
+    }
+
+    private static void expect(String text, int[] position, char c) {
+        if (peek(text, position) != c) {
+            throw new IllegalArgumentException("Expected '" + c + "' at " + position[0]);
+        }
+        position[0]++;
+    }
+
+    private static int skipWhitespace(String text, int position) {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static final class Frame {
+        final long seq;
+        final String text;
+        // What the record was made from, for the spill
+        final String channel;
+        final long timestampMillis;
+        final String data;
+        // 0 until first sent
+        long sentAtNanos;
+
+        Frame(long seq, String text, String channel, long timestampMillis, String data) {
+            this.seq = seq;
+            this.text = text;
+            this.channel = channel;
+            this.timestampMillis = timestampMillis;
+            this.data = data;
+        }
+    }
+
+    private final class SocketListener extends WebSocketListener {
+        private final int attempt;
+
+        SocketListener(int attempt) {
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            WebSocketSync.this.onOpen(attempt, webSocket);
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            WebSocketSync.this.onMessage(attempt, webSocket, text);
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(NORMAL_CLOSURE, null);
+        }
+
+        @Override
+        public void onClosed(WebSocket webSocket, int code, String reason) {
+            onDropped(attempt);
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            onDropped(attempt);
+        }
+    }
+
+    public static class Builder {
+        private final String url;
+        private OkHttpClient client;
+        private String deviceId;
+        private int maxUnacked = 1024;
+        private long heartbeatMillis = 15_000;
+        private long initialBackoffMillis = 1000;
+        private long maxBackoffMillis = 60_000;
+        private Spill spill;
+
+        public Builder(String url) {
+            this.url = url;
+        }
+
+        // Shares the client's connection pool and dispatcher, e.g. TelemetryUploader's
+        public Builder client(OkHttpClient client) {
+            this.client = client;
+            return this;
+        }
+
+        public Builder deviceId(String deviceId) {
+            this.deviceId = deviceId;
+            return this;
+        }
+
+        public Builder maxUnacked(int maxUnacked) {
+            if (maxUnacked <= 0) {
+                throw new IllegalArgumentException("maxUnacked must be positive");
+            }
+            this.maxUnacked = maxUnacked;
+            return this;
+        }
+
+        public Builder heartbeat(long interval, TimeUnit unit) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("heartbeat must be positive");
+            }
+            this.heartbeatMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        public Builder backoff(long initial, long max, TimeUnit unit) {
+            if (initial <= 0 || max < initial) {
+                throw new IllegalArgumentException("backoff must be positive and max >= initial");
+            }
+            this.initialBackoffMillis = unit.toMillis(initial);
+            this.maxBackoffMillis = unit.toMillis(max);
+            return this;
+        }
+
+        // Takes the unacked window on every drop and on close, instead of it being replayed or lost
+        public Builder spill(Spill spill) {
+            this.spill = spill;
+            return this;
+        }
+
+        public WebSocketSync build() {
+            if (client == null) {
+                client = new OkHttpClient();
+            }
+            return new WebSocketSync(this);
+        }
+    }
+}
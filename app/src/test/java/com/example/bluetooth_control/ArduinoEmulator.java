@@ -0,0 +1,390 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Emulates the relay sketch behind an HC-05 so the app's link pipeline can be exercised on a
+ * desktop JVM, either over a real TCP socket ({@link #listen()}) or an in-memory
+ * {@link LoopbackTransport} ({@link #loopback()}).
+ *
+ * Both directions are paced to the configured baud rate (10 bits per byte, as on the UART) and
+ * every reply or telemetry line can be held back by a random jitter. The stock sketch answers
+ * 'A'/'B' with "Relay ON"/"Relay OFF" lines; in framed mode it acks {@link CommandProtocol}
+ * frames instead. Telemetry lines carry a sequence number and the {@link Clock#nanoTime()}
+ * they were sent at, so tests in the same JVM can measure end-to-end latency.
+ *
+ * All pacing and jitter goes through a {@link Clock}. A test that swaps in a virtual one checks
+ * how long the UART would have taken without depending on how fast the machine runs.
+ */
+public class ArduinoEmulator implements Closeable {
+
+    public interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void sleepNanos(long nanos) {
+                LockSupport.parkNanos(nanos);
+            }
+        };
+
+        long nanoTime();
+
+        // May return early, callers re-check the time
+        void sleepNanos(long nanos);
+    }
+
+    private final int baudRate;
+    private final long jitterNanos;
+    private final long telemetryIntervalNanos;
+    private final boolean framed;
+    private final long seed;
+    private final Clock clock;
+
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private final AtomicLong commandsReceived = new AtomicLong();
+    private final AtomicLong linesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private volatile boolean relayOn;
+    private ServerSocket server;
+
+    private ArduinoEmulator(Builder builder) {
+        this.baudRate = builder.baudRate;
+        this.jitterNanos = builder.jitterNanos;
+        this.telemetryIntervalNanos = builder.telemetryIntervalNanos;
+        this.framed = builder.framed;
+        this.seed = builder.seed;
+        this.clock = builder.clock;
+    }
+
+    /** Starts accepting TCP connections on an ephemeral localhost port, one session each. */
+    public synchronized TransportFactory listen() throws IOException {
+        if (server == null) {
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(this::acceptLoop, "arduino-emulator-accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        return new TcpTransport.Factory(server.getInetAddress().getHostAddress(), server.getLocalPort(), 1000);
+    }
+
+    /** Every connect opens a fresh in-memory link with its own session on the far end. */
+    public TransportFactory loopback() {
+        return () -> {
+            LoopbackTransport transport = new LoopbackTransport();
+            LoopbackTransport device = transport.getPeer();
+            startSession(device.getInputStream(), device.getOutputStream(), device);
+            return transport;
+        };
+    }
+
+    private void acceptLoop() {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                startSession(socket.getInputStream(), socket.getOutputStream(), socket);
+            }
+        } catch (IOException e) {
+            // Server closed
+        }
+    }
+
+    private void startSession(InputStream in, OutputStream out, Closeable link) {
+        Session session = new Session(in, out, link, sessionCount.incrementAndGet());
+        sessions.add(session);
+        session.start();
+    }
+
+    /** Sends {@code count} telemetry lines to every open session as fast as the baud rate allows. */
+    public void sendTelemetry(int count) {
+        for (Session session : sessions) {
+            for (int i = 0; i < count && session.sendTelemetryLine(); i++) {
+                // sendTelemetryLine() returns false once the link is gone
+            }
+        }
+    }
+
+    public boolean isRelayOn() {
+        return relayOn;
+    }
+
+    public long getCommandsReceived() {
+        return commandsReceived.get();
+    }
+
+    public long getLinesSent() {
+        return linesSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    // Drops every open link, as if the module lost power; the server keeps accepting
+    public void dropSessions() {
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+        dropSessions();
+    }
+
+    // Parses "t=<nanos>" out of a telemetry line, or returns -1
+    public static long sentAtNanos(CharSequence line) {
+        String text = line.toString();
+        int start = text.lastIndexOf("t=");
+        if (start < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(text.substring(start + 2).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private final class Session implements CommandProtocol.FrameListener {
+        private final InputStream in;
+        private final OutputStream out;
+        private final Closeable link;
+        private final Pacer inbound = new Pacer();
+        private final Pacer outbound = new Pacer();
+        private final Random random;
+        private final CommandProtocol.Decoder decoder = new CommandProtocol.Decoder(this);
+        private final StringBuilder line = new StringBuilder(64);
+        private final int id;
+        private volatile boolean closed;
+        private int sequence;
+
+        Session(InputStream in, OutputStream out, Closeable link, int id) {
+            this.in = in;
+            this.out = out;
+            this.link = link;
+            this.id = id;
+            this.random = new Random(seed + id);
+        }
+
+        void start() {
+            Thread reader = new Thread(this::readLoop, "arduino-emulator-" + id);
+            reader.setDaemon(true);
+            reader.start();
+            if (telemetryIntervalNanos > 0) {
+                Thread telemetry = new Thread(this::telemetryLoop, "arduino-emulator-telemetry-" + id);
+                telemetry.setDaemon(true);
+                telemetry.start();
+            }
+        }
+
+        private void readLoop() {
+            byte[] buffer = new byte[256];
+            try {
+                int numBytes;
+                while ((numBytes = in.read(buffer)) >= 0) {
+                    inbound.pace(numBytes);
+                    if (framed) {
+                        decoder.feed(buffer, 0, numBytes);
+                        continue;
+                    }
+                    for (int i = 0; i < numBytes; i++) {
+                        if (buffer[i] == 'A' || buffer[i] == 'B') {
+                            commandsReceived.incrementAndGet();
+                            relayOn = buffer[i] == 'A';
+                            sendLine(relayOn ? "Relay ON" : "Relay OFF");
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Link dropped
+            }
+            close();
+        }
+
+        private void telemetryLoop() {
+            long next = clock.nanoTime();
+            while (!closed) {
+                next += telemetryIntervalNanos;
+                long wait = next - clock.nanoTime();
+                if (wait > 0) {
+                    clock.sleepNanos(wait);
+                }
+                if (!sendTelemetryLine()) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onFrame(int address, int opcode, int seq, byte[] payload, int payloadLength) {
+            commandsReceived.incrementAndGet();
+            if (opcode == CommandProtocol.OP_SET_STATE && payloadLength >= 2) {
+                relayOn = payload[1] != 0;
+            }
+            try {
+                send(CommandProtocol.encode(address, CommandProtocol.OP_ACK, seq));
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        boolean sendTelemetryLine() {
+            try {
+                synchronized (this) {
+                    holdJitter();
+                    line.setLength(0);
+                    line.append("seq=").append(sequence++)
+                            .append(",temp=").append(20 + random.nextInt(100) / 10.0)
+                            .append(",light=").append(random.nextInt(1024))
+                            .append(",t=").append(clock.nanoTime()).append('\n');
+                    writePaced(line.toString().getBytes(StandardCharsets.US_ASCII));
+                    linesSent.incrementAndGet();
+                }
+                return true;
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+        }
+
+        private void sendLine(String text) throws IOException {
+            send((text + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        private synchronized void send(byte[] bytes) throws IOException {
+            holdJitter();
+            writePaced(bytes);
+        }
+
+        private void writePaced(byte[] bytes) throws IOException {
+            outbound.pace(bytes.length);
+            out.write(bytes);
+            out.flush();
+            bytesSent.addAndGet(bytes.length);
+        }
+
+        private void holdJitter() {
+            if (jitterNanos > 0) {
+                clock.sleepNanos((long) (random.nextDouble() * jitterNanos));
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            sessions.remove(this);
+            try {
+                link.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+
+    // Holds the caller until the UART would have shifted out every byte paced so far
+    private final class Pacer {
+        private long nextFreeNanos;
+
+        void pace(int bytes) {
+            if (baudRate <= 0) {
+                return;
+            }
+            long now = clock.nanoTime();
+            nextFreeNanos = Math.max(nextFreeNanos, now) + bytes * TimeUnit.SECONDS.toNanos(10) / baudRate;
+            long wait = nextFreeNanos - now;
+            while (wait > 0) {
+                clock.sleepNanos(wait);
+                wait = nextFreeNanos - clock.nanoTime();
+            }
+        }
+    }
+
+    public static class Builder {
+        private int baudRate = 9600;
+        private long jitterNanos;
+        private long telemetryIntervalNanos;
+        private boolean framed;
+        private long seed = 42;
+        private Clock clock = Clock.SYSTEM;
+
+        // 0 disables pacing
+        public Builder baudRate(int baudRate) {
+            if (baudRate < 0) {
+                throw new IllegalArgumentException("baudRate must not be negative");
+            }
+            this.baudRate = baudRate;
+            return this;
+        }
+
+        // Each reply or line waits a uniform random time up to this long
+        public Builder jitter(long jitter, TimeUnit unit) {
+            if (jitter < 0) {
+                throw new IllegalArgumentException("jitter must not be negative");
+            }
+            this.jitterNanos = unit.toNanos(jitter);
+            return this;
+        }
+
+        // 0 disables periodic telemetry, sendTelemetry() still works
+        public Builder telemetryInterval(long interval, TimeUnit unit) {
+            if (interval < 0) {
+                throw new IllegalArgumentException("interval must not be negative");
+            }
+            this.telemetryIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        // Speak CommandProtocol frames instead of the stock single-char commands
+        public Builder framed(boolean framed) {
+            this.framed = framed;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public ArduinoEmulator build() {
+            return new ArduinoEmulator(this);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CommandProtocolTest {
+
+    @Test
+    public void crc16_matchesCcittFalseCheckValue() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, CommandProtocol.crc16(check, 0, check.length));
+    }
+
+    @Test
+    public void decoder_roundTripsFramesSplitAcrossFeeds() {
+        List<String> frames = new ArrayList<>();
+        CommandProtocol.Decoder decoder = new CommandProtocol.Decoder(
+                (address, opcode, seq, payload, length) ->
+                        frames.add(address + "/" + opcode + "/" + seq + "/" + Arrays.toString(Arrays.copyOf(payload, length))));
+
+        byte[] first = CommandProtocol.encode(3, CommandProtocol.OP_SET_PWM, 7, (byte) 1, (byte) 200);
+        byte[] second = CommandProtocol.encode(0, CommandProtocol.OP_PING, 255);
+        byte[] stream = new byte[first.length + second.length + 3];
+        stream[0] = 'x';
+        stream[1] = 'y';
+        System.arraycopy(first, 0, stream, 2, first.length);
+        stream[2 + first.length] = '\n';
+        System.arraycopy(second, 0, stream, 3 + first.length, second.length);
+
+        for (byte b : stream) {
+            decoder.feed(new byte[]{b}, 0, 1);
+        }
+
+        assertEquals(Arrays.asList("3/3/7/[1, -56]", "0/1/255/[]"), frames);
+    }
+
+    @Test
+    public void decoder_dropsCorruptFrameAndResyncs() {
+        List<Integer> seqs = new ArrayList<>();
+        CommandProtocol.Decoder decoder = new CommandProtocol.Decoder(
+                (address, opcode, seq, payload, length) -> seqs.add(seq));
+
+        byte[] corrupt = CommandProtocol.encode(1, CommandProtocol.OP_SET_STATE, 1, (byte) 0, (byte) 1);
+        corrupt[6] ^= 0x10;
+        byte[] good = CommandProtocol.encode(1, CommandProtocol.OP_SET_STATE, 2, (byte) 0, (byte) 1);
+
+        decoder.feed(corrupt, 0, corrupt.length);
+        decoder.feed(good, 0, good.length);
+
+        assertEquals(Arrays.asList(2), seqs);
+        assertEquals(1, decoder.getCrcErrorCount());
+    }
+
+    @Test
+    public void decoder_keepsAFrameThatStartsInsideABadOne() {
+        List<Integer> seqs = new ArrayList<>();
+        CommandProtocol.Decoder decoder = new CommandProtocol.Decoder(
+                (address, opcode, seq, payload, length) -> seqs.add(seq));
+
+        // Noise that looks like a frame start swallows the head of the real ack; the bad
+        // frame fails its CRC and the ack is found again from the 0xA5 inside it
+        byte[] noise = {(byte) 0xA5, 0x01, (byte) 0x80};
+        byte[] ack = new byte[CommandProtocol.MAX_FRAME_LENGTH];
+        int length = CommandProtocol.encode(1, CommandProtocol.OP_ACK, 7, new byte[0], 0, ack, 0);
+
+        decoder.feed(noise, 0, noise.length);
+        decoder.feed(ack, 0, length);
+
+        assertEquals(Arrays.asList(7), seqs);
+        assertEquals(1, decoder.getCrcErrorCount());
+    }
+
+    @Test
+    public void channel_pipelinesCommandsAndMeasuresRoundTrip() throws Exception {
+        try (SimulatedArduino arduino = new SimulatedArduino(0, TimeUnit.NANOSECONDS, 0)) {
+            CommandChannel channel = new CommandChannel(arduino.getAppOutputStream(), 8, 1, TimeUnit.SECONDS, 0);
+            channel.start(arduino.getAppInputStream());
+
+            int commands = 200;
+            CountDownLatch done = new CountDownLatch(commands);
+            AtomicInteger failures = new AtomicInteger();
+            for (int i = 0; i < commands; i++) {
+                channel.send(1, CommandProtocol.OP_SET_PWM, new byte[]{2, (byte) i}, new LatchCallback(done, failures));
+                assertTrue(channel.getInFlightCount() <= 8);
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(0, failures.get());
+            assertEquals(commands, channel.getAckedCount());
+            assertEquals(199, arduino.getOutput(2));
+            assertTrue(channel.getAverageRoundTripNanos() > 0);
+            channel.close();
+        }
+    }
+
+    @Test
+    public void channel_retransmitsWhenAckIsLost() throws Exception {
+        // Every third frame vanishes on the device side
+        try (SimulatedArduino arduino = new SimulatedArduino(0, TimeUnit.NANOSECONDS, 3)) {
+            CommandChannel channel = new CommandChannel(arduino.getAppOutputStream(), 4, 50, TimeUnit.MILLISECONDS, 3);
+            channel.start(arduino.getAppInputStream());
+
+            int commands = 30;
+            CountDownLatch done = new CountDownLatch(commands);
+            AtomicInteger failures = new AtomicInteger();
+            for (int i = 0; i < commands; i++) {
+                channel.send(1, CommandProtocol.OP_SET_STATE, new byte[]{0, (byte) (i & 1)}, new LatchCallback(done, failures));
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(0, failures.get());
+            assertTrue(channel.getRetryCount() > 0);
+            assertEquals(commands, channel.getAckedCount());
+            channel.close();
+        }
+    }
+
+    @Test
+    public void channel_failsAfterRetriesAreExhausted() throws Exception {
+        try (SimulatedArduino arduino = new SimulatedArduino(0, TimeUnit.NANOSECONDS, 1)) {
+            CommandChannel channel = new CommandChannel(arduino.getAppOutputStream(), 1, 20, TimeUnit.MILLISECONDS, 2);
+            channel.start(arduino.getAppInputStream());
+
+            CountDownLatch done = new CountDownLatch(1);
+            AtomicInteger failures = new AtomicInteger();
+            channel.send(1, CommandProtocol.OP_PING, new byte[0], new LatchCallback(done, failures));
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(1, failures.get());
+            assertEquals(2, channel.getRetryCount());
+            assertEquals(3, arduino.getReceivedCount());
+            assertEquals(0, channel.getInFlightCount());
+            channel.close();
+        }
+    }
+
+    @Test
+    public void channel_skipsSequenceNumbersStillInFlight() throws Exception {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        CommandChannel channel = new CommandChannel(wire, 2, 1, TimeUnit.HOURS, 0);
+        CountDownLatch slow = new CountDownLatch(1);
+        AtomicInteger failures = new AtomicInteger();
+        assertEquals(0, channel.send(1, CommandProtocol.OP_PING, new byte[0], new LatchCallback(slow, failures)));
+
+        // Go all the way round the sequence space while seq 0 waits for its ack
+        for (int i = 1; i < 256; i++) {
+            assertEquals(i, channel.send(1, CommandProtocol.OP_PING, new byte[0], null));
+            ack(channel, i);
+        }
+        CountDownLatch next = new CountDownLatch(1);
+        assertEquals(1, channel.send(1, CommandProtocol.OP_PING, new byte[0], new LatchCallback(next, failures)));
+
+        ack(channel, 0);
+        assertEquals(0, slow.getCount());
+        assertEquals(1, next.getCount());
+        ack(channel, 1);
+        assertEquals(0, next.getCount());
+        assertEquals(0, failures.get());
+        channel.close();
+    }
+
+    @Test
+    public void channel_closeFailsPendingCommands() throws Exception {
+        CommandChannel channel = new CommandChannel(new ByteArrayOutputStream(), 4, 1, TimeUnit.HOURS, 0);
+        CountDownLatch done = new CountDownLatch(3);
+        AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            channel.send(1, CommandProtocol.OP_PING, new byte[0], new LatchCallback(done, failures));
+        }
+        assertEquals(3, channel.getInFlightCount());
+
+        channel.close();
+
+        assertEquals(0, done.getCount());
+        assertEquals(3, failures.get());
+        assertEquals(0, channel.getInFlightCount());
+        try {
+            channel.send(1, CommandProtocol.OP_PING, new byte[0], null);
+            fail("send after close");
+        } catch (IOException expected) {
+            assertEquals(0, channel.getInFlightCount());
+        }
+    }
+
+    private static void ack(CommandChannel channel, int seq) {
+        byte[] frame = new byte[CommandProtocol.MAX_FRAME_LENGTH];
+        int length = CommandProtocol.encode(1, CommandProtocol.OP_ACK, seq, new byte[0], 0, frame, 0);
+        channel.onBytesReceived(frame, 0, length);
+    }
+
+    private static class LatchCallback implements CommandChannel.Callback {
+        private final CountDownLatch latch;
+        private final AtomicInteger failures;
+
+        LatchCallback(CountDownLatch latch, AtomicInteger failures) {
+            this.latch = latch;
+            this.failures = failures;
+        }
+
+        @Override
+        public void onAck(int seq, long roundTripNanos) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(int seq, Exception e) {
+            failures.incrementAndGet();
+            latch.countDown();
+        }
+    }
+}
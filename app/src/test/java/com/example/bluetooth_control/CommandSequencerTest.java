@@ -0,0 +1,237 @@
+package com.example.bluetooth_control;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.*;
+
+public class CommandSequencerTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final byte[] ON = {'A'};
+    private static final byte[] OFF = {'B'};
+
+    // Command and when it was dispatched, in order
+    private final List<String> sent = new ArrayList<>();
+    private final List<Long> sentAt = new ArrayList<>();
+    private CommandSequencer.Clock clock = CommandSequencer.Clock.SYSTEM;
+    private CommandSequencer sequencer;
+
+    @After
+    public void tearDown() {
+        if (sequencer != null) {
+            sequencer.close();
+        }
+    }
+
+    @Test
+    public void blinkKeepsItsScheduleAndOrder() throws Exception {
+        clock = new VirtualClock();
+        sequencer = new CommandSequencer(this::record, 1, TimeUnit.MILLISECONDS, 64, clock);
+        CommandSequencer.Sequence blink = new CommandSequencer.Sequence.Builder("blink")
+                .send("relay", ON).pause(10, TimeUnit.MILLISECONDS)
+                .send("relay", OFF).pause(10, TimeUnit.MILLISECONDS)
+                .repeat(10)
+                .build();
+
+        CommandSequencer.Playback playback = sequencer.play(blink);
+        awaitDone(playback);
+
+        assertEquals(20, playback.getSentCount());
+        synchronized (sent) {
+            assertEquals(20, sent.size());
+            for (int i = 0; i < sent.size(); i++) {
+                assertEquals(i % 2 == 0 ? "relay:A" : "relay:B", sent.get(i));
+                // Virtual time starts at the wheel's tick 0, and each step goes out on its own
+                // tick: every tenth, past more than one turn of the 64 tick wheel
+                assertEquals("step " + i, i * 10, sentAt.get(i) / MILLI);
+                assertEquals("step " + i, playback.startNanos + i * 10 * MILLI, (long) sentAt.get(i));
+            }
+        }
+        assertEquals(20, sequencer.getLateness().snapshot().getCount());
+        assertEquals(0, sequencer.getLateness().snapshot().getMax());
+    }
+
+    @Test
+    public void thousandsOfPlaybacksEachFireOnceAndNeverEarly() throws Exception {
+        // A small wheel, so most of them have to wait out several turns
+        AtomicLongArray firedAt = new AtomicLongArray(5000);
+        AtomicInteger duplicates = new AtomicInteger();
+        sequencer = new CommandSequencer((target, command) -> {
+            if (!firedAt.compareAndSet(Integer.parseInt(target), 0, System.nanoTime())) {
+                duplicates.incrementAndGet();
+            }
+            return true;
+        }, 1, TimeUnit.MILLISECONDS, 64);
+        Random random = new Random(9);
+        long[] due = new long[firedAt.length()];
+        List<CommandSequencer.Playback> playbacks = new ArrayList<>();
+        for (int i = 0; i < due.length; i++) {
+            CommandSequencer.Sequence once = new CommandSequencer.Sequence.Builder("once")
+                    .send(Integer.toString(i), ON)
+                    .build();
+            CommandSequencer.Playback playback = sequencer.play(once, random.nextInt(300), TimeUnit.MILLISECONDS);
+            due[i] = playback.startNanos;
+            playbacks.add(playback);
+        }
+        for (CommandSequencer.Playback playback : playbacks) {
+            awaitDone(playback);
+        }
+
+        assertEquals(0, duplicates.get());
+        for (int i = 0; i < due.length; i++) {
+            assertTrue("playback " + i + " early", firedAt.get(i) >= due[i]);
+        }
+        assertEquals(due.length, sequencer.getDispatchedCount());
+    }
+
+    @Test
+    public void cancelStopsASequenceThatWouldRunForever() throws Exception {
+        sequencer = new CommandSequencer(this::record);
+        CommandSequencer.Playback playback = sequencer.play(new CommandSequencer.Sequence.Builder("flash")
+                .send("relay", ON).pause(2, TimeUnit.MILLISECONDS)
+                .send("relay", OFF).pause(2, TimeUnit.MILLISECONDS)
+                .forever()
+                .build());
+        while (playback.getSentCount() < 10) {
+            Thread.sleep(1);
+        }
+
+        playback.cancel();
+        assertTrue(playback.isDone());
+        long count = sentCount();
+        Thread.sleep(30);
+        // At most the step that was being sent as it was cancelled
+        assertTrue(sentCount() <= count + 1);
+    }
+
+    @Test
+    public void stepsFoundLateAreSentAtOnceInOrder() throws Exception {
+        clock = new VirtualClock();
+        AtomicInteger calls = new AtomicInteger();
+        sequencer = new CommandSequencer((target, command) -> {
+            boolean recorded = record(target, command);
+            if (calls.getAndIncrement() == 0) {
+                // The first write holds the thread past the next three steps
+                clock.sleepNanos(35 * MILLI);
+            }
+            return recorded;
+        }, 1, TimeUnit.MILLISECONDS, 64, clock);
+        CommandSequencer.Sequence.Builder ramp = new CommandSequencer.Sequence.Builder("ramp");
+        for (int i = 0; i < 6; i++) {
+            ramp.send("out" + i, ON).pause(10, TimeUnit.MILLISECONDS);
+        }
+        CommandSequencer.Playback playback = sequencer.play(ramp.build());
+        awaitDone(playback);
+
+        synchronized (sent) {
+            assertEquals(6, sent.size());
+            for (int i = 0; i < 6; i++) {
+                assertEquals("out" + i + ":A", sent.get(i));
+            }
+            // Steps 1 to 3 went out together once the write returned, the rest kept the
+            // original schedule
+            long[] expected = {0, 35, 35, 35, 40, 50};
+            for (int i = 0; i < 6; i++) {
+                assertEquals("step " + i, playback.startNanos + expected[i] * MILLI, (long) sentAt.get(i));
+            }
+        }
+        assertEquals(25 * MILLI, sequencer.getLateness().snapshot().getMax());
+    }
+
+    @Test
+    public void macrosArePlayedByName() throws Exception {
+        sequencer = new CommandSequencer(this::record);
+        sequencer.define(new CommandSequencer.Sequence.Builder("pulse")
+                .send("relay", ON).pause(5, TimeUnit.MILLISECONDS).send("relay", OFF)
+                .build());
+
+        awaitDone(sequencer.play("pulse"));
+        synchronized (sent) {
+            assertEquals(2, sent.size());
+            assertEquals("relay:B", sent.get(1));
+        }
+        try {
+            sequencer.play("missing");
+            fail("played an undefined macro");
+        } catch (IllegalArgumentException expected) {
+            // No such macro
+        }
+    }
+
+    @Test
+    public void refusedCommandsAreCountedAndTheSequenceCarriesOn() throws Exception {
+        sequencer = new CommandSequencer((target, command) -> false);
+        CommandSequencer.Playback playback = sequencer.play(new CommandSequencer.Sequence.Builder("down")
+                .send("relay", ON).pause(1, TimeUnit.MILLISECONDS)
+                .repeat(3)
+                .build());
+        awaitDone(playback);
+
+        assertEquals(3, playback.getSentCount());
+        assertEquals(3, sequencer.getDispatchFailures());
+        assertEquals(0, sequencer.getDispatchedCount());
+    }
+
+    @Test
+    public void closeAbandonsWhatIsStillPending() throws Exception {
+        sequencer = new CommandSequencer(this::record);
+        CommandSequencer.Playback later = sequencer.play(new CommandSequencer.Sequence.Builder("later")
+                .send("relay", ON).build(), 10, TimeUnit.SECONDS);
+
+        sequencer.close();
+        awaitDone(later);
+        assertEquals(0, sentCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void repeatingWithoutAPauseIsRejected() {
+        new CommandSequencer.Sequence.Builder("tight").send("relay", ON).send("relay", OFF).repeat(5).build();
+    }
+
+    private boolean record(String target, byte[] command) {
+        long now = clock.nanoTime();
+        synchronized (sent) {
+            sent.add(target + ":" + (char) command[0]);
+            sentAt.add(now);
+        }
+        return true;
+    }
+
+    private long sentCount() {
+        synchronized (sent) {
+            return sent.size();
+        }
+    }
+
+    private static void awaitDone(CommandSequencer.Playback playback) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!playback.isDone()) {
+            assertTrue("playback not done", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    // Only the sequencer thread sleeps on it, so time moves exactly as far as the wheel waits
+    private static final class VirtualClock implements CommandSequencer.Clock {
+        private final AtomicLong now = new AtomicLong();
+
+        @Override
+        public long nanoTime() {
+            return now.get();
+        }
+
+        @Override
+        public void sleepNanos(long nanos) {
+            now.addAndGet(nanos);
+        }
+    }
+}
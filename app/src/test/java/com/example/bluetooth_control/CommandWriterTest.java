@@ -0,0 +1,335 @@
+package com.example.bluetooth_control;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CommandWriterTest {
+
+    private CommandWriter writer;
+    private GatedStream stream;
+    private final List<String> written = new ArrayList<>();
+    private final List<Long> latencies = new ArrayList<>();
+    // Filled on the writer thread, checked on the test thread
+    private final List<String> failures = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        if (stream != null) {
+            stream.release();
+        }
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void submitNeverBlocksWhileTheStreamIsStuck() throws Exception {
+        stream = new GatedStream();
+        writer = new CommandWriter.Builder(stream).capacity(16).callback(recorder()).build();
+        writer.submit("first", bytes("x"));
+        assertTrue(stream.awaitBlocked());
+
+        // Bursty taps from the UI thread: repeated toggles plus distinct commands past capacity.
+        // Returning at all shows submit never waits for the stream; its cost is measured by
+        // HotPathBenchmark.submitCommandWhileStuck
+        int accepted = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (writer.submit(i % 4 == 0 ? "cmd-" + i : "relay", bytes(i % 2 == 0 ? "A" : "B"))) {
+                accepted++;
+            }
+        }
+
+        assertEquals(16, writer.getQueuedCount());
+        // 500 distinct commands: the first 15 fit beside "relay", the rest are refused
+        assertEquals(485, writer.getDroppedCount());
+        assertEquals(1499, writer.getCoalescedCount());
+        assertEquals(2000 - 485, accepted);
+        assertNoFailures();
+    }
+
+    @Test
+    public void queuedTogglesCoalesceToTheLastState() throws Exception {
+        stream = new GatedStream();
+        writer = new CommandWriter.Builder(stream).callback(recorder()).build();
+        writer.submit("relay", bytes("A"));
+        assertTrue(stream.awaitBlocked());
+
+        for (String state : new String[]{"A", "B", "A", "B", "B"}) {
+            assertTrue(writer.submit("relay", bytes(state)));
+        }
+        stream.release();
+
+        awaitWritten(2);
+        assertEquals(Arrays.asList("A", "B"), snapshot());
+        assertEquals(4, writer.getCoalescedCount());
+        assertEquals(2, writer.getWrittenCount());
+    }
+
+    @Test
+    public void urgentCommandsJumpTheQueue() throws Exception {
+        stream = new GatedStream();
+        writer = new CommandWriter.Builder(stream).callback(recorder()).build();
+        writer.submit("busy", bytes("x"));
+        assertTrue(stream.awaitBlocked());
+
+        writer.submit("a", bytes("a"));
+        writer.submit(null, bytes("b"));
+        writer.submit("off", bytes("OFF"), CommandWriter.Priority.URGENT);
+        stream.release();
+
+        awaitWritten(4);
+        assertEquals(Arrays.asList("x", "OFF", "a", "b"), snapshot());
+    }
+
+    @Test
+    public void urgentCommandTakesOverAQueuedOneWithTheSameKey() throws Exception {
+        stream = new GatedStream();
+        writer = new CommandWriter.Builder(stream).callback(recorder()).build();
+        writer.submit("busy", bytes("x"));
+        assertTrue(stream.awaitBlocked());
+
+        writer.submit("relay", bytes("A"));
+        writer.submit("other", bytes("C"));
+        writer.submit("relay", bytes("B"), CommandWriter.Priority.URGENT);
+        stream.release();
+
+        awaitWritten(3);
+        assertEquals(Arrays.asList("x", "B", "C"), snapshot());
+    }
+
+    @Test
+    public void fullQueueRefusesNormalCommandsButUrgentOnesEvictTheOldest() throws Exception {
+        stream = new GatedStream();
+        writer = new CommandWriter.Builder(stream).capacity(2).callback(recorder()).build();
+        writer.submit("busy", bytes("x"));
+        assertTrue(stream.awaitBlocked());
+
+        assertTrue(writer.submit("n1", bytes("n1")));
+        assertTrue(writer.submit("n2", bytes("n2")));
+        assertFalse(writer.submit("n3", bytes("n3")));
+        assertTrue(writer.submit("off", bytes("OFF"), CommandWriter.Priority.URGENT));
+        stream.release();
+
+        awaitWritten(3);
+        assertEquals(Arrays.asList("x", "OFF", "n2"), snapshot());
+        assertEquals(2, writer.getDroppedCount());
+    }
+
+    @Test
+    public void writesArePacedToTheBaudRate() throws Exception {
+        int baud = 9600;
+        LoopbackTransport link = new LoopbackTransport();
+        writer = new CommandWriter.Builder(link.getOutputStream()).baudRate(baud).capacity(64).callback(recorder()).build();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            writer.submit("cmd-" + i, bytes("AB"));
+        }
+        awaitWritten(50);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 49 commands wait for the 2 bytes before them: 98 bytes at 960 B/s
+        long wireMillis = 98 * 10 * 1000L / baud;
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis >= wireMillis * 9 / 10);
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < wireMillis * 5);
+        link.close();
+    }
+
+    @Test
+    public void writeFailuresAreReported() throws Exception {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("link lost");
+            }
+        };
+        writer = new CommandWriter.Builder(broken).callback(recorder()).build();
+
+        writer.submit("relay", bytes("A"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        synchronized (written) {
+            while (failures.isEmpty() && System.currentTimeMillis() < deadline) {
+                written.wait(deadline - System.currentTimeMillis());
+            }
+            assertEquals(Arrays.asList("relay: link lost"), failures);
+        }
+        assertEquals(0, writer.getWrittenCount());
+    }
+
+    @Test
+    public void closingDuringAWriteIsNotReportedAsAFailure() throws Exception {
+        stream = new GatedStream();
+        writer = new CommandWriter.Builder(stream).callback(recorder()).build();
+        writer.submit("relay", bytes("A"));
+        assertTrue(stream.awaitBlocked());
+
+        // The interrupt makes the blocked write throw, as closing a socket would
+        writer.close();
+        stream.getWriterThread().join(5000);
+
+        assertFalse(stream.getWriterThread().isAlive());
+        assertNoFailures();
+        assertEquals(0, writer.getWrittenCount());
+    }
+
+    @Test
+    public void closedWriterRefusesCommands() {
+        writer = new CommandWriter.Builder(new LoopbackTransport().getOutputStream()).build();
+        writer.close();
+
+        assertFalse(writer.submit("relay", bytes("A")));
+    }
+
+    @Test
+    public void burstyTapsReachTheEmulatedRelayWithBoundedLatency() throws Exception {
+        int baud = 9600;
+        ArduinoEmulator emulator = new ArduinoEmulator.Builder().baudRate(baud).build();
+        Transport link = emulator.loopback().connect();
+        drain(link.getInputStream());
+        writer = new CommandWriter.Builder(link.getOutputStream()).baudRate(baud).callback(recorder()).build();
+
+        int bursts = 5;
+        int tapsPerBurst = 20;
+        long[] settleMillis = new long[bursts];
+        for (int burst = 0; burst < bursts; burst++) {
+            boolean on = false;
+            for (int tap = 0; tap < tapsPerBurst; tap++) {
+                on = (tap + burst) % 2 == 0;
+                writer.submit("relay", bytes(on ? "A" : "B"));
+                Thread.sleep(1);
+            }
+            long lastTap = System.nanoTime();
+            long deadline = lastTap + TimeUnit.SECONDS.toNanos(5);
+            while (emulator.isRelayOn() != on || writer.getQueuedCount() > 0) {
+                assertTrue("relay never settled", System.nanoTime() < deadline);
+                Thread.sleep(1);
+            }
+            settleMillis[burst] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastTap);
+            Thread.sleep(20);
+        }
+
+        for (long millis : settleMillis) {
+            // A handful of 1-byte commands at 9600 baud is a few ms on the wire
+            assertTrue("settled after " + Arrays.toString(settleMillis) + "ms", millis < 200);
+        }
+        // Each burst collapses to a few writes instead of one per tap
+        assertTrue("device saw " + emulator.getCommandsReceived(), emulator.getCommandsReceived() < bursts * tapsPerBurst / 2);
+        synchronized (latencies) {
+            for (long latency : latencies) {
+                assertTrue("write latency " + latency + "ns", latency < TimeUnit.MILLISECONDS.toNanos(200));
+            }
+        }
+        link.close();
+        emulator.close();
+    }
+
+    private CommandWriter.Callback recorder() {
+        return new CommandWriter.Callback() {
+            @Override
+            public void onWritten(String key, byte[] data, long latencyNanos) {
+                synchronized (written) {
+                    written.add(new String(data));
+                    latencies.add(latencyNanos);
+                    written.notifyAll();
+                }
+            }
+
+            @Override
+            public void onFailure(String key, IOException e) {
+                synchronized (written) {
+                    failures.add(key + ": " + e.getMessage());
+                    written.notifyAll();
+                }
+            }
+        };
+    }
+
+    private void assertNoFailures() {
+        synchronized (written) {
+            assertEquals(new ArrayList<String>(), failures);
+        }
+    }
+
+    private List<String> snapshot() {
+        synchronized (written) {
+            return new ArrayList<>(written);
+        }
+    }
+
+    private void awaitWritten(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        synchronized (written) {
+            while (written.size() < count && System.currentTimeMillis() < deadline) {
+                written.wait(deadline - System.currentTimeMillis());
+            }
+            assertEquals(count, written.size());
+            assertEquals(new ArrayList<String>(), failures);
+        }
+    }
+
+    private static void drain(InputStream in) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[256];
+            try {
+                while (in.read(buffer) >= 0) {
+                    // The emulator's "Relay ON/OFF" replies
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }, "test-drain");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes();
+    }
+
+    // Blocks the first write until released, like an RFCOMM socket whose buffer is full
+    private static final class GatedStream extends OutputStream {
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private volatile Thread writerThread;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writerThread = Thread.currentThread();
+            blocked.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        boolean awaitBlocked() throws InterruptedException {
+            return blocked.await(5, TimeUnit.SECONDS);
+        }
+
+        Thread getWriterThread() {
+            return writerThread;
+        }
+
+        void release() {
+            gate.countDown();
+        }
+    }
+}
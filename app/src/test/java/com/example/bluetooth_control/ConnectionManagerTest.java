@@ -0,0 +1,238 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConnectionManagerTest {
+
+    @Test
+    public void connect_doesNotBlockTheCallerWhileTheSocketConnects() throws Exception {
+        ConnectionManager manager = new ConnectionManager(10, 100, 3);
+        FakeFactory factory = new FakeFactory(300, 0);
+        CountDownLatch connected = awaitState(manager, ConnectionManager.State.CONNECTED);
+
+        long start = System.nanoTime();
+        ConnectionManager.Client client = manager.connect(factory);
+        long blockedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Stands in for the UI thread: it must come back long before the 300ms connect
+        assertTrue("caller blocked for " + blockedMillis + "ms", blockedMillis < 50);
+        assertEquals(ConnectionManager.State.CONNECTING, manager.getState());
+
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+        assertNotNull(client.getTransport());
+        assertTrue(manager.getLastConnectMillis() >= 300);
+        client.close();
+    }
+
+    @Test
+    public void link_staysOpenUntilTheLastClientReleases() throws Exception {
+        ConnectionManager manager = new ConnectionManager(10, 100, 3);
+        CountDownLatch connected = awaitState(manager, ConnectionManager.State.CONNECTED);
+        ConnectionManager.Client main = manager.connect(new FakeFactory(0, 0));
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+        ConnectionManager.Client control = manager.acquire();
+        ConnectionManager.Client terminal = manager.acquire();
+        FakeTransport transport = (FakeTransport) manager.getTransport();
+
+        // Leaving the control screen must not kill the terminal's link
+        control.close();
+        control.close();
+        assertFalse(transport.closed);
+        assertEquals(2, manager.getClientCount());
+
+        terminal.close();
+        main.close();
+        assertTrue(transport.closed);
+        assertEquals(ConnectionManager.State.DISCONNECTED, manager.getState());
+    }
+
+    @Test
+    public void reportFailure_reconnectsWithExponentialBackoff() throws Exception {
+        ConnectionManager manager = new ConnectionManager(40, 1000, 5);
+        FakeFactory factory = new FakeFactory(0, 0);
+        CountDownLatch connected = awaitState(manager, ConnectionManager.State.CONNECTED);
+        ConnectionManager.Client client = manager.connect(factory);
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+        List<ConnectionManager.State> states = new CopyOnWriteArrayList<>();
+        CountDownLatch reconnected = new CountDownLatch(1);
+        manager.addListener(state -> {
+            states.add(state);
+            if (state == ConnectionManager.State.CONNECTED && states.size() > 1) {
+                reconnected.countDown();
+            }
+        });
+
+        // Immediate retry fails, then two backed-off retries at 40ms and 80ms
+        factory.failNext(2);
+        Transport broken = client.getTransport();
+        client.reportFailure(broken, new IOException("link lost"));
+
+        assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(ConnectionManager.State.RECONNECTING, states.get(1));
+        assertEquals(1, manager.getReconnectCount());
+        assertTrue("reconnect took " + manager.getLastReconnectMillis() + "ms", manager.getLastReconnectMillis() >= 120);
+        assertNotSame(broken, client.getTransport());
+        assertTrue(((FakeTransport) broken).closed);
+
+        // A late report about the old transport is ignored
+        client.reportFailure(broken, new IOException("stale"));
+        assertEquals(ConnectionManager.State.CONNECTED, manager.getState());
+        client.close();
+    }
+
+    @Test
+    public void reader_failingOnItsFirstReadIsPublishedAfterConnected() throws Exception {
+        ConnectionManager manager = new ConnectionManager(10, 100, 3);
+        List<ConnectionManager.State> states = new CopyOnWriteArrayList<>();
+        CountDownLatch reconnected = new CountDownLatch(1);
+        manager.addListener(state -> {
+            states.add(state);
+            if (state == ConnectionManager.State.CONNECTED && states.size() > 3) {
+                reconnected.countDown();
+            }
+        });
+
+        // The first transport's stream throws as soon as the reader touches it
+        AtomicInteger transports = new AtomicInteger();
+        ConnectionManager.Client client = manager.connect(() -> {
+            FakeTransport transport = new FakeTransport();
+            if (transports.getAndIncrement() == 0) {
+                transport.close();
+            }
+            return transport;
+        });
+
+        assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(ConnectionManager.State.DISCONNECTED, ConnectionManager.State.CONNECTING,
+                ConnectionManager.State.CONNECTED, ConnectionManager.State.RECONNECTING,
+                ConnectionManager.State.CONNECTED), states);
+        assertEquals(ConnectionManager.State.CONNECTED, manager.getState());
+        assertNotNull(client.getTransport());
+        assertEquals(2, transports.get());
+        client.close();
+    }
+
+    @Test
+    public void connect_givesUpAfterMaxAttempts() throws Exception {
+        ConnectionManager manager = new ConnectionManager(1, 5, 3);
+        FakeFactory factory = new FakeFactory(0, 0);
+        factory.failNext(Integer.MAX_VALUE);
+
+        CountDownLatch disconnected = new CountDownLatch(1);
+        ConnectionManager.Client client = manager.connect(factory);
+        manager.addListener(state -> {
+            if (state == ConnectionManager.State.DISCONNECTED) {
+                disconnected.countDown();
+            }
+        });
+
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(3, factory.attempts.get());
+        assertNotNull(manager.getLastError());
+        client.close();
+    }
+
+    @Test
+    public void backoff_doublesAndIsCapped() {
+        ConnectionManager manager = new ConnectionManager(500, 30_000, 10);
+        assertEquals(500, manager.backoffMillis(1));
+        assertEquals(1000, manager.backoffMillis(2));
+        assertEquals(16_000, manager.backoffMillis(6));
+        assertEquals(30_000, manager.backoffMillis(7));
+        assertEquals(30_000, manager.backoffMillis(100));
+    }
+
+    private static CountDownLatch awaitState(ConnectionManager manager, ConnectionManager.State wanted) {
+        CountDownLatch latch = new CountDownLatch(1);
+        manager.addListener(state -> {
+            if (state == wanted) {
+                latch.countDown();
+            }
+        });
+        return latch;
+    }
+
+    // Fake socket factory: optional connect delay and a number of failures to inject
+    private static class FakeFactory implements TransportFactory {
+        private final long connectMillis;
+        private final AtomicInteger failuresLeft;
+        final AtomicInteger attempts = new AtomicInteger();
+
+        FakeFactory(long connectMillis, int failures) {
+            this.connectMillis = connectMillis;
+            this.failuresLeft = new AtomicInteger(failures);
+        }
+
+        void failNext(int failures) {
+            failuresLeft.set(failures);
+        }
+
+        @Override
+        public Transport connect() throws IOException {
+            attempts.incrementAndGet();
+            if (connectMillis > 0) {
+                try {
+                    Thread.sleep(connectMillis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new IOException("connect failed");
+            }
+            return new FakeTransport();
+        }
+    }
+
+    private static class FakeTransport implements Transport {
+        private final CountDownLatch closedLatch = new CountDownLatch(1);
+        volatile boolean closed;
+
+        // Blocks like an idle socket until the transport is closed
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    try {
+                        closedLatch.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    throw new IOException("Socket closed");
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return !closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            closedLatch.countDown();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class DataBusTest {
+
+    @Test
+    public void everySubscriberSeesEveryChunkInOrder() {
+        DataBus bus = new DataBus(16, 8);
+        DataBus.Subscription terminal = bus.subscribe("terminal", DataBus.OverflowPolicy.DROP);
+        DataBus.Subscription uploader = bus.subscribe("uploader", DataBus.OverflowPolicy.DROP);
+
+        // 20 bytes over 8 byte slots becomes three chunks
+        publish(bus, "temp=21.5\nhum=40.1\n!");
+
+        assertEquals("temp=21.5\nhum=40.1\n!", drain(terminal));
+        assertEquals("temp=21.5\nhum=40.1\n!", drain(uploader));
+        assertEquals(3, bus.getPublishedCount());
+        assertEquals(0, terminal.getDroppedCount());
+    }
+
+    @Test
+    public void subscribersOnlySeeDataPublishedAfterJoining() {
+        DataBus bus = new DataBus(4, 8);
+        publish(bus, "old");
+        DataBus.Subscription late = bus.subscribe("late", DataBus.OverflowPolicy.DROP);
+        publish(bus, "new");
+
+        assertEquals("new", drain(late));
+    }
+
+    @Test
+    public void slowSubscriberDropsOverwrittenChunks() {
+        DataBus bus = new DataBus(4, 4);
+        DataBus.Subscription slow = bus.subscribe("slow", DataBus.OverflowPolicy.DROP);
+        for (int i = 0; i < 10; i++) {
+            publish(bus, "c" + i);
+        }
+
+        assertEquals("c6c7c8c9", drain(slow));
+        assertEquals(6, slow.getDroppedCount());
+    }
+
+    @Test
+    public void latestOnlySkipsToNewestChunk() {
+        DataBus bus = new DataBus(8, 4);
+        DataBus.Subscription status = bus.subscribe("status", DataBus.OverflowPolicy.LATEST_ONLY);
+        publish(bus, "a");
+        publish(bus, "b");
+        publish(bus, "c");
+
+        assertEquals("c", drain(status));
+        assertEquals(2, status.getDroppedCount());
+        assertEquals(0, status.getBacklog());
+    }
+
+    @Test
+    public void concurrentSubscribersNeverSeeTornChunks() throws Exception {
+        DataBus bus = new DataBus(64, 32);
+        int chunks = 200_000;
+        int subscribers = 4;
+        CountDownLatch done = new CountDownLatch(subscribers);
+        AtomicInteger torn = new AtomicInteger();
+        List<DataBus.Subscription> subscriptions = new ArrayList<>();
+        AtomicLong[] delivered = new AtomicLong[subscribers];
+
+        for (int s = 0; s < subscribers; s++) {
+            AtomicLong count = delivered[s] = new AtomicLong();
+            DataBus.Subscription subscription = bus.subscribe("s" + s, DataBus.OverflowPolicy.DROP);
+            subscriptions.add(subscription);
+            subscription.start((data, offset, length) -> {
+                // Every chunk is filled with one value, a mix means the producer overwrote it mid-copy
+                int value = data[offset] & 0xFF;
+                for (int i = offset; i < offset + length; i++) {
+                    if ((data[i] & 0xFF) != value) {
+                        torn.incrementAndGet();
+                        break;
+                    }
+                }
+                if (count.incrementAndGet() + subscription.getDroppedCount() == chunks) {
+                    done.countDown();
+                }
+            });
+        }
+
+        byte[] chunk = new byte[32];
+        for (int i = 0; i < chunks; i++) {
+            byte value = (byte) i;
+            for (int j = 0; j < chunk.length; j++) {
+                chunk[j] = value;
+            }
+            bus.publish(chunk, 0, 1 + (i % chunk.length));
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, torn.get());
+        for (int s = 0; s < subscribers; s++) {
+            assertEquals(chunks, delivered[s].get() + subscriptions.get(s).getDroppedCount());
+            subscriptions.get(s).close();
+        }
+        assertEquals(0, bus.getSubscriberCount());
+    }
+
+    private static void publish(DataBus bus, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        bus.publish(bytes, 0, bytes.length);
+    }
+
+    private static String drain(DataBus.Subscription subscription) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        subscription.poll((data, offset, length) -> out.write(data, offset, length), Integer.MAX_VALUE);
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
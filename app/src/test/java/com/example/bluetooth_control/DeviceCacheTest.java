@@ -0,0 +1,256 @@
+package com.example.bluetooth_control;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DeviceCacheTest {
+
+    private static final String HC05 = "HC-05";
+    private static final String ADDRESS = "98:D3:31:F5:1A:2B";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeAdapter adapter = new FakeAdapter();
+    private final List<String> found = new ArrayList<>();
+    private final DeviceCache.Callback callback = (address, name, source) -> found.add(source + ":" + address);
+
+    @After
+    public void tearDown() {
+        adapter.close();
+    }
+
+    @Test
+    public void cachedDeviceIsFoundWithoutTouchingTheAdapter() throws Exception {
+        File file = folder.newFile("devices");
+        new DeviceCache(file, 4, adapter).recordConnected(ADDRESS, HC05, 850, 1000);
+
+        // As after a restart: a fresh instance reads the file
+        DeviceCache cache = new DeviceCache(file, 4, adapter);
+        cache.discover(HC05, callback);
+
+        assertEquals(1, found.size());
+        assertEquals("CACHE:" + ADDRESS, found.get(0));
+        assertEquals(0, adapter.bondedCalls);
+        assertEquals(0, adapter.discoveries);
+        assertEquals(850, cache.get(ADDRESS).connectMillis);
+    }
+
+    @Test
+    public void bondedDevicesAreWalkedOnceAndDiscoveryIsTheLastResort() throws Exception {
+        DeviceCache cache = new DeviceCache(folder.newFile("devices"), 4, adapter);
+        adapter.bonded.put("00:11:22:33:44:55", "Speaker");
+        adapter.bonded.put(ADDRESS, HC05);
+
+        cache.discover(HC05, callback);
+        assertEquals("BONDED:" + ADDRESS, found.get(0));
+        assertEquals(1, adapter.bondedCalls);
+        assertEquals(0, adapter.discoveries);
+
+        assertFalse(cache.find("HC-06", callback));
+        assertEquals(2, adapter.bondedCalls);
+        assertEquals(0, adapter.discoveries);
+    }
+
+    @Test
+    public void repeatedSightingsAndCallersShareOneDiscovery() throws Exception {
+        DeviceCache cache = new DeviceCache(folder.newFile("devices"), 4, adapter);
+
+        // A second tap while the first scan still runs joins it
+        cache.discover(HC05, callback);
+        cache.discover(HC05, callback);
+        assertEquals(1, adapter.discoveries);
+
+        cache.onDiscovered("00:11:22:33:44:55", "Speaker");
+        cache.onDiscovered(ADDRESS, HC05);
+        cache.onDiscovered(ADDRESS, HC05);
+        cache.onDiscovered(ADDRESS, HC05);
+
+        assertEquals(1, found.size());
+        assertEquals("DISCOVERY:" + ADDRESS, found.get(0));
+        assertEquals(2, cache.getDuplicatesDropped());
+        assertEquals(1, adapter.cancels);
+    }
+
+    @Test
+    public void aScanThatFindsNothingIsStartedAgainByTheNextLookup() throws Exception {
+        DeviceCache cache = new DeviceCache(folder.newFile("devices"), 4, adapter);
+
+        cache.discover(HC05, callback);
+        cache.onDiscovered("00:11:22:33:44:55", "Speaker");
+        cache.onDiscoveryFinished();
+        // Too late for the finished scan
+        cache.onDiscovered(ADDRESS, HC05);
+        assertTrue(found.isEmpty());
+
+        cache.discover(HC05, callback);
+        assertEquals(2, adapter.discoveries);
+        cache.onDiscovered(ADDRESS, HC05);
+        assertEquals(1, found.size());
+        assertEquals("DISCOVERY:" + ADDRESS, found.get(0));
+        assertEquals(2, cache.getDiscoveryCount());
+    }
+
+    @Test
+    public void aNamelessSightingDoesNotHideTheNamedOne() throws Exception {
+        DeviceCache cache = new DeviceCache(folder.newFile("devices"), 4, adapter);
+
+        cache.discover(HC05, callback);
+        // Android often reports a device before it has resolved its name
+        cache.onDiscovered(ADDRESS, null);
+        cache.onDiscovered(ADDRESS, HC05);
+
+        assertEquals(1, found.size());
+        assertEquals("DISCOVERY:" + ADDRESS, found.get(0));
+        assertEquals(0, cache.getDuplicatesDropped());
+    }
+
+    @Test
+    public void leastRecentlyConnectedDevicesAreEvicted() throws Exception {
+        File file = folder.newFile("devices");
+        DeviceCache cache = new DeviceCache(file, 2, adapter);
+        cache.recordConnected("A", HC05, 1, 1);
+        cache.recordConnected("B", HC05, 1, 2);
+        cache.recordConnected("A", HC05, 1, 3);
+        cache.recordConnected("C", null, 1, 4);
+
+        DeviceCache reloaded = new DeviceCache(file, 2, adapter);
+        assertNull(reloaded.get("B"));
+        assertEquals("C", reloaded.getEntries().get(0).address);
+        assertEquals("A", reloaded.preferred(HC05).address);
+        assertNull(reloaded.getEntries().get(0).name);
+
+        reloaded.forget("A");
+        assertNull(new DeviceCache(file, 2, adapter).preferred(HC05));
+    }
+
+    @Test
+    public void damagedFileStartsEmpty() throws Exception {
+        File file = folder.newFile("devices");
+        new DeviceCache(file, 4, adapter).recordConnected(ADDRESS, HC05, 1, 1);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(10);
+            raf.write(0x5a);
+        }
+        assertNull(new DeviceCache(file, 4, adapter).get(ADDRESS));
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{1, 2});
+        }
+        assertNull(new DeviceCache(file, 4, adapter).get(ADDRESS));
+    }
+
+    @Test
+    public void cachedReconnectReachesTheFirstByteWithoutAScan() throws Exception {
+        ArduinoEmulator emulator = new ArduinoEmulator.Builder()
+                .baudRate(115200)
+                .telemetryInterval(5, TimeUnit.MILLISECONDS)
+                .build();
+        File file = folder.newFile("devices");
+
+        // First run: nothing cached or bonded, the device only turns up in a scan
+        connectToFirstByte(new DeviceCache(file, 4, adapter), emulator, true);
+        int bondedCalls = adapter.bondedCalls;
+        // Second run, e.g. after an app restart: straight to the cached address
+        connectToFirstByte(new DeviceCache(file, 4, adapter), emulator, false);
+
+        // The scan is what makes a cold start slow; the warm one did not even list bonded devices
+        assertEquals(1, adapter.discoveries);
+        assertEquals(bondedCalls, adapter.bondedCalls);
+        assertTrue(Metrics.getInstance().histogram(Metrics.LINK_FIRST_BYTE).snapshot().getCount() >= 2);
+        emulator.close();
+    }
+
+    private void connectToFirstByte(DeviceCache cache, ArduinoEmulator emulator, boolean expectScan) throws Exception {
+        ConnectionManager manager = new ConnectionManager(10, 100, 3);
+        CountDownLatch firstByte = new CountDownLatch(1);
+        DataBus.Subscription subscription = manager.getDataBus().subscribe("test", DataBus.OverflowPolicy.DROP)
+                .start((data, offset, length) -> firstByte.countDown());
+        List<ConnectionManager.Client> clients = new ArrayList<>();
+
+        cache.discover(HC05, (address, name, source) -> {
+            assertEquals(expectScan ? DeviceCache.Source.DISCOVERY : DeviceCache.Source.CACHE, source);
+            clients.add(manager.connect(emulator.loopback()));
+            manager.addListener(state -> {
+                if (state == ConnectionManager.State.CONNECTED) {
+                    try {
+                        cache.recordConnected(address, name, manager.getLastConnectMillis(), System.currentTimeMillis());
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+        });
+        if (expectScan) {
+            adapter.report(cache, "00:11:22:33:44:55", "Speaker");
+            adapter.report(cache, ADDRESS, HC05);
+            adapter.report(cache, ADDRESS, HC05);
+        }
+
+        assertTrue(firstByte.await(5, TimeUnit.SECONDS));
+        assertEquals(1, clients.size());
+        subscription.close();
+        manager.disconnect();
+    }
+
+    private static class FakeAdapter implements DeviceCache.Adapter {
+        final Map<String, String> bonded = new LinkedHashMap<>();
+        int bondedCalls;
+        int discoveries;
+        int cancels;
+        long discoveryDelayMillis;
+        private final List<Thread> scans = new ArrayList<>();
+
+        @Override
+        public Map<String, String> getBondedDevices() {
+            bondedCalls++;
+            return new LinkedHashMap<>(bonded);
+        }
+
+        @Override
+        public void startDiscovery() {
+            discoveries++;
+        }
+
+        @Override
+        public void cancelDiscovery() {
+            cancels++;
+        }
+
+        // Delivers an ACTION_FOUND after the scan delay, as the receiver would
+        void report(DeviceCache cache, String address, String name) {
+            Thread scan = new Thread(() -> {
+                try {
+                    Thread.sleep(discoveryDelayMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cache.onDiscovered(address, name);
+            }, "fake-discovery");
+            scan.setDaemon(true);
+            scans.add(scan);
+            scan.start();
+        }
+
+        void close() {
+            for (Thread scan : scans) {
+                scan.interrupt();
+            }
+        }
+    }
+}
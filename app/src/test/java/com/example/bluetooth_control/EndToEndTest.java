@@ -0,0 +1,216 @@
+package com.example.bluetooth_control;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the app's link pipeline (ConnectionManager, reader, DataBus, line decoding and
+ * CommandChannel) against {@link ArduinoEmulator} over TCP and the in-memory loopback, the way
+ * it runs against a real HC-05.
+ */
+public class EndToEndTest {
+
+    private ArduinoEmulator emulator;
+    private ConnectionManager manager;
+    private ConnectionManager.Client client;
+    private DataBus.Subscription subscription;
+
+    @After
+    public void tearDown() {
+        if (subscription != null) {
+            subscription.close();
+        }
+        if (client != null) {
+            client.close();
+        }
+        if (emulator != null) {
+            emulator.close();
+        }
+    }
+
+    @Test
+    public void relayCommandsOverTcpAreAnsweredThroughTheBus() throws Exception {
+        emulator = new ArduinoEmulator.Builder().baudRate(9600).build();
+        List<String> lines = new CopyOnWriteArrayList<>();
+        CountDownLatch answered = new CountDownLatch(2);
+        connect(emulator.listen(), line -> {
+            lines.add(line.toString());
+            answered.countDown();
+        });
+
+        Transport transport = client.getTransport();
+        transport.getOutputStream().write('A');
+        transport.getOutputStream().write('B');
+
+        assertTrue(answered.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("Relay ON", "Relay OFF"), lines);
+        assertEquals(2, emulator.getCommandsReceived());
+        assertFalse(emulator.isRelayOn());
+    }
+
+    @Test
+    public void telemetryIsPacedToTheBaudRateAndArrivesInOrder() throws Exception {
+        int baud = 460_800;
+        // Pacing sleeps advance virtual time only, so the emulated UART is exact on any machine
+        VirtualClock clock = new VirtualClock();
+        emulator = new ArduinoEmulator.Builder().baudRate(baud).clock(clock).build();
+        int lineCount = 400;
+        List<String> lines = new CopyOnWriteArrayList<>();
+        CountDownLatch received = new CountDownLatch(lineCount);
+        connect(emulator.loopback(), line -> {
+            lines.add(line.toString());
+            received.countDown();
+        });
+
+        long start = clock.nanoTime();
+        emulator.sendTelemetry(lineCount);
+        long elapsed = clock.nanoTime() - start;
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+
+        // 10 bits per byte on the wire; each line's pace rounds down by under a nanosecond
+        long wireNanos = emulator.getBytesSent() * TimeUnit.SECONDS.toNanos(10) / baud;
+        assertTrue("paced " + elapsed + "ns for " + wireNanos + "ns of wire time",
+                elapsed <= wireNanos && elapsed > wireNanos - lineCount);
+        // The pipeline kept up: every byte read, every line decoded, none reordered
+        assertEquals(emulator.getBytesSent(), manager.getBytesRead());
+        assertEquals(lineCount, lines.size());
+        for (int i = 0; i < lineCount; i++) {
+            assertTrue(lines.get(i), lines.get(i).startsWith("seq=" + i + ","));
+        }
+    }
+
+    @Test
+    public void telemetryLatencyStaysWithinWireTimePlusJitter() throws Exception {
+        int baud = 115_200;
+        emulator = new ArduinoEmulator.Builder()
+                .baudRate(baud)
+                .jitter(2, TimeUnit.MILLISECONDS)
+                .telemetryInterval(5, TimeUnit.MILLISECONDS)
+                .build();
+        int samples = 100;
+        long[] latencies = new long[samples];
+        AtomicLong count = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(1);
+        connect(emulator.listen(), line -> {
+            long sentAt = ArduinoEmulator.sentAtNanos(line);
+            int index = (int) count.getAndIncrement();
+            if (sentAt > 0 && index < samples) {
+                latencies[index] = System.nanoTime() - sentAt;
+                if (index == samples - 1) {
+                    done.countDown();
+                }
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        Arrays.sort(latencies);
+        long wireNanos = TimeUnit.SECONDS.toNanos(10) * 40 / baud;
+        long medianMicros = TimeUnit.NANOSECONDS.toMicros(latencies[samples / 2]);
+        // A ~40 byte line takes ~3.5ms on the wire; jitter is added before the stamp
+        assertTrue("median " + medianMicros + "us", latencies[samples / 2] >= wireNanos / 2);
+        assertTrue("median " + medianMicros + "us", medianMicros < 50_000);
+    }
+
+    @Test
+    public void framedCommandsAreAckedOverTheLoopback() throws Exception {
+        emulator = new ArduinoEmulator.Builder().baudRate(0).framed(true).build();
+        connect(emulator.loopback(), line -> { });
+        CommandChannel channel = new CommandChannel(client.getTransport().getOutputStream(), 4, 250, TimeUnit.MILLISECONDS, 3);
+        DataBus.Subscription acks = client.subscribe("acks", DataBus.OverflowPolicy.DROP).start(channel::onBytesReceived);
+
+        int commands = 200;
+        CountDownLatch acked = new CountDownLatch(commands);
+        for (int i = 0; i < commands; i++) {
+            channel.send(1, CommandProtocol.OP_SET_STATE, new byte[]{0, (byte) (i & 1)}, new CommandChannel.Callback() {
+                @Override
+                public void onAck(int seq, long roundTripNanos) {
+                    acked.countDown();
+                }
+
+                @Override
+                public void onFailure(int seq, Exception e) {
+                }
+            });
+        }
+
+        assertTrue(acked.await(10, TimeUnit.SECONDS));
+        assertEquals(commands, emulator.getCommandsReceived());
+        // The last command switched it on
+        assertTrue(emulator.isRelayOn());
+        acks.close();
+        channel.close();
+    }
+
+    @Test
+    public void managerReconnectsWhenTheEmulatedDeviceDrops() throws Exception {
+        emulator = new ArduinoEmulator.Builder().baudRate(0).build();
+        CountDownLatch reconnected = new CountDownLatch(1);
+        connect(emulator.listen(), line -> { });
+        manager.addListener(state -> {
+            if (state == ConnectionManager.State.CONNECTED && manager.getReconnectCount() == 1) {
+                reconnected.countDown();
+            }
+        });
+
+        emulator.dropSessions();
+
+        assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+        awaitSessions(2);
+        client.getTransport().getOutputStream().write('A');
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!emulator.isRelayOn() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(emulator.isRelayOn());
+    }
+
+    // Time that only moves when the emulator sleeps
+    private static final class VirtualClock implements ArduinoEmulator.Clock {
+        private final AtomicLong now = new AtomicLong();
+
+        @Override
+        public long nanoTime() {
+            return now.get();
+        }
+
+        @Override
+        public void sleepNanos(long nanos) {
+            now.addAndGet(nanos);
+        }
+    }
+
+    // The emulator accepts on its own thread, possibly after the client saw CONNECTED
+    private void awaitSessions(int sessions) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (emulator.getSessionCount() < sessions && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(sessions, emulator.getSessionCount());
+    }
+
+    private void connect(TransportFactory factory, FrameDecoder.LineListener listener) throws InterruptedException {
+        manager = new ConnectionManager(10, 100, 5);
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.newline(), 256,
+                new FrameDecoder.TextFrameListener(StandardCharsets.US_ASCII, 256, listener));
+        subscription = manager.getDataBus().subscribe("test", DataBus.OverflowPolicy.DROP).start(decoder::feed);
+        CountDownLatch connected = new CountDownLatch(1);
+        manager.addListener(state -> {
+            if (state == ConnectionManager.State.CONNECTED) {
+                connected.countDown();
+            }
+        });
+        client = manager.connect(factory);
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+        awaitSessions(1);
+    }
+}
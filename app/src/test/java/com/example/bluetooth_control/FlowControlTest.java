@@ -0,0 +1,332 @@
+package com.example.bluetooth_control;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+public class FlowControlTest {
+
+    private static final int UART_BUFFER = 64;
+    private static final int DRAIN_CHUNK = 16;
+    // The sketch takes 16 bytes out of its buffer every 800us, i.e. 20 KB/s
+    private static final long DRAIN_PERIOD_NANOS = TimeUnit.MICROSECONDS.toNanos(800);
+    // Faster than the sketch drains, so only the XOFFs keep its buffer from overflowing
+    private static final int BAUD_RATE = 230400;
+
+    private final ConnectionManager manager = new ConnectionManager(10, 100, 1);
+    private SlowSketch sketch;
+
+    @After
+    public void tearDown() throws IOException {
+        manager.disconnect();
+        if (sketch != null) {
+            sketch.close();
+        }
+    }
+
+    @Test
+    public void unthrottledBulkWriteOverrunsTheSketch() throws Exception {
+        sketch = new SlowSketch(null);
+        OutputStream out = connect(sketch.factory());
+
+        byte[] data = pattern(8 * 1024);
+        out.write(data);
+
+        sketch.awaitIdle();
+        assertTrue("overruns " + sketch.getOverruns(), sketch.getOverruns() > 0);
+        assertTrue(sketch.getReceived().length < data.length);
+    }
+
+    @Test
+    public void creditsDeliverEverythingAtTheSketchsPace() throws Exception {
+        sketch = new SlowSketch(FlowControl.Mode.CREDITS);
+        FlowControl flowControl = new FlowControl.Builder(FlowControl.Mode.CREDITS)
+                .window(UART_BUFFER)
+                .creditBytes(DRAIN_CHUNK)
+                .build();
+        OutputStream out = connect(flowControl.wrap(sketch.factory()));
+
+        byte[] data = pattern(8 * 1024);
+        out.write(data);
+        sketch.awaitReceived(data.length);
+
+        assertEquals(0, sketch.getOverruns());
+        assertArrayEquals(data, sketch.getReceived());
+        assertTrue("stalls " + flowControl.getStallCount(), flowControl.getStallCount() > 0);
+        // Past the first window, every byte went out on a credit the sketch granted as it drained
+        long needed = (data.length - UART_BUFFER) / DRAIN_CHUNK;
+        assertTrue("credits " + flowControl.getCreditsReceived() + " of " + needed,
+                flowControl.getCreditsReceived() >= needed);
+    }
+
+    @Test
+    public void xonXoffDeliversEverythingWithoutCredits() throws Exception {
+        sketch = new SlowSketch(FlowControl.Mode.XON_XOFF);
+        FlowControl flowControl = new FlowControl.Builder(FlowControl.Mode.XON_XOFF)
+                .creditBytes(8)
+                .baudRate(BAUD_RATE)
+                .build();
+        OutputStream out = connect(flowControl.wrap(sketch.factory()));
+
+        byte[] data = pattern(8 * 1024);
+        out.write(data);
+        sketch.awaitReceived(data.length);
+
+        assertEquals(0, sketch.getOverruns());
+        assertArrayEquals(data, sketch.getReceived());
+        assertTrue(flowControl.getXoffCount() > 0);
+        // The baud rate outruns the sketch, so only waiting out the XOFFs kept the buffer whole
+        assertTrue("stalls " + flowControl.getStallCount(), flowControl.getStallCount() > 0);
+        assertEquals(0, flowControl.getCreditsReceived());
+    }
+
+    @Test
+    public void controlBytesNeverReachTheBusAndReadsAreGrantedBack() throws Exception {
+        sketch = new SlowSketch(FlowControl.Mode.CREDITS);
+        FlowControl flowControl = new FlowControl.Builder(FlowControl.Mode.CREDITS).build();
+        ByteArrayOutputStream bus = new ByteArrayOutputStream();
+        CountDownLatch all = new CountDownLatch(1);
+        byte[] telemetry = pattern(160);
+        DataBus.Subscription subscription = manager.getDataBus().subscribe("test", DataBus.OverflowPolicy.DROP)
+                .start((data, offset, length) -> {
+                    synchronized (bus) {
+                        bus.write(data, offset, length);
+                        if (bus.size() >= telemetry.length) {
+                            all.countDown();
+                        }
+                    }
+                });
+        OutputStream out = connect(flowControl.wrap(sketch.factory()));
+
+        // Credits interleaved with telemetry, as the sketch drains what the app wrote
+        out.write(pattern(256));
+        sketch.send(telemetry);
+        assertTrue(all.await(5, TimeUnit.SECONDS));
+        subscription.close();
+
+        synchronized (bus) {
+            assertArrayEquals(telemetry, bus.toByteArray());
+        }
+        assertEquals(160 / 16, flowControl.getCreditsGranted());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sketch.getCreditsFromApp() < 160 / 16) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void writeFailsWhenTheSketchNeverGrants() throws Exception {
+        sketch = new SlowSketch(FlowControl.Mode.CREDITS);
+        sketch.mute();
+        FlowControl flowControl = new FlowControl.Builder(FlowControl.Mode.CREDITS)
+                .stallTimeout(100, TimeUnit.MILLISECONDS)
+                .build();
+        OutputStream out = connect(flowControl.wrap(sketch.factory()));
+
+        long start = System.nanoTime();
+        try {
+            out.write(pattern(200));
+            fail("write completed without credit");
+        } catch (IOException expected) {
+            // No credit
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        assertEquals(0, sketch.getOverruns());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void creditLargerThanTheWindowIsRejected() {
+        new FlowControl.Builder(FlowControl.Mode.CREDITS).window(16).creditBytes(32).build();
+    }
+
+    private OutputStream connect(TransportFactory factory) throws Exception {
+        CountDownLatch connected = new CountDownLatch(1);
+        manager.addListener(state -> {
+            if (state == ConnectionManager.State.CONNECTED) {
+                connected.countDown();
+            }
+        });
+        manager.connect(factory);
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+        return manager.getTransport().getOutputStream();
+    }
+
+    // Printable bytes, so none of them is a control byte
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('0' + i % 64);
+        }
+        return data;
+    }
+
+    /**
+     * An Uno behind an HC-05: the radio side moves bytes into a 64 byte serial buffer as fast
+     * as they arrive and loses whatever does not fit, while the sketch takes them out at
+     * 20 KB/s and grants credits or sends XON/XOFF as it goes.
+     */
+    private static final class SlowSketch implements Closeable {
+        private static final int XOFF_AT = 16;
+        private static final int XON_AT = 8;
+
+        private final FlowControl.Mode mode;
+        private final LoopbackTransport link = new LoopbackTransport();
+        private final OutputStream toApp = link.getPeer().getOutputStream();
+        private final Thread radio;
+        private final Thread loop;
+        private volatile boolean closed;
+        private volatile boolean muted;
+
+        // Guarded by this
+        private final byte[] uart = new byte[UART_BUFFER];
+        private int head;
+        private int count;
+        private boolean sentXoff;
+        private long overruns;
+        private long creditsFromApp;
+        private int drainedSinceCredit;
+        private long lastArrivalNanos = System.nanoTime();
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        SlowSketch(FlowControl.Mode mode) {
+            this.mode = mode;
+            radio = new Thread(this::radioLoop, "sketch-radio");
+            loop = new Thread(this::sketchLoop, "sketch-loop");
+            radio.setDaemon(true);
+            loop.setDaemon(true);
+            radio.start();
+            loop.start();
+        }
+
+        TransportFactory factory() {
+            return () -> link;
+        }
+
+        // Stops granting credits, like a sketch without flow control support
+        void mute() {
+            muted = true;
+        }
+
+        private void radioLoop() {
+            InputStream in = link.getPeer().getInputStream();
+            byte[] buffer = new byte[256];
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    synchronized (this) {
+                        lastArrivalNanos = System.nanoTime();
+                        for (int i = 0; i < n; i++) {
+                            if (buffer[i] == FlowControl.CREDIT) {
+                                creditsFromApp++;
+                            } else if (count == uart.length) {
+                                overruns++;
+                            } else {
+                                uart[(head + count++) % uart.length] = buffer[i];
+                            }
+                        }
+                        // Sent under the lock so an XON can never overtake it
+                        if (mode == FlowControl.Mode.XON_XOFF && !sentXoff && count >= XOFF_AT) {
+                            sentXoff = true;
+                            send(new byte[]{FlowControl.XOFF});
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Link closed
+            }
+        }
+
+        private void sketchLoop() {
+            long next = System.nanoTime();
+            try {
+                while (!closed) {
+                    next += DRAIN_PERIOD_NANOS;
+                    long wait;
+                    while ((wait = next - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    if (muted) {
+                        continue;
+                    }
+                    int credits = 0;
+                    synchronized (this) {
+                        int taken = Math.min(count, DRAIN_CHUNK);
+                        for (int i = 0; i < taken; i++) {
+                            received.write(uart[head]);
+                            head = (head + 1) % uart.length;
+                        }
+                        count -= taken;
+                        drainedSinceCredit += taken;
+                        if (mode == FlowControl.Mode.CREDITS) {
+                            credits = drainedSinceCredit / DRAIN_CHUNK;
+                            drainedSinceCredit %= DRAIN_CHUNK;
+                        }
+                        if (sentXoff && count <= XON_AT) {
+                            sentXoff = false;
+                            send(new byte[]{FlowControl.XON});
+                        }
+                        notifyAll();
+                    }
+                    for (int i = 0; i < credits; i++) {
+                        send(new byte[]{FlowControl.CREDIT});
+                    }
+                }
+            } catch (IOException e) {
+                // Link closed
+            }
+        }
+
+        void send(byte[] bytes) throws IOException {
+            synchronized (toApp) {
+                toApp.write(bytes);
+                toApp.flush();
+            }
+        }
+
+        synchronized void awaitReceived(int length) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (received.size() < length) {
+                long remaining = deadline - System.nanoTime();
+                assertTrue("received " + received.size() + " of " + length, remaining > 0);
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+
+        // Waits until nothing has arrived for a while and the buffer is drained
+        synchronized void awaitIdle() throws InterruptedException {
+            long quiet = TimeUnit.MILLISECONDS.toNanos(50);
+            while (count > 0 || System.nanoTime() - lastArrivalNanos < quiet) {
+                wait(5);
+            }
+        }
+
+        synchronized byte[] getReceived() {
+            return received.toByteArray();
+        }
+
+        synchronized long getOverruns() {
+            return overruns;
+        }
+
+        synchronized long getCreditsFromApp() {
+            return creditsFromApp;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            link.close();
+        }
+    }
+}
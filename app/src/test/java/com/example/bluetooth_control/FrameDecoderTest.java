@@ -0,0 +1,185 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    @Test
+    public void newline_splitsAndMergesAcrossArbitraryChunks() throws IOException {
+        String input = "temp=21.5\r\nhum=40\n\nlight=812\r\n";
+        List<String> expected = Arrays.asList("temp=21.5", "hum=40", "", "light=812");
+
+        // Every possible chunk size, including one byte at a time
+        for (int chunk = 1; chunk <= input.length(); chunk++) {
+            List<String> lines = new ArrayList<>();
+            FrameDecoder decoder = lineDecoder(64, lines);
+            drain(decoder, new ChunkedInputStream(bytes(input), new int[]{chunk}));
+            assertEquals("chunk size " + chunk, expected, lines);
+        }
+    }
+
+    @Test
+    public void newline_survivesRandomChunkBoundaries() throws IOException {
+        Random random = new Random(42);
+        StringBuilder input = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String line = "reading," + i + "," + random.nextInt(100000);
+            expected.add(line);
+            input.append(line).append(random.nextBoolean() ? "\r\n" : "\n");
+        }
+
+        int[] chunks = new int[97];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = 1 + random.nextInt(70);
+        }
+
+        List<String> lines = new ArrayList<>();
+        // Small buffer forces compaction while partial lines are pending
+        FrameDecoder decoder = lineDecoder(48, lines);
+        drain(decoder, new ChunkedInputStream(bytes(input.toString()), chunks));
+
+        assertEquals(expected, lines);
+        assertEquals(0, decoder.getOverflowCount());
+    }
+
+    @Test
+    public void newline_truncatesOverlongLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        FrameDecoder decoder = lineDecoder(8, lines);
+        drain(decoder, new ChunkedInputStream(bytes("0123456789abcdef\nok\n"), new int[]{3}));
+
+        assertEquals(1, decoder.getOverflowCount());
+        // The rest of the long line is dropped, not handed over as a line of its own
+        assertEquals(Arrays.asList("0123456789", "ok"), lines);
+    }
+
+    @Test
+    public void newline_dropsTailsLongerThanTheBuffer() throws IOException {
+        List<String> lines = new ArrayList<>();
+        FrameDecoder decoder = lineDecoder(8, lines);
+        drain(decoder, new ChunkedInputStream(bytes("0123456789abcdefghijklmnopqrstuvwxyz\nok\ntail"), new int[]{4}));
+        decoder.finish();
+
+        assertEquals(1, decoder.getOverflowCount());
+        assertEquals(Arrays.asList("0123456789", "ok", "tail"), lines);
+    }
+
+    @Test
+    public void finish_emitsTrailingPartialLine() throws IOException {
+        List<String> lines = new ArrayList<>();
+        FrameDecoder decoder = lineDecoder(64, lines);
+        drain(decoder, new ChunkedInputStream(bytes("a\nno newline"), new int[]{5}));
+        decoder.finish();
+
+        assertEquals(Arrays.asList("a", "no newline"), lines);
+    }
+
+    @Test
+    public void readFrom_returnsMinusOneAtEof() throws IOException {
+        FrameDecoder decoder = lineDecoder(16, new ArrayList<>());
+        assertEquals(-1, decoder.readFrom(new ChunkedInputStream(new byte[0], new int[]{1})));
+    }
+
+    @Test
+    public void lengthPrefixed_decodesBinaryFrames() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[][] payloads = {{1, 2, 3}, {}, {(byte) 0xFF, '\n', 0}, new byte[200]};
+        for (byte[] payload : payloads) {
+            stream.write(payload.length >> 8);
+            stream.write(payload.length);
+            stream.write(payload);
+        }
+
+        List<byte[]> frames = new ArrayList<>();
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.lengthPrefixed(2), 0xFFFF, frame -> frames.add(copy(frame)));
+        drain(decoder, new ChunkedInputStream(stream.toByteArray(), new int[]{1, 2, 7}));
+
+        assertEquals(payloads.length, frames.size());
+        for (int i = 0; i < payloads.length; i++) {
+            assertArrayEquals(payloads[i], frames.get(i));
+        }
+    }
+
+    @Test
+    public void fixedSize_decodesRecords() throws IOException {
+        byte[] input = new byte[40];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte) i;
+        }
+
+        List<byte[]> frames = new ArrayList<>();
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.fixedSize(8), 16, frame -> frames.add(copy(frame)));
+        drain(decoder, new ChunkedInputStream(input, new int[]{3, 11}));
+
+        assertEquals(5, frames.size());
+        assertArrayEquals(new byte[]{32, 33, 34, 35, 36, 37, 38, 39}, frames.get(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBufferSmallerThanFraming() {
+        new FrameDecoder(FrameDecoder.lengthPrefixed(1), 100, frame -> { });
+    }
+
+    private static FrameDecoder lineDecoder(int maxLength, List<String> lines) {
+        return new FrameDecoder(FrameDecoder.newline(), maxLength,
+                new FrameDecoder.TextFrameListener(StandardCharsets.UTF_8, maxLength, line -> lines.add(line.toString())));
+    }
+
+    private static void drain(FrameDecoder decoder, InputStream in) throws IOException {
+        while (decoder.readFrom(in) >= 0) {
+            // keep reading
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] copy(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+
+    // Hands out data in a repeating pattern of chunk sizes, like an RFCOMM socket would
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] data;
+        private final int[] chunks;
+        private int position;
+        private int reads;
+
+        ChunkedInputStream(byte[] data, int[] chunks) {
+            this.data = data;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, chunks[reads++ % chunks.length]), data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+public class JsonWriterTest {
+
+    @Test
+    public void writesNestedObjectsAndArraysWithCommas() {
+        JsonWriter json = new JsonWriter(16);
+        json.beginObject()
+                .name("device").value("hc-05")
+                .name("ts").value(1700000000000L)
+                .name("readings").beginArray().value(1).value(2.5).value(true).nullValue().endArray()
+                .name("empty").beginObject().endObject()
+                .endObject();
+
+        assertEquals("{\"device\":\"hc-05\",\"ts\":1700000000000,\"readings\":[1,2.5,true,null],\"empty\":{}}",
+                text(json));
+    }
+
+    @Test
+    public void escapesQuotesBackslashesAndControlCharacters() {
+        JsonWriter json = new JsonWriter();
+        json.value("a\"b\\c\nd\r\te\b\f\u0001\u001f/");
+
+        assertEquals("\"a\\\"b\\\\c\\nd\\r\\te\\b\\f\\u0001\\u001f/\"", text(json));
+    }
+
+    @Test
+    public void encodesNonAsciiAsUtf8AndEscapesLineSeparators() {
+        JsonWriter json = new JsonWriter();
+        json.beginArray()
+                .value("\u00b0C")
+                .value("\u20ac")
+                .value("\ud83d\ude00")
+                .value("\u2028\u2029")
+                .value("\ud800x")
+                .endArray();
+
+        assertEquals("[\"\u00b0C\",\"\u20ac\",\"\ud83d\ude00\",\"\\u2028\\u2029\",\"\ufffdx\"]", text(json));
+    }
+
+    @Test
+    public void rawBytesAreEscapedAndMalformedUtf8IsReplaced() {
+        byte[] line = {'t', '=', '2', '1', (byte) 0xC2, (byte) 0xB0, '"', '\n', (byte) 0xFF, (byte) 0xE2, (byte) 0x82, 'x',
+                (byte) 0xED, (byte) 0xA0, (byte) 0x80};
+        JsonWriter json = new JsonWriter();
+        json.value(line, 0, line.length);
+
+        assertEquals("\"t=21\u00b0\\\"\\n\ufffd\ufffd\ufffdx\ufffd\ufffd\ufffd\"", text(json));
+    }
+
+    @Test
+    public void rawBytesAreEscapedLikeStrings() {
+        String text = "a\u2028b\u2029c\u2027\u202a\u20ac\"\t";
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        JsonWriter fromBytes = new JsonWriter();
+        fromBytes.value(utf8, 0, utf8.length);
+        JsonWriter fromString = new JsonWriter();
+        fromString.value(text);
+
+        assertEquals(text(fromString), text(fromBytes));
+        assertEquals("\"a\\u2028b\\u2029c\u2027\u202a\u20ac\\\"\\t\"", text(fromBytes));
+    }
+
+    @Test
+    public void rawBytesHonourOffsetAndLength() {
+        byte[] line = "xxtemp=21.5xx".getBytes(StandardCharsets.US_ASCII);
+        JsonWriter json = new JsonWriter();
+        json.value(line, 2, 9);
+
+        assertEquals("\"temp=21.5\"", text(json));
+    }
+
+    @Test
+    public void writesLongsAndDoubles() {
+        JsonWriter json = new JsonWriter();
+        json.beginArray()
+                .value(0)
+                .value(-42)
+                .value(Long.MAX_VALUE)
+                .value(Long.MIN_VALUE)
+                .value(21.0)
+                .value(-0.125)
+                .value(Double.NaN)
+                .value(Double.POSITIVE_INFINITY)
+                .endArray();
+
+        assertEquals("[0,-42,9223372036854775807,-9223372036854775808,21,-0.125,null,null]", text(json));
+    }
+
+    @Test
+    public void nullStringIsWrittenAsNull() {
+        JsonWriter json = new JsonWriter();
+        json.beginObject().name("data").value((String) null).endObject();
+
+        assertEquals("{\"data\":null}", text(json));
+    }
+
+    @Test
+    public void rawValuesAreInsertedAsIs() {
+        byte[] record = "{\"data\":\"a\"}".getBytes(StandardCharsets.UTF_8);
+        JsonWriter json = new JsonWriter();
+        json.beginArray().rawValue(record, 0, record.length).rawValue(record, 0, record.length).endArray();
+
+        assertEquals("[{\"data\":\"a\"},{\"data\":\"a\"}]", text(json));
+    }
+
+    @Test
+    public void resetReusesTheWriterForTheNextDocument() throws IOException {
+        JsonWriter json = new JsonWriter(16);
+        for (int i = 0; i < 100; i++) {
+            json.beginObject().name("data").value("padding to force growth " + i).endObject();
+            json.reset();
+        }
+        json.beginObject().name("data").value("last").endObject();
+
+        Buffer sink = new Buffer();
+        json.writeTo(sink);
+        assertEquals("{\"data\":\"last\"}", sink.readUtf8());
+        assertEquals("{\"data\":\"last\"}".length(), json.size());
+    }
+
+    @Test
+    public void deepNestingGrowsTheStack() {
+        JsonWriter json = new JsonWriter();
+        for (int i = 0; i < 20; i++) {
+            json.beginArray();
+        }
+        for (int i = 0; i < 20; i++) {
+            json.endArray();
+        }
+
+        assertEquals("[[[[[[[[[[[[[[[[[[[[]]]]]]]]]]]]]]]]]]]]", text(json));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void valueWithoutNameInObjectIsRejected() {
+        new JsonWriter().beginObject().value("data");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void nameOutsideObjectIsRejected() {
+        new JsonWriter().beginArray().name("data");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mismatchedCloseIsRejected() {
+        new JsonWriter().beginArray().endObject();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void secondTopLevelValueIsRejected() {
+        new JsonWriter().value(1).value(2);
+    }
+
+    private static String text(JsonWriter json) {
+        return new String(json.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.bluetooth_control;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LanGatewayTest {
+
+    private static final String TOKEN = "s3cret";
+    private static final String AUTHORIZATION = "Authorization: Bearer " + TOKEN;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ConnectionManager manager = new ConnectionManager(10, 100, 1);
+    private final LoopbackTransport link = new LoopbackTransport();
+    private final List<String> submitted = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean accepting = true;
+    private LanGateway gateway;
+
+    @After
+    public void tearDown() {
+        if (gateway != null) {
+            gateway.close();
+        }
+        manager.disconnect();
+        link.close();
+    }
+
+    @Test
+    public void stateIsServedRepeatedlyOverOneConnection() throws Exception {
+        connect();
+        start(builder());
+
+        try (Client client = new Client(gateway.getPort(), AUTHORIZATION)) {
+            for (int i = 0; i < 3; i++) {
+                Response response = client.send("GET", "/state");
+                assertEquals(200, response.status);
+                assertTrue(response.text(), response.text().contains("\"state\":\"CONNECTED\""));
+                assertTrue(response.text().contains("\"commands\":[\"A\",\"B\"]"));
+            }
+            assertEquals(200, client.send("GET", "/metrics").status);
+        }
+        assertEquals(4, gateway.getRequestCount());
+    }
+
+    @Test
+    public void commandsAreQueuedAndAnythingElseRefused() throws Exception {
+        start(builder());
+
+        try (Client client = new Client(gateway.getPort(), AUTHORIZATION)) {
+            assertEquals(202, client.send("POST", "/commands/A").status);
+            assertEquals(202, client.send("POST", "/commands/B").status);
+            assertEquals(404, client.send("POST", "/commands/Z").status);
+            assertEquals(405, client.send("GET", "/commands/A").status);
+            assertEquals(404, client.send("GET", "/nowhere").status);
+            accepting = false;
+            assertEquals(503, client.send("POST", "/commands/A").status);
+        }
+        assertEquals(Arrays.asList("A", "B"), submitted);
+    }
+
+    @Test
+    public void streamSendsEachLineAsAnEvent() throws Exception {
+        connect();
+        start(builder());
+
+        try (Client client = new Client(gateway.getPort(), AUTHORIZATION)) {
+            client.write("GET /stream HTTP/1.1\r\nHost: phone\r\n" + AUTHORIZATION + "\r\n\r\n");
+            String head = client.readHead();
+            assertTrue(head, head.startsWith("HTTP/1.1 200"));
+            assertTrue(head.contains("text/event-stream"));
+            awaitStreamClients(1);
+
+            OutputStream device = link.getPeer().getOutputStream();
+            device.write("temp=21.5\r\nhum=40".getBytes(StandardCharsets.US_ASCII));
+            device.write(".1\n".getBytes(StandardCharsets.US_ASCII));
+            device.flush();
+
+            assertEquals("data: temp=21.5\n\ndata: hum=40.1\n\n", client.readText(33));
+        }
+    }
+
+    @Test
+    public void capturesAreListedAndSentWhole() throws Exception {
+        File captures = folder.newFolder("captures");
+        byte[] data = new byte[3 * 1024 * 1024 + 17];
+        new Random(1).nextBytes(data);
+        try (FileOutputStream out = new FileOutputStream(new File(captures, "session-1.hcap"))) {
+            out.write(data);
+        }
+        File secret = folder.newFile("secret");
+        start(builder().captures(captures));
+
+        try (Client client = new Client(gateway.getPort(), AUTHORIZATION)) {
+            Response list = client.send("GET", "/captures");
+            assertEquals("[{\"name\":\"session-1.hcap\",\"bytes\":" + data.length + "}]", list.text());
+
+            Response file = client.send("GET", "/captures/session-1.hcap");
+            assertEquals(200, file.status);
+            assertArrayEquals(data, file.body);
+
+            assertEquals(404, client.send("GET", "/captures/../" + secret.getName()).status);
+            // Still usable after a large response
+            assertEquals(200, client.send("GET", "/captures").status);
+        }
+    }
+
+    @Test
+    public void aTokenIsRequiredOnceSet() throws Exception {
+        start(builder());
+
+        try (Client client = new Client(gateway.getPort(), null)) {
+            assertEquals(401, client.send("GET", "/state").status);
+            assertEquals(401, client.send("POST", "/commands/A", "Authorization: Bearer wrong").status);
+            assertEquals(401, client.send("POST", "/commands/A", "Authorization: Bearer s3creT").status);
+            assertEquals(200, client.send("GET", "/state", AUTHORIZATION).status);
+        }
+        assertTrue(submitted.isEmpty());
+    }
+
+    @Test
+    public void commandsAreNotServedWithoutAToken() throws Exception {
+        try {
+            builder().token(null).build();
+            fail("commands open to the whole network");
+        } catch (IllegalArgumentException expected) {
+            // Needs a token
+        }
+
+        // Watching only is fine without one
+        start(new LanGateway.Builder(manager).port(0));
+        try (Client client = new Client(gateway.getPort(), null)) {
+            assertEquals(200, client.send("GET", "/state").status);
+            assertEquals(404, client.send("POST", "/commands/A").status);
+        }
+    }
+
+    @Test
+    public void manyClientsAtOnce() throws Exception {
+        start(builder());
+        int clients = 32;
+        int requests = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        CountDownLatch ready = new CountDownLatch(clients);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            results.add(pool.submit(() -> {
+                try (Client client = new Client(gateway.getPort(), AUTHORIZATION)) {
+                    ready.countDown();
+                    ready.await();
+                    int ok = 0;
+                    for (int i = 0; i < requests; i++) {
+                        if (client.send("GET", "/state").status == 200) {
+                            ok++;
+                        }
+                    }
+                    return ok;
+                }
+            }));
+        }
+        int ok = 0;
+        for (Future<Integer> result : results) {
+            ok += result.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(clients * requests, ok);
+        assertEquals(clients * requests, gateway.getRequestCount());
+    }
+
+    @Test
+    public void oversizedRequestIsRejected() throws Exception {
+        start(builder());
+
+        try (Client client = new Client(gateway.getPort(), AUTHORIZATION)) {
+            StringBuilder huge = new StringBuilder("GET /state HTTP/1.1\r\nX-Filler: ");
+            while (huge.length() < 10_000) {
+                huge.append("0123456789");
+            }
+            client.write(huge.append("\r\n\r\n").toString());
+            assertTrue(client.readHead().startsWith("HTTP/1.1 431"));
+        }
+    }
+
+    private LanGateway.Builder builder() {
+        return new LanGateway.Builder(manager)
+                .port(0)
+                .token(TOKEN)
+                .command("A", new byte[]{'A'})
+                .command("B", new byte[]{'B'})
+                .commandSink(command -> {
+                    if (!accepting) {
+                        return false;
+                    }
+                    submitted.add(new String(command, StandardCharsets.US_ASCII));
+                    return true;
+                });
+    }
+
+    private void start(LanGateway.Builder builder) throws IOException {
+        gateway = builder.build();
+        gateway.start();
+    }
+
+    private void connect() throws Exception {
+        CountDownLatch connected = new CountDownLatch(1);
+        manager.addListener(state -> {
+            if (state == ConnectionManager.State.CONNECTED) {
+                connected.countDown();
+            }
+        });
+        manager.connect(() -> link);
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitStreamClients(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (gateway.getStreamClientCount() < count) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    static final class Response {
+        int status;
+        byte[] body;
+
+        String text() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** A blocking keep-alive client that reads Content-Length delimited responses. */
+    static final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        // Sent with every request, unless null
+        private final String authorization;
+
+        Client(int port, String authorization) throws IOException {
+            this.authorization = authorization;
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setSoTimeout(10_000);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        Response send(String method, String path, String... headers) throws IOException {
+            StringBuilder request = new StringBuilder(method).append(' ').append(path).append(" HTTP/1.1\r\nHost: phone\r\n");
+            if (authorization != null) {
+                request.append(authorization).append("\r\n");
+            }
+            for (String header : headers) {
+                request.append(header).append("\r\n");
+            }
+            write(request.append("\r\n").toString());
+            String head = readHead();
+            Response response = new Response();
+            response.status = Integer.parseInt(head.substring(9, 12));
+            int length = 0;
+            for (String line : head.split("\r\n")) {
+                if (line.toLowerCase(Locale.ROOT).startsWith("content-length:")) {
+                    length = Integer.parseInt(line.substring(15).trim());
+                }
+            }
+            response.body = readBytes(length);
+            return response;
+        }
+
+        void write(String request) throws IOException {
+            out.write(request.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        // Status line and headers, without the blank line
+        String readHead() throws IOException {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int matched = 0;
+            while (matched < 4) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Connection closed in the head");
+                }
+                head.write(b);
+                matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+            }
+            String text = new String(head.toByteArray(), StandardCharsets.ISO_8859_1);
+            return text.substring(0, text.length() - 4);
+        }
+
+        String readText(int length) throws IOException {
+            return new String(readBytes(length), StandardCharsets.UTF_8);
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(bytes, read, length - read);
+                if (n < 0) {
+                    throw new IOException("Connection closed after " + read + " of " + length);
+                }
+                read += n;
+            }
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(20, snapshot.getCount());
+        assertEquals(10, snapshot.getValueAtPercentile(50));
+        assertEquals(20, snapshot.getValueAtPercentile(100));
+        assertEquals(20, snapshot.getMax());
+    }
+
+    @Test
+    public void bucketsAreContiguousAndWithinSixPercent() {
+        for (int index = 1; index < 500; index++) {
+            assertEquals(LatencyHistogram.highestValueAt(index - 1) + 1, LatencyHistogram.lowestValueAt(index));
+            long low = LatencyHistogram.lowestValueAt(index);
+            long high = LatencyHistogram.highestValueAt(index);
+            assertEquals(index, LatencyHistogram.indexFor(low));
+            assertEquals(index, LatencyHistogram.indexFor(high));
+            assertTrue(index + ": " + low + ".." + high, high - low <= low / 16 + 1);
+        }
+    }
+
+    @Test
+    public void percentilesTrackAKnownDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1..100000us, uniformly
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertWithin(50_000_000, snapshot.getValueAtPercentile(50));
+        assertWithin(99_000_000, snapshot.getValueAtPercentile(99));
+        assertWithin(99_900_000, snapshot.getValueAtPercentile(99.9));
+        assertEquals(100_000_000, snapshot.getValueAtPercentile(100));
+        assertEquals(50_000_500, snapshot.getMean(), 50_000_500 * 0.07);
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals((1L << 40) - 1, snapshot.getMax());
+    }
+
+    @Test
+    public void emptySnapshotReportsZero() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+        assertEquals(0, snapshot.getMean(), 0);
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int threads = 4;
+        int perThread = 50_000;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(random.nextInt(1_000_000));
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        assertEquals(threads * perThread, histogram.snapshot().getCount());
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 16);
+    }
+}
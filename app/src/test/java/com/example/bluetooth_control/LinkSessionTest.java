@@ -0,0 +1,185 @@
+package com.example.bluetooth_control;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LinkSessionTest {
+
+    private final ConnectionManager manager = new ConnectionManager(10, 100, 5);
+    private final ArduinoEmulator emulator = new ArduinoEmulator.Builder().baudRate(115200).build();
+    private final List<String> uploaded = new CopyOnWriteArrayList<>();
+    private final LinkSession session = new LinkSession(manager, 0, (channel, line) -> uploaded.add(channel + ":" + line));
+
+    @After
+    public void tearDown() {
+        session.close();
+        manager.disconnect();
+        emulator.close();
+    }
+
+    @Test
+    public void commandsReachTheDeviceOnceConnected() throws Exception {
+        assertFalse("no link yet", session.submit("relay", bytes("A"), CommandWriter.Priority.NORMAL));
+
+        connect();
+        assertTrue(session.submit("relay", bytes("A"), CommandWriter.Priority.NORMAL));
+
+        awaitRelay(true);
+        assertTrue(session.isHoldingLink());
+    }
+
+    @Test
+    public void linesAreUploadedWithNoScreenAttached() throws Exception {
+        connect();
+
+        emulator.sendTelemetry(5);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (uploaded.size() < 5) {
+            assertTrue("uploaded " + uploaded, System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+        assertTrue(uploaded.get(0), uploaded.get(0).startsWith(LinkSession.CHANNEL_SERIAL + ":"));
+    }
+
+    @Test
+    public void writerFollowsTheLinkAcrossAReconnect() throws Exception {
+        connect();
+        Transport first = session.getTransport();
+        CommandWriter firstWriter = session.getWriter();
+
+        CountDownLatch reconnected = new CountDownLatch(1);
+        manager.addListener(state -> {
+            if (state == ConnectionManager.State.CONNECTED) {
+                reconnected.countDown();
+            }
+        });
+        emulator.dropSessions();
+        assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+        awaitTransportChange(first);
+
+        assertNotSame(firstWriter, session.getWriter());
+        assertTrue(session.submit("relay", bytes("A"), CommandWriter.Priority.NORMAL));
+        awaitRelay(true);
+        // The manager reconnected by itself, the session never asked for a new link
+        assertEquals(1, session.getConnectCount());
+    }
+
+    @Test
+    public void screensComingAndGoingCostNoReconnect() throws Exception {
+        connect();
+        List<String> written = new CopyOnWriteArrayList<>();
+
+        // Each "activity" binds, sets its callback, sends, and is destroyed; none holds the link
+        for (int i = 0; i < 5; i++) {
+            session.setCallback(new CommandWriter.Callback() {
+                @Override
+                public void onWritten(String key, byte[] data, long latencyNanos) {
+                    written.add(new String(data, StandardCharsets.US_ASCII));
+                }
+
+                @Override
+                public void onFailure(String key, IOException e) {
+                }
+            });
+            assertTrue(session.submit("relay", bytes(i % 2 == 0 ? "A" : "B"), CommandWriter.Priority.NORMAL));
+            awaitRelay(i % 2 == 0);
+            session.setCallback(null);
+        }
+
+        assertEquals(5, written.size());
+        assertEquals(1, manager.getConnectCount());
+        assertEquals(ConnectionManager.State.CONNECTED, manager.getState());
+    }
+
+    @Test
+    public void repeatedConnectsToTheSameDeviceAreDropped() throws Exception {
+        TransportFactory device = emulator.loopback();
+        assertTrue(session.connect("98:D3:31:F5:1A:2B", device));
+        // A second tap and a late discovery report while the first connect runs
+        assertFalse(session.connect("98:D3:31:F5:1A:2B", device));
+        awaitTransportChange(null);
+        assertFalse(session.connect("98:D3:31:F5:1A:2B", device));
+
+        assertEquals(1, session.getConnectCount());
+        assertEquals(1, emulator.getSessionCount());
+        // A different device still replaces the link
+        assertTrue(session.connect("00:11:22:33:44:55", emulator.loopback()));
+        assertEquals(2, session.getConnectCount());
+    }
+
+    @Test
+    public void disconnectClosesTheLinkButKeepsTheSession() throws Exception {
+        connect();
+
+        session.disconnect();
+        assertFalse(session.isHoldingLink());
+        assertNull(session.getAddress());
+        assertEquals(ConnectionManager.State.DISCONNECTED, manager.getState());
+        assertFalse(session.submit("relay", bytes("A"), CommandWriter.Priority.NORMAL));
+
+        connect();
+        assertTrue(session.submit("relay", bytes("A"), CommandWriter.Priority.NORMAL));
+        awaitRelay(true);
+        assertEquals(2, session.getConnectCount());
+    }
+
+    @Test
+    public void closeReleasesTheLink() throws Exception {
+        connect();
+        ConnectionManager.Client screen = manager.acquire();
+
+        session.close();
+        assertFalse(session.isHoldingLink());
+        assertFalse(session.submit("relay", bytes("A"), CommandWriter.Priority.NORMAL));
+        // Still open for the screen that holds it
+        assertEquals(ConnectionManager.State.CONNECTED, manager.getState());
+
+        screen.close();
+        assertEquals(ConnectionManager.State.DISCONNECTED, manager.getState());
+    }
+
+    private void connect() throws InterruptedException {
+        CountDownLatch connected = new CountDownLatch(1);
+        ConnectionManager.Listener listener = state -> {
+            if (state == ConnectionManager.State.CONNECTED) {
+                connected.countDown();
+            }
+        };
+        manager.addListener(listener);
+        session.connect(emulator.loopback());
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+        manager.removeListener(listener);
+        awaitTransportChange(null);
+    }
+
+    // The session binds on the manager's listener thread, shortly after the state change
+    private void awaitTransportChange(Transport previous) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (session.getTransport() == previous || session.getWriter() == null) {
+            assertTrue("writer never bound", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitRelay(boolean on) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (emulator.isRelayOn() != on) {
+            assertTrue("relay never switched", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class LoopbackTransportTest {
+
+    @Test
+    public void bytesWrittenOnOneEndAreReadOnTheOther() throws Exception {
+        LoopbackTransport app = new LoopbackTransport(16);
+        LoopbackTransport device = app.getPeer();
+
+        app.getOutputStream().write(new byte[]{1, 2, 3});
+        device.getOutputStream().write('A');
+
+        byte[] buffer = new byte[8];
+        assertEquals(3, device.getInputStream().read(buffer));
+        assertArrayEquals(new byte[]{1, 2, 3}, Arrays.copyOf(buffer, 3));
+        assertEquals('A', app.getInputStream().read());
+        assertSame(app, device.getPeer());
+    }
+
+    @Test
+    public void wrapsAroundTheRingWithoutLosingOrder() throws Exception {
+        LoopbackTransport app = new LoopbackTransport(7);
+        OutputStream out = app.getOutputStream();
+        InputStream in = app.getPeer().getInputStream();
+        byte[] buffer = new byte[5];
+        int expected = 0;
+        for (int round = 0; round < 100; round++) {
+            byte[] chunk = new byte[5];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = (byte) (round * 5 + i);
+            }
+            out.write(chunk);
+            int read = 0;
+            while (read < chunk.length) {
+                int count = in.read(buffer, 0, buffer.length);
+                for (int i = 0; i < count; i++) {
+                    assertEquals((byte) expected++, buffer[i]);
+                }
+                read += count;
+            }
+        }
+    }
+
+    @Test
+    public void writerBlocksWhileThePipeIsFull() throws Exception {
+        LoopbackTransport app = new LoopbackTransport(4);
+        CountDownLatch written = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            try {
+                app.getOutputStream().write(new byte[10]);
+                written.countDown();
+            } catch (IOException e) {
+                // Not expected
+            }
+        });
+        writer.start();
+
+        assertFalse(written.await(100, TimeUnit.MILLISECONDS));
+        byte[] drain = new byte[10];
+        int total = 0;
+        while (total < 10) {
+            total += app.getPeer().getInputStream().read(drain, 0, drain.length);
+        }
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void closeEndsReadsAfterDrainingAndFailsWrites() throws Exception {
+        LoopbackTransport app = new LoopbackTransport(16);
+        LoopbackTransport device = app.getPeer();
+        device.getOutputStream().write(new byte[]{9, 9});
+
+        AtomicReference<Integer> blockedRead = new AtomicReference<>();
+        CountDownLatch readerDone = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            try {
+                blockedRead.set(device.getInputStream().read());
+            } catch (IOException e) {
+                blockedRead.set(-2);
+            }
+            readerDone.countDown();
+        });
+        reader.start();
+
+        app.close();
+
+        // The reader blocked on the device end is woken with end of stream
+        assertTrue(readerDone.await(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(-1), blockedRead.get());
+        assertFalse(app.isConnected());
+        assertFalse(device.isConnected());
+        // Bytes already in flight are still delivered
+        assertEquals(2, app.getInputStream().read(new byte[4]));
+        assertEquals(-1, app.getInputStream().read());
+        try {
+            device.getOutputStream().write(1);
+            fail("write to a closed pipe");
+        } catch (IOException expected) {
+            // Like a dropped socket
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.bluetooth_control;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void lookupsReturnTheSameInstance() {
+        Metrics metrics = new Metrics();
+
+        assertSame(metrics.counter(Metrics.BYTES_IN), metrics.counter(Metrics.BYTES_IN));
+        assertSame(metrics.histogram(Metrics.COMMAND_RTT), metrics.histogram(Metrics.COMMAND_RTT));
+        assertNotSame(metrics.counter(Metrics.BYTES_IN), metrics.counter(Metrics.BYTES_OUT));
+    }
+
+    @Test
+    public void snapshotReadsCountersGaugesAndHistograms() {
+        Metrics metrics = new Metrics();
+        AtomicLong queue = new AtomicLong(3);
+        metrics.counter(Metrics.BYTES_IN).add(100);
+        metrics.counter(Metrics.BYTES_IN).add(28);
+        metrics.counter(Metrics.RECONNECTS).increment();
+        metrics.gauge(Metrics.UPLOAD_QUEUE, queue::get);
+        metrics.histogram(Metrics.UPLOAD_LATENCY).record(2_000_000);
+
+        Metrics.Snapshot first = metrics.snapshot();
+        queue.set(7);
+        Metrics.Snapshot second = metrics.snapshot();
+
+        assertEquals(128, first.getCounter(Metrics.BYTES_IN));
+        assertEquals(1, first.getCounter(Metrics.RECONNECTS));
+        assertEquals(0, first.getCounter("missing"));
+        assertEquals(3, first.getGauge(Metrics.UPLOAD_QUEUE));
+        assertEquals(7, second.getGauge(Metrics.UPLOAD_QUEUE));
+        assertEquals(1, first.getHistogram(Metrics.UPLOAD_LATENCY).getCount());
+    }
+
+    @Test
+    public void ratesAreRelativeToTheEarlierSnapshot() throws Exception {
+        Metrics metrics = new Metrics();
+        Metrics.Counter bytes = metrics.counter(Metrics.BYTES_IN);
+        Metrics.Snapshot earlier = metrics.snapshot();
+        bytes.add(1000);
+        Thread.sleep(100);
+        Metrics.Snapshot later = metrics.snapshot();
+
+        double rate = later.getRate(Metrics.BYTES_IN, earlier);
+        assertTrue("rate " + rate, rate > 1000 && rate <= 10_000);
+        assertEquals(0, later.getRate(Metrics.BYTES_IN, later), 0);
+    }
+
+    @Test
+    public void formatHasOneLinePerMetric() {
+        Metrics metrics = new Metrics();
+        metrics.counter(Metrics.FRAMES_IN).add(5);
+        metrics.gauge(Metrics.OUTBOX_PENDING, () -> 12);
+        metrics.histogram(Metrics.COMMAND_RTT).record(1_500_000);
+
+        String text = metrics.snapshot().format(null);
+
+        assertEquals(3, text.split("\n").length);
+        assertTrue(text, text.contains("link.frames_in"));
+        assertTrue(text, text.contains("outbox.pending   12"));
+        assertTrue(text, text.contains("command.rtt      p50 1.5ms"));
+    }
+
+    @Test
+    public void exportWritesAJsonSnapshot() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.counter(Metrics.BYTES_OUT).add(42);
+        metrics.gauge(Metrics.UPLOAD_QUEUE, () -> 2);
+        metrics.histogram(Metrics.UI_FRAME).record(900);
+        File file = new File(folder.getRoot(), "metrics.json");
+
+        metrics.export(file);
+
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(json, json.contains("\"counters\":{\"link.bytes_out\":42}"));
+        assertTrue(json, json.contains("\"gauges\":{\"upload.queue\":2}"));
+        assertTrue(json, json.contains("\"ui.frame\":{\"count\":1,"));
+        assertTrue(json, json.contains("\"maxNanos\":900}"));
+    }
+
+    @Test
+    public void formatsNanosInReadableUnits() {
+        assertEquals("850ns", Metrics.Snapshot.formatNanos(850));
+        assertEquals("12.3us", Metrics.Snapshot.formatNanos(12_345));
+        assertEquals("4.0ms", Metrics.Snapshot.formatNanos(4_000_000));
+        assertEquals("2.50s", Metrics.Snapshot.formatNanos(2_500_000_000L));
+    }
+}
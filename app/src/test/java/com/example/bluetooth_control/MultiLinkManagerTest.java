@@ -0,0 +1,197 @@
+package com.example.bluetooth_control;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class MultiLinkManagerTest {
+
+    private MultiLinkManager links;
+
+    @After
+    public void tearDown() {
+        if (links != null) {
+            links.close();
+        }
+    }
+
+    @Test
+    public void connectsManyDevicesInParallelWithinTheBound() throws Exception {
+        links = new MultiLinkManager(4, 10, 100, 3);
+        AtomicInteger connecting = new AtomicInteger();
+        AtomicInteger maxConnecting = new AtomicInteger();
+
+        for (int i = 0; i < 16; i++) {
+            SimulatedArduino.Factory device = new SimulatedArduino.Factory(100);
+            links.connect("dev-" + i, () -> {
+                maxConnecting.accumulateAndGet(connecting.incrementAndGet(), Math::max);
+                try {
+                    return device.connect();
+                } finally {
+                    connecting.decrementAndGet();
+                }
+            });
+        }
+        assertTrue(waitUntil(() -> links.getConnectedCount() == 16, 5000));
+
+        // Each connect blocks for 100ms, so the pool is saturated but never exceeded
+        assertEquals(4, maxConnecting.get());
+        for (MultiLinkManager.Link link : links.getLinks()) {
+            assertTrue(link.getManager().getLastConnectMillis() >= 100);
+        }
+    }
+
+    @Test
+    public void broadcastReachesEveryDeviceAndSendOnlyOne() throws Exception {
+        links = new MultiLinkManager(4, 10, 100, 3);
+        List<SimulatedArduino.Factory> devices = connect(4);
+        byte[] on = frame(1);
+
+        assertEquals(4, links.broadcast(on));
+        assertTrue(waitUntil(() -> receivedTotal(devices) == 4, 5000));
+        for (SimulatedArduino.Factory device : devices) {
+            assertEquals(1, device.getCurrent().getOutput(0));
+        }
+
+        assertTrue(links.send("dev-2", frame(0)));
+        assertTrue(waitUntil(() -> devices.get(2).getCurrent().getReceivedCount() == 2, 5000));
+        assertEquals(0, devices.get(2).getCurrent().getOutput(0));
+        assertEquals(1, devices.get(1).getCurrent().getReceivedCount());
+        assertEquals(1, devices.get(3).getCurrent().getOutput(0));
+
+        assertFalse(links.send("unknown", on));
+    }
+
+    @Test
+    public void eachLinkKeepsItsOwnStats() throws Exception {
+        links = new MultiLinkManager(2, 10, 100, 3);
+        List<SimulatedArduino.Factory> devices = connect(2);
+        byte[] on = frame(1);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(links.send("dev-0", on));
+        }
+
+        MultiLinkManager.Link busy = links.getLink("dev-0");
+        MultiLinkManager.Link idle = links.getLink("dev-1");
+        assertTrue(waitUntil(() -> devices.get(0).getCurrent().getReceivedCount() == 10, 5000));
+        // Every command is acked, so only dev-0 has read anything back
+        assertTrue(waitUntil(() -> busy.getBytesRead() > 0, 5000));
+        assertTrue(waitUntil(() -> busy.getWriteCount() == 10, 5000));
+        assertEquals(10L * on.length, busy.getBytesWritten());
+        assertTrue(busy.getMaxWriteMicros() >= busy.getAverageWriteMicros());
+        assertEquals(0, idle.getWriteCount());
+        assertEquals(0, idle.getBytesRead());
+        assertTrue(links.describe().contains("dev-0: CONNECTED"));
+        assertTrue(links.describe().contains("dev-1: CONNECTED"));
+    }
+
+    @Test
+    public void writesArePacedAndCoalescedPerLink() throws Exception {
+        // At 300 baud a frame holds the wire for over 200ms, so the later sends stay queued
+        links = new MultiLinkManager(2, 10, 100, 3, 300);
+        List<SimulatedArduino.Factory> devices = connect(2);
+        MultiLinkManager.Link link = links.getLink("dev-0");
+        for (int i = 1; i <= 6; i++) {
+            assertTrue(links.send("dev-0", "relay", frame(i % 2)));
+        }
+
+        // The first frame switches the output on, only the last one queued switches it off
+        SimulatedArduino device = devices.get(0).getCurrent();
+        assertTrue(waitUntil(() -> device.getOutput(0) == 0 && device.getReceivedCount() > 0
+                && link.getWriteCount() == device.getReceivedCount(), 5000));
+        assertTrue("wrote " + link.getWriteCount(), link.getWriteCount() <= 2);
+        assertEquals(link.getWriteCount() * frame(0).length, link.getBytesWritten());
+        assertEquals(0, devices.get(1).getCurrent().getReceivedCount());
+        assertEquals(0, link.getDroppedWrites());
+    }
+
+    @Test
+    public void oneLinkReconnectsWithoutDisturbingTheOthers() throws Exception {
+        links = new MultiLinkManager(4, 10, 100, 3);
+        List<SimulatedArduino.Factory> devices = connect(3);
+        Transport steady = links.getLink("dev-1").getManager().getTransport();
+        MultiLinkManager.Link flaky = links.getLink("dev-0");
+        List<ConnectionManager.State> flakyStates = new ArrayList<>();
+        links.addListener((link, state) -> {
+            if (link == flaky) {
+                synchronized (flakyStates) {
+                    flakyStates.add(state);
+                }
+            }
+        });
+
+        assertTrue(links.send("dev-0", frame(1)));
+        assertTrue(waitUntil(() -> flaky.getBytesRead() > 0, 5000));
+        devices.get(0).failNext(1);
+        flaky.getManager().reportFailure(flaky.getManager().getTransport(), new IOException("link lost"));
+        // The count goes up just before the CONNECTED state is published
+        assertTrue(waitUntil(() -> flaky.getManager().getReconnectCount() == 1 && flaky.isConnected(), 5000));
+
+        synchronized (flakyStates) {
+            assertTrue(flakyStates.contains(ConnectionManager.State.RECONNECTING));
+        }
+        // Nothing has been read since the reconnect, the ack before it no longer counts
+        assertEquals(0, flaky.getBytesRead());
+        assertEquals(0, flaky.getReadBytesPerSecond());
+        assertSame(steady, links.getLink("dev-1").getManager().getTransport());
+        assertEquals(0, links.getLink("dev-1").getManager().getReconnectCount());
+        assertEquals(3, links.broadcast(frame(1)));
+        assertTrue(waitUntil(() -> receivedTotal(devices) == 3, 5000));
+    }
+
+    @Test
+    public void disconnectClosesOnlyThatLink() throws Exception {
+        links = new MultiLinkManager(4, 10, 100, 3);
+        connect(2);
+        Transport dropped = links.getLink("dev-0").getManager().getTransport();
+
+        links.disconnect("dev-0");
+
+        assertFalse(dropped.isConnected());
+        assertNull(links.getLink("dev-0"));
+        assertEquals(1, links.getLinkCount());
+        assertEquals(1, links.broadcast(frame(1)));
+    }
+
+    private List<SimulatedArduino.Factory> connect(int count) throws InterruptedException {
+        List<SimulatedArduino.Factory> devices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SimulatedArduino.Factory device = new SimulatedArduino.Factory(0);
+            devices.add(device);
+            links.connect("dev-" + i, device);
+        }
+        assertTrue(waitUntil(() -> links.getConnectedCount() == count, 5000));
+        return devices;
+    }
+
+    private static byte[] frame(int state) {
+        return CommandProtocol.encode(1, CommandProtocol.OP_SET_STATE, 1, (byte) 0, (byte) state);
+    }
+
+    private static int receivedTotal(List<SimulatedArduino.Factory> devices) {
+        int total = 0;
+        for (SimulatedArduino.Factory device : devices) {
+            total += device.getCurrent().getReceivedCount();
+        }
+        return total;
+    }
+
+    private static boolean waitUntil(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.bluetooth_control;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+public class OutboxDrainerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private TelemetryUploader uploader;
+    private Outbox outbox;
+    private OutboxDrainer drainer;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        uploader = new TelemetryUploader(server.url("/data").toString(), 1, 16);
+        outbox = new Outbox(folder.getRoot(), 4096, 4);
+        drainer = new OutboxDrainer(outbox, uploader, 3, 4096, 10, 20, 200);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        drainer.close();
+        outbox.close();
+        uploader.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void nothingIsSentWhileOfflineAndEverythingOnceOnline() throws Exception {
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.enqueue(new MockResponse().setBody("ok"));
+        drainer.setOnline(false);
+        for (String line : new String[]{"a", "b", "c", "d"}) {
+            append(line);
+            drainer.wake();
+        }
+
+        assertNull(server.takeRequest(200, TimeUnit.MILLISECONDS));
+
+        drainer.setOnline(true);
+        assertEquals("[{\"data\":\"a\"},{\"data\":\"b\"},{\"data\":\"c\"}]", takeBody());
+        assertEquals("[{\"data\":\"d\"}]", takeBody());
+        awaitPending(0);
+        assertEquals(2, drainer.getBatchesSent());
+    }
+
+    @Test
+    public void failedBatchIsRetriedInOrder() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("ok"));
+        append("first");
+        append("second");
+        drainer.wake();
+
+        String expected = "[{\"data\":\"first\"},{\"data\":\"second\"}]";
+        assertEquals(expected, takeBody());
+        assertEquals(expected, takeBody());
+        assertEquals(expected, takeBody());
+        awaitPending(0);
+        assertEquals(2, drainer.getBatchesRetried());
+        assertEquals(1, drainer.getBatchesSent());
+    }
+
+    @Test
+    public void batchTheBackendRejectsIsDroppedSoTheRestCanFlow() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400));
+        server.enqueue(new MockResponse().setBody("ok"));
+        for (String line : new String[]{"bad", "x", "y", "good"}) {
+            append(line);
+        }
+        drainer.wake();
+
+        assertEquals("[{\"data\":\"bad\"},{\"data\":\"x\"},{\"data\":\"y\"}]", takeBody());
+        assertEquals("[{\"data\":\"good\"}]", takeBody());
+        awaitPending(0);
+        assertEquals(1, drainer.getBatchesRejected());
+    }
+
+    @Test
+    public void gzippedBatchDecodesToTheSameArray() throws Exception {
+        drainer.close();
+        drainer = new OutboxDrainer(outbox, uploader, 3, 4096, 10, 20, 200, true);
+        server.enqueue(new MockResponse().setBody("ok"));
+        append("first");
+        append("second");
+        drainer.wake();
+
+        RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        assertEquals(String.valueOf(request.getBodySize()), request.getHeader("Content-Length"));
+        try (BufferedSource body = Okio.buffer(new GzipSource(request.getBody()))) {
+            assertEquals("[{\"data\":\"first\"},{\"data\":\"second\"}]", body.readUtf8());
+        }
+        awaitPending(0);
+        assertEquals(1, drainer.getBatchesSent());
+    }
+
+    @Test
+    public void backoffDoublesAndIsCapped() {
+        assertEquals(20, drainer.backoffMillis(1));
+        assertEquals(40, drainer.backoffMillis(2));
+        assertEquals(160, drainer.backoffMillis(4));
+        assertEquals(200, drainer.backoffMillis(5));
+    }
+
+    // Records go in the way TelemetryOutbox stores them, as encoded JSON
+    private void append(String data) throws IOException {
+        byte[] record = TelemetryUploader.toJson(data);
+        outbox.append(record, 0, record.length);
+    }
+
+    private String takeBody() throws InterruptedException {
+        RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        // The streamed body announces its exact length up front
+        assertEquals(String.valueOf(request.getBodySize()), request.getHeader("Content-Length"));
+        return request.getBody().readUtf8();
+    }
+
+    private void awaitPending(long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (outbox.getPendingCount() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, outbox.getPendingCount());
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.bluetooth_control;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void peekReturnsRecordsInOrderUntilAcknowledged() throws IOException {
+        Outbox outbox = new Outbox(folder.getRoot(), 1024, 4);
+        outbox.append("a");
+        outbox.append("b");
+        outbox.append("c");
+
+        Outbox.Batch batch = outbox.peek(2, 1024);
+        assertEquals(list("a", "b"), strings(batch));
+        // Peeking again without acknowledging gives the same records
+        assertEquals(list("a", "b"), strings(outbox.peek(2, 1024)));
+
+        outbox.acknowledge(batch);
+        assertEquals(list("c"), strings(outbox.peek(10, 1024)));
+        assertEquals(1, outbox.getPendingCount());
+        outbox.close();
+    }
+
+    @Test
+    public void peekStopsAtByteLimitButReturnsAtLeastOneRecord() throws IOException {
+        Outbox outbox = new Outbox(folder.getRoot(), 1024, 4);
+        outbox.append("0123456789");
+        outbox.append("0123456789");
+
+        assertEquals(1, outbox.peek(10, 15).size());
+        assertEquals(1, outbox.peek(10, 1).size());
+        assertEquals(2, outbox.peek(10, 20).size());
+        outbox.close();
+    }
+
+    @Test
+    public void recordsSpanSegmentsAndAcknowledgedSegmentsAreDeleted() throws IOException {
+        // 8 byte header + 8 byte payload, four records per 64 byte segment
+        Outbox outbox = new Outbox(folder.getRoot(), 64, 8);
+        for (int i = 0; i < 10; i++) {
+            outbox.append("record-" + i);
+        }
+        assertEquals(3, outbox.getSegmentCount());
+
+        Outbox.Batch batch = outbox.peek(6, 1024);
+        assertEquals(6, batch.size());
+        outbox.acknowledge(batch);
+        assertEquals(2, outbox.getSegmentCount());
+        assertEquals(2, segmentFiles().length);
+
+        List<String> rest = strings(outbox.peek(10, 1024));
+        assertEquals(4, rest.size());
+        assertTrue(rest.get(3).endsWith("9"));
+        outbox.close();
+    }
+
+    @Test
+    public void recoversUnacknowledgedRecordsAfterACrash() throws IOException {
+        Outbox outbox = new Outbox(folder.getRoot(), 64, 8);
+        for (int i = 0; i < 6; i++) {
+            outbox.append("line " + i);
+        }
+        outbox.acknowledge(outbox.peek(2, 1024));
+        // No close(): the process dies here
+
+        Outbox reopened = new Outbox(folder.getRoot(), 64, 8);
+        assertEquals(4, reopened.getPendingCount());
+        assertEquals(list("line 2", "line 3", "line 4", "line 5"), strings(reopened.peek(10, 1024)));
+
+        reopened.append("line 6");
+        assertEquals(5, reopened.peek(10, 1024).size());
+        reopened.close();
+    }
+
+    @Test
+    public void tornRecordAtTheTailIsDiscardedOnRecovery() throws IOException {
+        Outbox outbox = new Outbox(folder.getRoot(), 1024, 4);
+        outbox.append("complete");
+        outbox.close();
+
+        // Simulate a power loss mid-append: a length is on disk but the payload never made it
+        File segment = segmentFiles()[0];
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(16);
+            raf.writeInt(12);
+            raf.writeInt(0xDEADBEEF);
+            raf.write("garb".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        Outbox reopened = new Outbox(folder.getRoot(), 1024, 4);
+        assertEquals(list("complete"), strings(reopened.peek(10, 1024)));
+        reopened.append("after");
+        reopened.close();
+
+        Outbox again = new Outbox(folder.getRoot(), 1024, 4);
+        assertEquals(list("complete", "after"), strings(again.peek(10, 1024)));
+        again.close();
+    }
+
+    @Test
+    public void corruptCursorRedeliversFromTheOldestRecord() throws IOException {
+        Outbox outbox = new Outbox(folder.getRoot(), 1024, 4);
+        outbox.append("a");
+        outbox.append("b");
+        outbox.acknowledge(outbox.peek(1, 1024));
+        outbox.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(new File(folder.getRoot(), "cursor"), "rw")) {
+            raf.seek(8);
+            raf.writeInt(999);
+        }
+
+        // At-least-once: a duplicate upload is better than a lost one
+        Outbox reopened = new Outbox(folder.getRoot(), 1024, 4);
+        assertEquals(list("a", "b"), strings(reopened.peek(10, 1024)));
+        reopened.close();
+    }
+
+    @Test
+    public void oldestSegmentIsDroppedWhenTheOutboxIsFull() throws IOException {
+        Outbox outbox = new Outbox(folder.getRoot(), 64, 2);
+        for (int i = 0; i < 12; i++) {
+            outbox.append("rec-" + (char) ('a' + i) + "xyz");
+        }
+
+        // Two segments of four records survive, the first four were never sent
+        assertEquals(2, outbox.getSegmentCount());
+        assertEquals(4, outbox.getDroppedCount());
+        assertEquals(8, outbox.getPendingCount());
+        List<String> records = strings(outbox.peek(100, 1024));
+        assertEquals("rec-exyz", records.get(0));
+        assertEquals("rec-lxyz", records.get(7));
+        outbox.close();
+    }
+
+    @Test
+    public void staleBatchIsNotAcknowledgedTwice() throws IOException {
+        Outbox outbox = new Outbox(folder.getRoot(), 1024, 4);
+        outbox.append("a");
+        outbox.append("b");
+        Outbox.Batch batch = outbox.peek(1, 1024);
+        outbox.acknowledge(batch);
+        outbox.acknowledge(batch);
+
+        assertEquals(list("b"), strings(outbox.peek(10, 1024)));
+        outbox.close();
+    }
+
+    private File[] segmentFiles() {
+        return folder.getRoot().listFiles((dir, name) -> name.endsWith(".seg"));
+    }
+
+    private static List<String> strings(Outbox.Batch batch) {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            out.add(new String(batch.get(i), StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    private static List<String> list(String... values) {
+        List<String> out = new ArrayList<>();
+        for (String value : values) {
+            out.add(value);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReadingParserTest {
+
+    private final List<String> seen = new ArrayList<>();
+
+    @Test
+    public void csvColumnsMapToFields() {
+        ReadingParser parser = parser(ReadingParser.csv(',', "temp", null, "hum"));
+
+        assertTrue(parse(parser, "21.5, 99 ,40.25,extra"));
+        assertTrue(parse(parser, "-3,,x"));
+        assertFalse(parse(parser, "nan,nan,nan"));
+
+        assertEquals("temp=21.5 hum=40.25|temp=-3.0", joined());
+        assertEquals(1, parser.getRejectedCount());
+    }
+
+    @Test
+    public void keyValuePairsInAnyOrder() {
+        ReadingParser parser = parser(ReadingParser.keyValue("temp", "hum", "light"));
+
+        assertTrue(parse(parser, "hum:40.1 temp:21.5;light=812\r"));
+        assertTrue(parse(parser, "other=1,temp=-0.5,hum=oops"));
+        assertFalse(parse(parser, "Relay ON"));
+
+        assertEquals("temp=21.5 hum=40.1 light=812.0|temp=-0.5", joined());
+    }
+
+    @Test
+    public void jsonReadsNumbersAndSkipsEverythingElse() {
+        ReadingParser parser = parser(ReadingParser.json("temp", "hum"));
+
+        assertTrue(parse(parser, " {\"id\":\"a,}\\\"b\", \"nested\":{\"temp\":[1,{\"x\":2}]}, \"temp\" : 2.5e1 ,\"hum\":true} "));
+        assertTrue(parse(parser, "{\"hum\":40}"));
+        assertFalse(parse(parser, "{\"temp\":21.5"));
+        assertFalse(parse(parser, "{\"temp\":21.5} trailing"));
+        assertFalse(parse(parser, "{}"));
+
+        assertEquals("temp=25.0|hum=40.0", joined());
+        assertEquals(3, parser.getRejectedCount());
+    }
+
+    @Test
+    public void structFieldsAreDecodedAndScaled() {
+        ReadingParser.Format format = new ReadingParser.StructBuilder()
+                .field("temp", ReadingParser.Type.INT16, 0.01)
+                .field("hum", ReadingParser.Type.UINT8)
+                .skip(1)
+                .field("count", ReadingParser.Type.UINT32)
+                .field("volts", ReadingParser.Type.FLOAT32)
+                .build();
+        ReadingParser parser = parser(format);
+        ByteBuffer struct = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        struct.putShort((short) -1250).put((byte) 200).put((byte) 0).putInt(0xFFFFFFFF).putFloat(3.25f);
+
+        assertTrue(parser.parse(struct.array(), 0, 12));
+        assertFalse(parser.parse(struct.array(), 0, 11));
+
+        assertEquals("temp=-12.5 hum=200.0 count=4.294967295E9 volts=3.25", joined());
+        assertEquals(12, format.framing().maxPayload());
+    }
+
+    @Test
+    public void bigEndianStructsThroughTheDecoder() {
+        ReadingParser.Format format = new ReadingParser.StructBuilder()
+                .order(ByteOrder.BIG_ENDIAN)
+                .field("a", ReadingParser.Type.INT32)
+                .field("b", ReadingParser.Type.UINT16)
+                .framing(FrameDecoder.lengthPrefixed(1))
+                .build();
+        ReadingParser parser = parser(format);
+        FrameDecoder decoder = new FrameDecoder(format.framing(), 255, parser);
+
+        byte[] stream = {6, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE, 0x01, 0x00, 2, 9, 9};
+        decoder.feed(stream, 0, stream.length);
+
+        assertEquals("a=-2.0 b=256.0", joined());
+        assertEquals(1, parser.getRejectedCount());
+    }
+
+    @Test
+    public void textFormatsParseFramesFromTheDecoder() {
+        ReadingParser.Format format = ReadingParser.keyValue("temp");
+        ReadingParser parser = parser(format);
+        FrameDecoder decoder = new FrameDecoder(format.framing(), 64, parser);
+
+        byte[] stream = "temp=1\r\ntemp=2\ntemp=3".getBytes(StandardCharsets.US_ASCII);
+        decoder.feed(stream, 0, 9);
+        decoder.feed(stream, 9, stream.length - 9);
+
+        assertEquals("temp=1.0|temp=2.0", joined());
+    }
+
+    @Test
+    public void invalidFormatsAreRefused() {
+        expectIllegal(() -> ReadingParser.keyValue());
+        expectIllegal(() -> ReadingParser.keyValue("a", "a"));
+        expectIllegal(() -> ReadingParser.json("a", ""));
+        expectIllegal(() -> ReadingParser.csv('.', "a"));
+        String[] many = new String[65];
+        for (int i = 0; i < many.length; i++) {
+            many[i] = "f" + i;
+        }
+        expectIllegal(() -> ReadingParser.keyValue(many));
+    }
+
+    @Test
+    public void numbersMatchDoubleParseDouble() {
+        String[] samples = {"0", "-0", "+7", "21.5", "0.1", ".5", "5.", "-40.125", "1e3", "1.5E-7",
+                "123456789012345678", "0.000000000000000000001234", "9007199254740993", "3.14159265358979323846",
+                "1e22", "1e23", "4.9e-324", "1.7976931348623157e308", "00012.3400"};
+        for (String sample : samples) {
+            assertEquals(sample, Double.parseDouble(sample), number(sample), 0);
+        }
+        for (String bad : new String[]{"", "-", ".", "e5", "1e", "1e+", "1.2.3", "12a", "nan", "inf", "ovf", "0x10", " 1"}) {
+            assertTrue(bad, Double.isNaN(number(bad)));
+        }
+    }
+
+    @Test
+    public void fuzzedNumbersMatchDoubleParseDouble() {
+        Random random = new Random(17);
+        for (int i = 0; i < 200_000; i++) {
+            String text;
+            switch (i % 4) {
+                case 0:
+                    text = Double.toString(Double.longBitsToDouble(random.nextLong()));
+                    break;
+                case 1:
+                    text = String.format(Locale.ROOT, "%." + random.nextInt(8) + "f", (random.nextDouble() - 0.5) * 2000);
+                    break;
+                case 2:
+                    text = Long.toString(random.nextLong() >> random.nextInt(64));
+                    break;
+                default:
+                    text = random.nextInt(100_000) + "." + random.nextInt(100_000) + "e" + (random.nextInt(80) - 40);
+            }
+            if (text.contains("N") || text.contains("I")) {
+                continue;
+            }
+            assertEquals(text, Double.parseDouble(text), number(text), 0);
+        }
+    }
+
+    @Test
+    public void fuzzedLinesNeverThrowAndOnlyReportListedFields() {
+        ReadingParser.Format[] formats = {
+                ReadingParser.csv(',', "a", "b", "c"),
+                ReadingParser.keyValue("a", "b", "c"),
+                ReadingParser.json("a", "b", "c"),
+                new ReadingParser.StructBuilder().field("a", ReadingParser.Type.FLOAT32).field("b", ReadingParser.Type.INT16).build()
+        };
+        String[] seeds = {"1.5,-2,3e2", "a=1.5 b:-2;c=3e2", "{\"a\":1.5,\"b\":-2,\"x\":{\"c\":[1]},\"c\":3e2}"};
+        byte[] alphabet = "{}[]\",:=;.-+eE0123456789 \\abcnx\r\t".getBytes(StandardCharsets.US_ASCII);
+        Random random = new Random(42);
+        for (ReadingParser.Format format : formats) {
+            ReadingParser parser = new ReadingParser(format, readings -> {
+                assertTrue(readings.presentCount() > 0);
+                for (int i = 0; i < readings.size(); i++) {
+                    if (readings.has(i)) {
+                        assertFalse(Double.isNaN(readings.value(i)));
+                        assertFalse(Double.isInfinite(readings.value(i)));
+                    }
+                }
+            });
+            for (int i = 0; i < 50_000; i++) {
+                byte[] line = seeds[random.nextInt(seeds.length)].getBytes(StandardCharsets.US_ASCII);
+                for (int m = random.nextInt(4); m > 0; m--) {
+                    int at = random.nextInt(line.length);
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            line[at] = alphabet[random.nextInt(alphabet.length)];
+                            break;
+                        case 1:
+                            line[at] = (byte) random.nextInt(256);
+                            break;
+                        default:
+                            line = Arrays.copyOf(line, at);
+                    }
+                    if (line.length == 0) {
+                        break;
+                    }
+                }
+                // Parse from the middle of a larger array to catch bounds mistakes
+                byte[] padded = new byte[line.length + 8];
+                Arrays.fill(padded, (byte) '9');
+                System.arraycopy(line, 0, padded, 4, line.length);
+                parser.parse(padded, 4, line.length);
+            }
+            assertEquals(50_000, parser.getParsedCount() + parser.getRejectedCount());
+            assertTrue(parser.getParsedCount() > 0);
+        }
+    }
+
+    private ReadingParser parser(ReadingParser.Format format) {
+        return new ReadingParser(format, readings -> {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < readings.size(); i++) {
+                if (readings.has(i)) {
+                    if (text.length() > 0) {
+                        text.append(' ');
+                    }
+                    text.append(readings.name(i)).append('=').append(readings.value(i));
+                }
+            }
+            seen.add(text.toString());
+        });
+    }
+
+    private static boolean parse(ReadingParser parser, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return parser.parse(bytes, 0, bytes.length);
+    }
+
+    private static double number(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return ReadingParser.parseNumber(bytes, 0, bytes.length);
+    }
+
+    private String joined() {
+        StringBuilder text = new StringBuilder();
+        for (String readings : seen) {
+            if (text.length() > 0) {
+                text.append('|');
+            }
+            text.append(readings);
+        }
+        return text.toString();
+    }
+
+    private static void expectIllegal(Runnable action) {
+        try {
+            action.run();
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Refused at compile time rather than per line
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RuleEngineTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final ReadingParser.Format FORMAT = ReadingParser.keyValue("temp", "hum");
+
+    private final List<String> sent = new ArrayList<>();
+    private long now;
+
+    @Test
+    public void firesOnceAfterTheConditionHeldAndClearsWithHysteresis() {
+        RuleEngine engine = engine(new RuleEngine.Rule.Builder("hot")
+                .when("temp").above(30).hysteresis(2).forAtLeast(5, TimeUnit.SECONDS)
+                .then("dev2", bytes("A")).otherwise("dev2", bytes("B")).build());
+        ReadingParser parser = parser(engine);
+
+        feed(parser, 0, "temp=31");
+        feed(parser, 4, "temp=32");
+        assertTrue(sent.isEmpty());
+        feed(parser, 5, "temp=31");
+        feed(parser, 9, "temp=35");
+        assertEquals(Arrays.asList("dev2:A"), sent);
+        assertTrue(engine.isActive("hot"));
+
+        // Inside the hysteresis band nothing changes
+        feed(parser, 10, "temp=29");
+        assertEquals(1, sent.size());
+        feed(parser, 11, "temp=28");
+        assertEquals(Arrays.asList("dev2:A", "dev2:B"), sent);
+        assertFalse(engine.isActive("hot"));
+        assertEquals(2, engine.getFiredCount());
+    }
+
+    @Test
+    public void aDipRestartsTheDuration() {
+        RuleEngine engine = engine(new RuleEngine.Rule.Builder("cold")
+                .when("temp").below(5).forAtLeast(3, TimeUnit.SECONDS).then("primary", bytes("A")).build());
+        ReadingParser parser = parser(engine);
+
+        feed(parser, 0, "temp=4");
+        feed(parser, 2, "temp=6");
+        feed(parser, 3, "temp=4");
+        feed(parser, 5, "temp=4");
+        assertTrue(sent.isEmpty());
+        feed(parser, 6, "temp=4");
+        assertEquals(Arrays.asList("primary:A"), sent);
+    }
+
+    @Test
+    public void averageWindowIgnoresSpikes() {
+        RuleEngine engine = engine(new RuleEngine.Rule.Builder("hot")
+                .when("temp", RuleEngine.Aggregate.AVERAGE, 10, TimeUnit.SECONDS).above(30)
+                .then("primary", bytes("A")).build());
+        ReadingParser parser = parser(engine);
+
+        for (int t = 0; t < 10; t++) {
+            feed(parser, t, "temp=20");
+        }
+        feed(parser, 10, "temp=80");
+        assertTrue(sent.isEmpty());
+        for (int t = 11; t < 20; t++) {
+            feed(parser, t, "temp=35");
+        }
+        assertEquals(Arrays.asList("primary:A"), sent);
+    }
+
+    @Test
+    public void windowsMatchABruteForceAggregate() {
+        Random random = new Random(3);
+        long window = 5 * SECOND;
+        RuleEngine.Node average = RuleEngine.Node.create(RuleEngine.Aggregate.AVERAGE, window, 4096);
+        RuleEngine.Node min = RuleEngine.Node.create(RuleEngine.Aggregate.MIN, window, 4096);
+        RuleEngine.Node max = RuleEngine.Node.create(RuleEngine.Aggregate.MAX, window, 4096);
+        List<Long> times = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        long t = 0;
+        for (int i = 0; i < 5000; i++) {
+            t += random.nextInt(200) * 1_000_000L;
+            double value = random.nextInt(1000) / 10.0;
+            times.add(t);
+            values.add(value);
+            average.add(t, value);
+            min.add(t, value);
+            max.add(t, value);
+
+            double sum = 0;
+            double lo = Double.MAX_VALUE;
+            double hi = -Double.MAX_VALUE;
+            int count = 0;
+            for (int j = times.size() - 1; j >= 0 && t - times.get(j) <= window; j--) {
+                double v = values.get(j);
+                sum += v;
+                lo = Math.min(lo, v);
+                hi = Math.max(hi, v);
+                count++;
+            }
+            assertEquals(sum / count, average.value(), 1e-9);
+            assertEquals(lo, min.value(), 0);
+            assertEquals(hi, max.value(), 0);
+        }
+    }
+
+    @Test
+    public void rulesWatchingTheSameAggregateShareOneNode() {
+        RuleEngine engine = engine(
+                new RuleEngine.Rule.Builder("warm").when("temp").above(25).then("a", bytes("A")).build(),
+                new RuleEngine.Rule.Builder("hot").when("temp").above(30).then("b", bytes("A")).build(),
+                new RuleEngine.Rule.Builder("avg").when("temp", RuleEngine.Aggregate.AVERAGE, 5, TimeUnit.SECONDS)
+                        .above(30).then("c", bytes("A")).build(),
+                new RuleEngine.Rule.Builder("dry").when("hum").below(20).then("d", bytes("A")).build());
+        ReadingParser parser = parser(engine);
+
+        assertEquals(4, engine.getRuleCount());
+        assertEquals(3, engine.getNodeCount());
+
+        // Only the rules on the fields present are evaluated
+        feed(parser, 0, "temp=31");
+        assertEquals(3, engine.getEvaluationCount());
+        assertEquals(Arrays.asList("a:A", "b:A", "c:A"), sent);
+    }
+
+    @Test
+    public void aggregatesWithDifferentSampleCapsAreNotShared() {
+        RuleEngine engine = engine(
+                new RuleEngine.Rule.Builder("fine").when("temp", RuleEngine.Aggregate.AVERAGE, 5, TimeUnit.SECONDS)
+                        .maxSamples(4096).above(30).then("a", bytes("A")).build(),
+                new RuleEngine.Rule.Builder("coarse").when("temp", RuleEngine.Aggregate.AVERAGE, 5, TimeUnit.SECONDS)
+                        .maxSamples(16).above(30).then("b", bytes("A")).build(),
+                new RuleEngine.Rule.Builder("coarse2").when("temp", RuleEngine.Aggregate.AVERAGE, 5, TimeUnit.SECONDS)
+                        .maxSamples(16).above(35).then("c", bytes("A")).build());
+
+        assertEquals(3, engine.getRuleCount());
+        assertEquals(2, engine.getNodeCount());
+    }
+
+    @Test
+    public void refusedDispatchesAreCounted() {
+        RuleEngine engine = new RuleEngine(FORMAT, Arrays.asList(
+                new RuleEngine.Rule.Builder("hot").when("temp").above(30).then("gone", bytes("A")).build()),
+                (target, command) -> false);
+        ReadingParser parser = new ReadingParser(FORMAT, readings -> engine.evaluate(readings, now));
+
+        feed(parser, 0, "temp=31");
+
+        assertEquals(1, engine.getDispatchFailures());
+    }
+
+    @Test
+    public void invalidRulesAreRefused() {
+        try {
+            engine(new RuleEngine.Rule.Builder("x").when("pressure").above(1).then("a", bytes("A")).build());
+            fail("unknown field accepted");
+        } catch (IllegalArgumentException expected) {
+            // Caught when the engine is built, not on the first reading
+        }
+        try {
+            new RuleEngine.Rule.Builder("x").when("temp").then("a", bytes("A")).build();
+            fail("rule without a condition accepted");
+        } catch (IllegalArgumentException expected) {
+            // No threshold
+        }
+    }
+
+    @Test
+    public void firedRuleSwitchesTheEmulatedRelay() throws Exception {
+        int baud = 9600;
+        ArduinoEmulator emulator = new ArduinoEmulator.Builder().baudRate(baud).build();
+        Transport link = emulator.loopback().connect();
+        drain(link.getInputStream());
+        CommandWriter writer = new CommandWriter.Builder(link.getOutputStream()).baudRate(baud).build();
+        RuleEngine engine = new RuleEngine(FORMAT, Arrays.asList(
+                new RuleEngine.Rule.Builder("hot").when("temp").above(30)
+                        .then("primary", bytes("A")).otherwise("primary", bytes("B")).build()),
+                (target, command) -> writer.submit("relay", command));
+        FrameDecoder decoder = new FrameDecoder(FORMAT.framing(), 256, new ReadingParser(FORMAT, engine));
+
+        byte[] hot = "temp=31.5\n".getBytes(StandardCharsets.US_ASCII);
+        long start = System.nanoTime();
+        decoder.feed(hot, 0, hot.length);
+        long deadline = start + 5 * SECOND;
+        while (!emulator.isRelayOn()) {
+            assertTrue("relay never switched", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // One byte at 9600 baud is ~1ms on the wire
+        assertTrue("switched after " + millis + "ms", millis < 200);
+        writer.close();
+        link.close();
+        emulator.close();
+    }
+
+    private RuleEngine engine(RuleEngine.Rule... rules) {
+        return new RuleEngine(FORMAT, Arrays.asList(rules), (target, command) -> {
+            sent.add(target + ":" + new String(command, StandardCharsets.US_ASCII));
+            return true;
+        });
+    }
+
+    private ReadingParser parser(RuleEngine engine) {
+        return new ReadingParser(FORMAT, readings -> engine.evaluate(readings, now));
+    }
+
+    private void feed(ReadingParser parser, long seconds, String line) {
+        now = seconds * SECOND;
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        parser.parse(bytes, 0, bytes.length);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void drain(InputStream in) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[256];
+            try {
+                while (in.read(buffer) >= 0) {
+                    // The emulator's "Relay ON/OFF" replies
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }, "test-drain");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
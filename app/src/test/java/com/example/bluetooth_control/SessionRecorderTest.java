@@ -0,0 +1,267 @@
+package com.example.bluetooth_control;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SessionRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsRoundTripWithDirectionAndMonotonicTime() throws Exception {
+        File file = folder.newFile("capture.hcap");
+        SessionRecorder recorder = new SessionRecorder(file, 64 * 1024);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            byte[] line = ("T:" + i + "\n").getBytes(StandardCharsets.US_ASCII);
+            boolean in = i % 5 != 0;
+            if (in) {
+                recorder.inbound(0, line, 0, line.length);
+            } else {
+                recorder.outbound(0, line, 0, line.length);
+            }
+            expected.add((in ? "<" : ">") + new String(line, StandardCharsets.US_ASCII));
+        }
+        recorder.close();
+        assertEquals(0, recorder.getDroppedCount());
+
+        SessionReplay.Cursor cursor = new SessionReplay(file).cursor();
+        List<String> actual = new ArrayList<>();
+        long previous = -1;
+        while (cursor.next()) {
+            assertTrue(cursor.getTimeNanos() >= previous);
+            previous = cursor.getTimeNanos();
+            actual.add((cursor.getDirection() == SessionRecorder.INBOUND ? "<" : ">")
+                    + new String(cursor.getData(), cursor.getOffset(), cursor.getLength(), StandardCharsets.US_ASCII));
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void recordsThatDoNotFitAreDroppedWhole() throws Exception {
+        File file = folder.newFile("capture.hcap");
+        SessionRecorder recorder = new SessionRecorder(file, 128);
+        byte[] small = "ok\n".getBytes(StandardCharsets.US_ASCII);
+        recorder.inbound(0, small, 0, small.length);
+        recorder.inbound(0, new byte[1000], 0, 1000);
+        recorder.inbound(0, small, 0, small.length);
+        recorder.close();
+
+        assertEquals(1, recorder.getDroppedCount());
+        assertEquals(2, recorder.getRecordCount());
+        ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+        long delivered = new SessionReplay(file).replay(replayed::write, SessionReplay.AS_FAST_AS_POSSIBLE);
+        assertEquals(6, delivered);
+        assertEquals("ok\nok\n", replayed.toString("US-ASCII"));
+    }
+
+    @Test
+    public void tornTailIsPlayedUpToTheLastCompleteRecord() throws Exception {
+        File file = folder.newFile("capture.hcap");
+        SessionRecorder recorder = new SessionRecorder(file, 4096);
+        for (int i = 0; i < 10; i++) {
+            byte[] line = "temp=21.5\n".getBytes(StandardCharsets.US_ASCII);
+            recorder.inbound(0, line, 0, line.length);
+        }
+        recorder.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+        new SessionReplay(file).replay(replayed::write, SessionReplay.AS_FAST_AS_POSSIBLE);
+        assertEquals(90, replayed.size());
+
+        try {
+            new SessionReplay(new byte[]{'n', 'o', 'p', 'e', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+            fail("foreign file accepted");
+        } catch (IOException expected) {
+            // Wrong magic
+        }
+    }
+
+    @Test
+    public void replayKeepsTheRecordedTimingScaledBySpeed() throws Exception {
+        File file = folder.newFile("capture.hcap");
+        SessionRecorder recorder = new SessionRecorder(file, 4096);
+        byte[] line = "temp=21.5\n".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < 11; i++) {
+            recorder.inbound(0, line, 0, line.length);
+            Thread.sleep(2);
+        }
+        recorder.close();
+        VirtualClock clock = new VirtualClock();
+        SessionReplay replay = new SessionReplay(file, clock);
+        SessionReplay.Cursor cursor = replay.cursor();
+        assertTrue(cursor.next());
+        long first = cursor.getTimeNanos();
+        long last = first;
+        while (cursor.next()) {
+            last = cursor.getTimeNanos();
+        }
+        long recorded = last - first;
+        assertTrue(recorded > 0);
+
+        // Paced on the virtual clock: the recorded gaps, scaled, and no waiting flat out
+        assertEquals(recorded, elapsed(replay, clock, 1));
+        assertEquals((long) (recorded / 10.0), elapsed(replay, clock, 10));
+        assertEquals(0, elapsed(replay, clock, SessionReplay.AS_FAST_AS_POSSIBLE));
+    }
+
+    @Test
+    public void linksSharingARecorderAreReplayedApart() throws Exception {
+        File file = folder.newFile("capture.hcap");
+        SessionRecorder recorder = new SessionRecorder(file, 4096);
+        for (int i = 0; i < 20; i++) {
+            byte[] line = ("L" + i % 2 + ":" + i + "\n").getBytes(StandardCharsets.US_ASCII);
+            recorder.inbound(i % 2, line, 0, line.length);
+        }
+        recorder.close();
+
+        SessionReplay replay = new SessionReplay(file);
+        ByteArrayOutputStream zero = new ByteArrayOutputStream();
+        ByteArrayOutputStream one = new ByteArrayOutputStream();
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        replay.replay(0, zero::write, SessionReplay.AS_FAST_AS_POSSIBLE);
+        replay.replay(1, one::write, SessionReplay.AS_FAST_AS_POSSIBLE);
+        replay.replay(all::write, SessionReplay.AS_FAST_AS_POSSIBLE);
+        StringBuilder expectedZero = new StringBuilder();
+        StringBuilder expectedOne = new StringBuilder();
+        StringBuilder expectedAll = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            String line = "L" + i % 2 + ":" + i + "\n";
+            (i % 2 == 0 ? expectedZero : expectedOne).append(line);
+            expectedAll.append(line);
+        }
+        assertEquals(expectedZero.toString(), zero.toString("US-ASCII"));
+        assertEquals(expectedOne.toString(), one.toString("US-ASCII"));
+        assertEquals(expectedAll.toString(), all.toString("US-ASCII"));
+    }
+
+    @Test
+    public void filesRollOverAtTheSizeLimitAndOnlyTheNewestAreKept() throws Exception {
+        File dir = folder.newFolder("captures");
+        File file = new File(dir, "session.hcap");
+        // Left by an earlier run: rolled over rather than replaced
+        try (FileOutputStream earlier = new FileOutputStream(file)) {
+            earlier.write(new byte[]{1, 2, 3});
+        }
+        // Fifteen lines come to 330-405 bytes, so every flush below starts a new file
+        SessionRecorder recorder = new SessionRecorder(file, 512, SessionRecorder.HEADER_BYTES + 512, 3);
+        for (int i = 0; i < 150; i++) {
+            byte[] line = String.format("reading-%03d=21.5\n", i).getBytes(StandardCharsets.US_ASCII);
+            recorder.inbound(0, line, 0, line.length);
+            if (i % 15 == 14) {
+                recorder.flush();
+            }
+        }
+        recorder.close();
+
+        assertEquals(0, recorder.getDroppedCount());
+        assertEquals(10, recorder.getFileCount());
+        String[] names = dir.list();
+        Arrays.sort(names);
+        assertArrayEquals(new String[]{"session.hcap", "session.hcap.1", "session.hcap.2"}, names);
+        StringBuilder replayed = new StringBuilder();
+        long previousStart = 0;
+        for (String name : new String[]{"session.hcap.2", "session.hcap.1", "session.hcap"}) {
+            File part = new File(dir, name);
+            assertTrue(name + " is " + part.length() + " bytes", part.length() <= SessionRecorder.HEADER_BYTES + 512);
+            SessionReplay replay = new SessionReplay(part);
+            assertTrue(replay.getStartWallMillis() >= previousStart);
+            previousStart = replay.getStartWallMillis();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            replay.replay(out::write, SessionReplay.AS_FAST_AS_POSSIBLE);
+            replayed.append(out.toString("US-ASCII"));
+        }
+        StringBuilder expected = new StringBuilder();
+        for (int i = 105; i < 150; i++) {
+            expected.append(String.format("reading-%03d=21.5\n", i));
+        }
+        assertEquals(expected.toString(), replayed.toString());
+    }
+
+    @Test
+    public void recordsBothDirectionsOfALinkAndReplaysThemIntoTheManager() throws Exception {
+        File file = folder.newFile("capture.hcap");
+        ArduinoEmulator emulator = new ArduinoEmulator.Builder().baudRate(115200).build();
+        SessionRecorder recorder = new SessionRecorder(file, 4096);
+        Transport link = recorder.wrap(emulator.loopback()).connect();
+        link.getOutputStream().write('A');
+        byte[] reply = new byte[64];
+        int read = 0;
+        while (read < "Relay ON\n".length()) {
+            read += link.getInputStream().read(reply, read, reply.length - read);
+        }
+        int replyLength = read;
+        link.close();
+        emulator.close();
+        recorder.close();
+
+        SessionReplay replay = new SessionReplay(file);
+        SessionReplay.Cursor cursor = replay.cursor();
+        assertTrue(cursor.next());
+        assertEquals(SessionRecorder.OUTBOUND, cursor.getDirection());
+        assertEquals(0, cursor.getLink());
+        assertEquals('A', cursor.getData()[cursor.getOffset()]);
+
+        // The capture stands in for the device: the manager's reader publishes it to the bus
+        ConnectionManager manager = new ConnectionManager(10, 100, 3);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        CountDownLatch done = new CountDownLatch(1);
+        DataBus.Subscription subscription = manager.getDataBus().subscribe("test", DataBus.OverflowPolicy.DROP)
+                .start((data, offset, length) -> {
+                    received.write(data, offset, length);
+                    if (received.size() >= replyLength) {
+                        done.countDown();
+                    }
+                });
+        ConnectionManager.Client client = manager.connect(replay.transport(SessionReplay.AS_FAST_AS_POSSIBLE));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("Relay ON\n", received.toString("US-ASCII"));
+        // Played out, but the link stays up rather than replaying again
+        Thread.sleep(50);
+        assertEquals(1, manager.getConnectCount());
+        assertEquals(ConnectionManager.State.CONNECTED, manager.getState());
+        subscription.close();
+        client.close();
+    }
+
+    private static long elapsed(SessionReplay replay, VirtualClock clock, double speed) throws InterruptedException {
+        long start = clock.nanoTime();
+        replay.replay((data, offset, length) -> {
+        }, speed);
+        return clock.nanoTime() - start;
+    }
+
+    private static final class VirtualClock implements SessionReplay.Clock {
+        private final AtomicLong now = new AtomicLong();
+
+        @Override
+        public long nanoTime() {
+            return now.get();
+        }
+
+        @Override
+        public void sleepNanos(long nanos) {
+            now.addAndGet(nanos);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.bluetooth_control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for an Arduino running the CommandProtocol sketch, connected to the app
+ * side through piped streams. It acks every command it decodes after an optional delay and
+ * can be told to ignore every Nth frame to exercise retries.
+ */
+public class SimulatedArduino implements CommandProtocol.FrameListener, AutoCloseable {
+
+    private final PipedInputStream fromApp = new PipedInputStream(64 * 1024);
+    private final PipedOutputStream toApp = new PipedOutputStream();
+    private final PipedOutputStream appOutput = new PipedOutputStream();
+    private final PipedInputStream appInput = new PipedInputStream(64 * 1024);
+
+    private final CommandProtocol.Decoder decoder = new CommandProtocol.Decoder(this);
+    private final byte[] ackBuffer = new byte[CommandProtocol.MAX_FRAME_LENGTH];
+    private final int[] outputs = new int[16];
+    private final long ackDelayNanos;
+    private final int dropEvery;
+    private final AtomicInteger received = new AtomicInteger();
+    private final Thread thread;
+
+    public SimulatedArduino(long ackDelay, TimeUnit unit, int dropEvery) throws IOException {
+        this.ackDelayNanos = unit.toNanos(ackDelay);
+        this.dropEvery = dropEvery;
+        fromApp.connect(appOutput);
+        appInput.connect(toApp);
+        thread = new Thread(this::run, "simulated-arduino");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // What the app writes to, i.e. the socket's OutputStream
+    public OutputStream getAppOutputStream() {
+        return appOutput;
+    }
+
+    // What the app reads acks from, i.e. the socket's InputStream
+    public InputStream getAppInputStream() {
+        return appInput;
+    }
+
+    public int getReceivedCount() {
+        return received.get();
+    }
+
+    public synchronized int getOutput(int output) {
+        return outputs[output];
+    }
+
+    // The app side of the pipes as a Transport, closing it closes the simulated device
+    public Transport asTransport() {
+        return new Transport() {
+            private volatile boolean closed;
+
+            @Override
+            public InputStream getInputStream() {
+                return appInput;
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return appOutput;
+            }
+
+            @Override
+            public boolean isConnected() {
+                return !closed;
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed = true;
+                SimulatedArduino.this.close();
+            }
+        };
+    }
+
+    private void run() {
+        byte[] buffer = new byte[256];
+        try {
+            int numBytes;
+            while ((numBytes = fromApp.read(buffer)) >= 0) {
+                decoder.feed(buffer, 0, numBytes);
+            }
+        } catch (IOException e) {
+            // Pipe closed
+        }
+    }
+
+    @Override
+    public void onFrame(int address, int opcode, int seq, byte[] payload, int payloadLength) {
+        int count = received.incrementAndGet();
+        if (dropEvery > 0 && count % dropEvery == 0) {
+            return;
+        }
+        if (payloadLength >= 2 && (opcode == CommandProtocol.OP_SET_STATE || opcode == CommandProtocol.OP_SET_PWM)) {
+            synchronized (this) {
+                outputs[payload[0] & 0x0F] = payload[1] & 0xFF;
+            }
+        }
+        if (ackDelayNanos > 0) {
+            long deadline = System.nanoTime() + ackDelayNanos;
+            while (System.nanoTime() < deadline) {
+                // Busy wait, sleep() granularity is far coarser than a UART round trip
+            }
+        }
+        try {
+            int length = CommandProtocol.encode(address, CommandProtocol.OP_ACK, seq, null, 0, ackBuffer, 0);
+            toApp.write(ackBuffer, 0, length);
+            toApp.flush();
+        } catch (IOException e) {
+            // App side went away
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        appOutput.close();
+        toApp.close();
+        thread.interrupt();
+    }
+
+    /**
+     * Connects a fresh simulated device on every attempt after {@code connectMillis}, standing
+     * in for a slow RFCOMM connect.
+     */
+    public static class Factory implements TransportFactory {
+        private final long connectMillis;
+        private final AtomicInteger failuresLeft = new AtomicInteger();
+        private volatile SimulatedArduino current;
+
+        public Factory(long connectMillis) {
+            this.connectMillis = connectMillis;
+        }
+
+        public void failNext(int failures) {
+            failuresLeft.set(failures);
+        }
+
+        public SimulatedArduino getCurrent() {
+            return current;
+        }
+
+        @Override
+        public Transport connect() throws IOException {
+            if (connectMillis > 0) {
+                try {
+                    Thread.sleep(connectMillis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new IOException("connect failed");
+            }
+            current = new SimulatedArduino(0, TimeUnit.NANOSECONDS, 0);
+            return current.asTransport();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.bluetooth_control;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * A local stand-in for the backend: {@code /data} takes per-event POSTs like the deployed
+ * endpoint and {@code /stream} speaks the {@link WebSocketSync} protocol, acking data frames,
+ * dropping duplicates by sequence and pushing commands on request.
+ */
+public class SyncStandInServer implements Closeable {
+
+    private static final Pattern TYPE = Pattern.compile("\"type\":\"(\\w+)\"");
+    private static final Pattern SEQ = Pattern.compile("\"seq\":(\\d+)");
+    private static final Pattern CHANNEL = Pattern.compile("\"channel\":\"(\\w+)\"");
+    private static final Pattern ID = Pattern.compile("\"id\":\"([^\"]*)\"");
+
+    private final MockWebServer server = new MockWebServer();
+    private final List<WebSocket> sockets = new CopyOnWriteArrayList<>();
+    private final AtomicLong posts = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private volatile boolean acking = true;
+
+    // Guarded by this
+    private final Set<Long> seen = new LinkedHashSet<>();
+    private final List<String> channels = new ArrayList<>();
+    private final List<String> hellos = new ArrayList<>();
+    private final List<String> commandAcks = new ArrayList<>();
+
+    public SyncStandInServer() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("/stream".equals(request.getPath())) {
+                    return new MockResponse().withWebSocketUpgrade(new Session());
+                }
+                posts.incrementAndGet();
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        server.start();
+    }
+
+    public String postUrl() {
+        return server.url("/data").toString();
+    }
+
+    public String streamUrl() {
+        return server.url("/stream").toString().replaceFirst("^http", "ws");
+    }
+
+    // While off, data frames are taken but never acked, as if the acks were lost
+    public void setAcking(boolean acking) {
+        this.acking = acking;
+    }
+
+    // Ends every open session as a restarting server would; unacked frames are lost with it
+    public void dropSessions() {
+        for (WebSocket socket : sockets) {
+            socket.close(1001, "going away");
+        }
+        sockets.clear();
+    }
+
+    public void pushCommand(String id, String target, String data) {
+        String text = "{\"type\":\"command\",\"id\":\"" + id + "\",\"target\":\"" + target
+                + "\",\"data\":\"" + data + "\"}";
+        for (WebSocket socket : sockets) {
+            socket.send(text);
+        }
+    }
+
+    public int getOpenSessions() {
+        return sockets.size();
+    }
+
+    public long getPostCount() {
+        return posts.get();
+    }
+
+    public synchronized int getReceivedCount() {
+        return seen.size();
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    public synchronized List<String> getChannels() {
+        return new ArrayList<>(channels);
+    }
+
+    public synchronized List<String> getHellos() {
+        return new ArrayList<>(hellos);
+    }
+
+    public synchronized List<String> getCommandAcks() {
+        return new ArrayList<>(commandAcks);
+    }
+
+    @Override
+    public void close() throws IOException {
+        dropSessions();
+        server.shutdown();
+    }
+
+    private static String find(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private final class Session extends WebSocketListener {
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            sockets.add(webSocket);
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            String type = find(TYPE, text);
+            if ("hello".equals(type)) {
+                synchronized (SyncStandInServer.this) {
+                    hellos.add(text);
+                }
+            } else if ("commandAck".equals(type)) {
+                synchronized (SyncStandInServer.this) {
+                    commandAcks.add(find(ID, text));
+                }
+            } else if ("data".equals(type)) {
+                long seq = Long.parseLong(find(SEQ, text));
+                synchronized (SyncStandInServer.this) {
+                    if (seen.add(seq)) {
+                        channels.add(find(CHANNEL, text));
+                    } else {
+                        duplicates.incrementAndGet();
+                    }
+                }
+                if (acking) {
+                    webSocket.send("{\"type\":\"ack\",\"seq\":" + seq + "}");
+                }
+            }
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            sockets.remove(webSocket);
+            webSocket.close(1000, null);
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            sockets.remove(webSocket);
+        }
+    }
+}
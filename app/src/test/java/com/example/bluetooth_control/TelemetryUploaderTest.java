@@ -0,0 +1,137 @@
+package com.example.bluetooth_control;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+public class TelemetryUploaderTest {
+
+    private MockWebServer server;
+    private TelemetryUploader uploader;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (uploader != null) {
+            uploader.shutdown();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void sendData_postsJsonAndReusesConnection() throws Exception {
+        uploader = new TelemetryUploader(server.url("/data").toString(), 1, 8);
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        CountDownLatch done = new CountDownLatch(2);
+        TelemetryUploader.Callback callback = new CountingCallback(done);
+        assertTrue(uploader.sendData("ON", callback));
+        assertTrue(uploader.sendData("OFF", callback));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        RecordedRequest first = server.takeRequest();
+        RecordedRequest second = server.takeRequest();
+        assertEquals("POST", first.getMethod());
+        assertEquals("{\"data\":\"ON\"}", first.getBody().readUtf8());
+        assertEquals("{\"data\":\"OFF\"}", second.getBody().readUtf8());
+        // Second request rides on the pooled connection of the first
+        assertEquals(0, first.getSequenceNumber());
+        assertEquals(1, second.getSequenceNumber());
+        assertEquals(2, uploader.getSucceededCount());
+    }
+
+    @Test
+    public void submit_dropsWhenQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return new MockResponse().setBody("ok");
+            }
+        });
+        uploader = new TelemetryUploader(server.url("/data").toString(), 1, 2);
+
+        CountDownLatch done = new CountDownLatch(3);
+        TelemetryUploader.Callback callback = new CountingCallback(done);
+        assertTrue(uploader.sendData("1", callback));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(uploader.sendData("2", callback));
+        assertTrue(uploader.sendData("3", callback));
+        assertFalse(uploader.sendData("4", callback));
+
+        assertEquals(1, uploader.getInFlightCount());
+        assertEquals(2, uploader.getQueuedCount());
+        assertEquals(1, uploader.getDroppedCount());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, uploader.getSucceededCount());
+        assertEquals(0, uploader.getQueuedCount());
+    }
+
+    @Test
+    public void sendData_reportsHttpErrors() throws Exception {
+        uploader = new TelemetryUploader(server.url("/data").toString(), 1, 8);
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("boom"));
+
+        final int[] code = new int[1];
+        final String[] body = new String[1];
+        CountDownLatch done = new CountDownLatch(1);
+        uploader.sendData("ON", new TelemetryUploader.Callback() {
+            @Override
+            public void onResponse(int c, String b) {
+                code[0] = c;
+                body[0] = b;
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(500, code[0]);
+        assertEquals("boom", body[0]);
+        assertEquals(1, uploader.getFailedCount());
+    }
+
+    private static class CountingCallback implements TelemetryUploader.Callback {
+        private final CountDownLatch latch;
+
+        CountingCallback(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onResponse(int code, String body) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            latch.countDown();
+        }
+    }
+}
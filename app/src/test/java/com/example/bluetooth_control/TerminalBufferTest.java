@@ -0,0 +1,66 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TerminalBufferTest {
+
+    @Test
+    public void add_keepsLinesOldestFirstUntilFull() {
+        TerminalBuffer buffer = new TerminalBuffer(3);
+        assertFalse(buffer.add("a"));
+        assertFalse(buffer.add("b"));
+
+        assertEquals(2, buffer.size());
+        assertEquals("a", buffer.get(0));
+        assertEquals("b", buffer.get(1));
+    }
+
+    @Test
+    public void add_evictsOldestOnceFull() {
+        TerminalBuffer buffer = new TerminalBuffer(3);
+        for (int i = 0; i < 3; i++) {
+            buffer.add("line " + i);
+        }
+        assertTrue(buffer.add("line 3"));
+        assertTrue(buffer.add("line 4"));
+
+        assertEquals(3, buffer.size());
+        assertEquals("line 2", buffer.get(0));
+        assertEquals("line 4", buffer.get(2));
+        assertEquals(5, buffer.getTotalLines());
+    }
+
+    @Test
+    public void size_staysAtCapacityForLongSessions() {
+        TerminalBuffer buffer = new TerminalBuffer(100);
+        for (int i = 0; i < 1_000_000; i++) {
+            buffer.add("temp=" + i);
+        }
+        assertEquals(100, buffer.size());
+        assertEquals("temp=999900", buffer.get(0));
+        assertEquals("temp=999999", buffer.get(99));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_rejectsIndexPastSize() {
+        TerminalBuffer buffer = new TerminalBuffer(4);
+        buffer.add("only");
+        buffer.get(1);
+    }
+
+    @Test
+    public void clear_emptiesButKeepsTotal() {
+        TerminalBuffer buffer = new TerminalBuffer(2);
+        buffer.add("a");
+        buffer.add("b");
+        buffer.add("c");
+        buffer.clear();
+
+        assertEquals(0, buffer.size());
+        assertEquals(3, buffer.getTotalLines());
+        buffer.add("d");
+        assertEquals("d", buffer.get(0));
+    }
+}
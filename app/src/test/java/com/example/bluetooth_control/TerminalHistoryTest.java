@@ -0,0 +1,210 @@
+package com.example.bluetooth_control;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TerminalHistoryTest {
+
+    // 128 lines a segment, so a few thousand lines span many of them
+    private static final int LINES_PER_BLOCK = 16;
+    private static final int BLOCKS_PER_SEGMENT = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void searchFindsWhatAScanFindsNewestFirst() throws Exception {
+        File dir = folder.newFolder("history");
+        TerminalHistory history = new TerminalHistory(dir, LINES_PER_BLOCK, BLOCKS_PER_SEGMENT, 100);
+        List<String> lines = log(3000, 42);
+        for (String line : lines) {
+            history.append(line);
+        }
+
+        for (String query : new String[]{"ERR", "temp=4*", "err*timeout", "hum=5", "=", "", "nothing like it"}) {
+            assertEquals(query, scan(lines, query), all(history, query));
+        }
+
+        // The index leaves only the blocks that can hold an error
+        TerminalHistory.Search errors = history.search("ERR");
+        all(errors);
+        assertTrue("read " + errors.getBlocksRead() + " blocks", errors.getBlocksRead() < 3000 / LINES_PER_BLOCK / 4);
+        history.close();
+    }
+
+    @Test
+    public void pagesComeFromTheHistoryAsItWasWhenTheSearchStarted() throws Exception {
+        TerminalHistory history = new TerminalHistory(folder.newFolder("history"), LINES_PER_BLOCK, BLOCKS_PER_SEGMENT, 100);
+        for (int i = 0; i < 500; i++) {
+            history.append("seq=" + i);
+        }
+        TerminalHistory.Search search = history.search("seq=");
+        history.append("seq=500");
+
+        List<TerminalHistory.Match> first = search.next(10);
+        assertEquals(10, first.size());
+        assertEquals("seq=499", first.get(0).text);
+        assertEquals(499, first.get(0).line);
+        assertEquals("seq=490", first.get(9).text);
+        int total = first.size();
+        while (search.hasMore()) {
+            total += search.next(64).size();
+        }
+        assertEquals(500, total);
+        assertTrue(search.next(10).isEmpty());
+        history.close();
+    }
+
+    @Test
+    public void reopeningReindexesTheOpenSegmentAndDropsATornLine() throws Exception {
+        File dir = folder.newFolder("history");
+        TerminalHistory history = new TerminalHistory(dir, LINES_PER_BLOCK, BLOCKS_PER_SEGMENT, 100);
+        List<String> lines = log(300, 7);
+        for (String line : lines) {
+            history.append(line);
+        }
+        history.close();
+        // The app died halfway through writing a line
+        File open = newestLog(dir);
+        try (FileOutputStream out = new FileOutputStream(open, true)) {
+            out.write("temp=4".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        TerminalHistory reopened = new TerminalHistory(dir, LINES_PER_BLOCK, BLOCKS_PER_SEGMENT, 100);
+        assertEquals(300, reopened.getLineCount());
+        assertEquals(scan(lines, "temp=4*"), all(reopened, "temp=4*"));
+
+        reopened.append("ERR after restart");
+        List<TerminalHistory.Match> newest = reopened.search("ERR").next(1);
+        assertEquals(300, newest.get(0).line);
+        reopened.close();
+    }
+
+    @Test
+    public void damagedIndexIsRebuiltFromTheText() throws Exception {
+        File dir = folder.newFolder("history");
+        TerminalHistory history = new TerminalHistory(dir, LINES_PER_BLOCK, BLOCKS_PER_SEGMENT, 100);
+        List<String> lines = log(1000, 3);
+        for (String line : lines) {
+            history.append(line);
+        }
+        history.close();
+        File index = new File(dir, "seg-0.idx");
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.seek(raf.length() / 2);
+            raf.write(raf.read() ^ 0x5a);
+        }
+
+        TerminalHistory reopened = new TerminalHistory(dir, LINES_PER_BLOCK, BLOCKS_PER_SEGMENT, 100);
+        assertEquals(1000, reopened.getLineCount());
+        assertEquals(scan(lines, "ERR"), all(reopened, "ERR"));
+        reopened.close();
+    }
+
+    @Test
+    public void oldestSegmentsAreDeletedPastTheLimit() throws Exception {
+        File dir = folder.newFolder("history");
+        TerminalHistory history = new TerminalHistory(dir, LINES_PER_BLOCK, BLOCKS_PER_SEGMENT, 3);
+        for (int i = 0; i < 1000; i++) {
+            history.append("seq=" + i);
+        }
+
+        assertEquals(3, history.getSegmentCount());
+        assertEquals(1000, history.getNextLine());
+        // Two full segments of 128 and the 104 lines of the open one
+        assertEquals(2 * 128 + 104, history.getLineCount());
+        List<TerminalHistory.Match> matches = all(history.search("seq="));
+        assertEquals(history.getLineCount(), matches.size());
+        assertEquals(1000 - history.getLineCount(), matches.get(matches.size() - 1).line);
+        assertEquals(3, dir.listFiles((d, name) -> name.endsWith(".log")).length);
+        history.close();
+    }
+
+    // Telemetry with the odd error, as a sketch would print it
+    static List<String> log(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(100) == 0) {
+                lines.add((random.nextBoolean() ? "ERR" : "err") + " sensor " + random.nextInt(4) + " timeout");
+            } else {
+                lines.add(String.format(Locale.ROOT, "temp=%.1f,hum=%.1f,t=%d",
+                        15 + random.nextDouble() * 30, 30 + random.nextDouble() * 40, i));
+            }
+        }
+        return lines;
+    }
+
+    // What the history should return: every matching line, newest first
+    private static List<String> scan(List<String> lines, String query) {
+        List<String> parts = new ArrayList<>();
+        for (String part : query.toLowerCase(Locale.ROOT).split("\\*")) {
+            if (!part.isEmpty()) {
+                parts.add(part);
+            }
+        }
+        List<String> matches = new ArrayList<>();
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            String line = lines.get(i).toLowerCase(Locale.ROOT);
+            int from = 0;
+            boolean match = true;
+            for (String part : parts) {
+                int at = line.indexOf(part, from);
+                if (at < 0) {
+                    match = false;
+                    break;
+                }
+                from = at + part.length();
+            }
+            if (match) {
+                matches.add(i + ":" + lines.get(i));
+            }
+        }
+        return matches;
+    }
+
+    private static List<String> all(TerminalHistory history, String query) throws IOException {
+        List<String> result = new ArrayList<>();
+        for (TerminalHistory.Match match : all(history.search(query))) {
+            result.add(match.line + ":" + match.text);
+        }
+        return result;
+    }
+
+    private static List<TerminalHistory.Match> all(TerminalHistory.Search search) throws IOException {
+        List<TerminalHistory.Match> matches = new ArrayList<>();
+        List<TerminalHistory.Match> page;
+        while (!(page = search.next(37)).isEmpty()) {
+            matches.addAll(page);
+        }
+        search.close();
+        return matches;
+    }
+
+    private static File newestLog(File dir) {
+        File newest = null;
+        long first = -1;
+        for (File log : dir.listFiles((d, name) -> name.endsWith(".log"))) {
+            String name = log.getName();
+            long start = Long.parseLong(name.substring(4, name.length() - 4));
+            if (start > first) {
+                first = start;
+                newest = log;
+            }
+        }
+        return newest;
+    }
+}
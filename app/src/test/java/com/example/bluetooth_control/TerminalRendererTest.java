@@ -0,0 +1,159 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TerminalRendererTest {
+
+    @Test
+    public void linesWithinOneFrameAreCoalescedIntoOneUpdate() {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingListener listener = new RecordingListener();
+        TerminalRenderer renderer = new TerminalRenderer(100, scheduler, listener);
+
+        for (int i = 0; i < 50; i++) {
+            renderer.append("line " + i);
+        }
+
+        // One frame requested no matter how many lines arrived
+        assertEquals(1, scheduler.scheduled.size());
+        assertEquals(0, renderer.getBuffer().size());
+
+        scheduler.runFrame();
+        assertEquals(1, listener.updates.size());
+        assertArrayEquals(new int[]{0, 50}, listener.updates.get(0));
+        assertEquals(50, renderer.getBuffer().size());
+        assertEquals(1, renderer.getFrameCount());
+    }
+
+    @Test
+    public void nextLineAfterAFrameSchedulesAnotherOne() {
+        ManualScheduler scheduler = new ManualScheduler();
+        TerminalRenderer renderer = new TerminalRenderer(100, scheduler, new RecordingListener());
+
+        renderer.append("a");
+        scheduler.runFrame();
+        renderer.append("b");
+
+        assertEquals(1, scheduler.scheduled.size());
+        scheduler.runFrame();
+        assertEquals("b", renderer.getBuffer().get(1));
+    }
+
+    @Test
+    public void evictionsAreReportedAsRemovalsFromTheStart() {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingListener listener = new RecordingListener();
+        TerminalRenderer renderer = new TerminalRenderer(4, scheduler, listener);
+
+        appendAll(renderer, "a", "b", "c");
+        scheduler.runFrame();
+        appendAll(renderer, "d", "e", "f");
+        scheduler.runFrame();
+
+        // View held a,b,c: drop a,b from the front and add d,e,f at the end
+        assertArrayEquals(new int[]{2, 3}, listener.updates.get(1));
+        assertEquals("c", renderer.getBuffer().get(0));
+        assertEquals("f", renderer.getBuffer().get(3));
+    }
+
+    @Test
+    public void burstLargerThanTheBufferKeepsOnlyTheNewestLines() {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingListener listener = new RecordingListener();
+        TerminalRenderer renderer = new TerminalRenderer(4, scheduler, listener);
+
+        appendAll(renderer, "a", "b");
+        scheduler.runFrame();
+        for (int i = 0; i < 10; i++) {
+            renderer.append("burst " + i);
+        }
+        scheduler.runFrame();
+
+        // Lines that would never be visible are dropped before they reach the buffer
+        assertEquals(6, renderer.getDroppedCount());
+        assertArrayEquals(new int[]{2, 4}, listener.updates.get(1));
+        assertEquals("burst 6", renderer.getBuffer().get(0));
+        assertEquals("burst 9", renderer.getBuffer().get(3));
+    }
+
+    @Test
+    public void frameWithNothingQueuedDoesNotTouchTheView() {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingListener listener = new RecordingListener();
+        TerminalRenderer renderer = new TerminalRenderer(4, scheduler, listener);
+
+        renderer.onFrame();
+        assertTrue(listener.updates.isEmpty());
+    }
+
+    @Test
+    public void concurrentAppendsAreAllRendered() throws Exception {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingListener listener = new RecordingListener();
+        TerminalRenderer renderer = new TerminalRenderer(100_000, scheduler, listener);
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 20_000; i++) {
+                renderer.append(Integer.toString(i));
+            }
+        });
+        producer.start();
+        while (producer.isAlive()) {
+            scheduler.runFrame();
+        }
+        producer.join();
+        scheduler.runFrame();
+
+        TerminalBuffer buffer = renderer.getBuffer();
+        assertEquals(20_000, buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            assertEquals(Integer.toString(i), buffer.get(i));
+        }
+        int inserted = 0;
+        for (int[] update : listener.updates) {
+            inserted += update[1];
+        }
+        assertEquals(20_000, inserted);
+    }
+
+    private static void appendAll(TerminalRenderer renderer, String... lines) {
+        for (String line : lines) {
+            renderer.append(line);
+        }
+    }
+
+    // Stands in for the Choreographer: frames only run when the test says so
+    private static class ManualScheduler implements TerminalRenderer.FrameScheduler {
+        final List<Runnable> scheduled = new ArrayList<>();
+
+        @Override
+        public synchronized void scheduleFrame(Runnable frame) {
+            scheduled.add(frame);
+        }
+
+        void runFrame() {
+            List<Runnable> frames;
+            synchronized (this) {
+                frames = new ArrayList<>(scheduled);
+                scheduled.clear();
+            }
+            for (Runnable frame : frames) {
+                frame.run();
+            }
+        }
+    }
+
+    private static class RecordingListener implements TerminalRenderer.Listener {
+        final List<int[]> updates = new ArrayList<>();
+
+        @Override
+        public void onLinesChanged(int removedFromStart, int insertedAtEnd) {
+            updates.add(new int[]{removedFromStart, insertedAtEnd});
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.bluetooth_control;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimeSeriesCodecTest {
+
+    @Test
+    public void roundTripsSteadySamples() {
+        int n = 3600;
+        long[] timestamps = new long[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            timestamps[i] = 1_700_000_000_000L + i * 1000L;
+            // analogRead() style integers drifting slowly
+            values[i] = 512 + (i / 60) % 8;
+        }
+
+        byte[] encoded = TimeSeriesCodec.encode(timestamps, values, n);
+        assertRoundTrip(encoded, timestamps, values, n);
+        // A steady 1 Hz sensor should cost far less than the 16 bytes per point it takes raw
+        assertTrue("encoded " + encoded.length + " bytes", encoded.length < n * 16 / 20);
+    }
+
+    @Test
+    public void roundTripsIrregularTimestampsAndExtremeValues() {
+        long[] timestamps = {0, 1, 3, 1000, 1001, 5_000_000, 5_000_000, Long.MAX_VALUE / 2, Long.MAX_VALUE / 2 + 7};
+        double[] values = {0, -0.0, Double.NaN, Double.MAX_VALUE, Double.MIN_VALUE,
+                Double.NEGATIVE_INFINITY, 1e-300, -42.125, 42.125};
+
+        assertRoundTrip(TimeSeriesCodec.encode(timestamps, values, timestamps.length), timestamps, values, timestamps.length);
+    }
+
+    @Test
+    public void roundTripsRandomData() {
+        Random random = new Random(42);
+        int n = 10_000;
+        long[] timestamps = new long[n];
+        double[] values = new double[n];
+        long t = random.nextLong() / 4;
+        for (int i = 0; i < n; i++) {
+            t += random.nextInt(5000);
+            timestamps[i] = t;
+            values[i] = random.nextBoolean() ? random.nextGaussian() * 1000 : values[Math.max(0, i - 1)];
+        }
+
+        assertRoundTrip(TimeSeriesCodec.encode(timestamps, values, n), timestamps, values, n);
+    }
+
+    @Test
+    public void singlePointAndEmptyChunks() {
+        assertEquals(0, TimeSeriesCodec.encode(new long[0], new double[0], 0).length);
+        assertRoundTrip(TimeSeriesCodec.encode(new long[]{5}, new double[]{1.5}, 1), new long[]{5}, new double[]{1.5}, 1);
+    }
+
+    private static void assertRoundTrip(byte[] encoded, long[] timestamps, double[] values, int n) {
+        long[] decodedTimestamps = new long[n];
+        double[] decodedValues = new double[n];
+        TimeSeriesCodec.decode(encoded, n, decodedTimestamps, decodedValues);
+        for (int i = 0; i < n; i++) {
+            assertEquals("timestamp " + i, timestamps[i], decodedTimestamps[i]);
+            assertEquals("value " + i, Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decodedValues[i]));
+        }
+    }
+}
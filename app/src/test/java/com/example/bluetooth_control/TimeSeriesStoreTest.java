@@ -0,0 +1,207 @@
+package com.example.bluetooth_control;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimeSeriesStoreTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long DAY_START = 1_700_006_400_000L; // On an hour boundary
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void queryReturnsPointsAcrossSealedAndOpenPartitions() {
+        TimeSeriesStore store = new TimeSeriesStore(HOUR, MINUTE, 100);
+        for (int i = 0; i < 3 * 3600; i++) {
+            store.append("temp", DAY_START + i * 1000L, i);
+        }
+
+        List<Long> seen = new ArrayList<>();
+        int visited = store.query("temp", DAY_START + HOUR - 2000, DAY_START + HOUR + 2000,
+                (timestamp, value) -> seen.add(timestamp));
+
+        assertEquals(4, visited);
+        assertEquals(Long.valueOf(DAY_START + HOUR - 2000), seen.get(0));
+        assertEquals(Long.valueOf(DAY_START + HOUR + 1000), seen.get(3));
+        assertEquals(3 * 3600, store.getPointCount());
+        assertTrue(store.getCompressedBytes() > 0);
+    }
+
+    @Test
+    public void downsampleFromRollupsMatchesRawAggregation() {
+        TimeSeriesStore store = new TimeSeriesStore(HOUR, MINUTE, 100);
+        for (int i = 0; i < 86_400; i++) {
+            store.append("temp", DAY_START + i * 1000L, Math.sin(i / 600.0) * 10 + 20);
+        }
+
+        // A day in 5 minute buckets, all but the open last hour served from rollups
+        TimeSeriesStore.Downsampled day = store.downsample("temp", DAY_START, DAY_START + 24 * HOUR, 5 * MINUTE);
+        assertEquals(288, day.size());
+        for (int bucket = 0; bucket < day.size(); bucket += 37) {
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            double sum = 0;
+            for (int i = bucket * 300; i < (bucket + 1) * 300; i++) {
+                double v = Math.sin(i / 600.0) * 10 + 20;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                sum += v;
+            }
+            assertEquals(300, day.count(bucket));
+            assertEquals(min, day.min(bucket), 0);
+            assertEquals(max, day.max(bucket), 0);
+            assertEquals(sum / 300, day.average(bucket), 1e-9);
+        }
+    }
+
+    @Test
+    public void unalignedRangesAndBucketsFallBackToRawPoints() {
+        TimeSeriesStore store = new TimeSeriesStore(HOUR, MINUTE, 100);
+        for (int i = 0; i < 2 * 3600; i++) {
+            store.append("hum", DAY_START + i * 1000L, 1);
+        }
+
+        // Starts mid-minute with 90 second buckets
+        TimeSeriesStore.Downsampled result = store.downsample("hum", DAY_START + 30_000, DAY_START + 30_000 + 900_000, 90_000);
+        assertEquals(10, result.size());
+        for (int bucket = 0; bucket < result.size(); bucket++) {
+            assertEquals(90, result.count(bucket));
+        }
+
+        // Aligned buckets but the range ends mid-slot
+        TimeSeriesStore.Downsampled edge = store.downsample("hum", DAY_START, DAY_START + MINUTE + 10_000, MINUTE);
+        assertEquals(60, edge.count(0));
+        assertEquals(10, edge.count(1));
+    }
+
+    @Test
+    public void emptyBucketsAndUnknownSeries() {
+        TimeSeriesStore store = new TimeSeriesStore(HOUR, MINUTE, 100);
+        store.append("temp", DAY_START, 5);
+
+        TimeSeriesStore.Downsampled result = store.downsample("temp", DAY_START, DAY_START + 3 * MINUTE, MINUTE);
+        assertEquals(1, result.count(0));
+        assertEquals(0, result.count(1));
+        assertTrue(Double.isNaN(result.average(1)));
+
+        assertEquals(0, store.downsample("nope", DAY_START, DAY_START + MINUTE, MINUTE).count(0));
+        assertEquals(0, store.query("nope", 0, Long.MAX_VALUE, (t, v) -> fail()));
+    }
+
+    @Test
+    public void outOfOrderReadingsAreSortedWithinTheOpenPartition() {
+        TimeSeriesStore store = new TimeSeriesStore(HOUR, MINUTE, 100);
+        store.append("temp", DAY_START + 3000, 3);
+        store.append("temp", DAY_START + 1000, 1);
+        store.append("temp", DAY_START + 2000, 2);
+        store.append("temp", DAY_START + HOUR, 4);
+        // Its partition has been sealed already
+        store.append("temp", DAY_START + 500, 0);
+
+        List<Double> values = new ArrayList<>();
+        store.query("temp", 0, Long.MAX_VALUE, (t, v) -> values.add(v));
+        assertEquals(4, values.size());
+        assertEquals(Double.valueOf(1), values.get(0));
+        assertEquals(Double.valueOf(3), values.get(2));
+        assertEquals(1, store.getLateCount());
+    }
+
+    @Test
+    public void oldPartitionsAreDroppedPastRetention() {
+        TimeSeriesStore store = new TimeSeriesStore(HOUR, MINUTE, 2);
+        for (int hour = 0; hour < 5; hour++) {
+            store.append("temp", DAY_START + hour * HOUR, hour);
+        }
+
+        List<Double> values = new ArrayList<>();
+        store.query("temp", 0, Long.MAX_VALUE, (t, v) -> values.add(v));
+        // Two sealed partitions plus the open one
+        assertEquals(3, values.size());
+        assertEquals(Double.valueOf(2), values.get(0));
+        assertEquals(3, store.getPointCount());
+    }
+
+    @Test
+    public void reopeningLoadsSealedAndFlushedPartitions() throws IOException {
+        File dir = folder.newFolder("readings");
+        TimeSeriesStore store = new TimeSeriesStore(dir, HOUR, MINUTE, 100);
+        for (int i = 0; i < 90 * 60; i++) {
+            store.append("temp", DAY_START + i * 1000L, i);
+        }
+        store.append("a/../b", DAY_START, 7);
+        // The first hour was written when it sealed; the open half hour needs the flush
+        store.flush();
+
+        TimeSeriesStore reopened = new TimeSeriesStore(dir, HOUR, MINUTE, 100);
+        assertEquals(90 * 60 + 1, reopened.getPointCount());
+        TimeSeriesStore.Downsampled first = reopened.downsample("temp", DAY_START, DAY_START + HOUR, HOUR);
+        assertEquals(3600, first.count(0));
+        assertEquals(3599, first.max(0), 0);
+        assertEquals(1, reopened.query("a/../b", 0, Long.MAX_VALUE, (t, v) -> assertEquals(7, v, 0)));
+
+        // The reopened partition takes later readings instead of counting them as late
+        reopened.append("temp", DAY_START + HOUR + 45 * 60 * 1000L, -1);
+        assertEquals(0, reopened.getLateCount());
+        assertEquals(30 * 60 + 1, reopened.query("temp", DAY_START + HOUR, DAY_START + 2 * HOUR, (t, v) -> { }));
+    }
+
+    @Test
+    public void damagedPartitionFilesAreSkipped() throws IOException {
+        File dir = folder.newFolder("readings");
+        TimeSeriesStore store = new TimeSeriesStore(dir, HOUR, MINUTE, 100);
+        for (int hour = 0; hour < 3; hour++) {
+            store.append("temp", DAY_START + hour * HOUR, hour);
+        }
+        store.flush();
+        File middle = new File(new File(dir, "temp"), (DAY_START + HOUR) + ".tsc");
+        try (RandomAccessFile file = new RandomAccessFile(middle, "rw")) {
+            file.seek(file.length() - 2);
+            file.write(0x55);
+        }
+
+        TimeSeriesStore reopened = new TimeSeriesStore(dir, HOUR, MINUTE, 100);
+        assertEquals(2, reopened.getPointCount());
+        assertFalse(middle.exists());
+    }
+
+    @Test
+    public void retentionDeletesPartitionFiles() throws IOException {
+        File dir = folder.newFolder("readings");
+        TimeSeriesStore store = new TimeSeriesStore(dir, HOUR, MINUTE, 3);
+        for (int hour = 0; hour < 6; hour++) {
+            store.append("temp", DAY_START + hour * HOUR, hour);
+        }
+        store.flush();
+
+        // Three sealed partitions plus the open one
+        assertEquals(4, new File(dir, "temp").list().length);
+        assertEquals(4, new TimeSeriesStore(dir, HOUR, MINUTE, 3).getPointCount());
+    }
+
+    @Test
+    public void recordLineParsesKeyValuePairs() {
+        TimeSeriesStore store = new TimeSeriesStore(HOUR, MINUTE, 10);
+        assertEquals(2, store.recordLine(DAY_START, "temp=21.5,hum=40.1"));
+        assertEquals(2, store.recordLine(DAY_START + 1, "temp:22 light:512"));
+        assertEquals(1, store.recordLine(DAY_START + 2, "17.25"));
+        assertEquals(1, store.recordLine(DAY_START + 3, "temp=oops;hum=41"));
+        assertEquals(0, store.recordLine(DAY_START + 4, "Relay ON"));
+
+        assertEquals(2, store.query("temp", 0, Long.MAX_VALUE, (t, v) -> { }));
+        assertEquals(2, store.query("hum", 0, Long.MAX_VALUE, (t, v) -> { }));
+        assertEquals(1, store.query("value", 0, Long.MAX_VALUE, (t, v) -> assertEquals(17.25, v, 0)));
+    }
+}
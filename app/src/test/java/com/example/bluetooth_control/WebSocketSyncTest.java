@@ -0,0 +1,258 @@
+package com.example.bluetooth_control;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class WebSocketSyncTest {
+
+    private SyncStandInServer server;
+    private WebSocketSync sync;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new SyncStandInServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sync != null) {
+            sync.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void acksDrainTheUnackedWindow() throws Exception {
+        sync = newSync(64);
+        sync.start();
+        awaitTrue(sync::isConnected);
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(sync.send("serial", "line " + i));
+        }
+
+        awaitTrue(() -> sync.getPendingCount() == 0);
+        assertEquals(20, server.getReceivedCount());
+        assertEquals(20, sync.getAckedCount());
+        assertEquals(0, sync.getResentCount());
+    }
+
+    @Test
+    public void recordsSentBeforeTheSocketOpensGoOutOnConnect() throws Exception {
+        sync = newSync(64);
+        sync.send("status", "ON");
+        sync.send("status", "OFF");
+        sync.start();
+
+        awaitTrue(() -> server.getReceivedCount() == 2 && sync.getPendingCount() == 0);
+        assertEquals(2, sync.getSentCount());
+    }
+
+    @Test
+    public void unackedRecordsAreResentAfterADrop() throws Exception {
+        sync = newSync(64);
+        sync.start();
+        awaitTrue(sync::isConnected);
+
+        server.setAcking(false);
+        for (int i = 0; i < 5; i++) {
+            sync.send("serial", "line " + i);
+        }
+        awaitTrue(() -> server.getReceivedCount() == 5);
+        assertEquals(5, sync.getPendingCount());
+
+        server.setAcking(true);
+        server.dropSessions();
+
+        awaitTrue(() -> sync.getReconnectCount() == 1 && sync.getPendingCount() == 0);
+        assertEquals(5, sync.getResentCount());
+        // The server saw every record twice but keeps each sequence once
+        assertEquals(5, server.getReceivedCount());
+        assertEquals(5, server.getDuplicateCount());
+        List<String> hellos = server.getHellos();
+        assertEquals(2, hellos.size());
+        assertTrue(hellos.get(1), hellos.get(1).contains("\"resumeFrom\":1"));
+        assertEquals(session(hellos.get(0)), session(hellos.get(1)));
+    }
+
+    @Test
+    public void spillTakesTheUnackedWindowWhenTheSocketDrops() throws Exception {
+        List<String> spilled = new ArrayList<>();
+        sync = newSync(64, (channel, timestamp, data) -> {
+            synchronized (spilled) {
+                spilled.add(channel + ":" + data);
+            }
+        });
+        sync.start();
+        awaitTrue(sync::isConnected);
+
+        server.setAcking(false);
+        sync.send("status", "ON");
+        sync.send("serial", "temp=21");
+        awaitTrue(() -> server.getReceivedCount() == 2);
+        server.setAcking(true);
+        server.dropSessions();
+
+        // The server records the hello on its own thread
+        awaitTrue(() -> sync.getReconnectCount() == 1 && server.getHellos().size() == 2);
+        synchronized (spilled) {
+            assertEquals(Arrays.asList("status:ON", "serial:temp=21"), spilled);
+        }
+        assertEquals(2, sync.getSpilledCount());
+        assertEquals(0, sync.getPendingCount());
+        assertEquals(0, sync.getResentCount());
+        assertTrue(server.getHellos().get(1), server.getHellos().get(1).contains("\"resumeFrom\":3"));
+    }
+
+    @Test
+    public void closeHandsTheUnackedWindowToTheSpill() {
+        List<String> spilled = new ArrayList<>();
+        sync = newSync(64, (channel, timestamp, data) -> spilled.add(channel + ":" + data + ":" + (timestamp > 0)));
+        sync.send("status", "ON");
+        sync.send("status", "OFF");
+
+        sync.close();
+
+        assertEquals(Arrays.asList("status:ON:true", "status:OFF:true"), spilled);
+        assertEquals(0, sync.getPendingCount());
+    }
+
+    @Test
+    public void serverCommandsReachListenersAndAreAcked() throws Exception {
+        List<String> commands = new ArrayList<>();
+        sync = newSync(64);
+        sync.addListener(new WebSocketSync.Listener() {
+            @Override
+            public void onStateChanged(WebSocketSync.State state) {
+            }
+
+            @Override
+            public void onCommand(String target, String data) {
+                synchronized (commands) {
+                    commands.add(target + "=" + data);
+                }
+            }
+        });
+        sync.start();
+        awaitTrue(() -> server.getOpenSessions() == 1);
+
+        server.pushCommand("c1", "relay", "A");
+        server.pushCommand("c2", "relay", "B");
+
+        awaitTrue(() -> server.getCommandAcks().size() == 2);
+        synchronized (commands) {
+            assertEquals(Arrays.asList("relay=A", "relay=B"), commands);
+        }
+        assertEquals(Arrays.asList("c1", "c2"), server.getCommandAcks());
+        assertEquals(2, sync.getCommandsReceived());
+    }
+
+    @Test
+    public void channelsShareOneSocket() throws Exception {
+        sync = newSync(64);
+        sync.start();
+        awaitTrue(sync::isConnected);
+
+        sync.send("status", "ON");
+        sync.send("serial", "temp=21");
+        sync.send("status", "OFF");
+
+        awaitTrue(() -> server.getReceivedCount() == 3);
+        assertEquals(Arrays.asList("status", "serial", "status"), server.getChannels());
+        assertEquals(1, server.getHellos().size());
+        assertEquals(0, server.getPostCount());
+    }
+
+    @Test
+    public void fullWindowRefusesRecords() throws Exception {
+        sync = newSync(3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(sync.send("serial", "line " + i));
+        }
+
+        assertFalse(sync.send("serial", "overflow"));
+        assertEquals(1, sync.getRejectedCount());
+        assertEquals(3, sync.getPendingCount());
+    }
+
+    @Test
+    public void closedSyncRefusesRecords() {
+        sync = newSync(64);
+        sync.close();
+
+        assertFalse(sync.send("serial", "late"));
+        assertEquals(WebSocketSync.State.DISCONNECTED, sync.getState());
+    }
+
+    @Test
+    public void backoffDoublesUpToTheCap() {
+        sync = newSync(64);
+
+        assertEquals(10, sync.backoffMillis(1));
+        assertEquals(20, sync.backoffMillis(2));
+        assertEquals(160, sync.backoffMillis(5));
+        assertEquals(500, sync.backoffMillis(40));
+    }
+
+    @Test
+    public void parsesFlatMessages() {
+        Map<String, String> message = WebSocketSync.parseFlatObject(
+                " {\"type\" : \"command\", \"seq\":42,\"ok\":true,\"none\":null,\"data\":\"a\\\"b\\n\\u00e9\"} ");
+
+        assertEquals("command", message.get("type"));
+        assertEquals("42", message.get("seq"));
+        assertEquals("true", message.get("ok"));
+        assertTrue(message.containsKey("none"));
+        assertNull(message.get("none"));
+        assertEquals("a\"b\n\u00e9", message.get("data"));
+        assertTrue(WebSocketSync.parseFlatObject("{}").isEmpty());
+    }
+
+    @Test
+    public void rejectsMalformedMessages() {
+        for (String text : new String[]{"", "[]", "{\"a\":{}}", "{\"a\":1", "{\"a\":\"x}", "{\"a\":}", "{\"a\":\"\\u12\"}"}) {
+            try {
+                WebSocketSync.parseFlatObject(text);
+                fail("accepted " + text);
+            } catch (IllegalArgumentException expected) {
+                // Ignored by the client
+            }
+        }
+    }
+
+    private WebSocketSync newSync(int maxUnacked) {
+        return newSync(maxUnacked, null);
+    }
+
+    private WebSocketSync newSync(int maxUnacked, WebSocketSync.Spill spill) {
+        return new WebSocketSync.Builder(server.streamUrl())
+                .deviceId("test-device")
+                .maxUnacked(maxUnacked)
+                .heartbeat(1, TimeUnit.SECONDS)
+                .backoff(10, 500, TimeUnit.MILLISECONDS)
+                .spill(spill)
+                .build();
+    }
+
+    private static String session(String hello) {
+        return WebSocketSync.parseFlatObject(hello).get("session");
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+plugins {
+    id("java-library")
+    id("me.champeau.jmh")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+// Benchmarks run on the desktop JVM, so only the Android-free classes of :app are compiled here
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include("com/example/bluetooth_control/TelemetryUploader.java")
+            include("com/example/bluetooth_control/JsonWriter.java")
+            include("com/example/bluetooth_control/Metrics.java")
+            include("com/example/bluetooth_control/LatencyHistogram.java")
+            include("com/example/bluetooth_control/FrameDecoder.java")
+            include("com/example/bluetooth_control/ReadingParser.java")
+            include("com/example/bluetooth_control/RuleEngine.java")
+            include("com/example/bluetooth_control/CommandProtocol.java")
+            include("com/example/bluetooth_control/CommandChannel.java")
+            include("com/example/bluetooth_control/CommandWriter.java")
+            include("com/example/bluetooth_control/DataBus.java")
+            include("com/example/bluetooth_control/TerminalBuffer.java")
+            include("com/example/bluetooth_control/TerminalRenderer.java")
+            include("com/example/bluetooth_control/Outbox.java")
+            include("com/example/bluetooth_control/OutboxDrainer.java")
+            include("com/example/bluetooth_control/TimeSeriesCodec.java")
+            include("com/example/bluetooth_control/TimeSeriesStore.java")
+            include("com/example/bluetooth_control/Transport.java")
+            include("com/example/bluetooth_control/TransportFactory.java")
+            include("com/example/bluetooth_control/ConnectionReader.java")
+            include("com/example/bluetooth_control/ConnectionManager.java")
+            include("com/example/bluetooth_control/MultiLinkManager.java")
+            include("com/example/bluetooth_control/LinkSession.java")
+            include("com/example/bluetooth_control/DeviceCache.java")
+            include("com/example/bluetooth_control/SessionRecorder.java")
+            include("com/example/bluetooth_control/SessionReplay.java")
+            include("com/example/bluetooth_control/FlowControl.java")
+            include("com/example/bluetooth_control/TerminalHistory.java")
+            include("com/example/bluetooth_control/CommandSequencer.java")
+            include("com/example/bluetooth_control/LanGateway.java")
+            include("com/example/bluetooth_control/LoopbackTransport.java")
+            include("com/example/bluetooth_control/TcpTransport.java")
+            include("com/example/bluetooth_control/WebSocketSync.java")
+        }
+    }
+    // Test doubles shared with the unit tests
+    named("jmh") {
+        java {
+            srcDir("../app/src/test/java")
+            include("com/example/bluetooth_control/*Benchmark.java")
+            include("com/example/bluetooth_control/SimulatedArduino.java")
+            include("com/example/bluetooth_control/ArduinoEmulator.java")
+            include("com/example/bluetooth_control/SyncStandInServer.java")
+        }
+    }
+}
+
+dependencies {
+    implementation("com.squareup.okhttp3:okhttp:4.9.2")
+    jmh("com.squareup.okhttp3:mockwebserver:4.9.2")
+    // Only to compare JsonWriter against
+    jmh("com.google.code.gson:gson:2.10.1")
+    jmh("com.squareup.moshi:moshi:1.15.0")
+}
+
+jmh {
+    warmupIterations.set(2)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("JSON")
+    // Report allocation per operation alongside the scores
+    profilers.add("gc")
+}
+
+// Compares a saved results file against the latest run and flags regressions:
+// ./gradlew :benchmark:jmhCompare -Pbaseline=old.json [-Pcurrent=new.json] [-Pthreshold=5] [-PfailOnRegression]
+tasks.register<JavaExec>("jmhCompare") {
+    group = "benchmark"
+    description = "Compares two JMH result files"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("com.example.bluetooth_control.BenchmarkComparison")
+    val latest = layout.buildDirectory.file("results/jmh/results.json")
+    doFirst {
+        val baseline = project.findProperty("baseline")
+            ?: throw GradleException("Pass the earlier results with -Pbaseline=<results.json>")
+        val current = project.findProperty("current") ?: latest.get().asFile.path
+        args = listOfNotNull(
+            baseline.toString(),
+            current.toString(),
+            project.findProperty("threshold")?.toString() ?: "5",
+            if (project.hasProperty("failOnRegression")) "--fail" else null
+        )
+    }
+}
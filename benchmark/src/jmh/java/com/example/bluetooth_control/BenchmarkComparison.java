@@ -0,0 +1,290 @@
+package com.example.bluetooth_control;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files and flags regressions, so a change to a hot path can be
+ * checked against the numbers from before it.
+ *
+ * For every benchmark present in both runs it compares the primary score (higher is better for
+ * throughput, lower for time modes), the p99 of SampleTime runs and the gc profiler's
+ * allocation per op. A change counts as a regression when it is worse by more than the
+ * threshold percentage and by more than the two runs' combined score error.
+ *
+ * Usage: {@code BenchmarkComparison <baseline.json> <current.json> [thresholdPercent] [--fail]}.
+ * With {@code --fail} the exit status is 1 if anything regressed.
+ */
+public final class BenchmarkComparison {
+
+    // Older JMH versions prefix the gc profiler's metrics with a middle dot
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    private BenchmarkComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BenchmarkComparison <baseline.json> <current.json> [thresholdPercent] [--fail]");
+            System.exit(2);
+        }
+        double threshold = 5;
+        boolean failOnRegression = false;
+        for (int i = 2; i < args.length; i++) {
+            if ("--fail".equals(args[i])) {
+                failOnRegression = true;
+            } else {
+                threshold = Double.parseDouble(args[i]);
+            }
+        }
+
+        Map<String, Map<String, Object>> baseline = load(args[0]);
+        Map<String, Map<String, Object>> current = load(args[1]);
+        List<String> rows = new ArrayList<>();
+        int regressions = 0;
+        for (Map.Entry<String, Map<String, Object>> entry : current.entrySet()) {
+            Map<String, Object> before = baseline.get(entry.getKey());
+            if (before == null) {
+                rows.add(String.format(Locale.ROOT, "%-70s  new", entry.getKey()));
+                continue;
+            }
+            Map<String, Object> after = entry.getValue();
+            boolean higherIsBetter = "thrpt".equals(after.get("mode"));
+            Map<String, Object> beforeMetric = object(before.get("primaryMetric"));
+            Map<String, Object> afterMetric = object(after.get("primaryMetric"));
+
+            regressions += compare(rows, entry.getKey(), "score", beforeMetric, afterMetric, higherIsBetter, threshold);
+            if ("sample".equals(after.get("mode"))) {
+                regressions += compare(rows, entry.getKey(), "p99",
+                        percentile(beforeMetric, "99.0"), percentile(afterMetric, "99.0"), false, threshold);
+            }
+            Map<String, Object> beforeAlloc = allocation(before);
+            Map<String, Object> afterAlloc = allocation(after);
+            if (!beforeAlloc.isEmpty() && !afterAlloc.isEmpty()) {
+                regressions += compare(rows, entry.getKey(), "alloc", beforeAlloc, afterAlloc, false, threshold);
+            }
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                rows.add(String.format(Locale.ROOT, "%-70s  removed", key));
+            }
+        }
+
+        for (String row : rows) {
+            System.out.println(row);
+        }
+        System.out.println(regressions + " regression(s) beyond " + threshold + "%");
+        if (failOnRegression && regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static int compare(List<String> rows, String key, String what, Map<String, Object> before,
+                               Map<String, Object> after, boolean higherIsBetter, double threshold) {
+        double old = number(before.get("score"));
+        double now = number(after.get("score"));
+        if (Double.isNaN(old) || Double.isNaN(now)) {
+            return 0;
+        }
+        double change = old == 0 ? (now == 0 ? 0 : 100) : (now - old) / Math.abs(old) * 100;
+        double worse = higherIsBetter ? -change : change;
+        double noise = zeroIfNaN(number(before.get("scoreError"))) + zeroIfNaN(number(after.get("scoreError")));
+        boolean regressed = worse > threshold && Math.abs(now - old) > noise;
+        rows.add(String.format(Locale.ROOT, "%-70s  %-5s %14.3f -> %14.3f %-8s %+7.1f%%%s",
+                key, what, old, now, after.get("scoreUnit"), change, regressed ? "  REGRESSION" : ""));
+        return regressed ? 1 : 0;
+    }
+
+    private static Map<String, Object> allocation(Map<String, Object> result) {
+        for (Map.Entry<String, Object> metric : object(result.get("secondaryMetrics")).entrySet()) {
+            if (metric.getKey().endsWith(ALLOCATION)) {
+                return object(metric.getValue());
+            }
+        }
+        return new LinkedHashMap<>();
+    }
+
+    private static Map<String, Object> percentile(Map<String, Object> metric, String percentile) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("score", object(metric.get("scorePercentiles")).get(percentile));
+        result.put("scoreUnit", metric.get("scoreUnit"));
+        return result;
+    }
+
+    // Keyed by benchmark, mode and params, e.g. "HotPathBenchmark.statusJson [thrpt]"
+    private static Map<String, Map<String, Object>> load(String path) throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        Map<String, Map<String, Object>> results = new TreeMap<>();
+        for (Object element : (List<?>) new Parser(json).parse()) {
+            Map<String, Object> result = object(element);
+            String name = String.valueOf(result.get("benchmark"));
+            StringBuilder key = new StringBuilder(name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1));
+            key.append(" [").append(result.get("mode")).append(']');
+            for (Map.Entry<String, Object> param : new TreeMap<>(object(result.get("params"))).entrySet()) {
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue());
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> object(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : new LinkedHashMap<>();
+    }
+
+    private static double number(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        // JMH writes NaN and infinities as strings
+        try {
+            return value == null ? Double.NaN : Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static double zeroIfNaN(double value) {
+        return Double.isNaN(value) ? 0 : value;
+    }
+
+    // Just enough JSON for JMH's result files
+    private static final class Parser {
+        private final String text;
+        private int position;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Object parse() {
+            skipWhitespace();
+            char c = text.charAt(position);
+            if (c == '{') {
+                return parseObject();
+            }
+            if (c == '[') {
+                return parseArray();
+            }
+            if (c == '"') {
+                return parseString();
+            }
+            if (text.startsWith("true", position)) {
+                position += 4;
+                return Boolean.TRUE;
+            }
+            if (text.startsWith("false", position)) {
+                position += 5;
+                return Boolean.FALSE;
+            }
+            if (text.startsWith("null", position)) {
+                position += 4;
+                return null;
+            }
+            int start = position;
+            while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+            return Double.parseDouble(text.substring(start, position));
+        }
+
+        private Map<String, Object> parseObject() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            position++;
+            skipWhitespace();
+            if (text.charAt(position) == '}') {
+                position++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = parseString();
+                skipWhitespace();
+                expect(':');
+                object.put(key, parse());
+                skipWhitespace();
+                if (text.charAt(position++) == '}') {
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> parseArray() {
+            List<Object> array = new ArrayList<>();
+            position++;
+            skipWhitespace();
+            if (text.charAt(position) == ']') {
+                position++;
+                return array;
+            }
+            while (true) {
+                array.add(parse());
+                skipWhitespace();
+                if (text.charAt(position++) == ']') {
+                    return array;
+                }
+            }
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'u':
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+        }
+
+        private void expect(char c) {
+            if (text.charAt(position) != c) {
+                throw new IllegalArgumentException("Expected '" + c + "' at " + position);
+            }
+            position++;
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Effective commands per second and round-trip latency of CommandChannel against the
+ * in-process SimulatedArduino. ackDelayMicros approximates the sketch's processing time.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CommandChannelBenchmark {
+
+    private static final int BURST = 256;
+    private static final byte[] PAYLOAD = {1, (byte) 128};
+
+    @Param({"1", "4", "16"})
+    public int window;
+
+    @Param({"0", "200"})
+    public long ackDelayMicros;
+
+    private SimulatedArduino arduino;
+    private CommandChannel channel;
+    private final Semaphore acked = new Semaphore(0);
+    private final CommandChannel.Callback callback = new CommandChannel.Callback() {
+        @Override
+        public void onAck(int seq, long roundTripNanos) {
+            acked.release();
+        }
+
+        @Override
+        public void onFailure(int seq, Exception e) {
+            acked.release();
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException {
+        arduino = new SimulatedArduino(ackDelayMicros, TimeUnit.MICROSECONDS, 0);
+        channel = new CommandChannel(arduino.getAppOutputStream(), window, 1, TimeUnit.SECONDS, 0);
+        channel.start(arduino.getAppInputStream());
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws IOException {
+        channel.close();
+        arduino.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OperationsPerInvocation(BURST)
+    public void pipelinedBurst() throws Exception {
+        for (int i = 0; i < BURST; i++) {
+            channel.send(1, CommandProtocol.OP_SET_PWM, PAYLOAD, callback);
+        }
+        acked.acquire(BURST);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void roundTrip() throws Exception {
+        channel.send(1, CommandProtocol.OP_SET_STATE, PAYLOAD, callback);
+        acked.acquire();
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fan-out throughput of DataBus: the reader publishes a burst of read()-sized chunks and the
+ * operation completes once every subscriber has consumed or dropped all of them. Scores are
+ * chunks per second as seen by the producer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DataBusBenchmark {
+
+    private static final int BURST = 4096;
+
+    @Param({"1", "4", "16"})
+    public int subscribers;
+
+    @Param({"64"})
+    public int chunkSize;
+
+    private DataBus bus;
+    private DataBus.Subscription[] subscriptions;
+    private AtomicLongArray consumed;
+    private final byte[] chunk = new byte[1024];
+    private long target;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long dropped;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bus = new DataBus(1024, 1024);
+        subscriptions = new DataBus.Subscription[subscribers];
+        consumed = new AtomicLongArray(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            int index = i;
+            subscriptions[i] = bus.subscribe("bench-" + i, DataBus.OverflowPolicy.DROP)
+                    .start((data, offset, length) -> consumed.lazySet(index, consumed.get(index) + 1));
+        }
+        target = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (DataBus.Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void fanOut(Counters counters) {
+        for (int i = 0; i < BURST; i++) {
+            bus.publish(chunk, 0, chunkSize);
+        }
+        target += BURST;
+        long dropped = 0;
+        for (int i = 0; i < subscribers; i++) {
+            while (consumed.get(i) + subscriptions[i].getDroppedCount() < target) {
+                Thread.yield();
+            }
+            dropped += subscriptions[i].getDroppedCount();
+        }
+        counters.dropped = dropped;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames per second through FrameDecoder, fed in read()-sized chunks. With the gc profiler
+ * enabled, gc.alloc.rate.norm is the number of bytes allocated per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FrameDecoderBenchmark {
+
+    private static final int LINES = 1024;
+
+    @Param({"16", "64", "990"})
+    public int chunkSize;
+
+    @Param({"bytes", "text"})
+    public String output;
+
+    private byte[] stream;
+    private FrameDecoder decoder;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            lines.append("temp=").append(20 + i % 10).append(".5,hum=").append(40 + i % 7).append("\r\n");
+        }
+        stream = lines.toString().getBytes(StandardCharsets.US_ASCII);
+
+        if ("text".equals(output)) {
+            decoder = new FrameDecoder(FrameDecoder.newline(), 1024,
+                    new FrameDecoder.TextFrameListener(StandardCharsets.UTF_8, 1024, line -> this.blackhole.consume(line.length())));
+        } else {
+            decoder = new FrameDecoder(FrameDecoder.newline(), 1024, frame -> this.blackhole.consume(frame.remaining()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void decode() {
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            decoder.feed(stream, offset, Math.min(chunkSize, stream.length - offset));
+        }
+    }
+
+    // The old ConnectedThread: one String per read(), lines split at random
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void newStringPerRead(Blackhole blackhole) {
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            blackhole.consume(new String(stream, offset, Math.min(chunkSize, stream.length - offset)));
+        }
+    }
+}
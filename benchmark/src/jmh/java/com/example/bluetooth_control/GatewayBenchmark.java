@@ -0,0 +1,164 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load on the LAN gateway over loopback, each JMH thread a keep-alive client on its own
+ * connection. {@code state} and {@code state32} are requests per second for one and 32
+ * concurrent clients; {@code command} queues a relay command; {@code capture} downloads a
+ * 16 MB capture file, sent with transferTo.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GatewayBenchmark {
+
+    static final int CAPTURE_BYTES = 16 * 1024 * 1024;
+    // Commands are only served with a token, so every request carries it
+    static final String TOKEN = "bench";
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        File captures;
+        ConnectionManager manager;
+        LanGateway gateway;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            captures = Files.createTempDirectory("gateway-captures").toFile();
+            byte[] data = new byte[CAPTURE_BYTES];
+            new Random(1).nextBytes(data);
+            try (FileOutputStream out = new FileOutputStream(new File(captures, "session.hcap"))) {
+                out.write(data);
+            }
+            manager = new ConnectionManager(10, 100, 1);
+            gateway = new LanGateway.Builder(manager)
+                    .port(0)
+                    .token(TOKEN)
+                    .command("A", new byte[]{'A'})
+                    .commandSink(command -> true)
+                    .captures(captures)
+                    .build();
+            gateway.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            gateway.close();
+            for (File file : captures.listFiles()) {
+                file.delete();
+            }
+            captures.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        static final byte[] STATE = request("GET", "/state");
+        static final byte[] COMMAND = request("POST", "/commands/A");
+        static final byte[] CAPTURE = request("GET", "/captures/session.hcap");
+
+        Socket socket;
+        InputStream in;
+        OutputStream out;
+        byte[] body = new byte[64 * 1024];
+
+        @Setup(Level.Trial)
+        public void setUp(Server server) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), server.gateway.getPort());
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            out = socket.getOutputStream();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            socket.close();
+        }
+
+        // Sends request and reads the response through; returns the body length
+        long exchange(byte[] request) throws IOException {
+            out.write(request);
+            out.flush();
+            long length = readHead();
+            for (long left = length; left > 0; ) {
+                int n = in.read(body, 0, (int) Math.min(body.length, left));
+                if (n < 0) {
+                    throw new IOException("Closed mid-body");
+                }
+                left -= n;
+            }
+            return length;
+        }
+
+        // Returns Content-Length
+        private long readHead() throws IOException {
+            StringBuilder line = new StringBuilder();
+            long length = 0;
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Closed mid-head");
+                }
+                if (b != '\n') {
+                    line.append((char) b);
+                    continue;
+                }
+                if (line.length() <= 1) {
+                    return length;
+                }
+                if (line.length() > 15 && line.substring(0, 15).equalsIgnoreCase("content-length:")) {
+                    length = Long.parseLong(line.substring(15).trim());
+                }
+                line.setLength(0);
+            }
+        }
+
+        private static byte[] request(String method, String path) {
+            return (method + " " + path + " HTTP/1.1\r\nHost: phone\r\nAuthorization: Bearer " + TOKEN + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Benchmark
+    public long state(Client client) throws IOException {
+        return client.exchange(Client.STATE);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public long state32(Client client) throws IOException {
+        return client.exchange(Client.STATE);
+    }
+
+    @Benchmark
+    public long command(Client client) throws IOException {
+        return client.exchange(Client.COMMAND);
+    }
+
+    @Benchmark
+    public long capture(Client client) throws IOException {
+        return client.exchange(Client.CAPTURE);
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Terminal history on a synthetic log of 10M sketch lines, one in 10k of them an error.
+ * {@code append} is the cost of capturing and indexing one line, in lines per second. The
+ * searches time a first page of 50 matches, newest first, as the terminal shows them;
+ * {@code absent} has to rule out the whole history.
+ */
+public class HistoryBenchmark {
+
+    private static final int PAGE = 50;
+
+    @State(Scope.Thread)
+    public static class Build {
+        static final int BATCH = 1000;
+
+        File dir;
+        TerminalHistory history;
+        byte[][] lines;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("history-build").toFile();
+            history = new TerminalHistory(dir, TerminalHistory.DEFAULT_LINES_PER_BLOCK,
+                    TerminalHistory.DEFAULT_BLOCKS_PER_SEGMENT, TerminalHistory.DEFAULT_MAX_SEGMENTS);
+            lines = new byte[64 * 1024][];
+            Random random = new Random(5);
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = line(random, i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            history.close();
+            delete(dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Searching {
+        static final int LINES = 10_000_000;
+
+        File dir;
+        TerminalHistory history;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("history-search").toFile();
+            // Room for all of it
+            history = new TerminalHistory(dir, TerminalHistory.DEFAULT_LINES_PER_BLOCK,
+                    TerminalHistory.DEFAULT_BLOCKS_PER_SEGMENT, 200);
+            Random random = new Random(7);
+            for (int i = 0; i < LINES; i++) {
+                byte[] line = line(random, i);
+                history.append(line, 0, line.length);
+            }
+            history.flush();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            history.close();
+            delete(dir);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(Build.BATCH)
+    public void append(Build state) throws IOException {
+        for (int i = 0; i < Build.BATCH; i++) {
+            byte[] line = state.lines[state.next++ & (state.lines.length - 1)];
+            state.history.append(line, 0, line.length);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<TerminalHistory.Match> errors(Searching state) throws IOException {
+        return firstPage(state.history, "ERR");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<TerminalHistory.Match> prefix(Searching state) throws IOException {
+        return firstPage(state.history, "temp=4*");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<TerminalHistory.Match> absent(Searching state) throws IOException {
+        return firstPage(state.history, "ERR*overheat");
+    }
+
+    private static List<TerminalHistory.Match> firstPage(TerminalHistory history, String query) throws IOException {
+        try (TerminalHistory.Search search = history.search(query)) {
+            return search.next(PAGE);
+        }
+    }
+
+    // e.g. "temp=23.4,hum=51.7,t=8812345", with the odd "ERR sensor 2 timeout"
+    static byte[] line(Random random, int sequence) {
+        if (random.nextInt(10_000) == 0) {
+            return ("ERR sensor " + random.nextInt(4) + " timeout").getBytes(StandardCharsets.US_ASCII);
+        }
+        StringBuilder line = new StringBuilder(32);
+        int temp = 150 + random.nextInt(300);
+        int hum = 300 + random.nextInt(400);
+        line.append("temp=").append(temp / 10).append('.').append(temp % 10)
+                .append(",hum=").append(hum / 10).append('.').append(hum % 10)
+                .append(",t=").append(sequence);
+        return line.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.Buffer;
+
+/**
+ * The paths that run constantly while a device is connected, each reported as ops/s and as
+ * a latency distribution (p50/p99/p99.9 under SampleTime); the gc profiler adds the
+ * allocation rate per op.
+ *
+ * <ul>
+ * <li>{@code readAndDecode}: the reader loop, read()-sized chunks from the stream into the
+ * line decoder, per line.</li>
+ * <li>{@code statusJson} / {@code batchJson}: the upload bodies built for one status and for a
+ * drained outbox batch.</li>
+ * <li>{@code dispatchToSubscriber}: handing one chunk from the reader thread to a consumer
+ * thread, which replaced the Handler message hop.</li>
+ * <li>{@code writeCommand} / {@code writeFramedCommand}: ControlActivity's command writes, raw
+ * and as a CommandProtocol frame, onto a transport drained by a device thread.</li>
+ * <li>{@code submitCommand}: what a button tap now costs the UI thread, queueing a raw command
+ * for the CommandWriter instead of writing it.</li>
+ * <li>{@code submitCommandWhileStuck}: the same while the stream is blocked, as when the
+ * HC-05's buffer is full: bursty taps that coalesce or are refused once the queue is full.</li>
+ * </ul>
+ *
+ * Compare two runs with {@code ./gradlew :benchmark:jmhCompare -Pbaseline=<old results.json>}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HotPathBenchmark {
+
+    private static final int LINES = 256;
+    private static final int BATCH = 64;
+
+    private byte[] serialStream;
+    private InputStream serialInput;
+    private FrameDecoder decoder;
+    private final byte[] readBuffer = new byte[1024];
+
+    private Outbox.Batch batch;
+    private final Buffer body = new Buffer();
+
+    private DataBus bus;
+    private DataBus.Subscription subscription;
+    private final AtomicLong consumed = new AtomicLong();
+    private final byte[] chunk = "temp=21.5,hum=40.1,light=512\n".getBytes(StandardCharsets.US_ASCII);
+    private long published;
+
+    private LoopbackTransport transport;
+    private OutputStream commandOutput;
+    private Thread device;
+    private CommandWriter commandWriter;
+    private final byte[] relayOn = {'A'};
+    private final byte[] relayOff = {'B'};
+
+    private final CountDownLatch unstick = new CountDownLatch(1);
+    private CommandWriter stuckWriter;
+    private long taps;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            lines.append("temp=").append(20 + i % 10).append(".5,hum=40.").append(i % 10).append(",light=").append(i).append('\n');
+        }
+        serialStream = lines.toString().getBytes(StandardCharsets.US_ASCII);
+        serialInput = new ByteArrayInputStream(serialStream);
+        decoder = new FrameDecoder(FrameDecoder.newline(), 256,
+                new FrameDecoder.TextFrameListener(StandardCharsets.UTF_8, 256, blackhole::consume));
+
+        List<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            records.add(TelemetryUploader.toJson("temp=21." + i + ",hum=40.1"));
+        }
+        batch = new Outbox.Batch(records, 0, 0, 0, 0);
+
+        bus = new DataBus(1024, 1024);
+        subscription = bus.subscribe("bench", DataBus.OverflowPolicy.DROP)
+                .start((data, offset, length) -> consumed.lazySet(consumed.get() + 1));
+        published = 0;
+
+        transport = new LoopbackTransport();
+        commandOutput = transport.getOutputStream();
+        InputStream deviceInput = transport.getPeer().getInputStream();
+        device = new Thread(() -> {
+            byte[] sink = new byte[1024];
+            try {
+                while (deviceInput.read(sink) >= 0) {
+                    // Drained like the HC-05's UART buffer
+                }
+            } catch (IOException e) {
+                // Closed at teardown
+            }
+        }, "bench-device");
+        device.setDaemon(true);
+        device.start();
+        commandWriter = new CommandWriter.Builder(commandOutput).capacity(1024).build();
+
+        // Never returns from its first write until teardown, so the queue stays full
+        OutputStream stuck = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    unstick.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        stuckWriter = new CommandWriter.Builder(stuck).capacity(16).build();
+        stuckWriter.submit("first", relayOn);
+        taps = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        commandWriter.close();
+        unstick.countDown();
+        stuckWriter.close();
+        subscription.close();
+        transport.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void readAndDecode() throws IOException {
+        serialInput.reset();
+        int numBytes;
+        while ((numBytes = serialInput.read(readBuffer)) >= 0) {
+            decoder.feed(readBuffer, 0, numBytes);
+        }
+    }
+
+    @Benchmark
+    public byte[] statusJson() {
+        return TelemetryUploader.toJson("ON");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long batchJson() throws IOException {
+        body.clear();
+        OutboxDrainer.toBody(batch).writeTo(body);
+        return body.size();
+    }
+
+    @Benchmark
+    public long dispatchToSubscriber() {
+        bus.publish(chunk, 0, chunk.length);
+        published++;
+        while (consumed.get() + subscription.getDroppedCount() < published) {
+            Thread.yield();
+        }
+        return published;
+    }
+
+    @Benchmark
+    public void writeCommand() throws IOException {
+        commandOutput.write('A');
+    }
+
+    @Benchmark
+    public boolean submitCommand() {
+        return commandWriter.submit("relay", relayOn);
+    }
+
+    @Benchmark
+    public boolean submitCommandWhileStuck() {
+        long tap = taps++;
+        return stuckWriter.submit(tap % 4 == 0 ? "cmd-" + (tap & 1023) : "relay", tap % 2 == 0 ? relayOn : relayOff);
+    }
+
+    @Benchmark
+    public void writeFramedCommand() throws IOException {
+        commandOutput.write(CommandProtocol.encode(1, CommandProtocol.OP_SET_STATE, 1, (byte) 0, (byte) 1));
+    }
+}
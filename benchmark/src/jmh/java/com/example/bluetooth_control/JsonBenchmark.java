@@ -0,0 +1,158 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * Encoding upload records ({"device":...,"ts":...,"data":...}) into bytes ready for the
+ * request body, one record at a time as the outbox stores them and as a whole batch as the
+ * batcher sends them.
+ *
+ * {@code concat} is the string concatenation the uploaders used before, which does no
+ * escaping at all and so produces invalid JSON for the {@code escaped} payload. The Gson and
+ * Moshi variants use their streaming writers over a reused sink, the cheapest way to drive
+ * either library.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonBenchmark {
+
+    private static final int BATCH = 64;
+    private static final String DEVICE = "9774d56d682e549c";
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+
+    @Param({"ascii", "escaped"})
+    public String payload;
+
+    private String line;
+
+    private final JsonWriter json = new JsonWriter(8 * 1024);
+    private final ByteArrayOutputStream gsonBytes = new ByteArrayOutputStream(8 * 1024);
+    private final Writer gsonOut = new OutputStreamWriter(gsonBytes, StandardCharsets.UTF_8);
+    private final Buffer moshiBuffer = new Buffer();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        line = "ascii".equals(payload)
+                ? "seq=1042,temp=21.5,hum=40.1,light=512"
+                : "msg=\"Relay ON\"\ttemp=21.5\u00b0C\\n";
+    }
+
+    @Benchmark
+    public byte[] concatRecord() {
+        return concat(line).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int jsonWriterRecord() {
+        json.reset();
+        TelemetryUploader.writeRecord(json, DEVICE, TIMESTAMP, line);
+        return json.size();
+    }
+
+    @Benchmark
+    public int gsonRecord() throws IOException {
+        gsonBytes.reset();
+        com.google.gson.stream.JsonWriter writer = new com.google.gson.stream.JsonWriter(gsonOut);
+        gson(writer, line);
+        writer.flush();
+        return gsonBytes.size();
+    }
+
+    @Benchmark
+    public long moshiRecord() throws IOException {
+        moshiBuffer.clear();
+        com.squareup.moshi.JsonWriter writer = com.squareup.moshi.JsonWriter.of(moshiBuffer);
+        moshi(writer, line);
+        writer.flush();
+        return moshiBuffer.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public byte[] concatBatch() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < BATCH; i++) {
+            body.append(i == 0 ? '[' : ',').append(concat(line));
+        }
+        return body.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int jsonWriterBatch() {
+        json.reset();
+        json.beginArray();
+        for (int i = 0; i < BATCH; i++) {
+            TelemetryUploader.writeRecord(json, DEVICE, TIMESTAMP, line);
+        }
+        json.endArray();
+        return json.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int gsonBatch() throws IOException {
+        gsonBytes.reset();
+        com.google.gson.stream.JsonWriter writer = new com.google.gson.stream.JsonWriter(gsonOut);
+        writer.beginArray();
+        for (int i = 0; i < BATCH; i++) {
+            gson(writer, line);
+        }
+        writer.endArray();
+        writer.flush();
+        return gsonBytes.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long moshiBatch() throws IOException {
+        moshiBuffer.clear();
+        com.squareup.moshi.JsonWriter writer = com.squareup.moshi.JsonWriter.of(moshiBuffer);
+        writer.beginArray();
+        for (int i = 0; i < BATCH; i++) {
+            moshi(writer, line);
+        }
+        writer.endArray();
+        writer.flush();
+        return moshiBuffer.size();
+    }
+
+    private static String concat(String data) {
+        return "{\"device\":\"" + DEVICE + "\",\"ts\":" + TIMESTAMP + ",\"data\":\"" + data + "\"}";
+    }
+
+    private static void gson(com.google.gson.stream.JsonWriter writer, String data) throws IOException {
+        writer.beginObject();
+        writer.name("device").value(DEVICE);
+        writer.name("ts").value(TIMESTAMP);
+        writer.name("data").value(data);
+        writer.endObject();
+    }
+
+    private static void moshi(com.squareup.moshi.JsonWriter writer, String data) throws IOException {
+        writer.beginObject();
+        writer.name("device").value(DEVICE);
+        writer.name("ts").value(TIMESTAMP);
+        writer.name("data").value(data);
+        writer.endObject();
+    }
+}
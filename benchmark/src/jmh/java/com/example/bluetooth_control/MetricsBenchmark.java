@@ -0,0 +1,62 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording a metric on the hot path. The budget is tens of nanoseconds per call,
+ * including the nanoTime pair a latency measurement needs; the {@code contended} variants
+ * have four threads hitting the same counter or histogram, as the link writers do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Counter counter = metrics.counter(Metrics.BYTES_IN);
+    private final LatencyHistogram histogram = metrics.histogram(Metrics.COMMAND_RTT);
+    private long value = 12_345;
+
+    @Benchmark
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public void counterAdd() {
+        counter.add(64);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void counterAddContended() {
+        counter.add(64);
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        // Varies the bucket so the benchmark does not hammer a single cache line
+        value = value * 6364136223846793005L + 1442695040888963407L;
+        histogram.record((value >>> 40) & 0xFFFFF);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void histogramRecordContended() {
+        histogram.record(System.nanoTime() & 0xFFFFF);
+    }
+
+    @Benchmark
+    public void timedSection() {
+        long start = System.nanoTime();
+        histogram.recordSince(start);
+    }
+}
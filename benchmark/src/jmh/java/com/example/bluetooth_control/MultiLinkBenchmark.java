@@ -0,0 +1,97 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Costs of driving several simulated devices at once.
+ *
+ * {@code broadcastRoundTrip} sends one command to every link and waits until each device has
+ * acked it, so it shows how the per-link writers and readers scale with the number of links.
+ * {@code connectAll} opens every link from scratch against a 20 ms connect latency, with
+ * connects either one at a time or four in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MultiLinkBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int links;
+
+    private MultiLinkManager manager;
+    private DataBus.Subscription[] subscriptions;
+    private final AtomicLong acks = new AtomicLong();
+    private byte[] command;
+    private long target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        manager = new MultiLinkManager(4, 10, 100, 3);
+        subscriptions = new DataBus.Subscription[links];
+        for (int i = 0; i < links; i++) {
+            MultiLinkManager.Link link = manager.connect("dev-" + i, new SimulatedArduino.Factory(0));
+            CommandProtocol.Decoder decoder = new CommandProtocol.Decoder(
+                    (address, opcode, seq, payload, payloadLength) -> acks.incrementAndGet());
+            subscriptions[i] = link.getDataBus().subscribe("bench", DataBus.OverflowPolicy.DROP).start(decoder::feed);
+        }
+        while (manager.getConnectedCount() < links) {
+            Thread.sleep(1);
+        }
+        command = CommandProtocol.encode(1, CommandProtocol.OP_SET_STATE, 1, (byte) 0, (byte) 1);
+        target = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (DataBus.Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        manager.close();
+    }
+
+    @Benchmark
+    public long broadcastRoundTrip() {
+        target += manager.broadcast(command);
+        while (acks.get() < target) {
+            Thread.yield();
+        }
+        return target;
+    }
+
+    @State(Scope.Thread)
+    public static class ConnectState {
+        @Param({"1", "4"})
+        public int parallelConnects;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public int connectAll(ConnectState state) throws InterruptedException {
+        try (MultiLinkManager fleet = new MultiLinkManager(state.parallelConnects, 10, 100, 3)) {
+            for (int i = 0; i < links; i++) {
+                fleet.connect("dev-" + i, new SimulatedArduino.Factory(20));
+            }
+            while (fleet.getConnectedCount() < links) {
+                Thread.sleep(1);
+            }
+            return fleet.getLinkCount();
+        }
+    }
+}
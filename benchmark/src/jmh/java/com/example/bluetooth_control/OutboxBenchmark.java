@@ -0,0 +1,83 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write throughput of the outbox on plain files: records per second for the mapped segment log
+ * against one FileChannel.write per record, the obvious non-mapped way to get the same
+ * framing onto disk. Neither variant fsyncs per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class OutboxBenchmark {
+
+    @Param({"32", "256"})
+    public int recordSize;
+
+    private File dir;
+    private Outbox outbox;
+    private FileChannel channel;
+    private ByteBuffer frame;
+    private final CRC32 crc = new CRC32();
+    private byte[] record;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("outbox-bench").toFile();
+        // Sixteen 4 MB segments; the oldest is dropped as the benchmark wraps around
+        outbox = new Outbox(new File(dir, "outbox"), 4 * 1024 * 1024, 16);
+        channel = new RandomAccessFile(new File(dir, "plain.log"), "rw").getChannel();
+        frame = ByteBuffer.allocateDirect(8 + recordSize);
+        record = new byte[recordSize];
+        Arrays.fill(record, (byte) 'x');
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        outbox.close();
+        channel.close();
+        for (File file : new File(dir, "outbox").listFiles()) {
+            file.delete();
+        }
+        new File(dir, "outbox").delete();
+        new File(dir, "plain.log").delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public void mappedOutbox() throws IOException {
+        outbox.append(record, 0, record.length);
+    }
+
+    @Benchmark
+    public void fileChannelWrite() throws IOException {
+        crc.reset();
+        crc.update(record, 0, record.length);
+        frame.clear();
+        frame.putInt(record.length).putInt((int) crc.getValue()).put(record).flip();
+        channel.write(frame);
+        if (channel.position() > 64L * 1024 * 1024) {
+            channel.truncate(0);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lines per second through ReadingParser for each format, against splitting a String and
+ * calling Double.parseDouble per field. Lines are pre-framed, so this is parsing alone; with
+ * the gc profiler, gc.alloc.rate.norm should be 0 for every format but "split".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParserBenchmark {
+
+    private static final int LINES = 1024;
+
+    @Param({"csv", "keyValue", "json", "struct", "split"})
+    public String format;
+
+    private byte[] bytes;
+    private int[] offsets;
+    private ReadingParser parser;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        Random random = new Random(1);
+        ByteBuffer all = ByteBuffer.allocate(LINES * 64).order(ByteOrder.LITTLE_ENDIAN);
+        offsets = new int[LINES + 1];
+        for (int i = 0; i < LINES; i++) {
+            offsets[i] = all.position();
+            double temp = 15 + random.nextInt(2000) / 100.0;
+            double hum = 30 + random.nextInt(600) / 10.0;
+            int light = random.nextInt(1024);
+            if ("struct".equals(format)) {
+                all.putShort((short) Math.round(temp * 100)).putShort((short) Math.round(hum * 10)).putInt(light);
+                continue;
+            }
+            // Serial.print(float) prints two decimals
+            String t = String.format(Locale.ROOT, "%.2f", temp);
+            String h = String.format(Locale.ROOT, "%.2f", hum);
+            String line;
+            if ("keyValue".equals(format)) {
+                line = "temp=" + t + ",hum=" + h + ",light=" + light;
+            } else if ("json".equals(format)) {
+                line = "{\"temp\":" + t + ",\"hum\":" + h + ",\"light\":" + light + "}";
+            } else {
+                line = t + "," + h + "," + light;
+            }
+            all.put(line.getBytes(StandardCharsets.US_ASCII));
+        }
+        offsets[LINES] = all.position();
+        bytes = new byte[all.position()];
+        System.arraycopy(all.array(), 0, bytes, 0, bytes.length);
+
+        ReadingParser.Format compiled;
+        switch (format) {
+            case "keyValue":
+                compiled = ReadingParser.keyValue("temp", "hum", "light");
+                break;
+            case "json":
+                compiled = ReadingParser.json("temp", "hum", "light");
+                break;
+            case "struct":
+                compiled = new ReadingParser.StructBuilder()
+                        .field("temp", ReadingParser.Type.INT16, 0.01)
+                        .field("hum", ReadingParser.Type.UINT16, 0.1)
+                        .field("light", ReadingParser.Type.UINT32)
+                        .build();
+                break;
+            default:
+                compiled = ReadingParser.csv(',', "temp", "hum", "light");
+        }
+        parser = new ReadingParser(compiled, readings -> this.blackhole.consume(readings.value(0)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parse() {
+        if ("split".equals(format)) {
+            for (int i = 0; i < LINES; i++) {
+                String line = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.US_ASCII);
+                for (String field : line.split(",")) {
+                    blackhole.consume(Double.parseDouble(field));
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < LINES; i++) {
+            parser.parse(bytes, offsets[i], offsets[i + 1] - offsets[i]);
+        }
+    }
+}
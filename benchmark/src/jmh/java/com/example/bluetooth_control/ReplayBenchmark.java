@@ -0,0 +1,123 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The recorder's cost on the link and a repeatable end-to-end run over captured traffic.
+ * {@code record} is one 24 byte read captured, the overhead ConnectionReader pays per read.
+ * {@code pipeline} replays a capture as fast as possible through line framing, the typed
+ * parser and the durable upload queue; scores are lines per second.
+ */
+public class ReplayBenchmark {
+
+    private static final ReadingParser.Format FORMAT = ReadingParser.keyValue("temp", "hum", "volt");
+
+    @State(Scope.Thread)
+    public static class Recording {
+        File dir;
+        SessionRecorder recorder;
+        final byte[] read = "temp=21.50,hum=40.25,v\n".getBytes(StandardCharsets.US_ASCII);
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("record-bench").toFile();
+            recorder = new SessionRecorder(new File(dir, "capture.hcap"), 64 * 1024);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            recorder.close();
+            System.out.println("dropped " + recorder.getDroppedCount() + " of "
+                    + (recorder.getDroppedCount() + recorder.getRecordCount()));
+            new File(dir, "capture.hcap").delete();
+            dir.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Pipeline {
+        static final int LINES = 10_000;
+
+        File dir;
+        SessionReplay replay;
+        Outbox outbox;
+        FrameDecoder decoder;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("replay-bench").toFile();
+            // Lines as an HC-05 delivers them: split across reads at arbitrary points
+            File capture = new File(dir, "capture.hcap");
+            SessionRecorder recorder = new SessionRecorder(capture, 64 * 1024);
+            Random random = new Random(11);
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < LINES; i++) {
+                text.append(String.format(Locale.US, "temp=%.2f,hum=%.2f,volt=%.2f\n",
+                        18 + random.nextDouble() * 10, 30 + random.nextDouble() * 40, 4.5 + random.nextDouble()));
+            }
+            byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+            for (int offset = 0; offset < bytes.length; ) {
+                int length = Math.min(1 + random.nextInt(64), bytes.length - offset);
+                recorder.inbound(0, bytes, offset, length);
+                offset += length;
+            }
+            recorder.close();
+            replay = new SessionReplay(capture);
+
+            outbox = new Outbox(new File(dir, "outbox"), 4 * 1024 * 1024, 16);
+            ReadingParser parser = new ReadingParser(FORMAT, readings -> {
+            });
+            decoder = new FrameDecoder(FORMAT.framing(), 256, frame -> {
+                parser.onFrame(frame);
+                try {
+                    outbox.append(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            outbox.close();
+            for (File file : new File(dir, "outbox").listFiles()) {
+                file.delete();
+            }
+            new File(dir, "outbox").delete();
+            new File(dir, "capture.hcap").delete();
+            dir.delete();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void record(Recording state) {
+        state.recorder.inbound(0, state.read, 0, state.read.length);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(Pipeline.LINES)
+    public long pipeline(Pipeline state) throws InterruptedException {
+        return state.replay.replay(state.decoder::feed, SessionReplay.AS_FAST_AS_POSSIBLE);
+    }
+}
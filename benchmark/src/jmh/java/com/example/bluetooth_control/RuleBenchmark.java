@@ -0,0 +1,154 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * RuleEngine cost and reaction time. {@code evaluate} feeds parsed readings through a rule set
+ * spread over eight fields (scores are readings per second; each reading evaluates
+ * rules / 8 rules on average). {@code triggerToWrite} is the time from a line crossing a
+ * threshold being fed to the parser until the emulated device switched its relay, over a
+ * CommandWriter paced at 9600 baud.
+ */
+public class RuleBenchmark {
+
+    private static final String[] FIELDS = {"t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7"};
+    private static final ReadingParser.Format FORMAT = ReadingParser.keyValue(FIELDS);
+
+    @State(Scope.Thread)
+    public static class Evaluation {
+        static final int READINGS = 1024;
+
+        @Param({"8", "64", "512"})
+        public int rules;
+
+        ReadingParser.Readings[] readings;
+        RuleEngine engine;
+        long now;
+
+        @Setup
+        public void setUp() {
+            Random random = new Random(5);
+            RuleEngine.Aggregate[] aggregates = RuleEngine.Aggregate.values();
+            List<RuleEngine.Rule> ruleList = new ArrayList<>();
+            for (int i = 0; i < rules; i++) {
+                RuleEngine.Rule.Builder rule = new RuleEngine.Rule.Builder("r" + i)
+                        .when(FIELDS[i % FIELDS.length], aggregates[i % aggregates.length], 1 + i % 5, TimeUnit.SECONDS)
+                        .forAtLeast(i % 3, TimeUnit.SECONDS)
+                        .then("dev" + i % 4, new byte[]{'A'})
+                        .otherwise("dev" + i % 4, new byte[]{'B'});
+                ruleList.add((i % 2 == 0 ? rule.above(40 + random.nextInt(20)) : rule.below(40 + random.nextInt(20))).build());
+            }
+            engine = new RuleEngine(FORMAT, ruleList, (target, command) -> true);
+
+            // Parsed once up front, one parser per line so each keeps its own Readings
+            readings = new ReadingParser.Readings[READINGS];
+            for (int i = 0; i < READINGS; i++) {
+                int index = i;
+                ReadingParser parser = new ReadingParser(FORMAT, parsed -> readings[index] = parsed);
+                byte[] line = (FIELDS[i % FIELDS.length] + "=" + (30 + random.nextInt(40)) + ".5")
+                        .getBytes(StandardCharsets.US_ASCII);
+                parser.parse(line, 0, line.length);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Device {
+        ArduinoEmulator emulator;
+        Transport link;
+        CommandWriter writer;
+        FrameDecoder decoder;
+        final byte[] hot = "t0=45.5\n".getBytes(StandardCharsets.US_ASCII);
+        final byte[] cold = "t0=20.5\n".getBytes(StandardCharsets.US_ASCII);
+        boolean on;
+
+        @Setup
+        public void setUp() throws IOException {
+            emulator = new ArduinoEmulator.Builder().baudRate(9600).build();
+            link = emulator.loopback().connect();
+            drain(link.getInputStream());
+            writer = new CommandWriter.Builder(link.getOutputStream()).baudRate(9600).build();
+            List<RuleEngine.Rule> rules = new ArrayList<>();
+            rules.add(new RuleEngine.Rule.Builder("hot").when("t0").above(40)
+                    .then("primary", new byte[]{'A'}).otherwise("primary", new byte[]{'B'}).build());
+            RuleEngine engine = new RuleEngine(FORMAT, rules, (target, command) -> writer.submit("relay", command));
+            decoder = new FrameDecoder(FORMAT.framing(), 256, new ReadingParser(FORMAT, engine));
+        }
+
+        // The sketch answers each command with a ~9ms "Relay ON/OFF" line before it reads the
+        // next one; letting that finish keeps the sample to our own reaction time
+        @Setup(Level.Invocation)
+        public void settle() {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            writer.close();
+            link.close();
+            emulator.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(Evaluation.READINGS)
+    public void evaluate(Evaluation state) {
+        for (ReadingParser.Readings readings : state.readings) {
+            // 10ms apart, so the windows slide and durations elapse
+            state.now += 10_000_000L;
+            state.engine.evaluate(readings, state.now);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void triggerToWrite(Device device) throws InterruptedException {
+        device.on = !device.on;
+        byte[] line = device.on ? device.hot : device.cold;
+        device.decoder.feed(line, 0, line.length);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (device.emulator.isRelayOn() != device.on) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Relay did not switch");
+            }
+            Thread.yield();
+        }
+    }
+
+    private static void drain(InputStream in) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[256];
+            try {
+                while (in.read(buffer) >= 0) {
+                    // The emulator's "Relay ON/OFF" replies
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }, "benchmark-drain");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.Closeable;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The command sequencer's timer wheel against {@code Handler.postDelayed} and a
+ * {@link ScheduledThreadPoolExecutor}. Handler needs a Looper, so {@link LooperStandIn} does
+ * what Android's MessageQueue does: one list sorted by due time in whole milliseconds, walked
+ * on every post, and a thread that sleeps until the head is due.
+ *
+ * The {@code schedule*} benchmarks arm and cancel one timer an hour or so out while
+ * {@code pending} others wait, the scheduler's overhead per timed write. The {@code timing*}
+ * benchmarks arm a timer 1 ms out and wait for it; in SampleTime mode their percentiles are
+ * 1 ms plus each scheduler's lateness, i.e. its jitter.
+ */
+public class SequencerBenchmark {
+
+    private static final byte[] COMMAND = {'A'};
+
+    @State(Scope.Benchmark)
+    public static class Pending {
+        @Param({"100", "10000"})
+        public int pending;
+
+        CommandSequencer wheel;
+        ScheduledThreadPoolExecutor executor;
+        LooperStandIn looper;
+        CommandSequencer.Sequence once;
+        Runnable noop = () -> { };
+        Random random = new Random(3);
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            wheel = new CommandSequencer((target, command) -> true);
+            executor = new ScheduledThreadPoolExecutor(1);
+            executor.setRemoveOnCancelPolicy(true);
+            looper = new LooperStandIn();
+            once = new CommandSequencer.Sequence.Builder("once").send("relay", COMMAND).build();
+            for (int i = 0; i < pending; i++) {
+                long delay = farOff();
+                wheel.play(once, delay, TimeUnit.MILLISECONDS);
+                executor.schedule(() -> { }, delay, TimeUnit.MILLISECONDS);
+                looper.postDelayed(() -> { }, delay);
+            }
+        }
+
+        // Between a second and an hour, so nothing fires during the run
+        long farOff() {
+            return 1000 + random.nextInt(3_600_000);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            wheel.close();
+            executor.shutdownNow();
+            looper.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Timing {
+        CommandSequencer wheel;
+        ScheduledThreadPoolExecutor executor;
+        LooperStandIn looper;
+        CommandSequencer.Sequence once;
+        Thread waiter;
+        volatile boolean fired;
+        final Runnable signal = () -> {
+            fired = true;
+            LockSupport.unpark(waiter);
+        };
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            waiter = Thread.currentThread();
+            wheel = new CommandSequencer((target, command) -> {
+                signal.run();
+                return true;
+            });
+            executor = new ScheduledThreadPoolExecutor(1);
+            looper = new LooperStandIn();
+            once = new CommandSequencer.Sequence.Builder("once").send("relay", COMMAND).build();
+        }
+
+        void await() {
+            while (!fired) {
+                LockSupport.park(this);
+            }
+            fired = false;
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            wheel.close();
+            executor.shutdownNow();
+            looper.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean scheduleWheel(Pending state) {
+        CommandSequencer.Playback playback = state.wheel.play(state.once, state.farOff(), TimeUnit.MILLISECONDS);
+        playback.cancel();
+        return playback.isDone();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean scheduleExecutor(Pending state) {
+        ScheduledFuture<?> future = state.executor.schedule(state.noop, state.farOff(), TimeUnit.MILLISECONDS);
+        return future.cancel(false);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void scheduleHandler(Pending state) {
+        state.looper.postDelayed(state.noop, state.farOff());
+        state.looper.removeCallbacks(state.noop);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void timingWheel(Timing state) {
+        state.wheel.play(state.once, 1, TimeUnit.MILLISECONDS);
+        state.await();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void timingExecutor(Timing state) {
+        state.executor.schedule(state.signal, 1, TimeUnit.MILLISECONDS);
+        state.await();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void timingHandler(Timing state) {
+        state.looper.postDelayed(state.signal, 1);
+        state.await();
+    }
+
+    /** A Looper and Handler as far as postDelayed and removeCallbacks go. */
+    static final class LooperStandIn implements Closeable {
+        private static final class Message {
+            long when;
+            Runnable callback;
+            Message next;
+        }
+
+        private final Thread thread;
+        // Guarded by this
+        private Message head;
+        private boolean quit;
+
+        LooperStandIn() {
+            thread = new Thread(this::loop, "looper-stand-in");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // MessageQueue.enqueueMessage: walks to the first later message
+        synchronized void postDelayed(Runnable callback, long delayMillis) {
+            Message message = new Message();
+            message.when = uptimeMillis() + delayMillis;
+            message.callback = callback;
+            if (head == null || message.when < head.when) {
+                message.next = head;
+                head = message;
+                notifyAll();
+                return;
+            }
+            Message previous = head;
+            while (previous.next != null && previous.next.when <= message.when) {
+                previous = previous.next;
+            }
+            message.next = previous.next;
+            previous.next = message;
+        }
+
+        // MessageQueue.removeMessages: walks the whole queue
+        synchronized void removeCallbacks(Runnable callback) {
+            while (head != null && head.callback == callback) {
+                head = head.next;
+            }
+            for (Message m = head; m != null && m.next != null; ) {
+                if (m.next.callback == callback) {
+                    m.next = m.next.next;
+                } else {
+                    m = m.next;
+                }
+            }
+        }
+
+        private void loop() {
+            while (true) {
+                Message message;
+                synchronized (this) {
+                    try {
+                        // nativePollOnce sleeps in whole milliseconds too
+                        while (!quit && (head == null || head.when > uptimeMillis())) {
+                            if (head == null) {
+                                wait();
+                            } else {
+                                wait(Math.max(1, head.when - uptimeMillis()));
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (quit) {
+                        return;
+                    }
+                    message = head;
+                    head = message.next;
+                }
+                message.callback.run();
+            }
+        }
+
+        private static long uptimeMillis() {
+            return System.nanoTime() / 1_000_000;
+        }
+
+        @Override
+        public synchronized void close() {
+            quit = true;
+            notifyAll();
+        }
+    }
+}
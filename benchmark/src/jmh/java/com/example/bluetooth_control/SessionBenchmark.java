@@ -0,0 +1,142 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What a screen pays to get its first command onto the wire. {@code attach} is the service
+ * path: the link and writer already live in a LinkSession and the screen only joins the link
+ * and sets its callback. {@code coldConnect} is the old path where each screen that lost the
+ * link opened it again and built its own writer. Both run against the emulated sketch over
+ * the in-memory loopback, so the numbers are lifecycle cost, not RFCOMM setup.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SessionBenchmark {
+
+    private static final byte[] ON = {'A'};
+
+    @State(Scope.Thread)
+    public static class Service {
+        ArduinoEmulator emulator;
+        ConnectionManager manager;
+        LinkSession session;
+        final AtomicLong written = new AtomicLong();
+        final CommandWriter.Callback screen = new CommandWriter.Callback() {
+            @Override
+            public void onWritten(String key, byte[] data, long latencyNanos) {
+                written.incrementAndGet();
+            }
+
+            @Override
+            public void onFailure(String key, IOException e) {
+            }
+        };
+
+        @Setup
+        public void setUp() throws InterruptedException {
+            emulator = new ArduinoEmulator.Builder().baudRate(115200).build();
+            manager = new ConnectionManager(10, 100, 3);
+            session = new LinkSession(manager, 0, null);
+            CountDownLatch connected = new CountDownLatch(1);
+            manager.addListener(state -> {
+                if (state == ConnectionManager.State.CONNECTED) {
+                    connected.countDown();
+                }
+            });
+            session.connect(emulator.loopback());
+            connected.await(5, TimeUnit.SECONDS);
+            while (session.getWriter() == null) {
+                Thread.sleep(1);
+            }
+        }
+
+        // Gives the sketch time to answer the previous command; screens are not recreated
+        // faster than the device can read, and a full pipe would only measure that
+        @Setup(Level.Invocation)
+        public void settle() {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+        }
+
+        @TearDown
+        public void tearDown() {
+            session.close();
+            emulator.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cold {
+        ArduinoEmulator emulator;
+
+        @Setup
+        public void setUp() {
+            emulator = new ArduinoEmulator.Builder().baudRate(115200).build();
+        }
+
+        @TearDown
+        public void tearDown() {
+            emulator.close();
+        }
+    }
+
+    @Benchmark
+    public void attach(Service service) {
+        ConnectionManager.Client hold = service.manager.acquire();
+        service.session.setCallback(service.screen);
+        long target = service.written.get() + 1;
+        if (!service.session.submit("relay", ON, CommandWriter.Priority.NORMAL)) {
+            throw new IllegalStateException("Command refused");
+        }
+        while (service.written.get() < target) {
+            Thread.yield();
+        }
+        service.session.setCallback(null);
+        hold.close();
+    }
+
+    @Benchmark
+    public void coldConnect(Cold cold) throws Exception {
+        ConnectionManager manager = new ConnectionManager(10, 100, 3);
+        CountDownLatch connected = new CountDownLatch(1);
+        manager.addListener(state -> {
+            if (state == ConnectionManager.State.CONNECTED) {
+                connected.countDown();
+            }
+        });
+        ConnectionManager.Client client = manager.connect(cold.emulator.loopback());
+        if (!connected.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Did not connect");
+        }
+        CountDownLatch written = new CountDownLatch(1);
+        CommandWriter writer = new CommandWriter.Builder(client.getTransport().getOutputStream())
+                .callback(new CommandWriter.Callback() {
+                    @Override
+                    public void onWritten(String key, byte[] data, long latencyNanos) {
+                        written.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(String key, IOException e) {
+                    }
+                })
+                .build();
+        writer.submit("relay", ON, CommandWriter.Priority.NORMAL);
+        written.await(5, TimeUnit.SECONDS);
+        writer.close();
+        client.close();
+    }
+}
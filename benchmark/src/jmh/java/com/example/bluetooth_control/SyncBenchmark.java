@@ -0,0 +1,118 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares per-event POSTs with the {@link WebSocketSync} stream against the local
+ * {@link SyncStandInServer}. {@code event} is the time from handing one record over until the
+ * server confirmed it (HTTP response or ack); {@code burst} is per-record cost when a burst
+ * of serial lines is in flight at once.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SyncBenchmark {
+
+    private static final int BURST = 256;
+    private static final String LINE = "temp=23.5,hum=41.2,light=812";
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    @Param({"post", "websocket"})
+    public String mode;
+
+    private SyncStandInServer server;
+    private TelemetryUploader uploader;
+    private WebSocketSync sync;
+    private final Semaphore responses = new Semaphore(0);
+    private TelemetryUploader.Callback callback;
+
+    @Setup
+    public void start() throws IOException {
+        server = new SyncStandInServer();
+        if ("post".equals(mode)) {
+            uploader = new TelemetryUploader(server.postUrl(), 5, BURST * 2);
+            callback = new TelemetryUploader.Callback() {
+                @Override
+                public void onResponse(int code, String body) {
+                    responses.release();
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    responses.release();
+                }
+            };
+        } else {
+            sync = new WebSocketSync.Builder(server.streamUrl()).maxUnacked(BURST * 2).build();
+            sync.start();
+            long deadline = System.nanoTime() + TIMEOUT_NANOS;
+            while (!sync.isConnected()) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Stream did not connect");
+                }
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+
+    @TearDown
+    public void stop() throws IOException {
+        if (sync != null) {
+            sync.close();
+        }
+        if (uploader != null) {
+            uploader.shutdown();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void event() throws InterruptedException {
+        deliver(1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OperationsPerInvocation(BURST)
+    public void burst() throws InterruptedException {
+        deliver(BURST);
+    }
+
+    private void deliver(int count) throws InterruptedException {
+        if (uploader != null) {
+            for (int i = 0; i < count; i++) {
+                uploader.sendData(LINE, callback);
+            }
+            if (!responses.tryAcquire(count, TIMEOUT_NANOS, TimeUnit.NANOSECONDS)) {
+                throw new IllegalStateException("Server did not answer");
+            }
+            return;
+        }
+        long acked = sync.getAckedCount() + count;
+        for (int i = 0; i < count; i++) {
+            sync.send("serial", LINE);
+        }
+        // Acks arrive on OkHttp's reader thread; a short park keeps the poll off the CPU
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (sync.getAckedCount() < acked) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Server did not ack");
+            }
+            LockSupport.parkNanos(1000);
+        }
+    }
+}
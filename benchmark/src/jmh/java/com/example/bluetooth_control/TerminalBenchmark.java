@@ -0,0 +1,78 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of appending one line after {@code lines} have already been logged.
+ *
+ * {@code textView} approximates the old TextView.append path: the whole history stays in one
+ * growing buffer and every append walks all of it, as a re-layout does. {@code ring} is the
+ * bounded renderer, which should not care how long the session has been running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TerminalBenchmark {
+
+    private static final int CAPACITY = 2000;
+    private static final String LINE = "temp=21.5,hum=40.1,light=512";
+
+    @Param({"10000", "100000", "1000000"})
+    public int lines;
+
+    private TerminalRenderer renderer;
+    private StringBuilder text;
+    private int linesSinceFrame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Frames are run inline every 16 lines, roughly 1 kHz of serial data at 60 fps
+        renderer = new TerminalRenderer(CAPACITY, frame -> { }, (removed, inserted) -> { });
+        for (int i = 0; i < lines; i++) {
+            renderer.append(LINE);
+            if (i % 16 == 15) {
+                renderer.onFrame();
+            }
+        }
+        renderer.onFrame();
+
+        text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append(LINE).append('\n');
+        }
+    }
+
+    @Benchmark
+    public int ring() {
+        renderer.append(LINE);
+        if (++linesSinceFrame == 16) {
+            linesSinceFrame = 0;
+            renderer.onFrame();
+        }
+        return renderer.getBuffer().size();
+    }
+
+    @Benchmark
+    public void textView(Blackhole blackhole) {
+        text.append(LINE).append('\n');
+        // Stand-in for measuring every line again on layout
+        int lineCount = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            if (text.charAt(i) == '\n') {
+                lineCount++;
+            }
+        }
+        blackhole.consume(lineCount);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest and query costs of the local history.
+ *
+ * {@code ingest*} measure one reading into the store, parsed or not. The query benchmarks run
+ * against a day of 1 Hz data: downsampling through the rollups for a chart, an unaligned
+ * downsample that has to decompress, and a raw scan of every point.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimeSeriesBenchmark {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long DAY_START = 1_700_006_400_000L;
+    private static final long DAY = 24 * HOUR;
+
+    private TimeSeriesStore day;
+    private TimeSeriesStore ingest;
+    private long nextTimestamp;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        day = new TimeSeriesStore(HOUR, MINUTE, 48);
+        for (int i = 0; i < 86_400; i++) {
+            day.append("temp", DAY_START + i * 1000L, 20 + Math.sin(i / 600.0) * 5 + (i % 7) * 0.01);
+        }
+        // Seal the last hour too
+        day.append("temp", DAY_START + DAY, 0);
+
+        ingest = new TimeSeriesStore(HOUR, MINUTE, 24);
+        nextTimestamp = DAY_START;
+    }
+
+    @Benchmark
+    public void ingestReading() {
+        nextTimestamp += 10;
+        ingest.append("temp", nextTimestamp, 21.5);
+    }
+
+    @Benchmark
+    public int ingestLine() {
+        nextTimestamp += 10;
+        return ingest.recordLine(nextTimestamp, "temp=21.5,hum=40.1,light=512");
+    }
+
+    @Benchmark
+    public TimeSeriesStore.Downsampled queryDayFromRollups() {
+        return day.downsample("temp", DAY_START, DAY_START + DAY, 5 * MINUTE);
+    }
+
+    @Benchmark
+    public TimeSeriesStore.Downsampled queryDayUnaligned() {
+        return day.downsample("temp", DAY_START + 500, DAY_START + DAY, 90_000);
+    }
+
+    @Benchmark
+    public int scanDayRaw(Blackhole blackhole) {
+        return day.query("temp", DAY_START, DAY_START + DAY, (timestamp, value) -> blackhole.consume(value));
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw command round trip over each off-device transport: write 'A' and read the emulator's
+ * "Relay ON" line back, unpaced. This is the floor the rest of the pipeline adds to when it
+ * is benchmarked against the emulator instead of an HC-05.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransportBenchmark {
+
+    private static final int REPLY_LENGTH = "Relay ON\n".length();
+
+    @Param({"loopback", "tcp"})
+    public String transport;
+
+    private ArduinoEmulator emulator;
+    private Transport link;
+    private InputStream in;
+    private OutputStream out;
+    private final byte[] buffer = new byte[64];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        emulator = new ArduinoEmulator.Builder().baudRate(0).build();
+        TransportFactory factory = "tcp".equals(transport) ? emulator.listen() : emulator.loopback();
+        link = factory.connect();
+        in = link.getInputStream();
+        out = link.getOutputStream();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        link.close();
+        emulator.close();
+    }
+
+    @Benchmark
+    public int commandRoundTrip() throws IOException {
+        out.write('A');
+        out.flush();
+        int read = 0;
+        while (read < REPLY_LENGTH) {
+            int count = in.read(buffer, read, buffer.length - read);
+            if (count < 0) {
+                throw new IOException("Emulator closed the link");
+            }
+            read += count;
+        }
+        return read;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.bluetooth_control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Delivers a burst of serial chunks to a local HTTP stand-in, either one POST per chunk (the
+ * old ConnectedThread behaviour) or through the outbox and OutboxDrainer, which send them as
+ * JSON array batches, optionally gzipped. Scores are per chunk: throughput, and in sample mode
+ * how long a chunk takes to be acknowledged as part of its burst.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UploadBenchmark {
+
+    private static final int CHUNKS = 256;
+    // A typical HC-05 read() at 9600 baud
+    private static final String CHUNK = "temp=23.5,hum=41.2,light=812";
+    private static final byte[] RECORD = TelemetryUploader.toJson(CHUNK);
+
+    @Param({"perChunk", "batched", "batchedGzip"})
+    public String mode;
+
+    @Param({"64"})
+    public int batchSize;
+
+    private MockWebServer server;
+    private TelemetryUploader uploader;
+    private File dir;
+    private Outbox outbox;
+    private OutboxDrainer drainer;
+    private TelemetryUploader.Callback callback;
+    private volatile CountDownLatch received;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                received.countDown();
+                return new MockResponse().setBody("ok");
+            }
+        });
+        server.start();
+        uploader = new TelemetryUploader(server.url("/data").toString(), 2, CHUNKS * 2);
+        callback = new TelemetryUploader.Callback() {
+            @Override
+            public void onResponse(int code, String body) {
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+            }
+        };
+
+        dir = Files.createTempDirectory("upload-bench").toFile();
+        outbox = new Outbox(new File(dir, "outbox"), 1024 * 1024, 4);
+        // No linger: the burst is appended before the drainer is woken
+        drainer = new OutboxDrainer(outbox, uploader, batchSize, Integer.MAX_VALUE, 0, 100, 1000,
+                "batchedGzip".equals(mode));
+    }
+
+    @Setup(Level.Invocation)
+    public void resetLatch() {
+        int requests = "perChunk".equals(mode) ? CHUNKS : (CHUNKS + batchSize - 1) / batchSize;
+        received = new CountDownLatch(requests);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        drainer.close();
+        outbox.close();
+        uploader.shutdown();
+        server.shutdown();
+        for (File file : new File(dir, "outbox").listFiles()) {
+            file.delete();
+        }
+        new File(dir, "outbox").delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public void deliverBurst() throws InterruptedException, IOException {
+        if ("perChunk".equals(mode)) {
+            for (int i = 0; i < CHUNKS; i++) {
+                uploader.sendData(CHUNK, callback);
+            }
+        } else {
+            for (int i = 0; i < CHUNKS; i++) {
+                outbox.append(RECORD, 0, RECORD.length);
+            }
+            drainer.wake();
+        }
+        if (!received.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Server did not receive the burst");
+        }
+    }
+}
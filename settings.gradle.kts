@@ -15,4 +15,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "Bluetooth_control"
 include(":app")
+include(":benchmark")
  
\ No newline at end of file